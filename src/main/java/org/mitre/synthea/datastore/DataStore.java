@@ -3,15 +3,23 @@ package org.mitre.synthea.datastore;
 import com.google.common.collect.Table;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.mitre.synthea.helpers.Attributes;
+import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.HealthInsuranceModule;
 import org.mitre.synthea.world.agents.Person;
@@ -47,14 +55,101 @@ public class DataStore {
     }
   }
 
+  // tables written by store(Person), as indexes into INSERTS
+  private static final int PERSON = 0;
+  private static final int ATTRIBUTE = 1;
+  private static final int COVERAGE = 2;
+  private static final int ENCOUNTER = 3;
+  private static final int CONDITION = 4;
+  private static final int REPORT = 5;
+  private static final int OBSERVATION = 6;
+  private static final int PROCEDURE = 7;
+  private static final int MEDICATION = 8;
+  private static final int IMMUNIZATION = 9;
+  private static final int CAREPLAN = 10;
+  private static final int IMAGING_STUDY = 11;
+  private static final int CLAIM = 12;
+  private static final int QUALITY_OF_LIFE = 13;
+  private static final String[] INSERTS = {
+      "INSERT INTO PERSON "
+      + "(id, name, date_of_birth, date_of_death, race, gender, socioeconomic_status) "
+      + "VALUES (?,?,?,?,?,?,?);",
+      "INSERT INTO ATTRIBUTE "
+      + "(person_id, name, type, value, numeric_value, boolean_value, time_value) "
+      + "VALUES (?,?,?,?,?,?,?);",
+      "INSERT INTO COVERAGE (person_id, year, category) VALUES (?,?,?);",
+      "INSERT INTO ENCOUNTER "
+      + "(id, person_id, provider_id, name, type, start, stop, code, display, system) "
+      + "VALUES (?,?,?,?,?,?,?,?,?,?);",
+      "INSERT INTO CONDITION "
+      + "(person_id, name, type, start, stop, code, display, system) "
+      + "VALUES (?,?,?,?,?,?,?,?);",
+      "INSERT INTO report "
+      + "(id, person_id, encounter_id, name, type, start, code, display, system) "
+      + "VALUES (?,?,?,?,?,?,?,?,?);",
+      "INSERT INTO OBSERVATION "
+      + "(person_id, encounter_id, report_id, name, type, start, value, unit, "
+      + "code, display, system) "
+      + "VALUES (?,?,?,?,?,?,?,?,?,?,?);",
+      "INSERT INTO PROCEDURE "
+      + "(person_id, encounter_id, name, type, start, stop, code, display, system) "
+      + "VALUES (?,?,?,?,?,?,?,?,?);",
+      "INSERT INTO MEDICATION "
+      + "(id, person_id, provider_id, name, type, start, stop, code, display, system) "
+      + "VALUES (?,?,?,?,?,?,?,?,?,?);",
+      "INSERT INTO IMMUNIZATION "
+      + "(person_id, encounter_id, name, type, start, code, display, system) "
+      + "VALUES (?,?,?,?,?,?,?,?);",
+      "INSERT INTO careplan "
+      + "(id, person_id, provider_id, name, type, start, stop, code, display, system) "
+      + "VALUES (?,?,?,?,?,?,?,?,?,?);",
+      "INSERT INTO IMAGING_STUDY "
+      + "(id, uid, person_id, encounter_id, start, modality_code, modality_display, "
+      + "modality_system, bodysite_code, bodysite_display, bodysite_system, sop_class) "
+      + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?);",
+      "INSERT INTO CLAIM "
+      + "(id, person_id, encounter_id, medication_id, time, cost) "
+      + "VALUES (?,?,?,?,?,?)",
+      "INSERT INTO QUALITY_OF_LIFE (person_id, year, qol, qaly, daly) VALUES (?,?,?,?,?);"
+  };
+
+  /** Maximum number of pooled connections, shared by the writer and any reports. */
+  private static final int MAX_CONNECTIONS = 4;
+
+  private final JdbcConnectionPool pool;
+
   /**
-   * Flag for whether the DB uses a file (true) or is in-memory only (false).
+   * Attributes to store, i.e., those in the attribute inventory with a declared type, and the
+   * type of each.
    */
-  private boolean fileBased;
+  private final Map<String, Attributes.Type> declaredAttributes;
 
+  /**
+   * Patients waiting to be written, see {@link #store(Person)}.
+   */
+  private final BlockingQueue<Rows> queue;
+  /** Number of rows to write in each transaction. */
+  private final int batchSize;
+  private Thread writer;
+  /** Number of patients queued, and written, so far. Also the lock for waiting on writes. */
+  private final AtomicLong queued = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  /** Whether the writer has failed or been closed, after which nothing more is stored. */
+  private volatile boolean failed;
+
+  /**
+   * Create a new DataStore, and the tables if they do not already exist.
+   * @param fileBased Whether the DB uses a file (true) or is in-memory only (false).
+   */
   public DataStore(boolean fileBased) {
-    this.fileBased = fileBased;
-    try (Connection connection = getConnection()) {
+    pool = JdbcConnectionPool.create(fileBased ? FILEBASED_JDBC_STRING : IN_MEMORY_JDBC_STRING,
+        "", "");
+    pool.setMaxConnections(MAX_CONNECTIONS);
+    queue = new ArrayBlockingQueue<>(
+        Integer.parseInt(Config.get("generate.database.queue_size", "100")));
+    batchSize = Integer.parseInt(Config.get("generate.database.batch_size", "10000"));
+    declaredAttributes = inventoryAttributes();
+    try (Connection connection = connect()) {
       // TODO all of this needs to be done generically, ORM?
       // but this is faster in the short term
       // in the long term I want more standardized schemas
@@ -73,8 +168,15 @@ public class DataStore {
       connection
           .prepareStatement(
               "CREATE TABLE IF NOT EXISTS ATTRIBUTE "
-              + "(person_id varchar, name varchar, value varchar)")
+              + "(person_id varchar, name varchar, type varchar, value varchar, "
+              + "numeric_value double, boolean_value boolean, time_value bigint)")
           .execute();
+      // a database file from an older version only has the untyped value column
+      for (String column : new String[] {"type varchar", "numeric_value double",
+          "boolean_value boolean", "time_value bigint"}) {
+        connection.prepareStatement("ALTER TABLE ATTRIBUTE ADD COLUMN IF NOT EXISTS " + column)
+            .execute();
+      }
       connection.prepareStatement(
           "CREATE INDEX IF NOT EXISTS ATTRIBUTE_KEY ON ATTRIBUTE(PERSON_ID, NAME);").execute();
 
@@ -203,435 +305,198 @@ public class DataStore {
     }
   }
 
+  /**
+   * Get a connection to the database, for reading, once all of the patients stored so far have
+   * been written. Connections come from a small pool, so close them when done.
+   * @return A connection, with auto-commit disabled.
+   * @throws SQLException if a database access error occurs
+   */
   public Connection getConnection() throws SQLException {
-    Connection connection = DriverManager
-        .getConnection(this.fileBased ? FILEBASED_JDBC_STRING : IN_MEMORY_JDBC_STRING);
+    flush();
+    return connect();
+  }
+
+  /**
+   * Get a pooled connection, without waiting for pending writes.
+   */
+  private Connection connect() throws SQLException {
+    Connection connection = pool.getConnection();
     connection.setAutoCommit(false);
     return connection;
   }
 
+  /**
+   * Queue a patient to be written to the database. The patient is converted into rows on the
+   * calling thread, and the rows are written in large batches, together with those of other
+   * patients, by a single writer thread. See the configuration settings
+   * "generate.database.batch_size" and "generate.database.queue_size". A patient whose rows
+   * cannot be written is reported by the writer and left out, without losing other patients.
+   * @param p The patient to store.
+   * @return false if the writer has failed or has been closed, or the calling thread was
+   *     interrupted.
+   */
   @SuppressWarnings("unchecked")
   public boolean store(Person p) {
     String personID = (String) p.attributes.get(Person.ID);
+    Rows rows = new Rows(personID);
+
+    // CREATE TABLE IF NOT EXISTS PERSON (id varchar, name varchar, date_of_birth bigint,
+    // date_of_death bigint, race varchar, gender varchar, socioeconomic_status varchar)
+    rows.add(PERSON, personID, p.attributes.get(Person.NAME),
+        p.attributes.get(Person.BIRTHDATE), p.record.death, p.attributes.get(Person.RACE),
+        p.attributes.get(Person.GENDER), p.attributes.get(Person.SOCIOECONOMIC_CATEGORY));
+
+    // CREATE TABLE IF NOT EXISTS ATTRIBUTE (person_id varchar, name varchar, type varchar,
+    // value varchar, numeric_value double, boolean_value boolean, time_value bigint)
+    for (Map.Entry<String, Object> attr : p.attributes.entrySet()) {
+      Object[] values = attribute(personID, attr.getKey(), attr.getValue());
+      if (values != null) {
+        rows.add(ATTRIBUTE, values);
+      }
+    }
 
-    try (Connection connection = getConnection()) {
-      // CREATE TABLE IF NOT EXISTS PERSON (id varchar, name varchar, date_of_birth bigint,
-      // date_of_death bigint, race varchar, gender varchar, socioeconomic_status varchar)
-      PreparedStatement stmt = connection.prepareStatement(
-          "INSERT INTO PERSON "
-          + "(id, name, date_of_birth, date_of_death, race, gender, socioeconomic_status) "
-          + "VALUES (?,?,?,?,?,?,?);");
-
-      stmt.setString(1, personID);
-      stmt.setString(2, (String) p.attributes.get(Person.NAME));
-      stmt.setLong(3, (long) p.attributes.get(Person.BIRTHDATE));
-      if (p.record.death == null) {
-        stmt.setObject(4, null);
+    // Add coverage to database
+    List<String> coverage = (List<String>) p.attributes.get(HealthInsuranceModule.INSURANCE);
+    long birthdate = (long) p.attributes.get(Person.BIRTHDATE);
+    int birthYear = Utilities.getYear(birthdate);
+    for (int i = 0; i < coverage.size(); i++) {
+      String category = coverage.get(i);
+      if (category == null) {
+        break;
       } else {
-        stmt.setLong(4, p.record.death);
+        rows.add(COVERAGE, personID, birthYear + i, category);
       }
+    }
 
-      stmt.setString(5, (String) p.attributes.get(Person.RACE));
-      stmt.setString(6, (String) p.attributes.get(Person.GENDER));
-      stmt.setString(7, (String) p.attributes.get(Person.SOCIOECONOMIC_CATEGORY));
+    for (Encounter encounter : p.record.encounters) {
+      String encounterID = UUID.randomUUID().toString();
 
-      stmt.execute();
+      String providerID = null;
 
-      // CREATE TABLE IF NOT EXISTS ATTRIBUTE (person_id varchar, name varchar, value varchar)
-      stmt = connection
-          .prepareStatement("INSERT INTO ATTRIBUTE (person_id, name, value) VALUES (?,?,?);");
-      for (Map.Entry<String, Object> attr : p.attributes.entrySet()) {
-        stmt.setString(1, personID);
-        stmt.setString(2, attr.getKey());
-        stmt.setString(3, String.valueOf(attr.getValue()));
-        stmt.addBatch();
-      }
-      stmt.executeBatch();
-
-      // Add coverage to database
-      stmt = connection
-          .prepareStatement("INSERT INTO COVERAGE (person_id, year, category) VALUES (?,?,?);");
-      List<String> coverage = (List<String>) p.attributes.get(HealthInsuranceModule.INSURANCE);
-      long birthdate = (long) p.attributes.get(Person.BIRTHDATE);
-      int birthYear = Utilities.getYear(birthdate);
-      for (int i = 0; i < coverage.size(); i++) {
-        String category = coverage.get(i);
-        if (category == null) {
-          break;
-        } else {
-          stmt.setString(1, personID);
-          stmt.setInt(2, (birthYear + i));
-          stmt.setString(3, category);
-          stmt.addBatch();
-        }
+      if (encounter.provider != null) {
+        providerID = encounter.provider.getResourceID();
       }
-      stmt.executeBatch();
 
-      for (Encounter encounter : p.record.encounters) {
-        String encounterID = UUID.randomUUID().toString();
-
-        String providerID = null;
-
-        if (encounter.provider != null) {
-          providerID = encounter.provider.getResourceID();
-        }
-
-        // CREATE TABLE IF NOT EXISTS ENCOUNTER (id varchar, person_id varchar, provider_id varchar,
-        // name varchar, type varchar, start bigint, stop bigint, code varchar, display varchar,
-        // system varchar)
-        stmt = connection.prepareStatement(
-            "INSERT INTO ENCOUNTER "
-            + "(id, person_id, provider_id, name, type, start, stop, code, display, system) "
-            + "VALUES (?,?,?,?,?,?,?,?,?,?);");
-        stmt.setString(1, encounterID);
-        stmt.setString(2, personID);
-        stmt.setString(3, providerID);
-        stmt.setString(4, encounter.name);
-        stmt.setString(5, encounter.type);
-        stmt.setLong(6, encounter.start);
-        stmt.setLong(7, encounter.stop);
-        if (encounter.codes.isEmpty()) {
-          stmt.setString(8, null);
-          stmt.setString(9, null);
-          stmt.setString(10, null);
-        } else {
-          Code code = encounter.codes.get(0);
-          stmt.setString(8, code.code);
-          stmt.setString(9, code.display);
-          stmt.setString(10, code.system);
-        }
-        stmt.execute();
-
-        for (HealthRecord.Entry condition : encounter.conditions) {
-          // CREATE TABLE IF NOT EXISTS CONDITION (person_id varchar, name varchar, type varchar,
-          // start bigint, stop bigint, code varchar, display varchar, system varchar)
-          stmt = connection.prepareStatement(
-              "INSERT INTO CONDITION "
-              + "(person_id, name, type, start, stop, code, display, system) "
-              + "VALUES (?,?,?,?,?,?,?,?);");
-          stmt.setString(1, personID);
-          stmt.setString(2, condition.name);
-          stmt.setString(3, condition.type);
-          stmt.setLong(4, condition.start);
-          stmt.setLong(5, condition.stop);
-          if (condition.codes.isEmpty()) {
-            stmt.setString(6, null);
-            stmt.setString(7, null);
-            stmt.setString(8, null);
-          } else {
-            Code code = condition.codes.get(0);
-            stmt.setString(6, code.code);
-            stmt.setString(7, code.display);
-            stmt.setString(8, code.system);
-          }
-          stmt.execute();
-        }
+      // CREATE TABLE IF NOT EXISTS ENCOUNTER (id varchar, person_id varchar, provider_id varchar,
+      // name varchar, type varchar, start bigint, stop bigint, code varchar, display varchar,
+      // system varchar)
+      rows.add(ENCOUNTER, encounterID, personID, providerID, encounter.name, encounter.type,
+          encounter.start, encounter.stop, code(encounter), display(encounter),
+          system(encounter));
+
+      for (HealthRecord.Entry condition : encounter.conditions) {
+        // CREATE TABLE IF NOT EXISTS CONDITION (person_id varchar, name varchar, type varchar,
+        // start bigint, stop bigint, code varchar, display varchar, system varchar)
+        rows.add(CONDITION, personID, condition.name, condition.type, condition.start,
+            condition.stop, code(condition), display(condition), system(condition));
+      }
 
-        for (Report report : encounter.reports) {
-          String reportID = UUID.randomUUID().toString();
-
-          // CREATE TABLE IF NOT EXISTS REPORT (id varchar, person_id varchar, encounter_id varchar,
-          // name varchar, type varchar, start bigint, code varchar, display varchar, system
-          // varchar)
-          stmt = connection.prepareStatement(
-              "INSERT INTO report "
-              + "(id, person_id, encounter_id, name, type, start, code, display, system) "
-              + "VALUES (?,?,?,?,?,?,?,?,?);");
-          stmt.setString(1, personID);
-          stmt.setString(2, encounterID);
-          stmt.setString(3, reportID);
-          stmt.setString(4, report.name);
-          stmt.setString(5, report.type);
-          stmt.setLong(6, report.start);
-          if (report.codes.isEmpty()) {
-            stmt.setString(7, null);
-            stmt.setString(8, null);
-            stmt.setString(9, null);
-          } else {
-            Code code = report.codes.get(0);
-            stmt.setString(7, code.code);
-            stmt.setString(8, code.display);
-            stmt.setString(9, code.system);
-          }
+      for (Report report : encounter.reports) {
+        String reportID = UUID.randomUUID().toString();
 
-          stmt.execute();
-
-          for (Observation observation : report.observations) {
-            // CREATE TABLE IF NOT EXISTS OBSERVATION (person_id varchar, encounter_id varchar,
-            // report_id varchar, name varchar, type varchar, start bigint, value varchar, unit
-            // varchar, code varchar, display varchar, system varchar)
-            stmt = connection.prepareStatement(
-                "INSERT INTO OBSERVATION "
-                + "(person_id, encounter_id, report_id, name, type, start, value, unit, "
-                + "code, display, system) "
-                + "VALUES (?,?,?,?,?,?,?,?,?,?,?);");
-            stmt.setString(1, personID);
-            stmt.setString(2, encounterID);
-            stmt.setString(3, reportID); // report ID
-            stmt.setString(4, observation.name);
-            stmt.setString(5, observation.type);
-            stmt.setLong(6, observation.start);
-            stmt.setString(7, String.valueOf(observation.value));
-            stmt.setString(8, observation.unit);
-            if (observation.codes.isEmpty()) {
-              stmt.setString(9, null);
-              stmt.setString(10, null);
-              stmt.setString(11, null);
-            } else {
-              Code code = observation.codes.get(0);
-              stmt.setString(9, code.code);
-              stmt.setString(10, code.display);
-              stmt.setString(11, code.system);
-            }
+        // CREATE TABLE IF NOT EXISTS REPORT (id varchar, person_id varchar, encounter_id varchar,
+        // name varchar, type varchar, start bigint, code varchar, display varchar, system
+        // varchar)
+        rows.add(REPORT, personID, encounterID, reportID, report.name, report.type,
+            report.start, code(report), display(report), system(report));
 
-            stmt.execute();
-          }
-        }
-
-        for (Observation observation : encounter.observations) {
-          if (observation.report != null) {
-            // only add observations that don't belong to a diagnostic report here
-            continue;
-          }
+        for (Observation observation : report.observations) {
           // CREATE TABLE IF NOT EXISTS OBSERVATION (person_id varchar, encounter_id varchar,
           // report_id varchar, name varchar, type varchar, start bigint, value varchar, unit
           // varchar, code varchar, display varchar, system varchar)
-          stmt = connection.prepareStatement(
-              "INSERT INTO OBSERVATION "
-              + "(person_id, encounter_id, report_id, name, type, start, value, unit, "
-              + "code, display, system) "
-              + "VALUES (?,?,?,?,?,?,?,?,?,?,?);");
-          stmt.setString(1, personID);
-          stmt.setString(2, encounterID);
-          stmt.setString(3, null); // report ID
-          stmt.setString(4, observation.name);
-          stmt.setString(5, observation.type);
-          stmt.setLong(6, observation.start);
-          stmt.setString(7, String.valueOf(observation.value));
-          stmt.setString(8, observation.unit);
-          if (observation.codes.isEmpty()) {
-            stmt.setString(9, null);
-            stmt.setString(10, null);
-            stmt.setString(11, null);
-          } else {
-            Code code = observation.codes.get(0);
-            stmt.setString(9, code.code);
-            stmt.setString(10, code.display);
-            stmt.setString(11, code.system);
-          }
-
-          stmt.execute();
-        }
-
-        for (Procedure procedure : encounter.procedures) {
-          // CREATE TABLE IF NOT EXISTS PROCEDURE (person_id varchar, encounter_id varchar, name
-          // varchar, type varchar, start bigint, stop bigint, code varchar, display varchar, system
-          // varchar)
-          stmt = connection.prepareStatement(
-              "INSERT INTO PROCEDURE "
-              + "(person_id, encounter_id, name, type, start, stop, code, display, system) "
-              + "VALUES (?,?,?,?,?,?,?,?,?);");
-          stmt.setString(1, personID);
-          stmt.setString(2, encounterID);
-
-          stmt.setString(3, procedure.name);
-          stmt.setString(4, procedure.type);
-          stmt.setLong(5, procedure.start);
-          stmt.setLong(6, procedure.stop);
-          if (procedure.codes.isEmpty()) {
-            stmt.setString(7, null);
-            stmt.setString(8, null);
-            stmt.setString(9, null);
-          } else {
-            Code code = procedure.codes.get(0);
-            stmt.setString(7, code.code);
-            stmt.setString(8, code.display);
-            stmt.setString(9, code.system);
-          }
-
-          stmt.execute();
-        }
-
-        for (Medication medication : encounter.medications) {
-          // CREATE TABLE IF NOT EXISTS MEDICATION (id varchar, person_id varchar, provider_id
-          // varchar, name varchar, type varchar, start bigint, stop bigint, code varchar, display
-          // varchar, system varchar)
-          stmt = connection.prepareStatement(
-              "INSERT INTO MEDICATION "
-              + "(id, person_id, provider_id, name, type, start, stop, code, display, system) "
-              + "VALUES (?,?,?,?,?,?,?,?,?,?);");
-          String medicationID = UUID.randomUUID().toString();
-          stmt.setString(1, medicationID);
-          stmt.setString(2, personID);
-          stmt.setString(3, providerID);
-          stmt.setString(4, medication.name);
-          stmt.setString(5, medication.type);
-          stmt.setLong(6, medication.start);
-          stmt.setLong(7, medication.stop);
-          if (medication.codes.isEmpty()) {
-            stmt.setString(8, null);
-            stmt.setString(9, null);
-            stmt.setString(10, null);
-          } else {
-            Code code = medication.codes.get(0);
-            stmt.setString(8, code.code);
-            stmt.setString(9, code.display);
-            stmt.setString(10, code.system);
-          }
-          stmt.execute();
-
-          // CREATE TABLE IF NOT EXISTS CLAIM (id varchar, person_id varchar, encounter_id varchar,
-          // medication_id varchar, time bigint, cost decimal)
-          stmt = connection.prepareStatement(
-              "INSERT INTO CLAIM "
-              + "(id, person_id, encounter_id, medication_id, time, cost) "
-              + "VALUES (?,?,?,?,?,?)");
-          stmt.setString(1, UUID.randomUUID().toString());
-          stmt.setString(2, personID);
-          stmt.setString(3, encounterID);
-          stmt.setString(4, medicationID);
-          stmt.setLong(5, medication.start);
-          stmt.setBigDecimal(6, medication.claim.total());
-          stmt.execute();
-
+          rows.add(OBSERVATION, personID, encounterID, reportID, observation.name,
+              observation.type, observation.start, String.valueOf(observation.value),
+              observation.unit, code(observation), display(observation), system(observation));
         }
+      }
 
-        for (HealthRecord.Entry immunization : encounter.immunizations) {
-          // CREATE TABLE IF NOT EXISTS IMMUNIZATION (person_id varchar, encounter_id varchar, name
-          // varchar, type varchar, start bigint, code varchar, display varchar, system varchar)
-          stmt = connection.prepareStatement(
-              "INSERT INTO IMMUNIZATION "
-              + "(person_id, encounter_id, name, type, start, code, display, system) "
-              + "VALUES (?,?,?,?,?,?,?,?);");
-          stmt.setString(1, personID);
-          stmt.setString(2, encounterID);
-          stmt.setString(3, immunization.name);
-          stmt.setString(4, immunization.type);
-          stmt.setLong(5, immunization.start);
-          if (immunization.codes.isEmpty()) {
-            stmt.setString(6, null);
-            stmt.setString(7, null);
-            stmt.setString(8, null);
-          } else {
-            Code code = immunization.codes.get(0);
-            stmt.setString(6, code.code);
-            stmt.setString(7, code.display);
-            stmt.setString(8, code.system);
-          }
-          stmt.execute();
+      for (Observation observation : encounter.observations) {
+        if (observation.report != null) {
+          // only add observations that don't belong to a diagnostic report here
+          continue;
         }
+        rows.add(OBSERVATION, personID, encounterID, null, observation.name,
+            observation.type, observation.start, String.valueOf(observation.value),
+            observation.unit, code(observation), display(observation), system(observation));
+      }
 
-        for (CarePlan careplan : encounter.careplans) {
-          // CREATE TABLE IF NOT EXISTS careplan (id varchar, person_id varchar, provider_id
-          // varchar, name varchar, type varchar, start bigint, stop bigint, code varchar, display
-          // varchar, system varchar)
-          stmt = connection.prepareStatement(
-              "INSERT INTO careplan "
-              + "(id, person_id, provider_id, name, type, start, stop, code, display, system) "
-              + "VALUES (?,?,?,?,?,?,?,?,?,?);");
-          stmt.setString(1, UUID.randomUUID().toString());
-          stmt.setString(2, personID);
-          if (encounter.provider == null) {
-            stmt.setString(3, null);
-          } else {
-            stmt.setString(3, encounter.provider.getResourceID());
-          }
-          stmt.setString(4, careplan.name);
-          stmt.setString(5, careplan.type);
-          stmt.setLong(6, careplan.start);
-          stmt.setLong(7, careplan.stop);
-          if (careplan.codes.isEmpty()) {
-            stmt.setString(8, null);
-            stmt.setString(9, null);
-            stmt.setString(10, null);
-          } else {
-            Code code = careplan.codes.get(0);
-            stmt.setString(8, code.code);
-            stmt.setString(9, code.display);
-            stmt.setString(10, code.system);
-          }
-          stmt.execute();
-        }
+      for (Procedure procedure : encounter.procedures) {
+        // CREATE TABLE IF NOT EXISTS PROCEDURE (person_id varchar, encounter_id varchar, name
+        // varchar, type varchar, start bigint, stop bigint, code varchar, display varchar, system
+        // varchar)
+        rows.add(PROCEDURE, personID, encounterID, procedure.name, procedure.type,
+            procedure.start, procedure.stop, code(procedure), display(procedure),
+            system(procedure));
+      }
 
-        for (ImagingStudy imagingStudy : encounter.imagingStudies) {
-          // CREATE TABLE IF NOT EXISTS IMAGING_STUDY (uid varchar,
-          // person_id varchar, encounter_id varchar, start bigint,
-          // modality_code varchar, modality_display varchar, modality_system varchar,
-          // bodysite_code varchar, bodysite_display varchar, bodysite_system varchar,
-          // sop_class varchar)
-
-          stmt = connection.prepareStatement(
-              "INSERT INTO IMAGING_STUDY "
-              + "(id, uid, person_id, encounter_id, start, modality_code, modality_display, "
-              + "modality_system, bodysite_code, bodysite_display, bodysite_system, sop_class) "
-              + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?);");
-          stmt.setString(1, UUID.randomUUID().toString());
-          stmt.setString(2, imagingStudy.dicomUid);
-          stmt.setString(3, personID);
-          stmt.setString(4, encounterID);
-          stmt.setLong(5, imagingStudy.start);
-
-          Code modality = imagingStudy.series.get(0).modality;
-          stmt.setString(6, modality.code);
-          stmt.setString(7, modality.display);
-          stmt.setString(8, modality.system);
-
-          Code bodySite = imagingStudy.series.get(0).bodySite;
-          stmt.setString(9, bodySite.code);
-          stmt.setString(10, bodySite.display);
-          stmt.setString(11, bodySite.system);
-
-          Code sopClass = imagingStudy.series.get(0).instances.get(0).sopClass;
-          stmt.setString(12, sopClass.code);
-
-          stmt.execute();
-        }
+      for (Medication medication : encounter.medications) {
+        // CREATE TABLE IF NOT EXISTS MEDICATION (id varchar, person_id varchar, provider_id
+        // varchar, name varchar, type varchar, start bigint, stop bigint, code varchar, display
+        // varchar, system varchar)
+        String medicationID = UUID.randomUUID().toString();
+        rows.add(MEDICATION, medicationID, personID, providerID, medication.name,
+            medication.type, medication.start, medication.stop, code(medication),
+            display(medication), system(medication));
 
         // CREATE TABLE IF NOT EXISTS CLAIM (id varchar, person_id varchar, encounter_id varchar,
         // medication_id varchar, time bigint, cost decimal)
-        stmt = connection.prepareStatement(
-            "INSERT INTO CLAIM "
-            + "(id, person_id, encounter_id, medication_id, time, cost) "
-            + "VALUES (?,?,?,?,?,?)");
-        stmt.setString(1, UUID.randomUUID().toString());
-        stmt.setString(2, personID);
-        stmt.setString(3, encounterID);
-        stmt.setString(4, null);
-        stmt.setLong(5, encounter.start);
-        stmt.setBigDecimal(6, encounter.claim.total());
-        stmt.execute();
+        rows.add(CLAIM, UUID.randomUUID().toString(), personID, encounterID, medicationID,
+            medication.start, medication.claim.total());
+      }
 
+      for (HealthRecord.Entry immunization : encounter.immunizations) {
+        // CREATE TABLE IF NOT EXISTS IMMUNIZATION (person_id varchar, encounter_id varchar, name
+        // varchar, type varchar, start bigint, code varchar, display varchar, system varchar)
+        rows.add(IMMUNIZATION, personID, encounterID, immunization.name, immunization.type,
+            immunization.start, code(immunization), display(immunization),
+            system(immunization));
       }
 
-      Map<Integer, Double> qalys = (Map<Integer, Double>) p.attributes.get("QALY");
-      Map<Integer, Double> dalys = (Map<Integer, Double>) p.attributes.get("DALY");
-      Map<Integer, Double> qols = (Map<Integer, Double>) p.attributes.get("QOL");
-      if (qols != null) {
-        // TODO - would rather have something more generic
-        stmt = connection.prepareStatement(
-            "INSERT INTO QUALITY_OF_LIFE (person_id, year, qol, qaly, daly) VALUES (?,?,?,?,?);");
-
-        for (Integer year : qols.keySet()) {
-          stmt.setString(1, personID);
-          stmt.setInt(2, year);
-          stmt.setDouble(3, qols.get(year));
-          stmt.setDouble(4, qalys.get(year));
-          stmt.setDouble(5, dalys.get(year));
-          stmt.addBatch();
-        }
-        stmt.executeBatch();
+      for (CarePlan careplan : encounter.careplans) {
+        // CREATE TABLE IF NOT EXISTS careplan (id varchar, person_id varchar, provider_id
+        // varchar, name varchar, type varchar, start bigint, stop bigint, code varchar, display
+        // varchar, system varchar)
+        rows.add(CAREPLAN, UUID.randomUUID().toString(), personID, providerID, careplan.name,
+            careplan.type, careplan.start, careplan.stop, code(careplan), display(careplan),
+            system(careplan));
       }
 
-      connection.commit();
-      return true;
-    } catch (SQLException e) {
-      e.printStackTrace();
-      return false;
+      for (ImagingStudy imagingStudy : encounter.imagingStudies) {
+        // CREATE TABLE IF NOT EXISTS IMAGING_STUDY (uid varchar,
+        // person_id varchar, encounter_id varchar, start bigint,
+        // modality_code varchar, modality_display varchar, modality_system varchar,
+        // bodysite_code varchar, bodysite_display varchar, bodysite_system varchar,
+        // sop_class varchar)
+        Code modality = imagingStudy.series.get(0).modality;
+        Code bodySite = imagingStudy.series.get(0).bodySite;
+        Code sopClass = imagingStudy.series.get(0).instances.get(0).sopClass;
+        rows.add(IMAGING_STUDY, UUID.randomUUID().toString(), imagingStudy.dicomUid, personID,
+            encounterID, imagingStudy.start, modality.code, modality.display, modality.system,
+            bodySite.code, bodySite.display, bodySite.system, sopClass.code);
+      }
+
+      // CREATE TABLE IF NOT EXISTS CLAIM (id varchar, person_id varchar, encounter_id varchar,
+      // medication_id varchar, time bigint, cost decimal)
+      rows.add(CLAIM, UUID.randomUUID().toString(), personID, encounterID, null,
+          encounter.start, encounter.claim.total());
+    }
+
+    Map<Integer, Double> qalys = (Map<Integer, Double>) p.attributes.get("QALY");
+    Map<Integer, Double> dalys = (Map<Integer, Double>) p.attributes.get("DALY");
+    Map<Integer, Double> qols = (Map<Integer, Double>) p.attributes.get("QOL");
+    if (qols != null) {
+      // TODO - would rather have something more generic
+      for (Integer year : qols.keySet()) {
+        rows.add(QUALITY_OF_LIFE, personID, year, qols.get(year), qalys.get(year),
+            dalys.get(year));
+      }
     }
+
+    return enqueue(rows);
   }
 
   public boolean store(Collection<? extends Provider> providers) {
-    try (Connection connection = getConnection()) {
+    try (Connection connection = connect()) {
       // CREATE TABLE IF NOT EXISTS PROVIDER (id varchar, name varchar)
       PreparedStatement providerTable = connection
           .prepareStatement("INSERT INTO PROVIDER (id, name) VALUES (?,?);");
@@ -728,4 +593,281 @@ public class DataStore {
       return value.get();
     }
   }
+
+  private static String code(HealthRecord.Entry entry) {
+    return entry.codes.isEmpty() ? null : entry.codes.get(0).code;
+  }
+
+  private static String display(HealthRecord.Entry entry) {
+    return entry.codes.isEmpty() ? null : entry.codes.get(0).display;
+  }
+
+  private static String system(HealthRecord.Entry entry) {
+    return entry.codes.isEmpty() ? null : entry.codes.get(0).system;
+  }
+
+  /**
+   * Get the type of each attribute written by the modules, where it is declared.
+   * @return The types by attribute name, or an empty map if the inventory could not be taken,
+   *     e.g., if the modules cannot be listed because they are packaged in a jar.
+   */
+  private static Map<String, Attributes.Type> inventoryAttributes() {
+    Map<String, Attributes.Type> types = new HashMap<>();
+    try {
+      for (Map.Entry<String, Attributes.Inventory> entry
+          : Attributes.getAttributeInventory().entrySet()) {
+        if (entry.getValue().type != null) {
+          types.put(entry.getKey(), entry.getValue().type);
+        }
+      }
+    } catch (Exception e) {
+      System.err.println("Unable to inventory attributes, no attributes will be stored.");
+      e.printStackTrace();
+      types.clear();
+    }
+    return types;
+  }
+
+  /**
+   * Convert a patient attribute into the values of an ATTRIBUTE row, typed as declared in the
+   * attribute inventory. The text form of the value is kept too, for queries written against
+   * the untyped table. Attributes without a declared type, e.g., the state history of each
+   * module, the QALY/DALY maps or the patient's providers, are either stored in their own table
+   * or are of no use in a query.
+   * @return The values, or null if the attribute is not stored.
+   */
+  private Object[] attribute(String personID, String name, Object value) {
+    Attributes.Type type = declaredAttributes.get(name);
+    if (value == null || type == null) {
+      return null;
+    }
+    switch (type) {
+      case BOOLEAN:
+        Boolean bool = value instanceof Boolean
+            ? (Boolean) value : Boolean.valueOf(value.toString());
+        return new Object[] {personID, name, "BOOLEAN", value.toString(), null, bool, null};
+      case NUMERIC:
+        if (!(value instanceof Number)) {
+          return null;
+        }
+        return new Object[] {personID, name, "NUMERIC", value.toString(),
+            ((Number) value).doubleValue(), null, null};
+      case TIME:
+        if (!(value instanceof Number)) {
+          return null;
+        }
+        return new Object[] {personID, name, "TIME", value.toString(), null, null,
+            ((Number) value).longValue()};
+      default:
+        return new Object[] {personID, name, "TEXT", value.toString(), null, null, null};
+    }
+  }
+
+  /**
+   * Hand the rows of a patient to the writer thread, starting it if necessary. Blocks while
+   * the queue is full, so the simulation cannot get too far ahead of the database, but gives
+   * up if the writer fails while waiting.
+   */
+  private boolean enqueue(Rows rows) {
+    synchronized (written) {
+      if (failed) {
+        return false;
+      }
+      if (writer == null) {
+        writer = new Thread(this::write, "datastore-writer");
+        // never keep the JVM alive just for an idle writer
+        writer.setDaemon(true);
+        writer.start();
+      }
+    }
+    try {
+      while (!queue.offer(rows, 1, TimeUnit.SECONDS)) {
+        if (failed) {
+          return false;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    queued.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Wait until all of the patients stored so far have been written and committed.
+   * @return false if the writer has failed, so some of the patients were not written, or the
+   *     calling thread was interrupted.
+   */
+  public boolean flush() {
+    long target = queued.get();
+    synchronized (written) {
+      while (written.get() < target && !failed) {
+        try {
+          written.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return !failed;
+    }
+  }
+
+  /**
+   * Wait for the patients stored so far to be written, then stop the writer thread and close
+   * the connection pool. Nothing can be stored or read afterwards.
+   * @return false if the writer had failed, so some of the patients were not written, or the
+   *     calling thread was interrupted.
+   */
+  public boolean close() {
+    boolean flushed = flush();
+    Thread stopping;
+    synchronized (written) {
+      // no more patients, and no new writer
+      failed = true;
+      stopping = writer;
+    }
+    if (stopping != null) {
+      stopping.interrupt();
+      try {
+        stopping.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        flushed = false;
+      }
+    }
+    pool.dispose();
+    return flushed;
+  }
+
+  /**
+   * Body of the writer thread. Each statement is prepared once, and rows are added to the
+   * batches until there are enough of them, or no more patients are waiting, at which point
+   * the batches are executed and committed in a single transaction. If the transaction fails,
+   * its patients are written again one at a time, so only the patients that cannot be written
+   * are lost.
+   */
+  private void write() {
+    try (Connection connection = connect()) {
+      PreparedStatement[] statements = new PreparedStatement[INSERTS.length];
+      for (int i = 0; i < INSERTS.length; i++) {
+        statements[i] = connection.prepareStatement(INSERTS[i]);
+      }
+      // the patients in the current transaction
+      List<Rows> batch = new ArrayList<>();
+      int pending = 0;
+      long count = 0;
+      while (true) {
+        Rows rows = pending == 0 ? queue.take() : queue.poll();
+        try {
+          if (rows != null) {
+            count++;
+            batch.add(rows);
+            pending += rows.addTo(statements);
+          }
+          if (rows == null || pending >= batchSize) {
+            pending = 0;
+            for (PreparedStatement statement : statements) {
+              statement.executeBatch();
+            }
+            connection.commit();
+            batch.clear();
+          }
+        } catch (SQLException e) {
+          pending = 0;
+          rollback(connection, statements);
+          writeEach(connection, statements, batch);
+          batch.clear();
+        }
+        if (pending == 0) {
+          synchronized (written) {
+            written.set(count);
+            written.notifyAll();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      e.printStackTrace();
+    } finally {
+      synchronized (written) {
+        failed = true;
+        written.notifyAll();
+      }
+      // nothing will write them, and it frees any threads waiting for space
+      queue.clear();
+    }
+  }
+
+  /**
+   * Write the rows of each patient in its own transaction, reporting any patient that cannot
+   * be written.
+   * @throws SQLException if a failed transaction cannot be rolled back.
+   */
+  private static void writeEach(Connection connection, PreparedStatement[] statements,
+      List<Rows> batch) throws SQLException {
+    for (Rows rows : batch) {
+      try {
+        rows.addTo(statements);
+        for (PreparedStatement statement : statements) {
+          statement.executeBatch();
+        }
+        connection.commit();
+      } catch (SQLException e) {
+        System.err.println("Unable to store patient " + rows.personID);
+        e.printStackTrace();
+        rollback(connection, statements);
+      }
+    }
+  }
+
+  /**
+   * Discard the batches of the given statements, and roll back the current transaction.
+   */
+  private static void rollback(Connection connection, PreparedStatement[] statements)
+      throws SQLException {
+    for (PreparedStatement statement : statements) {
+      statement.clearBatch();
+    }
+    connection.rollback();
+  }
+
+  /**
+   * The rows of a single patient, for each of the tables in {@link #INSERTS}.
+   */
+  private static class Rows {
+    private final String personID;
+    private final List<List<Object[]>> tables = new ArrayList<>();
+
+    private Rows(String personID) {
+      this.personID = personID;
+      for (int i = 0; i < INSERTS.length; i++) {
+        tables.add(new ArrayList<>());
+      }
+    }
+
+    private void add(int table, Object... values) {
+      tables.get(table).add(values);
+    }
+
+    /**
+     * Add the rows to the batches of the given statements.
+     * @return The number of rows added.
+     */
+    private int addTo(PreparedStatement[] statements) throws SQLException {
+      int count = 0;
+      for (int i = 0; i < statements.length; i++) {
+        for (Object[] row : tables.get(i)) {
+          for (int column = 0; column < row.length; column++) {
+            statements[i].setObject(column + 1, row[column]);
+          }
+          statements[i].addBatch();
+          count++;
+        }
+      }
+      return count;
+    }
+  }
 }
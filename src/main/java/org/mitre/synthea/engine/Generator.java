@@ -1,9 +1,10 @@
 package org.mitre.synthea.engine;
 
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -11,6 +12,7 @@ import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -20,6 +22,10 @@ import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.mitre.synthea.datastore.DataStore;
 import org.mitre.synthea.export.CDWExporter;
 import org.mitre.synthea.export.Exporter;
+import org.mitre.synthea.export.PrevalenceReport;
+import org.mitre.synthea.helpers.Attributes;
+import org.mitre.synthea.helpers.Attributes.Inventory;
+import org.mitre.synthea.helpers.Attributes.Type;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.TransitionMetrics;
 import org.mitre.synthea.modules.DeathModule;
@@ -47,10 +53,14 @@ public class Generator {
   public Map<String, AtomicInteger> stats;
   public Location location;
   private AtomicInteger totalGeneratedPopulation;
+  /** Number of patients the database did not accept, reported once the run is over. */
+  private AtomicInteger unstoredPopulation;
   private String logLevel;
   private boolean onlyDeadPatients;
   private boolean onlyVeterans;
   public TransitionMetrics metrics;
+  /** Prevalence of conditions in the population, if a prevalence report is to be exported. */
+  public PrevalenceReport prevalence;
   public static final String DEFAULT_STATE = "Massachusetts";
 
   /**
@@ -66,6 +76,12 @@ public class Generator {
    */
   Predicate<String> modulePredicate;
 
+  /**
+   * Used only for testing and debugging. Clear this field to process every module on every
+   * time step, instead of skipping each module until its {@link Module#nextProcessTime}.
+   */
+  boolean skipModulesUntilDue = true;
+
   private static final String TARGET_AGE = "target_age";
 
   /**
@@ -155,9 +171,11 @@ public class Generator {
       o.state = DEFAULT_STATE;
     }
     int stateIndex = Location.getIndex(o.state);
-    if (Boolean.parseBoolean(Config.get("exporter.cdw.export"))) {
-      CDWExporter.getInstance().setKeyStart((stateIndex * 1_000_000) + 1);
-    }
+    Exporter.forEachProfile(() -> {
+      if (Boolean.parseBoolean(Config.get("exporter.cdw.export"))) {
+        CDWExporter.getInstance().setKeyStart((stateIndex * 1_000_000) + 1);
+      }
+    });
 
     this.options = o;
     this.random = new Random(o.seed);
@@ -170,6 +188,7 @@ public class Generator {
     this.onlyDeadPatients = Boolean.parseBoolean(Config.get("generate.only_dead_patients"));
     this.onlyVeterans = Boolean.parseBoolean(Config.get("generate.veteran_population_override"));
     this.totalGeneratedPopulation = new AtomicInteger(0);
+    this.unstoredPopulation = new AtomicInteger(0);
     this.stats = Collections.synchronizedMap(new HashMap<String, AtomicInteger>());
     this.modulePredicate = getModulePredicate();
 
@@ -181,6 +200,22 @@ public class Generator {
       this.metrics = new TransitionMetrics();
     }
 
+    // counted once for the whole population, if any export profile reports prevalence
+    AtomicBoolean prevalenceReport = new AtomicBoolean();
+    Exporter.forEachProfile(() -> {
+      if (Boolean.parseBoolean(Config.get("exporter.prevalence_report"))) {
+        prevalenceReport.set(true);
+      }
+    });
+    if (prevalenceReport.get()) {
+      try {
+        this.prevalence = new PrevalenceReport();
+      } catch (IOException e) {
+        System.err.println("Unable to read the prevalence report template.");
+        e.printStackTrace();
+      }
+    }
+
     // initialize hospitals
     Provider.loadProviders(location);
     // ensure modules load early
@@ -246,10 +281,20 @@ public class Generator {
     // TODO - de-dup hospitals if using a file-based database?
     if (database != null) {
       database.store(Provider.getProviderList());
+      // patients are written in the background, so wait for the last of them
+      if (!database.flush()) {
+        System.err.println("The database writer failed, so not every patient was stored, "
+            + "including " + unstoredPopulation.get() + " generated after it failed.");
+      }
     }
 
     Exporter.runPostCompletionExports(this);
 
+    // the reports read the database, so it stays open until they are done
+    if (database != null) {
+      database.close();
+    }
+
     System.out.println(stats);
 
     if (this.metrics != null) {
@@ -307,16 +352,29 @@ public class Generator {
         LifecycleModule.birth(person, start);
         EncounterModule encounterModule = new EncounterModule();
 
+        // the time each module is next due, in the same order as modules
+        long[] nextProcessTimes = new long[modules.size()];
+        Arrays.fill(nextProcessTimes, Long.MIN_VALUE);
+
         long time = start;
         while (person.alive(time) && time < stop) {
           encounterModule.process(person, time);
-          Iterator<Module> iter = modules.iterator();
-          while (iter.hasNext()) {
-            Module module = iter.next();
+          int m = 0;
+          while (m < modules.size()) {
+            if (skipModulesUntilDue && time < nextProcessTimes[m]) {
+              m++;
+              continue;
+            }
+            Module module = modules.get(m);
             // System.out.format("Processing module %s\n", module.name);
             if (module.process(person, time)) {
               // System.out.format("Removing module %s\n", module.name);
-              iter.remove(); // this module has completed/terminated.
+              modules.remove(m); // this module has completed/terminated.
+              System.arraycopy(nextProcessTimes, m + 1, nextProcessTimes, m,
+                  modules.size() - m);
+            } else {
+              nextProcessTimes[m] = module.nextProcessTime(person, time);
+              m++;
             }
           }
           encounterModule.endWellnessEncounter(person, time);
@@ -336,8 +394,12 @@ public class Generator {
           // note that this skips ahead to the while check and doesn't automatically re-loop
         }
 
-        if (database != null) {
-          database.store(person);
+        if (database != null && !database.store(person)) {
+          unstoredPopulation.incrementAndGet();
+        }
+
+        if (prevalence != null) {
+          prevalence.record(person, time);
         }
 
         if (internalStore != null) {
@@ -380,8 +442,6 @@ public class Generator {
           }
         }
 
-        // TODO - export is DESTRUCTIVE when it filters out data
-        // this means export must be the LAST THING done with the person
         Exporter.export(person, time);
       } while ((!isAlive && !onlyDeadPatients && this.options.overflow)
           || (isAlive && onlyDeadPatients));
@@ -502,4 +562,34 @@ public class Generator {
         IOCase.INSENSITIVE);
     return path -> filenameFilter.accept(null, path);
   }
+
+  /**
+   * Populate the given attribute map with the list of demographic attributes that the
+   * generator picks for each person, before they are born.
+   *
+   * @param attributes Attribute map to populate.
+   */
+  public static void inventoryAttributes(Map<String,Inventory> attributes) {
+    String m = Generator.class.getSimpleName();
+    // Write
+    Attributes.inventory(attributes, m, Person.BIRTHDATE, false, true, null, Type.TIME);
+    Attributes.inventory(attributes, m, Person.CITY, false, true, "Bedford", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.EDUCATION, false, true, "bs_degree", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.EDUCATION_LEVEL, false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, Person.ETHNICITY, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.FIRST_LANGUAGE, false, true, "english", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.GENDER, false, true, "F", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.INCOME, false, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m, Person.INCOME_LEVEL, false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, Person.OCCUPATION_LEVEL, false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, Person.RACE, false, true, "white", Type.TEXT);
+    Attributes.inventory(attributes, m,
+        Person.SOCIOECONOMIC_CATEGORY, false, true, "Middle", Type.TEXT);
+    Attributes.inventory(attributes, m,
+        Person.SOCIOECONOMIC_SCORE, false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, Person.STATE, false, true, "Massachusetts", Type.TEXT);
+    Attributes.inventory(attributes, m, TARGET_AGE, false, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m,
+        "veteran_population_override", false, true, "Boolean", Type.BOOLEAN);
+  }
 }
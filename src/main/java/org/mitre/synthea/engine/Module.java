@@ -227,6 +227,23 @@ public class Module {
     return (current instanceof State.Terminal);
   }
 
+  /**
+   * Get the next time this Module needs to be processed for the given person, after it was
+   * processed at the given time. The generator skips this Module on every time step before
+   * then, so it must not be later than the next time step on which the Module would change
+   * anything. By default Modules are processed on every time step; Java modules that only do
+   * work monthly, yearly, or in response to some event may override this.
+   *
+   * @param person
+   *          : the person being simulated
+   * @param time
+   *          : the date within the simulated world that the Module was last processed
+   * @return the earliest time at which the Module should be processed again
+   */
+  public long nextProcessTime(Person person, long time) {
+    return time;
+  }
+
   private State initialState() {
     return states.get("Initial"); // all Initial states have name Initial
   }
@@ -0,0 +1,163 @@
+package org.mitre.synthea.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.mitre.synthea.helpers.Config;
+
+/**
+ * Writer for FHIR bulk data, one newline delimited JSON file per resource type.
+ * Each resource type keeps its own buffered stream open for the duration of the run,
+ * so exporter threads only contend with other threads writing the same resource type.
+ * Buffers are flushed when they fill up, when a write happens after the flush interval,
+ * and when the writers are closed at the end of the run.
+ * If a maximum part size is configured, files are rolled over into numbered parts
+ * (e.g., Observation.1.ndjson, Observation.2.ndjson) once they reach that size.
+ */
+public class BulkDataWriter {
+  private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+  /** Open writers, keyed by the output folder and resource type. */
+  private static final Map<Path, BulkDataWriter> writers = new ConcurrentHashMap<>();
+
+  private final Path directory;
+  private final String resourceType;
+  private final int bufferSize;
+  private final long flushInterval;
+  private final long maxPartSize;
+
+  private OutputStream out;
+  private int part;
+  private long partSize;
+  private long lastFlush;
+
+  /**
+   * Create a new writer for the given resource type.
+   * @param directory The folder to write the files into.
+   * @param resourceType The FHIR resource type.
+   * @param bufferSize Size of the write buffer, in bytes.
+   * @param flushInterval Maximum time between flushes, in milliseconds.
+   * @param maxPartSize Size at which to start a new part file, in bytes. Zero for no limit.
+   */
+  BulkDataWriter(Path directory, String resourceType, int bufferSize, long flushInterval,
+      long maxPartSize) {
+    this.directory = directory;
+    this.resourceType = resourceType;
+    this.bufferSize = bufferSize;
+    this.flushInterval = flushInterval;
+    this.maxPartSize = maxPartSize;
+  }
+
+  /**
+   * Append a resource to the bulk data file for its type.
+   * See the configuration settings "exporter.fhir.bulk_data.*".
+   *
+   * @param directory The folder to write the files into.
+   * @param resourceType The FHIR resource type.
+   * @param json The resource, encoded as a single line of JSON.
+   */
+  public static void append(File directory, String resourceType, String json) {
+    Path key = directory.toPath().resolve(resourceType);
+    BulkDataWriter writer = writers.computeIfAbsent(key, k -> new BulkDataWriter(
+        directory.toPath(), resourceType,
+        Integer.parseInt(Config.get("exporter.fhir.bulk_data.buffer_size", "65536")),
+        TimeUnit.SECONDS.toMillis(
+            Long.parseLong(Config.get("exporter.fhir.bulk_data.flush_interval", "10"))),
+        Long.parseLong(Config.get("exporter.fhir.bulk_data.max_part_size", "0")) * 1024 * 1024));
+    try {
+      writer.write(json);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Flush and close all of the open bulk data files. Writing to a file again reopens it,
+   * appending to the end.
+   */
+  public static void closeAll() {
+    for (BulkDataWriter writer : writers.values()) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    writers.clear();
+  }
+
+  /**
+   * Write a single resource, followed by a line break.
+   * @param json The resource, encoded as a single line of JSON.
+   * @throws IOException if any IO error occurs
+   */
+  synchronized void write(String json) throws IOException {
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    long length = bytes.length + NEWLINE.length;
+    if (out == null) {
+      open();
+    }
+    if (maxPartSize > 0 && partSize > 0 && partSize + length > maxPartSize) {
+      out.close();
+      part++;
+      open();
+    }
+    out.write(bytes);
+    out.write(NEWLINE);
+    partSize += length;
+
+    long now = System.currentTimeMillis();
+    if (now - lastFlush >= flushInterval) {
+      out.flush();
+      lastFlush = now;
+    }
+  }
+
+  /**
+   * Flush and close the current file.
+   * @throws IOException if any IO error occurs
+   */
+  synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  /**
+   * Get the file the next resource will be written to.
+   * @return Path to the current part file.
+   */
+  synchronized Path currentFile() {
+    if (maxPartSize > 0) {
+      return directory.resolve(resourceType + "." + Math.max(part, 1) + ".ndjson");
+    }
+    return directory.resolve(resourceType + ".ndjson");
+  }
+
+  /**
+   * Open the current part for appending, skipping ahead past any parts that are already full.
+   */
+  private void open() throws IOException {
+    if (maxPartSize > 0) {
+      part = Math.max(part, 1);
+      while (Files.exists(currentFile()) && Files.size(currentFile()) >= maxPartSize) {
+        part++;
+      }
+    }
+    Path file = currentFile();
+    partSize = Files.exists(file) ? Files.size(file) : 0L;
+    out = new BufferedOutputStream(Files.newOutputStream(file,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND), bufferSize);
+    lastFlush = System.currentTimeMillis();
+  }
+}
@@ -4,8 +4,21 @@ import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
 
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
@@ -44,6 +57,22 @@ public class CCDAExporter {
     return configuration;
   }
 
+  /**
+   * The compiled top-level template, loaded on first use.
+   */
+  private static volatile Template template;
+
+  private static Template template() throws IOException {
+    if (template == null) {
+      synchronized (CCDAExporter.class) {
+        if (template == null) {
+          template = TEMPLATES.getTemplate("ccda.ftl");
+        }
+      }
+    }
+    return template;
+  }
+
   /**
    * Export a CCDA R2.1 document for a Person at a given time.
    *
@@ -55,52 +84,139 @@ public class CCDAExporter {
    * @return String of CCDA R2.1 XML.
    */
   public static String export(Person person, long time) {
-    // create a super encounter... this makes it easier to access
-    // all the Allergies (for example) in the export templates,
-    // instead of having to iterate through all the encounters.
-    Encounter superEncounter = person.record.new Encounter(time, "super");
-    for (Encounter encounter : person.record.encounters) {
-      if (encounter.start <= time) {
-        superEncounter.observations.addAll(encounter.observations);
-        superEncounter.reports.addAll(encounter.reports);
-        superEncounter.conditions.addAll(encounter.conditions);
-        superEncounter.allergies.addAll(encounter.allergies);
-        superEncounter.procedures.addAll(encounter.procedures);
-        superEncounter.immunizations.addAll(encounter.immunizations);
-        superEncounter.medications.addAll(encounter.medications);
-        superEncounter.careplans.addAll(encounter.careplans);
-        superEncounter.imagingStudies.addAll(encounter.imagingStudies);
-      } else {
-        break;
-      }
-    }
-
-    // The export templates fill in the record by accessing the attributes
-    // of the Person, so we add a few attributes just for the purposes of export.
-    person.attributes.put("UUID", UUID_GEN);
-    person.attributes.put("ehr_encounters", person.record.encounters);
-    person.attributes.put("ehr_observations", superEncounter.observations);
-    person.attributes.put("ehr_reports", superEncounter.reports);
-    person.attributes.put("ehr_conditions", superEncounter.conditions);
-    person.attributes.put("ehr_allergies", superEncounter.allergies);
-    person.attributes.put("ehr_procedures", superEncounter.procedures);
-    person.attributes.put("ehr_immunizations", superEncounter.immunizations);
-    person.attributes.put("ehr_medications", superEncounter.medications);
-    person.attributes.put("ehr_careplans", superEncounter.careplans);
-    person.attributes.put("ehr_imaging_studies", superEncounter.imagingStudies);
-    person.attributes.put("time", time);
-    person.attributes.put("race_lookup", RaceAndEthnicity.LOOK_UP_CDC_RACE);
-    person.attributes.put("ethnicity_lookup", RaceAndEthnicity.LOOK_UP_CDC_ETHNICITY_CODE);
-    person.attributes.put("ethnicity_display_lookup",
-        RaceAndEthnicity.LOOK_UP_CDC_ETHNICITY_DISPLAY);
-
     StringWriter writer = new StringWriter();
     try {
-      Template template = TEMPLATES.getTemplate("ccda.ftl");
-      template.process(person.attributes, writer);
-    } catch (Exception e) {
+      export(person, time, writer);
+    } catch (IOException e) {
       e.printStackTrace();
     }
     return writer.toString();
   }
+
+  /**
+   * Export a CCDA R2.1 document for a Person at a given time, rendering it directly into
+   * the given Writer. The Person is not modified.
+   *
+   * @param person
+   *          Person to export.
+   * @param time
+   *          Time the record should be generated. Any content in the record AFTER this time will
+   *          not be included.
+   * @param writer
+   *          Where to write the CCDA R2.1 XML. The caller is responsible for closing it.
+   * @throws IOException if any IO error occurs writing the document
+   */
+  public static void export(Person person, long time, Writer writer) throws IOException {
+    try {
+      template().process(new RecordView(person, time), writer);
+    } catch (TemplateException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * The data model the export templates are rendered against: the attributes of the Person,
+   * plus a few values just for the purposes of export. The "ehr_*" lists are read-only views
+   * over the entries of every encounter up to the export time, so nothing is copied and the
+   * Person's attributes are left untouched.
+   */
+  static class RecordView extends AbstractMap<String, Object> {
+    private final Map<String, Object> attributes;
+    private final Map<String, Object> exportValues = new HashMap<String, Object>();
+
+    RecordView(Person person, long time) {
+      this.attributes = person.attributes;
+
+      // only the encounters that started by the export time contribute entries
+      List<Encounter> encounters = person.record.encounters;
+      int count = 0;
+      while (count < encounters.size() && encounters.get(count).start <= time) {
+        count++;
+      }
+      encounters = encounters.subList(0, count);
+
+      exportValues.put("UUID", UUID_GEN);
+      exportValues.put("ehr_encounters", Collections.unmodifiableList(person.record.encounters));
+      exportValues.put("ehr_observations", new EntriesView(encounters, e -> e.observations));
+      exportValues.put("ehr_reports", new EntriesView(encounters, e -> e.reports));
+      exportValues.put("ehr_conditions", new EntriesView(encounters, e -> e.conditions));
+      exportValues.put("ehr_allergies", new EntriesView(encounters, e -> e.allergies));
+      exportValues.put("ehr_procedures", new EntriesView(encounters, e -> e.procedures));
+      exportValues.put("ehr_immunizations", new EntriesView(encounters, e -> e.immunizations));
+      exportValues.put("ehr_medications", new EntriesView(encounters, e -> e.medications));
+      exportValues.put("ehr_careplans", new EntriesView(encounters, e -> e.careplans));
+      exportValues.put("ehr_imaging_studies",
+          new EntriesView(encounters, e -> e.imagingStudies));
+      exportValues.put("time", time);
+      exportValues.put("race_lookup", RaceAndEthnicity.LOOK_UP_CDC_RACE);
+      exportValues.put("ethnicity_lookup", RaceAndEthnicity.LOOK_UP_CDC_ETHNICITY_CODE);
+      exportValues.put("ethnicity_display_lookup",
+          RaceAndEthnicity.LOOK_UP_CDC_ETHNICITY_DISPLAY);
+    }
+
+    @Override
+    public Object get(Object key) {
+      Object value = exportValues.get(key);
+      return value != null ? value : attributes.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return exportValues.containsKey(key) || attributes.containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+      Map<String, Object> all = new HashMap<String, Object>(attributes);
+      all.putAll(exportValues);
+      return Collections.unmodifiableMap(all).entrySet();
+    }
+  }
+
+  /**
+   * A read-only list of one kind of entry (e.g., all the Allergies) across a list of encounters,
+   * in encounter order, without copying them.
+   */
+  private static class EntriesView extends AbstractList<Object> implements RandomAccess {
+    private final List<List<?>> lists = new ArrayList<List<?>>();
+    /** Index in this list of the first entry of each of the lists. */
+    private final int[] starts;
+    private final int size;
+
+    private EntriesView(List<Encounter> encounters, Function<Encounter, List<?>> entries) {
+      int total = 0;
+      List<Integer> offsets = new ArrayList<Integer>();
+      for (Encounter encounter : encounters) {
+        List<?> list = entries.apply(encounter);
+        if (!list.isEmpty()) {
+          lists.add(list);
+          offsets.add(total);
+          total += list.size();
+        }
+      }
+      this.size = total;
+      this.starts = new int[offsets.size()];
+      for (int i = 0; i < starts.length; i++) {
+        starts[i] = offsets.get(i);
+      }
+    }
+
+    @Override
+    public Object get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      int list = Arrays.binarySearch(starts, index);
+      if (list < 0) {
+        // not the first entry of a list, so it is in the list before the insertion point
+        list = -list - 2;
+      }
+      return lists.get(list).get(index - starts[list]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
 }
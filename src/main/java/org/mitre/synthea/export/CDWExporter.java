@@ -1,6 +1,6 @@
 package org.mitre.synthea.export;
 
-import static org.mitre.synthea.export.ExportHelper.iso8601Timestamp;
+import static org.mitre.synthea.export.ExportHelper.appendIso8601Timestamp;
 
 import com.google.gson.JsonObject;
 
@@ -8,14 +8,19 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.sis.geometry.DirectPosition2D;
 import org.mitre.synthea.engine.Event;
+import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.FactTable;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.DeathModule;
@@ -50,7 +55,8 @@ public class CDWExporter {
   private static final String CLINICIAN_SID = "CLINICIAN_SID";
 
   /**
-   * Table key sequence generators.
+   * Table key sequence generators. Each table has its own sequence, so drawing a key
+   * never waits on another table or thread.
    */
   private Map<FileWriter,AtomicInteger> sids;
   private int sidStart = 1;
@@ -148,12 +154,29 @@ public class CDWExporter {
    */
   private static final String NEWLINE = System.lineSeparator();
 
+  /**
+   * Size at which a thread's buffered rows for a table are written out, in characters.
+   */
+  private static final int BUFFER_SIZE = 65536;
+
+  /**
+   * Rows buffered for each table, keyed by the ID of the thread writing them.
+   * Keys are assigned as rows are created, so rows can reach the files in any order
+   * without breaking the references between tables.
+   */
+  private Map<Long, Map<FileWriter, StringBuilder>> buffers = new ConcurrentHashMap<>();
+
+  /**
+   * Writers for all of the tables that are not fact tables.
+   */
+  private List<FileWriter> tables = new ArrayList<>();
+
   /**
    * Constructor for the CDWExporter -
    *  initialize the required files and associated writers.
    */
   private CDWExporter() {
-    sids = new HashMap<FileWriter,AtomicInteger>();
+    sids = new ConcurrentHashMap<FileWriter,AtomicInteger>();
     
     try {
       File output = Exporter.getOutputFolder("cdw", null);
@@ -161,51 +184,51 @@ public class CDWExporter {
       Path outputDirectory = output.toPath();
 
       // Patient Data
-      lookuppatient = openFileWriter(outputDirectory, "lookuppatient.csv");
-      spatient = openFileWriter(outputDirectory, "spatient.csv");
-      spatientaddress = openFileWriter(outputDirectory, "spatientaddress.csv");
-      spatientphone = openFileWriter(outputDirectory, "spatientphone.csv");
-      patientrace = openFileWriter(outputDirectory, "patientrace.csv");
-      patientethnicity = openFileWriter(outputDirectory, "patientethnicity.csv");
+      lookuppatient = openTable(outputDirectory, "lookuppatient.csv");
+      spatient = openTable(outputDirectory, "spatient.csv");
+      spatientaddress = openTable(outputDirectory, "spatientaddress.csv");
+      spatientphone = openTable(outputDirectory, "spatientphone.csv");
+      patientrace = openTable(outputDirectory, "patientrace.csv");
+      patientethnicity = openTable(outputDirectory, "patientethnicity.csv");
 
       // Encounter Data
-      consult = openFileWriter(outputDirectory, "consult.csv");
-      visit = openFileWriter(outputDirectory, "visit.csv");
-      appointment = openFileWriter(outputDirectory, "appointment.csv");
-      inpatient = openFileWriter(outputDirectory, "inpatient.csv");
+      consult = openTable(outputDirectory, "consult.csv");
+      visit = openTable(outputDirectory, "visit.csv");
+      appointment = openTable(outputDirectory, "appointment.csv");
+      inpatient = openTable(outputDirectory, "inpatient.csv");
 
       // Immunization Data
-      immunization = openFileWriter(outputDirectory, "immunization.csv");
+      immunization = openTable(outputDirectory, "immunization.csv");
 
       // Allergy Data
-      allergy = openFileWriter(outputDirectory, "allergy.csv");
-      allergicreaction = openFileWriter(outputDirectory, "allergicreaction.csv");
-      allergycomment = openFileWriter(outputDirectory, "allergycomment.csv");
+      allergy = openTable(outputDirectory, "allergy.csv");
+      allergicreaction = openTable(outputDirectory, "allergicreaction.csv");
+      allergycomment = openTable(outputDirectory, "allergycomment.csv");
 
       // Condition Data
-      problemlist = openFileWriter(outputDirectory, "problemlist.csv");
-      vdiagnosis = openFileWriter(outputDirectory, "vdiagnosis.csv");
+      problemlist = openTable(outputDirectory, "problemlist.csv");
+      vdiagnosis = openTable(outputDirectory, "vdiagnosis.csv");
 
       // Medications Data
-      rxoutpatient = openFileWriter(outputDirectory, "rxoutpatient.csv");
-      rxoutpatfill = openFileWriter(outputDirectory, "rxoutpatfill.csv");
-      nonvamed = openFileWriter(outputDirectory, "nonvamed.csv");
-      cprsorder = openFileWriter(outputDirectory, "cprsorder.csv");
-      ordereditem = openFileWriter(outputDirectory, "ordereditem.csv");
+      rxoutpatient = openTable(outputDirectory, "rxoutpatient.csv");
+      rxoutpatfill = openTable(outputDirectory, "rxoutpatfill.csv");
+      nonvamed = openTable(outputDirectory, "nonvamed.csv");
+      cprsorder = openTable(outputDirectory, "cprsorder.csv");
+      ordereditem = openTable(outputDirectory, "ordereditem.csv");
 
       // Diagnotic Report (i.e. Labs) Data
-      labchem = openFileWriter(outputDirectory, "labchem.csv");
-      labpanel = openFileWriter(outputDirectory, "labpanel.csv");
-      patientlabchem = openFileWriter(outputDirectory, "patientlabchem.csv");
-      vprocedure = openFileWriter(outputDirectory, "vprocedure.csv");
+      labchem = openTable(outputDirectory, "labchem.csv");
+      labpanel = openTable(outputDirectory, "labpanel.csv");
+      patientlabchem = openTable(outputDirectory, "patientlabchem.csv");
+      vprocedure = openTable(outputDirectory, "vprocedure.csv");
 
       // Procedure Data
-      surgeryProcedureDiagnosisCode = openFileWriter(outputDirectory,
+      surgeryProcedureDiagnosisCode = openTable(outputDirectory,
           "surgeryprocedurediagnosiscode.csv");
-      surgeryPRE = openFileWriter(outputDirectory, "surgerypre.csv");
+      surgeryPRE = openTable(outputDirectory, "surgerypre.csv");
 
       // Vital Sign Observation Data
-      vitalSign = openFileWriter(outputDirectory, "vitalsign.csv");
+      vitalSign = openTable(outputDirectory, "vitalsign.csv");
 
       writeCSVHeaders();
     } catch (IOException e) {
@@ -221,6 +244,12 @@ public class CDWExporter {
     return new FileWriter(file);
   }
 
+  private FileWriter openTable(Path outputDirectory, String filename) throws IOException {
+    FileWriter table = openFileWriter(outputDirectory, filename);
+    tables.add(table);
+    return table;
+  }
+
   /**
    * Write the headers to each of the CSV files.
    * @throws IOException if any IO error occurs
@@ -383,22 +412,19 @@ public class CDWExporter {
   }
 
   /**
-   *  Thread safe singleton pattern adopted from
-   *  https://stackoverflow.com/questions/7048198/thread-safe-singletons-in-java
+   * Instances, keyed by the output folder they write to, so that each export profile
+   * has its own.
    */
-  private static class SingletonHolder {
-    /**
-     * Singleton instance of the CDWExporter.
-     */
-    private static final CDWExporter instance = new CDWExporter();
-  }
+  private static final Map<String, CDWExporter> instances = new ConcurrentHashMap<>();
 
   /**
-   * Get the current instance of the CDWExporter.
+   * Get the instance of the CDWExporter for the current output folder, creating it if necessary.
+   * See the configuration setting "exporter.baseDirectory".
    * @return the current instance of the CDWExporter.
    */
   public static CDWExporter getInstance() {
-    return SingletonHolder.instance;
+    return instances.computeIfAbsent(Config.get("exporter.baseDirectory"),
+        k -> new CDWExporter());
   }
 
   /**
@@ -499,59 +525,15 @@ public class CDWExporter {
         immunization(personID, person, encounterID, encounter, immunization, primarySta3n);
       }
     }
-
-    // Patient Data
-    lookuppatient.flush();
-    spatient.flush();
-    spatientaddress.flush();
-    spatientphone.flush();
-    patientrace.flush();
-    patientethnicity.flush();
-
-    // Encounter Data
-    consult.flush();
-    visit.flush();
-    appointment.flush();
-    inpatient.flush();
-
-    // Immunization Data
-    immunization.flush();
-
-    // Allergy Data
-    allergy.flush();
-    allergicreaction.flush();
-    allergycomment.flush();
-
-    // Condition Data
-    problemlist.flush();
-    vdiagnosis.flush();
-
-    // Medication Data
-    rxoutpatient.flush();
-    rxoutpatfill.flush();
-    nonvamed.flush();
-    cprsorder.flush();
-    ordereditem.flush();
-
-    // Diagnostic Report Data
-    labchem.flush();
-    labpanel.flush();
-    patientlabchem.flush();
-    vprocedure.flush();
-
-    // Procedure Data
-    surgeryProcedureDiagnosisCode.flush();
-    surgeryPRE.flush();
-
-    // Vital Sign Observation Data
-    vitalSign.flush();
   }
   
   /**
    * Fact Tables should only be written after all patients have completed export.
+   * Any rows still buffered for the other tables are written out first.
    */
   public void writeFactTables() {
     try {
+      writeBuffers();
       File output = Exporter.getOutputFolder("cdw", null);
       output.mkdirs();
       Path outputDirectory = output.toPath();
@@ -637,13 +619,13 @@ public class CDWExporter {
       age = person.ageInYears(person.events.event(Event.DEATH).time);
     }
     s.append(',').append(age);
-    s.append(',').append(iso8601Timestamp((long) person.attributes.get(Person.BIRTHDATE)));
+    appendIso8601Timestamp(s.append(','), (long) person.attributes.get(Person.BIRTHDATE));
 
     if (alive) {
       s.append(',').append('N').append(',');
     } else {
       s.append(',').append('Y');
-      s.append(',').append(iso8601Timestamp(person.events.event(Event.DEATH).time));
+      appendIso8601Timestamp(s.append(','), person.events.event(Event.DEATH).time);
     }
     if (person.attributes.get(Person.GENDER).equals("M")) {
       s.append(",M,Male");
@@ -670,7 +652,7 @@ public class CDWExporter {
     s.append(',').append(maritalStatus.addFact(marital, marital));
     
     // TODO Need an enlistment date or date they became a veteran.
-    s.append(',').append(iso8601Timestamp(time - Utilities.convertTime("years", 10)));
+    appendIso8601Timestamp(s.append(','), time - Utilities.convertTime("years", 10));
     s.append(NEWLINE);
     write(s.toString(), spatient);
     
@@ -799,7 +781,7 @@ public class CDWExporter {
 
     s.setLength(0);
     s.append(visitSid).append(',');
-    s.append(iso8601Timestamp(encounter.start)).append(',');
+    appendIso8601Timestamp(s, encounter.start).append(',');
     s.append(staffSid).append(','); // CreatedByStaffID
     Integer locationSid = null;
     if (encounter.provider != null) {
@@ -827,8 +809,8 @@ public class CDWExporter {
     }
     s.append(',');
     s.append(personID).append(',');
-    s.append(iso8601Timestamp(encounter.start)).append(',');
-    s.append(iso8601Timestamp(encounter.start)).append(',');
+    appendIso8601Timestamp(s, encounter.start).append(',');
+    appendIso8601Timestamp(s, encounter.start).append(',');
     s.append(",,"); // skip: AppointmentTypeSID, AppointmentStatus
     s.append(visitSid).append(',');
     if (locationSid != null) {
@@ -841,8 +823,8 @@ public class CDWExporter {
     s.append(person.randInt(1)).append(',');
     s.append((encounter.stop - encounter.start) / (60 * 1000)).append(',');
     s.append(consultSid).append(',');
-    s.append(iso8601Timestamp(encounter.start)).append(',');
-    s.append(iso8601Timestamp(encounter.stop)).append(NEWLINE);
+    appendIso8601Timestamp(s, encounter.start).append(',');
+    appendIso8601Timestamp(s, encounter.stop).append(NEWLINE);
     write(s.toString(), appointment);
 
     if (encounter.type.equalsIgnoreCase(EncounterType.INPATIENT.toString())) {
@@ -850,7 +832,7 @@ public class CDWExporter {
       s.setLength(0);
       s.append(getNextKey(inpatient)).append(',');
       s.append(personID).append(',');
-      s.append(iso8601Timestamp(encounter.start)).append(NEWLINE);
+      appendIso8601Timestamp(s, encounter.start).append(NEWLINE);
       write(s.toString(), inpatient);
     }
 
@@ -896,12 +878,12 @@ public class CDWExporter {
     s.append(",,"); // skip icd 9 and icd 10
     s.append(personID).append(',');
     s.append(snomedSID).append(','); // snomed display is jammed into narrative.
-    s.append(iso8601Timestamp(encounter.start)).append(',');
-    s.append(iso8601Timestamp(condition.start)).append(',');
+    appendIso8601Timestamp(s, encounter.start).append(',');
+    appendIso8601Timestamp(s, condition.start).append(',');
     s.append("P,");
     s.append(providerSID).append(','); // RecordingProviderSID
     if (condition.stop != 0L) {
-      s.append(iso8601Timestamp(condition.stop));
+      appendIso8601Timestamp(s, condition.stop);
     }
     s.append(',');
     s.append(code.code);
@@ -923,8 +905,8 @@ public class CDWExporter {
     s.append(",,"); // skip icd 9 and icd 10
     s.append(personID).append(',');
     s.append(encounterID).append(',');
-    s.append(iso8601Timestamp(encounter.start)).append(',');
-    s.append(iso8601Timestamp(condition.start)).append(',');
+    appendIso8601Timestamp(s, encounter.start).append(',');
+    appendIso8601Timestamp(s, condition.start).append(',');
     s.append(snomedSID).append(','); // snomed display is jammed into narrative.
     s.append(problemListSid).append(',');
     s.append(providerSID).append(','); // OrderingProviderSID
@@ -984,12 +966,12 @@ public class CDWExporter {
     s.append(','); // DrugClassSID
     s.append(','); // ReactantSID
     s.append(','); // DrugIngredientSID
-    s.append(iso8601Timestamp(allergyEntry.start)).append(',');
+    appendIso8601Timestamp(s, allergyEntry.start).append(',');
     s.append(providerSID).append(','); // OriginatingStaffSID
     s.append(person.rand(new String[] {"o", "h"})).append(',');
     s.append("A,");
     s.append("1,"); // Verified
-    s.append(iso8601Timestamp(allergyEntry.start)).append(',');
+    appendIso8601Timestamp(s, allergyEntry.start).append(',');
     s.append(providerSID).append(','); // VerifyingStaffSID
     s.append(',');
     s.append(NEWLINE);
@@ -1028,10 +1010,10 @@ public class CDWExporter {
     }
     s.append(',');
     s.append(personID).append(',');
-    s.append(iso8601Timestamp(allergyEntry.start)).append(',');
+    appendIso8601Timestamp(s, allergyEntry.start).append(',');
     s.append(providerSID).append(','); // EnteringStaffSID
     s.append(clean(code.display)).append(',');
-    s.append(iso8601Timestamp(allergyEntry.start));
+    appendIso8601Timestamp(s, allergyEntry.start);
     s.append(NEWLINE);
     write(s.toString(), allergycomment);
   }
@@ -1074,14 +1056,14 @@ public class CDWExporter {
     s.append(personID).append(',');
     s.append(providerSID).append(","); // OrderStaffSID
     s.append(providerSID).append(","); // EnteredByStaffSID
-    s.append(iso8601Timestamp(report.start)).append(',');
+    appendIso8601Timestamp(s, report.start).append(',');
     int orderStatusSID = orderStatus.addFact("COMPLETED", "COMPLETED");
     s.append(orderStatusSID).append(',');
     int vistaPackageSID = vistaPackage.addFact("DIAGNOSTIC LABORATORY", "DIAGNOSTIC LABORATORY");
     s.append(vistaPackageSID).append(',');
-    s.append(iso8601Timestamp(report.start)).append(',');
+    appendIso8601Timestamp(s, report.start).append(',');
     if (report.stop != 0L) {
-      s.append(iso8601Timestamp(report.stop));
+      appendIso8601Timestamp(s, report.stop);
     }
     s.append(',');
     s.append("LAB_" + cprsSID); // PackageReference joins to LabPanel.LabPanelIEN
@@ -1143,7 +1125,7 @@ public class CDWExporter {
       s.append(labchemtestSID).append(',');
       s.append(personID).append(',');
       s.append(providerSID).append(","); // StaffSID
-      s.append(iso8601Timestamp(observation.start)).append(',');
+      appendIso8601Timestamp(s, observation.start).append(',');
       s.append(observation.value).append(',');
       int loincSID = loinc.addFact(obscode.code, obscode.code + "," + clean(obscode.display));
       s.append(loincSID).append(',');
@@ -1185,8 +1167,8 @@ public class CDWExporter {
     s.append(',');
     s.append(labpanelSID).append(',');
     s.append(personID).append(',');
-    s.append(iso8601Timestamp(report.start)).append(','); // LabChemSpecimenDateTime
-    s.append(iso8601Timestamp(report.start)).append(','); // LabChemCompleteDateTime
+    appendIso8601Timestamp(s, report.start).append(','); // LabChemSpecimenDateTime
+    appendIso8601Timestamp(s, report.start).append(','); // LabChemCompleteDateTime
     s.append(topographySID).append(',');
     s.append(institutionSID);
     s.append(NEWLINE);
@@ -1241,7 +1223,7 @@ public class CDWExporter {
     StringBuilder s = new StringBuilder();
     s.append(getNextKey(vitalSign)).append(',');
     s.append(sta3nValue).append(',');
-    s.append(iso8601Timestamp(observation.start)).append(',');
+    appendIso8601Timestamp(s, observation.start).append(',');
     s.append(personID).append(',');
     s.append(vitalTypeSID).append(',');
     String value = null;
@@ -1319,14 +1301,14 @@ public class CDWExporter {
     s.append(personID).append(',');
     s.append(providerSID).append(","); // OrderStaffSID
     s.append(providerSID).append(","); // EnteredByStaffSID
-    s.append(iso8601Timestamp(procedure.start)).append(',');
+    appendIso8601Timestamp(s, procedure.start).append(',');
     int orderStatusSID = orderStatus.addFact("COMPLETED", "COMPLETED");
     s.append(orderStatusSID).append(',');
     int vistaPackageSID = vistaPackage.addFact("PROCEDURE", "PROCEDURE");
     s.append(vistaPackageSID).append(',');
-    s.append(iso8601Timestamp(procedure.start)).append(',');
+    appendIso8601Timestamp(s, procedure.start).append(',');
     if (procedure.stop != 0L) {
-      s.append(iso8601Timestamp(procedure.stop));
+      appendIso8601Timestamp(s, procedure.stop);
     }
     s.append(',');
     s.append("PROCEDURE");
@@ -1359,7 +1341,7 @@ public class CDWExporter {
     s.append(sta3nValue).append(',');
     s.append(cptSID).append(',');
     s.append(personID).append(',');
-    s.append(iso8601Timestamp(procedure.start)).append(',');
+    appendIso8601Timestamp(s, procedure.start).append(',');
     s.append(','); // PrincipalPostOpICD9SID
     s.append(','); // PrincipalPostOpICD10SID
     s.append('1'); // CodingCompleteFlag
@@ -1439,9 +1421,9 @@ public class CDWExporter {
     s.append(rxNum).append(',');
     s.append(sta3nValue).append(',');
     s.append(rxNum).append(',');
-    s.append(iso8601Timestamp(medication.start)).append(',');
+    appendIso8601Timestamp(s, medication.start).append(',');
     if (medication.stop != 0L) {
-      s.append(iso8601Timestamp(medication.stop));
+      appendIso8601Timestamp(s, medication.stop);
     }
     s.append(',');
     if (medication.prescriptionDetails != null
@@ -1449,7 +1431,7 @@ public class CDWExporter {
       JsonObject duration = medication.prescriptionDetails.get("duration").getAsJsonObject();
       long time = Utilities.convertTime(
           duration.get("unit").getAsString(), duration.get("quantity").getAsLong());
-      s.append(iso8601Timestamp(medication.start + time));
+      appendIso8601Timestamp(s, medication.start + time);
     }
     s.append(',');
     s.append(personID).append(',');
@@ -1489,7 +1471,7 @@ public class CDWExporter {
     s.append(personID).append(',');
     s.append(providerSID).append(","); // OrderStaffSID
     s.append(providerSID).append(","); // EnteredByStaffSID
-    s.append(iso8601Timestamp(medication.start)).append(',');
+    appendIso8601Timestamp(s, medication.start).append(',');
     int orderStatusSID = -1;
     if (medication.stop != 0L) {
       orderStatusSID = orderStatus.addFact("EXPIRED", "EXPIRED");
@@ -1498,9 +1480,9 @@ public class CDWExporter {
     }
     s.append(orderStatusSID).append(',');
     s.append(vistaPackage.addFact("OUTPATIENT PHARMACY", "OUTPATIENT PHARMACY")).append(',');
-    s.append(iso8601Timestamp(medication.start)).append(',');
+    appendIso8601Timestamp(s, medication.start).append(',');
     if (medication.stop != 0L) {
-      s.append(iso8601Timestamp(medication.stop));
+      appendIso8601Timestamp(s, medication.stop);
     }
     s.append(',');
     s.append("OUTPATIENT PHARMACY");
@@ -1536,8 +1518,8 @@ public class CDWExporter {
     s.append("As directed by physician.,"); // Schedule
     s.append(orderStatus.getFactById(orderStatusSID)).append(',');
     s.append(cprsSID).append(',');
-    s.append(iso8601Timestamp(medication.start)).append(',');
-    s.append(iso8601Timestamp(medication.start)).append(',');
+    appendIso8601Timestamp(s, medication.start).append(',');
+    appendIso8601Timestamp(s, medication.start).append(',');
     s.append(clean(code.display));
     s.append(NEWLINE);
     write(s.toString(), nonvamed);
@@ -1587,8 +1569,8 @@ public class CDWExporter {
       s.append(",B,");
     }
     s.append(person.randInt(12)).append(','); // Reaction
-    s.append(iso8601Timestamp(immunizationEntry.start)).append(',');
-    s.append(iso8601Timestamp(immunizationEntry.start)).append(',');
+    appendIso8601Timestamp(s, immunizationEntry.start).append(',');
+    appendIso8601Timestamp(s, immunizationEntry.start).append(',');
     s.append(providerSID).append(","); // OrderingStaffSID
     s.append(providerSID).append(","); // ImmunizingStaffSID
     s.append(encounterID).append(',');
@@ -1603,9 +1585,11 @@ public class CDWExporter {
   }
 
   private int getNextKey(FileWriter table) {
-    synchronized (sids) {
-      return sids.computeIfAbsent(table, k -> new AtomicInteger(sidStart)).getAndIncrement();
+    AtomicInteger sequence = sids.get(table);
+    if (sequence == null) {
+      sequence = sids.computeIfAbsent(table, k -> new AtomicInteger(sidStart));
     }
+    return sequence.getAndIncrement();
   }
   
   /**
@@ -1623,15 +1607,57 @@ public class CDWExporter {
   /**
    * Helper method to write a line to a File.
    * Extracted to a separate method here to make it a little easier to replace implementations.
+   * Lines are buffered per thread, and written out in blocks of about BUFFER_SIZE characters.
    *
    * @param line The line to write
    * @param writer The place to write it
    * @throws IOException if an I/O error occurs
    */
-  private static void write(String line, FileWriter writer) throws IOException {
+  private void write(String line, FileWriter writer) throws IOException {
+    Map<FileWriter, StringBuilder> tables =
+        buffers.computeIfAbsent(Thread.currentThread().getId(), k -> new IdentityHashMap<>());
+    StringBuilder buffer = tables.get(writer);
+    if (buffer == null) {
+      buffer = new StringBuilder();
+      tables.put(writer, buffer);
+    }
+    buffer.append(line);
+    if (buffer.length() >= BUFFER_SIZE) {
+      writeBuffer(buffer, writer);
+    }
+  }
+
+  /**
+   * Write out a block of buffered lines and empty the buffer.
+   *
+   * @param buffer The buffered lines
+   * @param writer The place to write them
+   * @throws IOException if an I/O error occurs
+   */
+  private static void writeBuffer(StringBuilder buffer, FileWriter writer) throws IOException {
     synchronized (writer) {
-      writer.write(line);
-      writer.flush();
+      writer.append(buffer);
+    }
+    buffer.setLength(0);
+  }
+
+  /**
+   * Write out the rows buffered by every thread, and flush all of the tables.
+   * This should only be called after all patients have completed export.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  private void writeBuffers() throws IOException {
+    for (Map<FileWriter, StringBuilder> buffer : buffers.values()) {
+      for (Map.Entry<FileWriter, StringBuilder> entry : buffer.entrySet()) {
+        writeBuffer(entry.getValue(), entry.getKey());
+      }
+    }
+    buffers.clear();
+    for (FileWriter table : tables) {
+      synchronized (table) {
+        table.flush();
+      }
     }
   }
 }
@@ -1,21 +1,30 @@
 package org.mitre.synthea.export;
 
+import static org.mitre.synthea.export.ExportHelper.appendIso8601Timestamp;
 import static org.mitre.synthea.export.ExportHelper.dateFromTimestamp;
-import static org.mitre.synthea.export.ExportHelper.iso8601Timestamp;
 
 import com.google.common.collect.Table;
 import com.google.gson.JsonObject;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mitre.synthea.engine.Event;
@@ -102,6 +111,50 @@ public class CSVExporter {
    */
   private static final String NEWLINE = System.lineSeparator();
 
+  /**
+   * Size of the buffer for each segment, in characters.
+   */
+  private static final int SEGMENT_BUFFER_SIZE = 65536;
+
+  /**
+   * Whether each thread writes the patient tables to its own segment files,
+   * which are merged into the CSV files at the end of the run.
+   * See the configuration setting "exporter.csv.segmented".
+   */
+  private boolean segmented;
+  /**
+   * Path to the CSV file of each patient table, keyed by the writer for the table.
+   */
+  private Map<FileWriter, Path> tableFiles = new IdentityHashMap<>();
+  /**
+   * Segments being written, keyed by the ID of the thread writing them.
+   */
+  private Map<Long, Segment> segments = new ConcurrentHashMap<>();
+  /**
+   * Number of segments started, to give each one a unique file name.
+   */
+  private AtomicInteger segmentCount = new AtomicInteger();
+
+  /**
+   * One thread's portion of each of the patient tables. Only the owning thread writes to it,
+   * so writes need no locking, and are only flushed when the buffer fills up.
+   */
+  private static class Segment {
+    private final int number;
+    private final Map<FileWriter, Writer> writers = new IdentityHashMap<>();
+
+    private Segment(int number) {
+      this.number = number;
+    }
+
+    /**
+     * Get the segment file for the given table.
+     */
+    private Path file(Path tableFile) {
+      return tableFile.resolveSibling(tableFile.getFileName() + "." + number + ".segment");
+    }
+  }
+
   /**
    * Constructor for the CSVExporter -
    *  initialize the 9 specified files and store the writers in fields.
@@ -154,6 +207,24 @@ public class CSVExporter {
       if (!append) {
         writeCSVHeaders();
       }
+
+      segmented = Boolean.parseBoolean(Config.get("exporter.csv.segmented"));
+      if (segmented) {
+        tableFiles.put(patients, patientsFile.toPath());
+        tableFiles.put(allergies, allergiesFile.toPath());
+        tableFiles.put(medications, medicationsFile.toPath());
+        tableFiles.put(conditions, conditionsFile.toPath());
+        tableFiles.put(careplans, careplansFile.toPath());
+        tableFiles.put(observations, observationsFile.toPath());
+        tableFiles.put(procedures, proceduresFile.toPath());
+        tableFiles.put(immunizations, immunizationsFile.toPath());
+        tableFiles.put(encounters, encountersFile.toPath());
+        tableFiles.put(imagingStudies, imagingStudiesFile.toPath());
+        // the headers must be in the files before any segments are appended
+        for (FileWriter table : tableFiles.keySet()) {
+          table.flush();
+        }
+      }
     } catch (IOException e) {
       // wrap the exception in a runtime exception.
       // the singleton pattern below doesn't work if the constructor can throw
@@ -202,22 +273,18 @@ public class CSVExporter {
   }
 
   /**
-   *  Thread safe singleton pattern adopted from
-   *  https://stackoverflow.com/questions/7048198/thread-safe-singletons-in-java
+   * Instances, keyed by the output folder they write to, so that each export profile
+   * has its own.
    */
-  private static class SingletonHolder {
-    /**
-     * Singleton instance of the CSVExporter.
-     */
-    private static final CSVExporter instance = new CSVExporter();
-  }
+  private static final Map<String, CSVExporter> instances = new ConcurrentHashMap<>();
 
   /**
-   * Get the current instance of the CSVExporter.
+   * Get the instance of the CSVExporter for the current output folder, creating it if necessary.
+   * See the configuration setting "exporter.baseDirectory".
    * @return the current instance of the CSVExporter.
    */
   public static CSVExporter getInstance() {
-    return SingletonHolder.instance;
+    return instances.computeIfAbsent(Config.get("exporter.baseDirectory"), k -> new CSVExporter());
   }
 
   /**
@@ -227,23 +294,52 @@ public class CSVExporter {
    * @throws IOException if any IO errors occur.
    */
   public void exportOrganizationsAndProviders() throws IOException {
-    for (Provider org: Provider.getProviderList()) {
-      // Check utilization for hospital before we export
+    for (Provider org: Provider.getUtilizedProviders()) {
       Table<Integer, String, AtomicInteger> utilization = org.getUtilization();
       int totalEncounters = utilization.column(Provider.ENCOUNTERS).values().stream()
               .mapToInt(ai -> ai.get()).sum();
-      if (totalEncounters > 0) {
-        organization(org, totalEncounters);
-        Map<String, ArrayList<Clinician>> providers = org.clinicianMap;
-        for (String speciality: providers.keySet()) {
-          ArrayList<Clinician> clinicians = providers.get(speciality);
-          for (Clinician clinician: clinicians) {
-            provider(clinician, org.getResourceID());
+      organization(org, totalEncounters);
+      Map<String, ArrayList<Clinician>> providers = org.clinicianMap;
+      for (String speciality: providers.keySet()) {
+        ArrayList<Clinician> clinicians = providers.get(speciality);
+        for (Clinician clinician: clinicians) {
+          provider(clinician, org.getResourceID());
+        }
+      }
+    }
+    organizations.flush();
+    providers.flush();
+  }
+
+  /**
+   * Append the segments written by each thread to the CSV files of the patient tables, then
+   * delete them. Only needed if "exporter.csv.segmented" is enabled. This method should be
+   * called once after all the Patient records have been exported using the
+   * export(Person,long) method.
+   * @throws IOException if any IO errors occur.
+   */
+  public void mergeSegments() throws IOException {
+    List<Segment> finished = new ArrayList<>(segments.values());
+    segments.clear();
+    finished.sort(Comparator.comparingInt(segment -> segment.number));
+
+    char[] buffer = new char[SEGMENT_BUFFER_SIZE];
+    for (Segment segment : finished) {
+      for (Map.Entry<FileWriter, Writer> entry : segment.writers.entrySet()) {
+        FileWriter table = entry.getKey();
+        entry.getValue().close();
+        Path segmentFile = segment.file(tableFiles.get(table));
+        synchronized (table) {
+          try (Reader reader = new FileReader(segmentFile.toFile())) {
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+              table.write(buffer, 0, count);
+            }
           }
+          table.flush();
         }
+        Files.delete(segmentFile);
       }
-      organizations.flush();
-      providers.flush();
     }
   }
 
@@ -254,7 +350,20 @@ public class CSVExporter {
    * @throws IOException if any IO error occurs
    */
   public void export(Person person, long time) throws IOException {
-    String personID = patient(person, time);
+    export(person, time, true);
+  }
+
+  /**
+   * Add a single Person's health record info to the CSV records.
+   * @param person Person to write record data for
+   * @param time Time the simulation ended
+   * @param includePatient Whether to write the patient line, i.e., false for the later records
+   *     of a patient with split records.
+   * @throws IOException if any IO error occurs
+   */
+  public void export(Person person, long time, boolean includePatient) throws IOException {
+    String personID = includePatient
+        ? patient(person, time) : (String) person.attributes.get(Person.ID);
 
     for (Encounter encounter : person.record.encounters) {
       String encounterID = encounter(personID, encounter);
@@ -292,6 +401,10 @@ public class CSVExporter {
       }
     }
 
+    if (segmented) {
+      // segments are flushed as their buffers fill, and when they are merged
+      return;
+    }
     patients.flush();
     encounters.flush();
     conditions.flush();
@@ -317,14 +430,6 @@ public class CSVExporter {
     // FIRST,LAST,SUFFIX,MAIDEN,MARITAL,RACE,ETHNICITY,GENDER,BIRTHPLACE,ADDRESS
     String personID = (String) person.attributes.get(Person.ID);
 
-    // check if we've already exported this patient demographic data yet,
-    // otherwise the "split record" feature could add a duplicate entry.
-    if (person.attributes.containsKey("exported_to_csv")) {
-      return personID;
-    } else {
-      person.attributes.put("exported_to_csv", personID);
-    }
-
     StringBuilder s = new StringBuilder();
     s.append(personID).append(',');
     s.append(dateFromTimestamp((long)person.attributes.get(Person.BIRTHDATE))).append(',');
@@ -378,10 +483,10 @@ public class CSVExporter {
     //ID
     s.append(encounterID).append(',');
     //START
-    s.append(iso8601Timestamp(encounter.start)).append(',');
+    appendIso8601Timestamp(s, encounter.start).append(',');
     //STOP
     if (encounter.stop != 0L) {
-      s.append(iso8601Timestamp(encounter.stop)).append(',');
+      appendIso8601Timestamp(s, encounter.stop).append(',');
     } else {
       s.append(',');
     }
@@ -594,6 +699,34 @@ public class CSVExporter {
 
     BigDecimal cost = medication.cost();
     s.append(String.format(Locale.US, "%.2f", cost)).append(',');
+    long dispenses = dispenses(medication, stopTime);
+
+    s.append(dispenses).append(',');
+    BigDecimal totalCost = cost
+        .multiply(BigDecimal.valueOf(dispenses))
+        .setScale(2, RoundingMode.DOWN); // truncate to 2 decimal places
+    s.append(String.format(Locale.US, "%.2f", totalCost)).append(',');
+
+    if (medication.reasons.isEmpty()) {
+      s.append(','); // reason code & desc
+    } else {
+      Code reason = medication.reasons.get(0);
+      s.append(reason.code).append(',');
+      s.append(clean(reason.display));
+    }
+
+    s.append(NEWLINE);
+    write(s.toString(), medications);
+  }
+
+  /**
+   * Calculate the number of times a Medication was dispensed, including the original fill.
+   *
+   * @param medication The medication
+   * @param stopTime End time, used if the medication is still active
+   * @return The number of dispenses, at least 1
+   */
+  static long dispenses(Medication medication, long stopTime) {
     long dispenses = 1; // dispenses = refills + original
     // makes the math cleaner and more explicit. dispenses * unit cost = total cost
 
@@ -627,22 +760,7 @@ public class CSVExporter {
       dispenses = 1;
     }
 
-    s.append(dispenses).append(',');
-    BigDecimal totalCost = cost
-        .multiply(BigDecimal.valueOf(dispenses))
-        .setScale(2, RoundingMode.DOWN); // truncate to 2 decimal places
-    s.append(String.format(Locale.US, "%.2f", totalCost)).append(',');
-
-    if (medication.reasons.isEmpty()) {
-      s.append(','); // reason code & desc
-    } else {
-      Code reason = medication.reasons.get(0);
-      s.append(reason.code).append(',');
-      s.append(clean(reason.display));
-    }
-
-    s.append(NEWLINE);
-    write(s.toString(), medications);
+    return dispenses;
   }
 
   /**
@@ -827,14 +945,43 @@ public class CSVExporter {
   /**
    * Helper method to write a line to a File.
    * Extracted to a separate method here to make it a little easier to replace implementations.
+   * In segmented mode, lines for the patient tables go to the current thread's segment instead.
    *
    * @param line The line to write
    * @param writer The place to write it
    * @throws IOException if an I/O error occurs
    */
-  private static void write(String line, FileWriter writer) throws IOException {
-    synchronized (writer) {
-      writer.write(line);
+  private void write(String line, FileWriter writer) throws IOException {
+    if (segmented && tableFiles.containsKey(writer)) {
+      segment(writer).write(line);
+    } else {
+      synchronized (writer) {
+        writer.write(line);
+      }
+    }
+  }
+
+  /**
+   * Get the current thread's segment writer for the given patient table, creating it if
+   * necessary.
+   *
+   * @param table The writer for the table
+   * @return The segment writer
+   * @throws IOException if the segment file cannot be created
+   */
+  private Writer segment(FileWriter table) throws IOException {
+    long threadId = Thread.currentThread().getId();
+    Segment segment = segments.get(threadId);
+    if (segment == null) {
+      segment = new Segment(segmentCount.incrementAndGet());
+      segments.put(threadId, segment);
+    }
+    Writer writer = segment.writers.get(table);
+    if (writer == null) {
+      File segmentFile = segment.file(tableFiles.get(table)).toFile();
+      writer = new BufferedWriter(new FileWriter(segmentFile), SEGMENT_BUFFER_SIZE);
+      segment.writers.put(table, writer);
     }
+    return writer;
   }
 }
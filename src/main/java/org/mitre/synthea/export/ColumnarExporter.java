@@ -0,0 +1,421 @@
+package org.mitre.synthea.export;
+
+import static org.mitre.synthea.export.ColumnarTable.NULL_LONG;
+import static org.mitre.synthea.export.ColumnarTable.Type.DOUBLE;
+import static org.mitre.synthea.export.ColumnarTable.Type.LONG;
+import static org.mitre.synthea.export.ColumnarTable.Type.STRING;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.mitre.synthea.engine.Event;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.CarePlan;
+import org.mitre.synthea.world.concepts.HealthRecord.Code;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.mitre.synthea.world.concepts.HealthRecord.Entry;
+import org.mitre.synthea.world.concepts.HealthRecord.Medication;
+import org.mitre.synthea.world.concepts.HealthRecord.Observation;
+import org.mitre.synthea.world.concepts.HealthRecord.Procedure;
+
+/**
+ * Exports the same patient tables as {@link CSVExporter}, but as typed columnar files
+ * (see {@link ColumnarTable}) that analytics tools can load without parsing text:
+ * dates are milliseconds since the epoch, costs and numeric observation values are doubles,
+ * and IDs, codes and descriptions are dictionary encoded.
+ * Files include:
+ * patients.col, encounters.col, allergies.col,
+ * medications.col, conditions.col, careplans.col,
+ * observations.col, procedures.col, and immunizations.col.
+ * See the configuration settings "exporter.columnar.*".
+ */
+public class ColumnarExporter {
+  /**
+   * Instances, keyed by the output folder they write to, so that each export profile
+   * has its own.
+   */
+  private static final Map<String, ColumnarExporter> instances = new HashMap<>();
+
+  private final ColumnarTable patients;
+  private final ColumnarTable allergies;
+  private final ColumnarTable medications;
+  private final ColumnarTable conditions;
+  private final ColumnarTable careplans;
+  private final ColumnarTable observations;
+  private final ColumnarTable procedures;
+  private final ColumnarTable immunizations;
+  private final ColumnarTable encounters;
+
+  /**
+   * Constructor for the ColumnarExporter - defines the tables. The files are created in the
+   * "columnar" output folder as the first row group of each is written.
+   */
+  private ColumnarExporter() {
+    Path output = Exporter.getOutputFolder("columnar", null).toPath();
+    int size = Integer.parseInt(Config.get("exporter.columnar.row_group_size", "65536"));
+
+    patients = new ColumnarTable(output.resolve("patients.col"), size,
+        "ID", STRING, "BIRTHDATE", LONG, "DEATHDATE", LONG, "SSN", STRING,
+        "DRIVERS", STRING, "PASSPORT", STRING, "PREFIX", STRING, "FIRST", STRING,
+        "LAST", STRING, "SUFFIX", STRING, "MAIDEN", STRING, "MARITAL", STRING,
+        "RACE", STRING, "ETHNICITY", STRING, "GENDER", STRING, "BIRTHPLACE", STRING,
+        "ADDRESS", STRING, "CITY", STRING, "STATE", STRING, "ZIP", STRING);
+    encounters = new ColumnarTable(output.resolve("encounters.col"), size,
+        "ID", STRING, "START", LONG, "STOP", LONG, "PATIENT", STRING, "PROVIDER", STRING,
+        "ENCOUNTERCLASS", STRING, "CODE", STRING, "DESCRIPTION", STRING, "COST", DOUBLE,
+        "REASONCODE", STRING, "REASONDESCRIPTION", STRING);
+    conditions = entryTable(output.resolve("conditions.col"), size);
+    allergies = entryTable(output.resolve("allergies.col"), size);
+    observations = new ColumnarTable(output.resolve("observations.col"), size,
+        "DATE", LONG, "PATIENT", STRING, "ENCOUNTER", STRING, "CODE", STRING,
+        "DESCRIPTION", STRING, "VALUE", DOUBLE, "VALUE_TEXT", STRING, "UNITS", STRING,
+        "TYPE", STRING);
+    procedures = new ColumnarTable(output.resolve("procedures.col"), size,
+        "DATE", LONG, "PATIENT", STRING, "ENCOUNTER", STRING, "CODE", STRING,
+        "DESCRIPTION", STRING, "COST", DOUBLE, "REASONCODE", STRING,
+        "REASONDESCRIPTION", STRING);
+    medications = new ColumnarTable(output.resolve("medications.col"), size,
+        "START", LONG, "STOP", LONG, "PATIENT", STRING, "ENCOUNTER", STRING, "CODE", STRING,
+        "DESCRIPTION", STRING, "COST", DOUBLE, "DISPENSES", LONG, "TOTALCOST", DOUBLE,
+        "REASONCODE", STRING, "REASONDESCRIPTION", STRING);
+    immunizations = new ColumnarTable(output.resolve("immunizations.col"), size,
+        "DATE", LONG, "PATIENT", STRING, "ENCOUNTER", STRING, "CODE", STRING,
+        "DESCRIPTION", STRING, "COST", DOUBLE);
+    careplans = new ColumnarTable(output.resolve("careplans.col"), size,
+        "ID", STRING, "START", LONG, "STOP", LONG, "PATIENT", STRING, "ENCOUNTER", STRING,
+        "CODE", STRING, "DESCRIPTION", STRING, "REASONCODE", STRING,
+        "REASONDESCRIPTION", STRING);
+  }
+
+  /**
+   * Define a table with the START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION columns.
+   */
+  private static ColumnarTable entryTable(Path file, int size) {
+    return new ColumnarTable(file, size,
+        "START", LONG, "STOP", LONG, "PATIENT", STRING, "ENCOUNTER", STRING, "CODE", STRING,
+        "DESCRIPTION", STRING);
+  }
+
+  /**
+   * Get the instance of the ColumnarExporter for the current output folder, creating it if
+   * necessary. See the configuration setting "exporter.baseDirectory".
+   * @return the current instance of the ColumnarExporter.
+   */
+  public static synchronized ColumnarExporter getInstance() {
+    return instances.computeIfAbsent(Config.get("exporter.baseDirectory"),
+        k -> new ColumnarExporter());
+  }
+
+  /**
+   * Write out all of the buffered rows and close the tables of every instance. This method
+   * should be called once after all the Patient records have been exported using the
+   * export(Person,long) method. Any later exports go to a new set of tables.
+   * @throws IOException if any IO errors occur.
+   */
+  public static synchronized void closeAll() throws IOException {
+    for (ColumnarExporter instance : instances.values()) {
+      for (ColumnarTable table : new ColumnarTable[] {instance.patients, instance.allergies,
+          instance.medications, instance.conditions, instance.careplans, instance.observations,
+          instance.procedures, instance.immunizations, instance.encounters}) {
+        table.close();
+      }
+    }
+    instances.clear();
+  }
+
+  /**
+   * Add a single Person's health record info to the tables.
+   * @param person Person to write record data for
+   * @param time Time the simulation ended
+   * @throws IOException if any IO error occurs
+   */
+  public void export(Person person, long time) throws IOException {
+    export(person, time, true);
+  }
+
+  /**
+   * Add a single Person's health record info to the tables.
+   * @param person Person to write record data for
+   * @param time Time the simulation ended
+   * @param includePatient Whether to add the patient row, i.e., false for the later records
+   *     of a patient with split records.
+   * @throws IOException if any IO error occurs
+   */
+  public void export(Person person, long time, boolean includePatient) throws IOException {
+    String personID = includePatient
+        ? patient(person, time) : (String) person.attributes.get(Person.ID);
+
+    for (Encounter encounter : person.record.encounters) {
+      String encounterID = encounter(personID, encounter);
+
+      for (Entry condition : encounter.conditions) {
+        entry(conditions, personID, encounterID, condition);
+      }
+      for (Entry allergy : encounter.allergies) {
+        entry(allergies, personID, encounterID, allergy);
+      }
+      for (Observation observation : encounter.observations) {
+        observation(personID, encounterID, observation);
+      }
+      for (Procedure procedure : encounter.procedures) {
+        procedure(personID, encounterID, procedure);
+      }
+      for (Medication medication : encounter.medications) {
+        medication(personID, encounterID, medication, time);
+      }
+      for (Entry immunization : encounter.immunizations) {
+        immunization(personID, encounterID, immunization);
+      }
+      for (CarePlan careplan : encounter.careplans) {
+        careplan(personID, encounterID, careplan);
+      }
+    }
+  }
+
+  /**
+   * Add a single Patient row to patients.col.
+   *
+   * @param person Person to write data for
+   * @param time Time the simulation ended, to calculate deceased status
+   * @return the patient's ID, to be referenced as a "foreign key" if necessary
+   * @throws IOException if any IO error occurs
+   */
+  private String patient(Person person, long time) throws IOException {
+    String personID = (String) person.attributes.get(Person.ID);
+
+    ColumnarTable.RowGroup row = patients.startRow();
+    row.add(personID);
+    row.add((long) person.attributes.get(Person.BIRTHDATE));
+    row.add(person.alive(time) ? NULL_LONG : person.events.event(Event.DEATH).time);
+    for (String attribute : new String[] {
+        Person.IDENTIFIER_SSN,
+        Person.IDENTIFIER_DRIVERS,
+        Person.IDENTIFIER_PASSPORT,
+        Person.NAME_PREFIX,
+        Person.FIRST_NAME,
+        Person.LAST_NAME,
+        Person.NAME_SUFFIX,
+        Person.MAIDEN_NAME,
+        Person.MARITAL_STATUS,
+        Person.RACE,
+        Person.ETHNICITY,
+        Person.GENDER,
+        Person.BIRTHPLACE,
+        Person.ADDRESS,
+        Person.CITY,
+        Person.STATE,
+        Person.ZIP
+    }) {
+      row.add((String) person.attributes.get(attribute));
+    }
+    row.endRow();
+
+    return personID;
+  }
+
+  /**
+   * Add a single Encounter row to encounters.col.
+   *
+   * @param personID The ID of the person that had this encounter
+   * @param encounter The encounter itself
+   * @return The encounter ID, to be referenced as a "foreign key" if necessary
+   * @throws IOException if any IO error occurs
+   */
+  private String encounter(String personID, Encounter encounter) throws IOException {
+    String encounterID = UUID.randomUUID().toString();
+    Code coding = encounter.codes.get(0);
+
+    ColumnarTable.RowGroup row = encounters.startRow();
+    row.add(encounterID);
+    row.add(encounter.start);
+    row.add(stop(encounter.stop));
+    row.add(personID);
+    row.add(encounter.provider == null ? null : encounter.provider.getResourceID());
+    row.add(encounter.type == null ? null : encounter.type.toLowerCase());
+    row.add(coding.code);
+    row.add(coding.display);
+    row.add(encounter.cost().doubleValue());
+    reason(row, encounter.reason);
+    row.endRow();
+
+    return encounterID;
+  }
+
+  /**
+   * Add a single Condition or Allergy row.
+   *
+   * @param table The table to add the row to
+   * @param personID ID of the person that has the condition or allergy.
+   * @param encounterID ID of the encounter where it was diagnosed
+   * @param entry The condition or allergy itself
+   * @throws IOException if any IO error occurs
+   */
+  private void entry(ColumnarTable table, String personID, String encounterID, Entry entry)
+      throws IOException {
+    Code coding = entry.codes.get(0);
+
+    ColumnarTable.RowGroup row = table.startRow();
+    row.add(entry.start);
+    row.add(stop(entry.stop));
+    row.add(personID);
+    row.add(encounterID);
+    row.add(coding.code);
+    row.add(coding.display);
+    row.endRow();
+  }
+
+  /**
+   * Add a single Observation row to observations.col. Numeric values go in the VALUE column,
+   * anything else in the VALUE_TEXT column.
+   *
+   * @param personID ID of the person to whom the observation applies.
+   * @param encounterID ID of the encounter where the observation was taken
+   * @param observation The observation itself
+   * @throws IOException if any IO error occurs
+   */
+  private void observation(String personID, String encounterID,
+      Observation observation) throws IOException {
+    if (observation.value == null) {
+      if (observation.observations != null) {
+        for (Observation subObs : observation.observations) {
+          observation(personID, encounterID, subObs);
+        }
+      }
+      return;
+    }
+    Code coding = observation.codes.get(0);
+    boolean numeric = observation.value instanceof Number;
+
+    ColumnarTable.RowGroup row = observations.startRow();
+    row.add(observation.start);
+    row.add(personID);
+    row.add(encounterID);
+    row.add(coding.code);
+    row.add(coding.display);
+    row.add(numeric ? ((Number) observation.value).doubleValue() : Double.NaN);
+    row.add(numeric ? null : ExportHelper.getObservationValue(observation));
+    row.add(observation.unit);
+    row.add(ExportHelper.getObservationType(observation));
+    row.endRow();
+  }
+
+  /**
+   * Add a single Procedure row to procedures.col.
+   *
+   * @param personID ID of the person on whom the procedure was performed.
+   * @param encounterID ID of the encounter where the procedure was performed
+   * @param procedure The procedure itself
+   * @throws IOException if any IO error occurs
+   */
+  private void procedure(String personID, String encounterID,
+      Procedure procedure) throws IOException {
+    Code coding = procedure.codes.get(0);
+
+    ColumnarTable.RowGroup row = procedures.startRow();
+    row.add(procedure.start);
+    row.add(personID);
+    row.add(encounterID);
+    row.add(coding.code);
+    row.add(coding.display);
+    row.add(procedure.cost().doubleValue());
+    reason(row, procedure.reasons.isEmpty() ? null : procedure.reasons.get(0));
+    row.endRow();
+  }
+
+  /**
+   * Add a single Medication row to medications.col.
+   *
+   * @param personID ID of the person prescribed the medication.
+   * @param encounterID ID of the encounter where the medication was prescribed
+   * @param medication The medication itself
+   * @param stopTime End time
+   * @throws IOException if any IO error occurs
+   */
+  private void medication(String personID, String encounterID,
+      Medication medication, long stopTime) throws IOException {
+    Code coding = medication.codes.get(0);
+    BigDecimal cost = medication.cost();
+    long dispenses = CSVExporter.dispenses(medication, stopTime);
+
+    ColumnarTable.RowGroup row = medications.startRow();
+    row.add(medication.start);
+    row.add(stop(medication.stop));
+    row.add(personID);
+    row.add(encounterID);
+    row.add(coding.code);
+    row.add(coding.display);
+    row.add(cost.doubleValue());
+    row.add(dispenses);
+    row.add(cost.multiply(BigDecimal.valueOf(dispenses)).setScale(2, RoundingMode.DOWN)
+        .doubleValue());
+    reason(row, medication.reasons.isEmpty() ? null : medication.reasons.get(0));
+    row.endRow();
+  }
+
+  /**
+   * Add a single Immunization row to immunizations.col.
+   *
+   * @param personID ID of the person on whom the immunization was performed.
+   * @param encounterID ID of the encounter where the immunization was performed
+   * @param immunization The immunization itself
+   * @throws IOException if any IO error occurs
+   */
+  private void immunization(String personID, String encounterID,
+      Entry immunization) throws IOException {
+    Code coding = immunization.codes.get(0);
+
+    ColumnarTable.RowGroup row = immunizations.startRow();
+    row.add(immunization.start);
+    row.add(personID);
+    row.add(encounterID);
+    row.add(coding.code);
+    row.add(coding.display);
+    row.add(immunization.cost().doubleValue());
+    row.endRow();
+  }
+
+  /**
+   * Add a single CarePlan row to careplans.col.
+   *
+   * @param personID ID of the person prescribed the careplan.
+   * @param encounterID ID of the encounter where the careplan was prescribed
+   * @param careplan The careplan itself
+   * @throws IOException if any IO error occurs
+   */
+  private void careplan(String personID, String encounterID,
+      CarePlan careplan) throws IOException {
+    Code coding = careplan.codes.get(0);
+
+    ColumnarTable.RowGroup row = careplans.startRow();
+    row.add(UUID.randomUUID().toString());
+    row.add(careplan.start);
+    row.add(stop(careplan.stop));
+    row.add(personID);
+    row.add(encounterID);
+    row.add(coding.code);
+    row.add(coding.display);
+    reason(row, careplan.reasons.isEmpty() ? null : careplan.reasons.get(0));
+    row.endRow();
+  }
+
+  /**
+   * Add the REASONCODE and REASONDESCRIPTION columns.
+   */
+  private static void reason(ColumnarTable.RowGroup row, Code reason) {
+    row.add(reason == null ? null : reason.code);
+    row.add(reason == null ? null : reason.display);
+  }
+
+  /**
+   * Stop times of 0 mean the entry is still ongoing, which is stored as null.
+   */
+  private static long stop(long stop) {
+    return stop == 0L ? NULL_LONG : stop;
+  }
+}
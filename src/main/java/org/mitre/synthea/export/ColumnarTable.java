@@ -0,0 +1,403 @@
+package org.mitre.synthea.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A single table of typed columns, written in a simple binary columnar layout along the lines
+ * of Parquet. Rows are buffered per thread, and each thread's buffer is written out as a row
+ * group once it holds the configured number of rows, so threads only contend while appending
+ * a finished row group to the file.
+ *
+ * <p>File layout (all numbers big-endian):</p>
+ * <pre>
+ * "SCOL"
+ * row group*      for each column, in order:
+ *                   LONG:   long value per row (Long.MIN_VALUE for null)
+ *                   DOUBLE: double value per row (NaN for null)
+ *                   STRING: int dictionary size, dictionary strings,
+ *                           int dictionary index per row (-1 for null)
+ * footer          int column count, (string name, byte type) per column,
+ *                 int row group count, (long offset, int row count) per row group
+ * long            offset of the footer
+ * "SCOL"
+ * </pre>
+ * Strings are written as an int byte length followed by UTF-8 bytes.
+ * Use {@link #read(Path)} to load a table back into memory.
+ */
+public class ColumnarTable {
+  private static final byte[] MAGIC = "SCOL".getBytes(StandardCharsets.US_ASCII);
+
+  /** Value stored in a LONG column for null. */
+  public static final long NULL_LONG = Long.MIN_VALUE;
+
+  /** The types of column supported. */
+  public enum Type {
+    /** 64-bit integers, e.g., timestamps in milliseconds since the epoch. */
+    LONG,
+    /** 64-bit floating point numbers, e.g., costs and observation values. */
+    DOUBLE,
+    /** Dictionary encoded strings, e.g., IDs, codes and descriptions. */
+    STRING
+  }
+
+  private final Path file;
+  private final String[] names;
+  private final Type[] types;
+  private final int rowGroupSize;
+
+  /** Rows being buffered, keyed by the ID of the thread writing them. */
+  private final Map<Long, RowGroup> buffers = new ConcurrentHashMap<>();
+  private final List<long[]> rowGroups = new ArrayList<>();
+  private OutputStream out;
+  private long position;
+
+  /**
+   * Create a new table. The file is created when the first row group is written.
+   * @param file The file to write the table to. Any existing file is replaced.
+   * @param rowGroupSize Number of rows to buffer in each thread before writing them out.
+   * @param columns The columns, as alternating names and types.
+   */
+  public ColumnarTable(Path file, int rowGroupSize, Object... columns) {
+    this.file = file;
+    this.rowGroupSize = rowGroupSize;
+    this.names = new String[columns.length / 2];
+    this.types = new Type[columns.length / 2];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = (String) columns[i * 2];
+      types[i] = (Type) columns[i * 2 + 1];
+    }
+  }
+
+  /**
+   * Start a new row in the current thread's buffer. Add one value for each column, in order,
+   * then call {@link RowGroup#endRow()}.
+   * @return The buffer to add the values to.
+   */
+  public RowGroup startRow() {
+    return buffers.computeIfAbsent(Thread.currentThread().getId(), k -> new RowGroup());
+  }
+
+  /**
+   * Write out any buffered rows, then the footer, and close the file.
+   * @throws IOException if any IO error occurs
+   */
+  public void close() throws IOException {
+    for (RowGroup buffer : buffers.values()) {
+      buffer.flush();
+    }
+    buffers.clear();
+    synchronized (this) {
+      OutputStream stream = open();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream footer = new DataOutputStream(bytes);
+      footer.writeInt(names.length);
+      for (int i = 0; i < names.length; i++) {
+        writeString(footer, names[i]);
+        footer.writeByte(types[i].ordinal());
+      }
+      footer.writeInt(rowGroups.size());
+      for (long[] rowGroup : rowGroups) {
+        footer.writeLong(rowGroup[0]);
+        footer.writeInt((int) rowGroup[1]);
+      }
+      footer.writeLong(position);
+      footer.write(MAGIC);
+      bytes.writeTo(stream);
+      stream.close();
+      out = null;
+    }
+  }
+
+  /**
+   * Append an encoded row group to the file.
+   */
+  private synchronized void append(ByteArrayOutputStream rowGroup, int rowCount)
+      throws IOException {
+    OutputStream stream = open();
+    rowGroups.add(new long[] {position, rowCount});
+    rowGroup.writeTo(stream);
+    position += rowGroup.size();
+  }
+
+  /**
+   * Get the stream to the file, creating the file and writing the header if necessary.
+   */
+  private OutputStream open() throws IOException {
+    if (out == null) {
+      Files.createDirectories(file.getParent());
+      out = new BufferedOutputStream(Files.newOutputStream(file), 65536);
+      out.write(MAGIC);
+      position = MAGIC.length;
+      rowGroups.clear();
+    }
+    return out;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in) {
+    byte[] bytes = new byte[in.getInt()];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * One thread's buffered rows. Values are added column by column, and only the owning
+   * thread touches the buffer, so no locking is needed until the row group is written.
+   */
+  public class RowGroup {
+    private final long[][] longs = new long[types.length][];
+    private final double[][] doubles = new double[types.length][];
+    private final int[][] indexes = new int[types.length][];
+    private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+    private int rows;
+    private int column;
+
+    private RowGroup() {
+      for (int i = 0; i < types.length; i++) {
+        switch (types[i]) {
+          case LONG:
+            longs[i] = new long[rowGroupSize];
+            break;
+          case DOUBLE:
+            doubles[i] = new double[rowGroupSize];
+            break;
+          default:
+            indexes[i] = new int[rowGroupSize];
+        }
+        dictionaries.add(types[i] == Type.STRING ? new LinkedHashMap<>() : null);
+      }
+    }
+
+    /**
+     * Add a value to the next LONG column.
+     * @param value The value, or {@link ColumnarTable#NULL_LONG}.
+     * @return this buffer, for chaining.
+     */
+    public RowGroup add(long value) {
+      longs[next(Type.LONG)][rows] = value;
+      return this;
+    }
+
+    /**
+     * Add a value to the next DOUBLE column.
+     * @param value The value, or NaN for null.
+     * @return this buffer, for chaining.
+     */
+    public RowGroup add(double value) {
+      doubles[next(Type.DOUBLE)][rows] = value;
+      return this;
+    }
+
+    /**
+     * Add a value to the next STRING column.
+     * @param value The value, which may be null.
+     * @return this buffer, for chaining.
+     */
+    public RowGroup add(String value) {
+      int i = next(Type.STRING);
+      if (value == null) {
+        indexes[i][rows] = -1;
+      } else {
+        Map<String, Integer> dictionary = dictionaries.get(i);
+        Integer index = dictionary.get(value);
+        if (index == null) {
+          index = dictionary.size();
+          dictionary.put(value, index);
+        }
+        indexes[i][rows] = index;
+      }
+      return this;
+    }
+
+    /**
+     * Finish the current row, writing out the row group if it is full.
+     * @throws IOException if any IO error occurs
+     */
+    public void endRow() throws IOException {
+      if (column != types.length) {
+        throw new IllegalStateException("Row has " + column + " of " + types.length
+            + " columns for " + file.getFileName());
+      }
+      column = 0;
+      rows++;
+      if (rows == rowGroupSize) {
+        flush();
+      }
+    }
+
+    private int next(Type type) {
+      if (column >= types.length || types[column] != type) {
+        throw new IllegalStateException("Column " + column + " of " + file.getFileName()
+            + " is not " + type);
+      }
+      return column++;
+    }
+
+    /**
+     * Encode the buffered rows and append them to the file.
+     */
+    private void flush() throws IOException {
+      if (rows == 0) {
+        return;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(bytes);
+      for (int i = 0; i < types.length; i++) {
+        switch (types[i]) {
+          case LONG:
+            for (int row = 0; row < rows; row++) {
+              data.writeLong(longs[i][row]);
+            }
+            break;
+          case DOUBLE:
+            for (int row = 0; row < rows; row++) {
+              data.writeDouble(doubles[i][row]);
+            }
+            break;
+          default:
+            Map<String, Integer> dictionary = dictionaries.get(i);
+            data.writeInt(dictionary.size());
+            for (String value : dictionary.keySet()) {
+              writeString(data, value);
+            }
+            for (int row = 0; row < rows; row++) {
+              data.writeInt(indexes[i][row]);
+            }
+            dictionary.clear();
+        }
+      }
+      append(bytes, rows);
+      rows = 0;
+    }
+  }
+
+  /**
+   * Read a whole table into memory. The file is read one row group at a time, so tables
+   * larger than 2 GB can be read as long as each row group is smaller.
+   * @param file The file to read.
+   * @return The values of each column, keyed by column name, in column order. LONG columns
+   *     hold Longs, DOUBLE columns hold Doubles and STRING columns hold Strings. Null values
+   *     are returned as null.
+   * @throws IOException if any IO error occurs, or the file is not a columnar table.
+   */
+  public static Map<String, List<Object>> read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return read(file, channel);
+    }
+  }
+
+  /**
+   * Read a whole table from an open file, see {@link #read(Path)}.
+   */
+  private static Map<String, List<Object>> read(Path file, FileChannel channel)
+      throws IOException {
+    long size = channel.size();
+    int trailerSize = 8 + MAGIC.length;
+    if (size < MAGIC.length + trailerSize) {
+      throw new IOException(file + " is not a columnar table");
+    }
+    ByteBuffer trailer = readFully(channel, size - trailerSize, trailerSize);
+    long footerOffset = trailer.getLong();
+    byte[] magic = new byte[MAGIC.length];
+    trailer.get(magic);
+    if (!Arrays.equals(magic, MAGIC) || footerOffset < MAGIC.length
+        || footerOffset > size - trailerSize) {
+      throw new IOException(file + " is not a columnar table");
+    }
+    ByteBuffer in = readFully(channel, footerOffset, length(size - trailerSize - footerOffset));
+
+    String[] names = new String[in.getInt()];
+    Type[] types = new Type[names.length];
+    Map<String, List<Object>> table = new LinkedHashMap<>();
+    for (int i = 0; i < names.length; i++) {
+      names[i] = readString(in);
+      types[i] = Type.values()[in.get()];
+      table.put(names[i], new ArrayList<>());
+    }
+    long[][] rowGroups = new long[in.getInt()][];
+    for (int i = 0; i < rowGroups.length; i++) {
+      rowGroups[i] = new long[] {in.getLong(), in.getInt()};
+    }
+
+    for (int g = 0; g < rowGroups.length; g++) {
+      long[] rowGroup = rowGroups[g];
+      // row groups are written one after another, followed by the footer
+      long end = g + 1 < rowGroups.length ? rowGroups[g + 1][0] : footerOffset;
+      in = readFully(channel, rowGroup[0], length(end - rowGroup[0]));
+      int rows = (int) rowGroup[1];
+      for (int i = 0; i < names.length; i++) {
+        List<Object> values = table.get(names[i]);
+        switch (types[i]) {
+          case LONG:
+            for (int row = 0; row < rows; row++) {
+              long value = in.getLong();
+              values.add(value == NULL_LONG ? null : value);
+            }
+            break;
+          case DOUBLE:
+            for (int row = 0; row < rows; row++) {
+              double value = in.getDouble();
+              values.add(Double.isNaN(value) ? null : value);
+            }
+            break;
+          default:
+            String[] dictionary = new String[in.getInt()];
+            for (int d = 0; d < dictionary.length; d++) {
+              dictionary[d] = readString(in);
+            }
+            for (int row = 0; row < rows; row++) {
+              int index = in.getInt();
+              values.add(index == -1 ? null : dictionary[index]);
+            }
+        }
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Check that a part of the file can be read into a single buffer.
+   */
+  private static int length(long length) throws IOException {
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid columnar table section length: " + length);
+    }
+    return (int) length;
+  }
+
+  /**
+   * Read a part of the file into a new buffer.
+   */
+  private static ByteBuffer readFully(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of columnar table");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
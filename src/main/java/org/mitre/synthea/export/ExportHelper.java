@@ -1,6 +1,7 @@
 package org.mitre.synthea.export;
 
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
@@ -94,15 +95,45 @@ public abstract class ExportHelper {
     return type;
   }
 
+  /** Milliseconds in a day. */
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  /**
+   * Dates from this day (1850-01-01, in days since the epoch) up to LAST_CACHED_DAY are
+   * formatted once and cached. Dates outside the range fall back to SimpleDateFormat.
+   */
+  private static final long FIRST_CACHED_DAY = LocalDate.of(1850, 1, 1).toEpochDay();
+  private static final long LAST_CACHED_DAY = LocalDate.of(2150, 1, 1).toEpochDay();
+
+  /**
+   * Local time zone for Year-Month-Day dates, fixed when the class loads just as the
+   * SimpleDateFormat previously used here was.
+   */
+  private static final TimeZone LOCAL_ZONE = TimeZone.getDefault();
+
+  /**
+   * Formatted dates by day, in the local time zone and in UTC. Entries are filled in lazily
+   * without locking; two threads may both format the same day, but Strings are immutable so
+   * either copy is safe to publish and read.
+   */
+  private static final String[] LOCAL_DATES =
+      new String[(int) (LAST_CACHED_DAY - FIRST_CACHED_DAY)];
+  private static final String[] UTC_DATES = new String[LOCAL_DATES.length];
+
   /**
-   * Year-Month-Day date format.
+   * Year-Month-Day date format, for dates outside the cached range.
    */
-  private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = ThreadLocal.withInitial(() -> {
+    SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd");
+    f.setTimeZone(LOCAL_ZONE);
+    return f;
+  });
 
   /**
-   * Iso8601 date time format.
+   * Iso8601 date time format, for dates outside the cached range.
    */
-  private static final SimpleDateFormat ISO_DATE_FORMAT = iso();
+  private static final ThreadLocal<SimpleDateFormat> ISO_DATE_FORMAT =
+      ThreadLocal.withInitial(ExportHelper::iso);
 
   /**
    * Create a SimpleDateFormat for iso8601.
@@ -118,20 +149,62 @@ public abstract class ExportHelper {
    * Get a date string in the format YYYY-MM-DD from the given time stamp.
    */
   public static String dateFromTimestamp(long time) {
-    synchronized (DATE_FORMAT) {
-      // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=6231579
-      return DATE_FORMAT.format(new Date(time));
+    long day = Math.floorDiv(time + LOCAL_ZONE.getOffset(time), DAY);
+    String date = cachedDate(LOCAL_DATES, day);
+    if (date == null) {
+      date = DATE_FORMAT.get().format(new Date(time));
     }
+    return date;
   }
 
   /**
    * Get an iso8601 string for the given time stamp.
    */
   public static String iso8601Timestamp(long time) {
-    synchronized (ISO_DATE_FORMAT) {
-      // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=6231579
-      return ISO_DATE_FORMAT.format(new Date(time));
+    return appendIso8601Timestamp(new StringBuilder(20), time).toString();
+  }
+
+  /**
+   * Append an iso8601 string for the given time stamp, without creating an intermediate
+   * String.
+   * @param builder The builder to append to.
+   * @param time The time stamp.
+   * @return The builder, for chaining.
+   */
+  public static StringBuilder appendIso8601Timestamp(StringBuilder builder, long time) {
+    String date = cachedDate(UTC_DATES, Math.floorDiv(time, DAY));
+    if (date == null) {
+      return builder.append(ISO_DATE_FORMAT.get().format(new Date(time)));
     }
+    int seconds = (int) (Math.floorMod(time, DAY) / 1000);
+    builder.append(date).append('T');
+    appendTwoDigits(builder, seconds / 3600).append(':');
+    appendTwoDigits(builder, seconds / 60 % 60).append(':');
+    return appendTwoDigits(builder, seconds % 60).append('Z');
+  }
+
+  /**
+   * Get the formatted date for a day from a cache, formatting it if necessary.
+   * @return The date, or null if the day is outside the cached range.
+   */
+  private static String cachedDate(String[] cache, long day) {
+    if (day < FIRST_CACHED_DAY || day >= LAST_CACHED_DAY) {
+      return null;
+    }
+    int index = (int) (day - FIRST_CACHED_DAY);
+    String date = cache[index];
+    if (date == null) {
+      LocalDate localDate = LocalDate.ofEpochDay(day);
+      StringBuilder builder = new StringBuilder(10).append(localDate.getYear()).append('-');
+      appendTwoDigits(builder, localDate.getMonthValue()).append('-');
+      date = appendTwoDigits(builder, localDate.getDayOfMonth()).toString();
+      cache[index] = date;
+    }
+    return date;
+  }
+
+  private static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+    return builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
   }
 
   private static final String SNOMED_URI = "http://snomed.info/sct";
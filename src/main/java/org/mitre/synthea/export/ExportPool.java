@@ -0,0 +1,182 @@
+package org.mitre.synthea.export;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * Runs the export of each enabled format of a patient record as a separate task, as well as
+ * the independent exports that run once the whole population has been simulated.
+ * If "exporter.threads" is greater than zero, the tasks run in parallel, on the calling thread
+ * and a shared pool of that many exporter threads, so exporting a patient takes as long as its
+ * slowest format rather than the sum of all of them. Otherwise the tasks run one after another
+ * on the calling thread. Either way the time taken by each format is recorded, and printed at
+ * the end of the run if "exporter.metrics" is true.
+ */
+public class ExportPool {
+  private static ExecutorService pool;
+
+  /** Metrics of each format, and of each whole patient record, keyed by name. */
+  private static final Map<String, Metrics> metrics = new ConcurrentSkipListMap<>();
+  private static final String RECORD = "(whole record)";
+  /** Time the first record was exported, for throughput. */
+  private static final AtomicLong firstExport = new AtomicLong();
+
+  /**
+   * Time taken by the exports of a single format. Updated without locking by every thread.
+   */
+  private static class Metrics {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private void record(long nanos) {
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+  }
+
+  /**
+   * Run the export tasks of a patient record, and wait for all of them to finish. The tasks
+   * may read the record concurrently, so it must not change until this method returns, and its
+   * costs must already be calculated, see {@link Exporter#export(Person, long)}.
+   * @param tasks The export task of each format, keyed by format name.
+   */
+  static void runRecord(Map<String, Runnable> tasks) {
+    long start = System.nanoTime();
+    run(tasks);
+    metrics(RECORD).record(System.nanoTime() - start);
+  }
+
+  /**
+   * Run independent export tasks, e.g., those that run once the whole population has been
+   * simulated, and wait for all of them to finish.
+   * @param tasks The export tasks, keyed by name.
+   */
+  static void run(Map<String, Runnable> tasks) {
+    firstExport.compareAndSet(0L, System.nanoTime());
+    ExecutorService pool = tasks.size() > 1 ? getPool() : null;
+
+    if (pool == null) {
+      for (Map.Entry<String, Runnable> task : tasks.entrySet()) {
+        timed(task.getKey(), task.getValue()).run();
+      }
+      return;
+    }
+    // the tasks see the same settings as this thread, e.g., of the current export profile
+    Map<String, String> overrides = Config.getOverrides();
+    List<Future<?>> futures = new ArrayList<>();
+    Runnable first = null;
+    for (Map.Entry<String, Runnable> task : tasks.entrySet()) {
+      Runnable timedTask = timed(task.getKey(), task.getValue());
+      if (first == null) {
+        // this thread would only be waiting, so it runs one of the tasks itself
+        first = timedTask;
+      } else {
+        futures.add(pool.submit(() -> {
+          Map<String, String> previous = Config.setOverrides(overrides);
+          try {
+            timedTask.run();
+          } finally {
+            Config.setOverrides(previous);
+          }
+        }));
+      }
+    }
+    RuntimeException failure = null;
+    try {
+      first.run();
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof RuntimeException
+              ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Wrap a task so that its time is recorded against the given format.
+   */
+  private static Runnable timed(String format, Runnable task) {
+    return () -> {
+      long start = System.nanoTime();
+      task.run();
+      metrics(format).record(System.nanoTime() - start);
+    };
+  }
+
+  private static Metrics metrics(String name) {
+    return metrics.computeIfAbsent(name, k -> new Metrics());
+  }
+
+  /**
+   * Get the pool of exporter threads, creating it if necessary.
+   * See the configuration setting "exporter.threads".
+   * @return The pool, or null if formats should be exported on the calling thread.
+   */
+  private static synchronized ExecutorService getPool() {
+    int threads = Integer.parseInt(Config.get("exporter.threads", "0"));
+    if (pool == null && threads > 0) {
+      AtomicInteger count = new AtomicInteger();
+      pool = Executors.newFixedThreadPool(threads, task -> {
+        Thread thread = new Thread(task, "exporter-" + count.incrementAndGet());
+        // never keep the JVM alive just for idle exporter threads
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return threads > 0 ? pool : null;
+  }
+
+  /**
+   * Print the number of exports of each format, the throughput since the first export, and
+   * the mean and maximum time taken, if "exporter.metrics" is true. Counting then starts
+   * again, e.g., for the next run.
+   */
+  public static void printMetrics() {
+    if (!Boolean.parseBoolean(Config.get("exporter.metrics", "false")) || metrics.isEmpty()) {
+      metrics.clear();
+      firstExport.set(0L);
+      return;
+    }
+    double seconds = (System.nanoTime() - firstExport.get()) / 1e9;
+    System.out.println("Export metrics:");
+    System.out.println(String.format(Locale.US, "%-16s %10s %10s %10s %10s",
+        "format", "count", "per sec", "mean ms", "max ms"));
+    for (Map.Entry<String, Metrics> entry : metrics.entrySet()) {
+      Metrics m = entry.getValue();
+      long count = m.count.sum();
+      System.out.println(String.format(Locale.US, "%-16s %10d %10.1f %10.2f %10.2f",
+          entry.getKey(), count, count / seconds,
+          m.totalNanos.sum() / 1e6 / Math.max(count, 1), m.maxNanos.get() / 1e6));
+    }
+    metrics.clear();
+    firstExport.set(0L);
+  }
+}
@@ -3,17 +3,28 @@ package org.mitre.synthea.export;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
 
 import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.helpers.Config;
@@ -26,121 +37,280 @@ import org.mitre.synthea.world.concepts.HealthRecord.Observation;
 import org.mitre.synthea.world.concepts.HealthRecord.Report;
 
 public abstract class Exporter {
+  /**
+   * Prefix of the settings of each export profile, see {@link #forEachProfile(Runnable)}.
+   */
+  private static final String PROFILE_PREFIX = "exporter.profile.";
+
   /**
    * Export a single patient, into all the formats supported. (Formats may be enabled or disabled by
-   * configuration)
+   * configuration.) The patient is exported once for each export profile, see
+   * {@link #forEachProfile(Runnable)}.
    *
    * @param person   Patient to export
    * @param stopTime Time at which the simulation stopped
    */
   public static void export(Person person, long stopTime) {
+    // before filtering, so that every profile copies the same costs rather than drawing its own
+    if (person.hasMultipleRecords) {
+      for (HealthRecord record : person.records.values()) {
+        calculateCosts(record);
+      }
+    } else {
+      calculateCosts(person.record);
+    }
+    forEachProfile(() -> exportProfile(person, stopTime));
+  }
+
+  /**
+   * Run an action once for each export profile, with the profile's settings in effect on the
+   * current thread. If no profiles are configured, the action runs once with the settings as
+   * they are.
+   *
+   * <p>The setting "exporter.profiles" lists the names of the profiles. Each setting
+   * "exporter.profile.NAME.KEY" of a profile overrides "exporter.KEY", e.g.,
+   * "exporter.profile.NAME.years_of_history". Unless overridden, each profile writes to a
+   * subfolder of "exporter.baseDirectory" named after the profile. Settings that are used
+   * while simulating, such as "exporter.split_records", are the same for every profile.</p>
+   *
+   * @param action The action to run, e.g., exporting a patient.
+   */
+  public static void forEachProfile(Runnable action) {
+    Map<String, Map<String, String>> profiles = profiles();
+    if (profiles.isEmpty()) {
+      action.run();
+      return;
+    }
+    for (Map<String, String> settings : profiles.values()) {
+      Map<String, String> previous = Config.setOverrides(settings);
+      try {
+        action.run();
+      } finally {
+        Config.setOverrides(previous);
+      }
+    }
+  }
+
+  /**
+   * Calculate the cost of every entry the exporters include costs for, in record order.
+   * Costs are calculated when first needed, using the person's random number generator, so
+   * leaving them to the formats would make each cost depend on which format got there first,
+   * and on whether the formats run in parallel, see {@link ExportPool}. Records filtered for
+   * export copy the cost of each entry, so costs are calculated on the original record.
+   * @param record The record whose costs to calculate.
+   */
+  private static void calculateCosts(HealthRecord record) {
+    for (Encounter encounter : record.encounters) {
+      encounter.cost();
+      for (HealthRecord.Entry item : encounter.claim.items) {
+        item.cost();
+      }
+      for (HealthRecord.Entry procedure : encounter.procedures) {
+        procedure.cost();
+      }
+      for (HealthRecord.Medication medication : encounter.medications) {
+        medication.cost();
+        for (HealthRecord.Entry item : medication.claim.items) {
+          item.cost();
+        }
+      }
+      for (HealthRecord.Entry immunization : encounter.immunizations) {
+        immunization.cost();
+      }
+    }
+  }
+
+  /**
+   * Get the settings of each export profile.
+   * @return The settings each profile overrides, keyed by profile name, in the order listed.
+   */
+  private static Map<String, Map<String, String>> profiles() {
+    Map<String, Map<String, String>> profiles = new LinkedHashMap<>();
+    for (String name : Config.get("exporter.profiles", "").split(",")) {
+      name = name.trim();
+      if (!name.isEmpty()) {
+        Map<String, String> settings = new HashMap<>();
+        String prefix = PROFILE_PREFIX + name + ".";
+        for (String key : Config.allPropertyNames()) {
+          if (key.startsWith(prefix)) {
+            settings.put("exporter." + key.substring(prefix.length()), Config.get(key));
+          }
+        }
+        settings.putIfAbsent("exporter.baseDirectory",
+            Paths.get(Config.get("exporter.baseDirectory"), name).toString());
+        profiles.put(name, settings);
+      }
+    }
+    return profiles;
+  }
+
+  /**
+   * Export a single patient, into all the formats enabled by the current settings.
+   *
+   * @param person   Patient to export
+   * @param stopTime Time at which the simulation stopped
+   */
+  private static void exportProfile(Person person, long stopTime) {
     int yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history"));
     if (yearsOfHistory > 0) {
       person = filterForExport(person, yearsOfHistory, stopTime);
+    } else if (person.hasMultipleRecords) {
+      // a copy, so that switching between the records leaves the person's active record alone
+      person = new Person(person);
     }
     if (person.hasMultipleRecords) {
       int i = 0;
       for (String key : person.records.keySet()) {
         person.record = person.records.get(key);
-        exportRecord(person, Integer.toString(i), stopTime);
+        // the tabular formats have a single patient row, so only the first record writes it
+        exportRecord(person, Integer.toString(i), stopTime, i == 0);
         i++;
       }
     } else {
-      exportRecord(person, "", stopTime);
+      exportRecord(person, "", stopTime, true);
     }
   }
 
   /**
    * Export a single patient record, into all the formats supported.
-   * (Formats may be enabled or disabled by configuration)
+   * (Formats may be enabled or disabled by configuration.) Each format is a separate task,
+   * see {@link ExportPool}.
    *
    * @param person   Patient to export, with Patient.record being set.
    * @param fileTag  An identifier to tag the file with.
    * @param stopTime Time at which the simulation stopped
+   * @param firstRecord Whether this is the patient's first record, see
+   *     {@link CSVExporter#export(Person, long, boolean)}.
    */
-  private static void exportRecord(Person person, String fileTag, long stopTime) {
+  private static void exportRecord(Person person, String fileTag, long stopTime,
+      boolean firstRecord) {
+    Map<String, Runnable> tasks = new LinkedHashMap<>();
+
+    if (Boolean.parseBoolean(Config.get("exporter.fhir.export"))
+        || Boolean.parseBoolean(Config.get("exporter.fhir_stu3.export"))
+        || Boolean.parseBoolean(Config.get("exporter.fhir_dstu2.export"))) {
+      // one task, so the FHIR versions are converted one after another, see exportFhir
+      tasks.put("fhir", () -> exportFhir(person, fileTag, stopTime));
+    }
+    if (Boolean.parseBoolean(Config.get("exporter.ccda.export"))) {
+      tasks.put("ccda", () -> {
+        // rendered straight into the file, without building the whole document as a String
+        try (Writer writer = newWriter("ccda", person, filename(person, fileTag, "xml"))) {
+          CCDAExporter.export(person, stopTime, writer);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+    }
+    if (Boolean.parseBoolean(Config.get("exporter.csv.export"))) {
+      tasks.put("csv", () -> {
+        try {
+          CSVExporter.getInstance().export(person, stopTime, firstRecord);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+    }
+    if (Boolean.parseBoolean(Config.get("exporter.columnar.export"))) {
+      tasks.put("columnar", () -> {
+        try {
+          ColumnarExporter.getInstance().export(person, stopTime, firstRecord);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+    }
+    if (Boolean.parseBoolean(Config.get("exporter.text.export"))) {
+      tasks.put("text", () -> {
+        try {
+          TextExporter.exportAll(person, fileTag, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+    }
+    if (Boolean.parseBoolean(Config.get("exporter.text.per_encounter_export"))) {
+      tasks.put("text_encounters", () -> {
+        try {
+          TextExporter.exportEncounter(person, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+    }
+    if (Boolean.parseBoolean(Config.get("exporter.cdw.export"))) {
+      tasks.put("cdw", () -> {
+        try {
+          CDWExporter.getInstance().export(person, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+    }
+
+    ExportPool.runRecord(tasks);
+  }
+
+  /**
+   * Export a single patient record into each of the enabled FHIR versions.
+   *
+   * @param person   Patient to export, with Patient.record being set.
+   * @param fileTag  An identifier to tag the file with.
+   * @param stopTime Time at which the simulation stopped
+   */
+  private static void exportFhir(Person person, String fileTag, long stopTime) {
+    boolean bulk = Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"));
+    boolean streaming = !bulk && Boolean.parseBoolean(Config.get("exporter.fhir.streaming"));
 
+    // one version at a time, so only a single Bundle is held in memory
     if (Boolean.parseBoolean(Config.get("exporter.fhir_stu3.export"))) {
-      File outDirectory = getOutputFolder("fhir_stu3", person);
-      if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
-        org.hl7.fhir.dstu3.model.Bundle bundle = FhirStu3.convertToFHIR(person, stopTime);
+      org.hl7.fhir.dstu3.model.Bundle bundle = FhirStu3.convertToFHIR(person, stopTime);
+      if (bulk) {
+        File outDirectory = getOutputFolder("fhir_stu3", person);
         IParser parser = FhirContext.forDstu3().newJsonParser().setPrettyPrint(false);
         for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceType().toString() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
+          String resourceType = entry.getResource().getResourceType().toString();
           String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+          BulkDataWriter.append(outDirectory, resourceType, entryJson);
         }
       } else {
-        String bundleJson = FhirStu3.convertToFHIRJson(person, stopTime);
-        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
-        writeNewFile(outFilePath, bundleJson);
+        String bundleJson = FhirStu3.toJson(bundle);
+        writeNewFile("fhir_stu3", person, filename(person, fileTag, "json"), bundleJson);
       }
     }
     if (Boolean.parseBoolean(Config.get("exporter.fhir_dstu2.export"))) {
-      File outDirectory = getOutputFolder("fhir_dstu2", person);
-      if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
-        ca.uhn.fhir.model.dstu2.resource.Bundle bundle = FhirDstu2.convertToFHIR(person, stopTime);
+      ca.uhn.fhir.model.dstu2.resource.Bundle bundle = FhirDstu2.convertToFHIR(person, stopTime);
+      if (bulk) {
+        File outDirectory = getOutputFolder("fhir_dstu2", person);
         IParser parser = FhirContext.forDstu2().newJsonParser().setPrettyPrint(false);
         for (ca.uhn.fhir.model.dstu2.resource.Bundle.Entry entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceName() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
+          String resourceType = entry.getResource().getResourceName();
           String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+          BulkDataWriter.append(outDirectory, resourceType, entryJson);
         }
       } else {
-        String bundleJson = FhirDstu2.convertToFHIRJson(person, stopTime);
-        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
-        writeNewFile(outFilePath, bundleJson);
+        String bundleJson = FhirDstu2.toJson(bundle);
+        writeNewFile("fhir_dstu2", person, filename(person, fileTag, "json"), bundleJson);
       }
     }
-    if (Boolean.parseBoolean(Config.get("exporter.fhir.export"))) {
-      File outDirectory = getOutputFolder("fhir", person);
-      if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
-        org.hl7.fhir.r4.model.Bundle bundle = FhirR4.convertToFHIR(person, stopTime);
+    if (Boolean.parseBoolean(Config.get("exporter.fhir.export")) && !streaming) {
+      org.hl7.fhir.r4.model.Bundle bundle = FhirR4.convertToFHIR(person, stopTime);
+      if (bulk) {
+        File outDirectory = getOutputFolder("fhir", person);
         IParser parser = FhirContext.forR4().newJsonParser().setPrettyPrint(false);
         for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceType().toString() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
+          String resourceType = entry.getResource().getResourceType().toString();
           String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+          BulkDataWriter.append(outDirectory, resourceType, entryJson);
         }
       } else {
-        String bundleJson = FhirR4.convertToFHIRJson(person, stopTime);
-        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
-        writeNewFile(outFilePath, bundleJson);
-      }
-    }
-    if (Boolean.parseBoolean(Config.get("exporter.ccda.export"))) {
-      String ccdaXml = CCDAExporter.export(person, stopTime);
-      File outDirectory = getOutputFolder("ccda", person);
-      Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "xml"));
-      writeNewFile(outFilePath, ccdaXml);
-    }
-    if (Boolean.parseBoolean(Config.get("exporter.csv.export"))) {
-      try {
-        CSVExporter.getInstance().export(person, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    }
-    if (Boolean.parseBoolean(Config.get("exporter.text.export"))) {
-      try {
-        TextExporter.exportAll(person, fileTag, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    }
-    if (Boolean.parseBoolean(Config.get("exporter.text.per_encounter_export"))) {
-      try {
-        TextExporter.exportEncounter(person, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
+        String bundleJson = FhirR4.toJson(bundle);
+        writeNewFile("fhir", person, filename(person, fileTag, "json"), bundleJson);
       }
-    }
-    if (Boolean.parseBoolean(Config.get("exporter.cdw.export"))) {
-      try {
-        CDWExporter.getInstance().export(person, stopTime);
+    } else if (Boolean.parseBoolean(Config.get("exporter.fhir.export"))) {
+      // streamed one encounter at a time, so the whole Bundle is never held in memory
+      try (Writer writer = newWriter("fhir", person, filename(person, fileTag, "json"))) {
+        FhirR4.convertToFHIRJson(person, stopTime, writer);
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -148,36 +318,81 @@ public abstract class Exporter {
   }
 
   /**
-   * Write a new file with the given contents.
-   * @param file Path to the new file.
+   * Write a new per-patient file with the given contents.
+   * @param folderName The folder to write the file into, e.g., "fhir".
+   * @param person The person being exported.
+   * @param filename The name of the file, see {@link #filename(Person, String, String)}.
    * @param contents The contents of the file.
    */
-  private static void writeNewFile(Path file, String contents) {
+  private static void writeNewFile(String folderName, Person person, String filename,
+      String contents) {
     try {
-      Files.write(file, Collections.singleton(contents), StandardOpenOption.CREATE_NEW);
+      writeNewFile(folderName, person, filename, Collections.singleton(contents));
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
   /**
-   * Append contents to the end of a file.
-   * @param file Path to the new file.
-   * @param contents The contents of the file.
+   * Write a new per-patient file with the given lines, each followed by a line separator.
+   * See {@link #newWriter(String, Person, String)}.
+   * @param folderName The folder to write the file into, e.g., "fhir".
+   * @param person The person being exported.
+   * @param filename The name of the file, see {@link #filename(Person, String, String)}.
+   * @param lines The lines of the file.
+   * @throws IOException if the file already exists or cannot be written
    */
-  private static synchronized void appendToFile(Path file, String contents) {
-    try {
-      if (Files.notExists(file)) {
-        Files.createFile(file);
+  static void writeNewFile(String folderName, Person person, String filename,
+      Iterable<? extends CharSequence> lines) throws IOException {
+    try (Writer writer = newWriter(folderName, person, filename)) {
+      for (CharSequence line : lines) {
+        writer.append(line);
+        writer.write(System.lineSeparator());
       }
-    } catch (Exception e) {
-      // Ignore... multi-threaded race condition to create a file that didn't exist,
-      // but does now because one of the other exporter threads beat us to it.
     }
-    try {
-      Files.write(file, Collections.singleton(contents), StandardOpenOption.APPEND);
-    } catch (IOException e) {
-      e.printStackTrace();
+  }
+
+  /**
+   * Open a new per-patient file for writing as UTF-8 text. The file is created in the output
+   * folder for the person, or, if "exporter.archive" is enabled, added to the
+   * {@link PatientArchive} when the writer is closed. Either way, it is compressed as it is
+   * written if configured, see "exporter.compression".
+   * @param folderName The folder to write the file into, e.g., "fhir".
+   * @param person The person being exported.
+   * @param filename The name of the file, see {@link #filename(Person, String, String)}.
+   * @return A buffered Writer for the file, which the caller must close.
+   * @throws IOException if the file already exists or cannot be created
+   */
+  static Writer newWriter(String folderName, Person person, String filename)
+      throws IOException {
+    OutputStream out;
+    if (PatientArchive.isEnabled()) {
+      out = PatientArchive.newDocument((String) person.attributes.get(Person.ID),
+          folderName + "/" + filename);
+    } else {
+      Path file = getOutputFolder(folderName, person).toPath().resolve(filename);
+      out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW);
+    }
+    if (compressionExtension() != null) {
+      out = new GZIPOutputStream(out, 65536);
+    }
+    return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Get the file extension for the configured compression, see "exporter.compression".
+   * @return "gz" for gzip, or null if output is not compressed.
+   */
+  private static String compressionExtension() {
+    String compression = Config.get("exporter.compression", "none").trim().toLowerCase();
+    switch (compression) {
+      case "none":
+      case "":
+        return null;
+      case "gzip":
+        return "gz";
+      default:
+        throw new IllegalArgumentException("Unsupported exporter.compression: " + compression);
     }
   }
 
@@ -188,44 +403,66 @@ public abstract class Exporter {
    * @param generator Generator that generated the patients
    */
   public static void runPostCompletionExports(Generator generator) {
-    String bulk = Config.get("exporter.fhir.bulk_data");
-    Config.set("exporter.fhir.bulk_data", "false");
-    try {
-      HospitalExporterR4.export(generator.stop);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-
-    try {
-      FhirPractitionerExporterR4.export(generator.stop);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    PatientArchive.closeAll();
 
-    try {
-      HospitalExporterStu3.export(generator.stop);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-
-    try {
-      FhirPractitionerExporterStu3.export(generator.stop);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    forEachProfile(() -> runProfilePostCompletionExports(generator));
+    // closed last, as hospitals and practitioners are appended to the bulk data files too
+    BulkDataWriter.closeAll();
 
-    try {
-      HospitalExporterDstu2.export(generator.stop);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    ExportPool.printMetrics();
+  }
 
-    try {
-      FhirPractitionerExporterDstu2.export(generator.stop);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    Config.set("exporter.fhir.bulk_data", bulk);
+  /**
+   * Run the exporters that require the full dataset, that are enabled by the current settings.
+   *
+   * @param generator Generator that generated the patients
+   */
+  private static void runProfilePostCompletionExports(Generator generator) {
+    // the hospital and practitioner exports are independent, so they run as parallel tasks
+    Map<String, Runnable> tasks = new LinkedHashMap<>();
+    tasks.put("hospital_r4", () -> {
+      try {
+        HospitalExporterR4.export(generator.stop);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    tasks.put("practitioner_r4", () -> {
+      try {
+        FhirPractitionerExporterR4.export(generator.stop);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    tasks.put("hospital_stu3", () -> {
+      try {
+        HospitalExporterStu3.export(generator.stop);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    tasks.put("practitioner_stu3", () -> {
+      try {
+        FhirPractitionerExporterStu3.export(generator.stop);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    tasks.put("hospital_dstu2", () -> {
+      try {
+        HospitalExporterDstu2.export(generator.stop);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    tasks.put("practitioner_dstu2", () -> {
+      try {
+        FhirPractitionerExporterDstu2.export(generator.stop);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    ExportPool.run(tasks);
 
     if (Boolean.parseBoolean(Config.get("exporter.cost_access_outcomes_report"))) {
       ReportExporter.export(generator);
@@ -255,11 +492,20 @@ public abstract class Exporter {
 
     if (Boolean.parseBoolean(Config.get("exporter.csv.export"))) {
       try {
+        CSVExporter.getInstance().mergeSegments();
         CSVExporter.getInstance().exportOrganizationsAndProviders();
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
+
+    if (Boolean.parseBoolean(Config.get("exporter.columnar.export"))) {
+      try {
+        ColumnarExporter.closeAll();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
   }
 
   /**
@@ -267,25 +513,31 @@ public abstract class Exporter {
    * but also include relevant history from before that. Exclude
    * any history that occurs after the specified end_time -- typically
    * this is the current time/System.currentTimeMillis().
+   * The original Person is not modified, so it may be filtered again, e.g., with a different
+   * number of years.
    *
    * @param original    The Person to filter.
    * @param yearsToKeep The last __ years to keep.
    * @param endTime     The time the history ends.
-   * @return Modified Person with history expunged.
+   * @return A copy of the Person, sharing its state but with filtered health records.
    */
   public static Person filterForExport(Person original, int yearsToKeep, long endTime) {
-    // TODO: clone the patient so that we export only the last _ years
-    // but the rest still exists, just in case
-    Person filtered = original; //.clone();
-    //filtered.record = original.record.clone();
-
-    if (filtered.hasMultipleRecords) {
-      for (String key : filtered.records.keySet()) {
-        HealthRecord record = filtered.records.get(key);
-        filterForExport(record, yearsToKeep, endTime);
+    Person filtered = new Person(original);
+
+    if (original.hasMultipleRecords) {
+      // keep the records in the same order, and the active record pointing at one of them
+      filtered.records = new LinkedHashMap<>();
+      for (String key : original.records.keySet()) {
+        HealthRecord record = original.records.get(key);
+        HealthRecord filteredRecord = filterForExport(record, yearsToKeep, endTime);
+        filtered.records.put(key, filteredRecord);
+        if (record == original.record) {
+          filtered.record = filteredRecord;
+        }
       }
-    } else {
-      filtered.record = filterForExport(filtered.record, yearsToKeep, endTime);
+    }
+    if (filtered.record == original.record) {
+      filtered.record = filterForExport(original.record, yearsToKeep, endTime);
     }
 
     return filtered;
@@ -296,53 +548,43 @@ public abstract class Exporter {
    * but also include relevant history from before that. Exclude
    * any history that occurs after the specified end_time -- typically
    * this is the current time/System.currentTimeMillis().
+   * The record is filtered in a single pass, into copies of the encounters that share the
+   * original entries, so the original record is not modified.
    *
    * @param record    The record to filter.
    * @param yearsToKeep The last __ years to keep.
    * @param endTime     The time the history ends.
-   * @return Modified record with history expunged.
+   * @return A copy of the record with history expunged.
    */
   private static HealthRecord filterForExport(HealthRecord record, int yearsToKeep, long endTime) {
 
     long cutoffDate = endTime - Utilities.convertTime("years", yearsToKeep);
     Predicate<HealthRecord.Entry> notFutureDated = e -> e.start <= endTime;
 
-    for (Encounter encounter : record.encounters) {
-      List<HealthRecord.Entry> claimItems = encounter.claim.items;
-      // keep conditions if still active, regardless of start date
-      Predicate<HealthRecord.Entry> conditionActive = c -> record.conditionActive(c.type);
-      // or if the condition was active at any point since the cutoff date
-      Predicate<HealthRecord.Entry> activeWithinCutoff = c -> c.stop != 0L && c.stop > cutoffDate;
-      Predicate<HealthRecord.Entry> keepCondition = conditionActive.or(activeWithinCutoff);
-      filterEntries(encounter.conditions, claimItems, cutoffDate, endTime, keepCondition);
-
-      // allergies are essentially the same as conditions
-      filterEntries(encounter.allergies, claimItems, cutoffDate, endTime, keepCondition);
-
-      // some of the "future death" logic could potentially add a future-dated death certificate
-      Predicate<Observation> isCauseOfDeath =
-          o -> DeathModule.CAUSE_OF_DEATH_CODE.code.equals(o.type);
-      // keep cause of death unless it's future dated
-      Predicate<Observation> keepObservation = isCauseOfDeath.and(notFutureDated);
-      filterEntries(encounter.observations, claimItems, cutoffDate, endTime, keepObservation);
-
-      // keep all death certificates, unless they are future-dated
-      Predicate<Report> isDeathCertificate = r -> DeathModule.DEATH_CERTIFICATE.code.equals(r.type);
-      Predicate<Report> keepReport = isDeathCertificate.and(notFutureDated);
-      filterEntries(encounter.reports, claimItems, cutoffDate, endTime, keepReport);
-
-      filterEntries(encounter.procedures, claimItems, cutoffDate, endTime, null);
+    // the types of condition, allergy, medication and careplan that are still active,
+    // found once up front rather than looked up for every entry
+    Set<String> activeTypes = new HashSet<>();
+    record.present.forEach((type, entry) -> {
+      if (entry.stop == 0L) {
+        activeTypes.add(type);
+      }
+    });
+    Predicate<HealthRecord.Entry> stillActive = e -> activeTypes.contains(e.type);
 
-      // keep medications if still active, regardless of start date
-      filterEntries(encounter.medications, claimItems, cutoffDate, endTime,
-          med -> record.medicationActive(med.type));
+    // keep conditions if still active, regardless of start date
+    // or if the condition was active at any point since the cutoff date
+    Predicate<HealthRecord.Entry> activeWithinCutoff = c -> c.stop != 0L && c.stop > cutoffDate;
+    Predicate<HealthRecord.Entry> keepCondition = stillActive.or(activeWithinCutoff);
 
-      filterEntries(encounter.immunizations, claimItems, cutoffDate, endTime, null);
+    // some of the "future death" logic could potentially add a future-dated death certificate
+    Predicate<Observation> isCauseOfDeath =
+        o -> DeathModule.CAUSE_OF_DEATH_CODE.code.equals(o.type);
+    // keep cause of death unless it's future dated
+    Predicate<Observation> keepObservation = isCauseOfDeath.and(notFutureDated);
 
-      // keep careplans if they are still active, regardless of start date
-      filterEntries(encounter.careplans, claimItems, cutoffDate, endTime,
-          cp -> record.careplanActive(cp.type));
-    }
+    // keep all death certificates, unless they are future-dated
+    Predicate<Report> isDeathCertificate = r -> DeathModule.DEATH_CERTIFICATE.code.equals(r.type);
+    Predicate<Report> keepReport = isDeathCertificate.and(notFutureDated);
 
     // if ANY of these are not empty, the encounter is not empty
     Predicate<Encounter> encounterNotEmpty = e ->
@@ -356,10 +598,52 @@ public abstract class Exporter {
     Predicate<Encounter> keepEncounter =
         encounterNotEmpty.or(isDeathCertification.and(notFutureDated));
 
-    // finally filter out any empty encounters
-    filterEntries(record.encounters, Collections.emptyList(), cutoffDate, endTime, keepEncounter);
+    HealthRecord filtered = new HealthRecord(record);
+    filtered.encounters = new ArrayList<>(record.encounters.size());
+    // what each entry of the current encounter was exported as, or null if it was removed,
+    // compared by identity because we only care if it's the actual same object
+    Map<HealthRecord.Entry, HealthRecord.Entry> exported = new IdentityHashMap<>();
+
+    for (Encounter original : record.encounters) {
+      Encounter encounter = original.clone();
+      exported.clear();
+      encounter.conditions = filterEntries(original.conditions, exported, cutoffDate, endTime,
+          keepCondition);
+      // allergies are essentially the same as conditions
+      encounter.allergies = filterEntries(original.allergies, exported, cutoffDate, endTime,
+          keepCondition);
+      encounter.observations = filterEntries(original.observations, exported, cutoffDate,
+          endTime, keepObservation);
+      encounter.reports = filterEntries(original.reports, exported, cutoffDate, endTime,
+          keepReport);
+      encounter.procedures = filterEntries(original.procedures, exported, cutoffDate, endTime,
+          null);
+      // keep medications if still active, regardless of start date
+      encounter.medications = filterEntries(original.medications, exported, cutoffDate,
+          endTime, stillActive);
+      encounter.immunizations = filterEntries(original.immunizations, exported, cutoffDate,
+          endTime, null);
+      // keep careplans if they are still active, regardless of start date
+      encounter.careplans = filterEntries(original.careplans, exported, cutoffDate, endTime,
+          stillActive);
+
+      encounter.claim.items = new ArrayList<>(original.claim.items.size());
+      for (HealthRecord.Entry item : original.claim.items) {
+        if (!exported.containsKey(item)) {
+          encounter.claim.items.add(item);
+        } else if (exported.get(item) != null) {
+          encounter.claim.items.add(exported.get(item));
+        }
+      }
+
+      // finally filter out any empty encounters
+      Encounter kept = filterEntry(encounter, cutoffDate, endTime, keepEncounter);
+      if (kept != null) {
+        filtered.encounters.add(kept);
+      }
+    }
 
-    return record;
+    return filtered;
   }
 
   /**
@@ -368,38 +652,52 @@ public abstract class Exporter {
    * entry.
    *
    * @param entries      List of `Entry`s to filter
-   * @param claimItems   List of ClaimItems, from which any removed items should also be removed.
+   * @param exported     Map to record what each entry was exported as, or null if it was removed.
    * @param cutoffDate   Minimum date, entries older than this may be discarded
    * @param endTime      Maximum date, entries newer than this may be discarded
    * @param keepFunction Keep function, if this function returns `true` for an entry then it will
    *                     be kept
+   * @return A new list of the kept entries.
    */
-  private static <E extends HealthRecord.Entry> void filterEntries(List<E> entries,
-      List<HealthRecord.Entry> claimItems, long cutoffDate,
-      long endTime, Predicate<E> keepFunction) {
-
-    Iterator<E> iterator = entries.iterator();
-    // iterator allows us to use the remove() method
-    while (iterator.hasNext()) {
-      E entry = iterator.next();
-      // if the entry is not within the keep time range,
-      // and the special keep function (if provided) doesn't say keep it
-      // remove it from the list
-      if (!entryWithinTimeRange(entry, cutoffDate, endTime)
-          && (keepFunction == null || !keepFunction.test(entry))) {
-        iterator.remove();
-
-        claimItems.removeIf(ci -> ci == entry);
-        // compare with == because we only care if it's the actual same object
+  private static <E extends HealthRecord.Entry> List<E> filterEntries(List<E> entries,
+      Map<HealthRecord.Entry, HealthRecord.Entry> exported, long cutoffDate,
+      long endTime, Predicate<? super E> keepFunction) {
+
+    List<E> kept = new ArrayList<>(entries.size());
+    for (E entry : entries) {
+      E keptEntry = filterEntry(entry, cutoffDate, endTime, keepFunction);
+      if (keptEntry != null) {
+        kept.add(keptEntry);
+      }
+      if (keptEntry != entry) {
+        exported.put(entry, keptEntry);
       }
     }
+    return kept;
+  }
+
+  /**
+   * Helper function to filter a single entry. The entry is kept if its date range falls within
+   * the provided range or if `keepFunction` is provided, and returns `true` for the entry.
+   *
+   * @return The entry, a copy of the entry if it needs to be changed for export, or null if
+   *     the entry is not kept.
+   */
+  private static <E extends HealthRecord.Entry> E filterEntry(E entry, long cutoffDate,
+      long endTime, Predicate<? super E> keepFunction) {
+    E keptEntry = entryWithinTimeRange(entry, cutoffDate, endTime);
+    if (keptEntry == null && keepFunction != null && keepFunction.test(entry)) {
+      keptEntry = entry;
+    }
+    return keptEntry;
   }
 
-  private static boolean entryWithinTimeRange(
-      HealthRecord.Entry e, long cutoffDate, long endTime) {
+  @SuppressWarnings("unchecked")
+  private static <E extends HealthRecord.Entry> E entryWithinTimeRange(
+      E e, long cutoffDate, long endTime) {
 
     if (e.start > cutoffDate && e.start <= endTime) {
-      return true; // trivial case, when we're within the last __ years
+      return e; // trivial case, when we're within the last __ years
     }
 
     // if the entry has a stop time, check if the effective date range overlapped the last __ years
@@ -407,14 +705,16 @@ public abstract class Exporter {
 
       if (e.stop > endTime) {
         // If any entries have an end date in the future but are within the cutoffDate,
-        // remove the end date but keep the entry (since it's still active).
-        e.stop = 0L;
+        // export a copy without the end date but keep the entry (since it's still active).
+        E copy = (E) e.clone();
+        copy.stop = 0L;
+        return copy;
       }
 
-      return true;
+      return e;
     }
 
-    return false;
+    return null;
   }
 
   /**
@@ -450,7 +750,7 @@ public abstract class Exporter {
 
   /**
    * Get the filename to used to export the patient record.
-   * See the configuration setting "exporter.use_uuid_filenames".
+   * See the configuration settings "exporter.use_uuid_filenames" and "exporter.compression".
    *
    * @param person    The person being exported.
    * @param tag       A tag to add to the filename before the extension.
@@ -458,6 +758,10 @@ public abstract class Exporter {
    * @return The filename only (not a path).
    */
   public static String filename(Person person, String tag, String extension) {
+    String compression = compressionExtension();
+    if (compression != null) {
+      extension = extension + "." + compression;
+    }
     if (Boolean.parseBoolean(Config.get("exporter.use_uuid_filenames"))) {
       return person.attributes.get(Person.ID) + tag + "." + extension;
     } else {
@@ -3,6 +3,8 @@ package org.mitre.synthea.export;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.api.ExtensionDt;
 import ca.uhn.fhir.model.api.IDatatype;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
 import ca.uhn.fhir.model.dstu2.composite.AddressDt;
 import ca.uhn.fhir.model.dstu2.composite.CodeableConceptDt;
 import ca.uhn.fhir.model.dstu2.composite.CodingDt;
@@ -32,7 +34,6 @@ import ca.uhn.fhir.model.dstu2.resource.Immunization;
 import ca.uhn.fhir.model.dstu2.resource.MedicationOrder;
 import ca.uhn.fhir.model.dstu2.resource.MedicationOrder.DosageInstruction;
 import ca.uhn.fhir.model.dstu2.resource.Observation.Component;
-import ca.uhn.fhir.model.dstu2.resource.Organization;
 import ca.uhn.fhir.model.dstu2.resource.Patient;
 import ca.uhn.fhir.model.dstu2.resource.Patient.Communication;
 import ca.uhn.fhir.model.dstu2.resource.Practitioner;
@@ -122,6 +123,21 @@ public class FhirDstu2 {
   private static final String SYNTHEA_EXT = "http://synthetichealth.github.io/synthea/";
   private static final String DICOM_DCM_URI = "http://dicom.nema.org/resources/ontology/DCM";
 
+  /** Bundle metadata key for the index of Organization and Practitioner entries. */
+  private static final ResourceMetadataKeyEnum<Map<String, String>> REFERENCE_INDEX =
+      new ResourceMetadataKeyEnum<Map<String, String>>("synthea-reference-index") {
+        @SuppressWarnings("unchecked")
+        @Override
+        public Map<String, String> get(IResource resource) {
+          return (Map<String, String>) resource.getResourceMetadata().get(this);
+        }
+
+        @Override
+        public void put(IResource resource, Map<String, String> index) {
+          resource.getResourceMetadata().put(this, index);
+        }
+      };
+
   @SuppressWarnings("rawtypes")
   private static final Map raceEthnicityCodes = loadRaceEthnicityCodes();
   @SuppressWarnings("rawtypes")
@@ -235,10 +251,19 @@ public class FhirDstu2 {
    *         record
    */
   public static String convertToFHIRJson(Person person, long stopTime) {
-    Bundle bundle = convertToFHIR(person, stopTime);
-    String bundleJson = FHIR_CTX.newJsonParser().setPrettyPrint(true)
-        .encodeResourceToString(bundle);
-    return bundleJson;
+    return toJson(convertToFHIR(person, stopTime));
+  }
+
+  /**
+   * Encode the given Bundle as JSON, pretty printed unless "exporter.fhir.pretty_print"
+   * is false.
+   *
+   * @param bundle The Bundle to encode
+   * @return String containing a JSON representation of the Bundle
+   */
+  static String toJson(Bundle bundle) {
+    boolean prettyPrint = Boolean.parseBoolean(Config.get("exporter.fhir.pretty_print", "true"));
+    return FHIR_CTX.newJsonParser().setPrettyPrint(prettyPrint).encodeResourceToString(bundle);
   }
 
   /**
@@ -574,15 +599,7 @@ public class FhirDstu2 {
    * @return Provider.fullUrl if found, otherwise null.
    */
   private static String findProviderUrl(Provider provider, Bundle bundle) {
-    for (Entry entry : bundle.getEntry()) {
-      if (entry.getResource().getResourceName().equals("Organization")) {
-        Organization org = (Organization) entry.getResource();
-        if (org.getIdentifierFirstRep().getValue().equals(provider.getResourceID())) {
-          return entry.getFullUrl();
-        }
-      }
-    }
-    return null;
+    return referenceIndex(bundle).get("Organization/" + provider.getResourceID());
   }
 
   /**
@@ -593,15 +610,17 @@ public class FhirDstu2 {
    * @return Practitioner.fullUrl if found, otherwise null.
    */
   private static String findPractitioner(Clinician clinician, Bundle bundle) {
-    for (Entry entry : bundle.getEntry()) {
-      if (entry.getResource().getResourceName().equals("Practitioner")) {
-        Practitioner doc = (Practitioner) entry.getResource();
-        if (doc.getIdentifierFirstRep().getValue().equals("" + clinician.seed)) {
-          return entry.getFullUrl();
-        }
-      }
+    return referenceIndex(bundle).get("Practitioner/" + clinician.seed);
+  }
+
+  /** Get the Organization and Practitioner index kept on this bundle, creating it if needed. */
+  private static Map<String, String> referenceIndex(Bundle bundle) {
+    Map<String, String> index = REFERENCE_INDEX.get(bundle);
+    if (index == null) {
+      index = new HashMap<String, String>();
+      REFERENCE_INDEX.put(bundle, index);
     }
-    return null;
+    return index;
   }
 
   /**
@@ -1332,7 +1351,10 @@ public class FhirDstu2 {
       organizationResource.addTelecom(contactPoint);
     }
 
-    return newEntry(bundle, organizationResource, provider.getResourceID());
+    Entry entry = newEntry(bundle, organizationResource, provider.getResourceID());
+    referenceIndex(bundle).putIfAbsent("Organization/" + provider.getResourceID(),
+        entry.getFullUrl());
+    return entry;
   }
 
   /**
@@ -1368,7 +1390,9 @@ public class FhirDstu2 {
       practitionerResource.setGender(AdministrativeGenderEnum.FEMALE);
     }
 
-    return newEntry(bundle, practitionerResource, clinician.getResourceID());
+    Entry entry = newEntry(bundle, practitionerResource, clinician.getResourceID());
+    referenceIndex(bundle).putIfAbsent("Practitioner/" + clinician.seed, entry.getFullUrl());
+    return entry;
   }
 
   /**
@@ -1,19 +1,11 @@
 package org.mitre.synthea.export;
 
 import ca.uhn.fhir.context.FhirContext;
-import com.google.common.collect.Table;
+import ca.uhn.fhir.parser.IParser;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
@@ -40,13 +32,10 @@ public abstract class FhirPractitionerExporterR4 {
       } else {
         bundle.setType(BundleType.COLLECTION);
       }
-      for (Provider h : Provider.getProviderList()) {
-        // filter - exports only those hospitals in use
-
-        Table<Integer, String, AtomicInteger> utilization = h.getUtilization();
-        int totalEncounters = utilization.column(Provider.ENCOUNTERS).values().stream()
-            .mapToInt(ai -> ai.get()).sum();
-        if (totalEncounters > 0) {
+      IParser parser = FHIR_CTX.newJsonParser().setPrettyPrint(false);
+      try (FhirResourceStream out = new FhirResourceStream("fhir",
+          "practitionerInformation" + stop + ".json", bundle.getType().toCode())) {
+        for (Provider h : Provider.getUtilizedProviders()) {
           Map<String, ArrayList<Clinician>> clinicians = h.clinicianMap;
           for (String specialty : clinicians.keySet()) {
             ArrayList<Clinician> docs = clinicians.get(specialty);
@@ -57,25 +46,13 @@ public abstract class FhirPractitionerExporterR4 {
                 practitioner.addExtension()
                   .setUrl(EXTENSION_URI)
                   .setValue(new IntegerType(doc.getEncounterCount()));
+                out.write(parser, entry);
+                // written straight away, so the bundle never holds more than one entry
+                bundle.getEntry().clear();
               }
             }
           }
         }
-      }
-
-      String bundleJson = FHIR_CTX.newJsonParser().setPrettyPrint(true)
-          .encodeResourceToString(bundle);
-
-      // get output folder
-      List<String> folders = new ArrayList<>();
-      folders.add("fhir");
-      String baseDirectory = Config.get("exporter.baseDirectory");
-      File f = Paths.get(baseDirectory, folders.toArray(new String[0])).toFile();
-      f.mkdirs();
-      Path outFilePath = f.toPath().resolve("practitionerInformation" + stop + ".json");
-
-      try {
-        Files.write(outFilePath, Collections.singleton(bundleJson), StandardOpenOption.CREATE_NEW);
       } catch (IOException e) {
         e.printStackTrace();
       }
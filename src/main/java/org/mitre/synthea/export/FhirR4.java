@@ -1,12 +1,15 @@
 package org.mitre.synthea.export;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -137,6 +140,9 @@ public class FhirR4 {
   private static final String UNITSOFMEASURE_URI = "http://unitsofmeasure.org";
   private static final String DICOM_DCM_URI = "http://dicom.nema.org/resources/ontology/DCM";
 
+  /** Bundle user data key for the index of Organization and Practitioner entries. */
+  private static final String REFERENCE_INDEX = "synthea-reference-index";
+
   @SuppressWarnings("rawtypes")
   private static final Map raceEthnicityCodes = loadRaceEthnicityCodes();
   @SuppressWarnings("rawtypes")
@@ -217,79 +223,184 @@ public class FhirR4 {
    * @return FHIR Bundle containing the Person's health record
    */
   public static Bundle convertToFHIR(Person person, long stopTime) {
-    Bundle bundle = new Bundle();
-    if (TRANSACTION_BUNDLE) {
-      bundle.setType(BundleType.TRANSACTION);
-    } else {
-      bundle.setType(BundleType.COLLECTION);
-    }
+    Bundle bundle = newBundle();
 
     BundleEntryComponent personEntry = basicInfo(person, bundle, stopTime);
 
     for (Encounter encounter : person.record.encounters) {
-      BundleEntryComponent encounterEntry = encounter(person, personEntry, bundle, encounter);
+      encounterEntries(person, personEntry, bundle, encounter);
+    }
+    return bundle;
+  }
 
-      for (HealthRecord.Entry condition : encounter.conditions) {
-        condition(personEntry, bundle, encounterEntry, condition);
-      }
+  /**
+   * Convert the given Person into a JSON String, containing a FHIR Bundle of the Person and the
+   * associated entries from their health record.
+   *
+   * @param person   Person to generate the FHIR JSON for
+   * @param stopTime Time the simulation ended
+   * @return String containing a JSON representation of a FHIR Bundle containing the Person's health
+   *     record
+   */
+  public static String convertToFHIRJson(Person person, long stopTime) {
+    return toJson(convertToFHIR(person, stopTime));
+  }
 
-      for (HealthRecord.Entry allergy : encounter.allergies) {
-        allergy(personEntry, bundle, encounterEntry, allergy);
-      }
+  /**
+   * Convert the given Person into a FHIR Bundle, and stream it to the given Writer as compact
+   * JSON. Unlike {@link #convertToFHIRJson(Person, long)}, the Bundle is written one encounter
+   * at a time, and entries are released once written, so memory use does not grow with the
+   * size of the health record. Only the Organization, Practitioner and Condition entries are
+   * kept until the end, since later entries refer back to them.
+   *
+   * @param person   Person to generate the FHIR JSON for
+   * @param stopTime Time the simulation ended
+   * @param writer   Writer to write the Bundle to
+   * @throws IOException if any IO error occurs
+   */
+  public static void convertToFHIRJson(Person person, long stopTime, Writer writer)
+      throws IOException {
+    IParser parser = FHIR_CTX.newJsonParser().setPrettyPrint(false);
+    Bundle bundle = newBundle();
 
-      for (Observation observation : encounter.observations) {
-        observation(personEntry, bundle, encounterEntry, observation);
-      }
+    JsonWriter json = new JsonWriter(writer);
+    json.beginObject();
+    json.name("resourceType").value("Bundle");
+    json.name("type").value(bundle.getType().toCode());
+    json.name("entry").beginArray();
 
-      for (Procedure procedure : encounter.procedures) {
-        procedure(personEntry, bundle, encounterEntry, procedure);
-      }
+    BundleEntryComponent personEntry = basicInfo(person, bundle, stopTime);
+    int retained = writeEntries(bundle, 0, parser, json);
 
-      for (Medication medication : encounter.medications) {
-        medication(person, personEntry, bundle, encounterEntry, medication);
-      }
+    for (Encounter encounter : person.record.encounters) {
+      encounterEntries(person, personEntry, bundle, encounter);
+      retained = writeEntries(bundle, retained, parser, json);
+    }
 
-      for (HealthRecord.Entry immunization : encounter.immunizations) {
-        immunization(personEntry, bundle, encounterEntry, immunization);
-      }
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
 
-      for (Report report : encounter.reports) {
-        report(personEntry, bundle, encounterEntry, report);
-      }
+  /**
+   * Encode the given Bundle as JSON, pretty printed unless "exporter.fhir.pretty_print"
+   * is false.
+   *
+   * @param bundle The Bundle to encode
+   * @return String containing a JSON representation of the Bundle
+   */
+  static String toJson(Bundle bundle) {
+    boolean prettyPrint = Boolean.parseBoolean(Config.get("exporter.fhir.pretty_print", "true"));
+    return FHIR_CTX.newJsonParser().setPrettyPrint(prettyPrint).encodeResourceToString(bundle);
+  }
 
-      for (CarePlan careplan : encounter.careplans) {
-        careplan(personEntry, bundle, encounterEntry, careplan);
+  /**
+   * Write the entries that were added to the bundle since the last call, then remove them from
+   * the bundle, except for those that later entries may look up.
+   *
+   * @param bundle   The Bundle being streamed
+   * @param start    Index of the first entry that has not been written yet
+   * @param parser   Parser used to encode each resource
+   * @param json     Writer for the entry array
+   * @return the number of entries left in the bundle, all of which have been written
+   * @throws IOException if any IO error occurs
+   */
+  private static int writeEntries(Bundle bundle, int start, IParser parser, JsonWriter json)
+      throws IOException {
+    List<BundleEntryComponent> entries = bundle.getEntry();
+    int retained = start;
+    for (int i = start; i < entries.size(); i++) {
+      BundleEntryComponent entry = entries.get(i);
+      json.beginObject();
+      json.name("fullUrl").value(entry.getFullUrl());
+      json.name("resource").jsonValue(parser.encodeResourceToString(entry.getResource()));
+      if (entry.hasRequest()) {
+        json.name("request").beginObject();
+        json.name("method").value(entry.getRequest().getMethod().toCode());
+        json.name("url").value(entry.getRequest().getUrl());
+        json.endObject();
       }
+      json.endObject();
 
-      for (ImagingStudy imagingStudy : encounter.imagingStudies) {
-        imagingStudy(personEntry, bundle, encounterEntry, imagingStudy);
+      String type = entry.getResource().fhirType();
+      if (type.equals("Organization") || type.equals("Practitioner")
+          || type.equals("Condition")) {
+        entries.set(retained++, entry);
       }
+    }
+    entries.subList(retained, entries.size()).clear();
+    return retained;
+  }
 
-      // one claim per encounter
-      BundleEntryComponent encounterClaim =
-          encounterClaim(person, personEntry, bundle, encounterEntry, encounter.claim);
-
-      explanationOfBenefit(personEntry, bundle, encounterEntry, person,
-          encounterClaim, encounter);
+  /**
+   * Create a new, empty Bundle, of the configured type.
+   *
+   * @return the Bundle
+   */
+  private static Bundle newBundle() {
+    Bundle bundle = new Bundle();
+    if (TRANSACTION_BUNDLE) {
+      bundle.setType(BundleType.TRANSACTION);
+    } else {
+      bundle.setType(BundleType.COLLECTION);
     }
     return bundle;
   }
 
   /**
-   * Convert the given Person into a JSON String, containing a FHIR Bundle of the Person and the
-   * associated entries from their health record.
+   * Add the given Encounter, everything that happened during it, and its claims to the Bundle.
    *
-   * @param person   Person to generate the FHIR JSON for
-   * @param stopTime Time the simulation ended
-   * @return String containing a JSON representation of a FHIR Bundle containing the Person's health
-   *     record
+   * @param person      The Person
+   * @param personEntry Entry for the Person
+   * @param bundle      The Bundle to add to
+   * @param encounter   The Encounter
    */
-  public static String convertToFHIRJson(Person person, long stopTime) {
-    Bundle bundle = convertToFHIR(person, stopTime);
-    String bundleJson = FHIR_CTX.newJsonParser().setPrettyPrint(true)
-        .encodeResourceToString(bundle);
+  private static void encounterEntries(Person person, BundleEntryComponent personEntry,
+      Bundle bundle, Encounter encounter) {
+    BundleEntryComponent encounterEntry = encounter(person, personEntry, bundle, encounter);
+
+    for (HealthRecord.Entry condition : encounter.conditions) {
+      condition(personEntry, bundle, encounterEntry, condition);
+    }
+
+    for (HealthRecord.Entry allergy : encounter.allergies) {
+      allergy(personEntry, bundle, encounterEntry, allergy);
+    }
+
+    for (Observation observation : encounter.observations) {
+      observation(personEntry, bundle, encounterEntry, observation);
+    }
+
+    for (Procedure procedure : encounter.procedures) {
+      procedure(personEntry, bundle, encounterEntry, procedure);
+    }
 
-    return bundleJson;
+    for (Medication medication : encounter.medications) {
+      medication(person, personEntry, bundle, encounterEntry, medication);
+    }
+
+    for (HealthRecord.Entry immunization : encounter.immunizations) {
+      immunization(personEntry, bundle, encounterEntry, immunization);
+    }
+
+    for (Report report : encounter.reports) {
+      report(personEntry, bundle, encounterEntry, report);
+    }
+
+    for (CarePlan careplan : encounter.careplans) {
+      careplan(personEntry, bundle, encounterEntry, careplan);
+    }
+
+    for (ImagingStudy imagingStudy : encounter.imagingStudies) {
+      imagingStudy(personEntry, bundle, encounterEntry, imagingStudy);
+    }
+
+    // one claim per encounter
+    BundleEntryComponent encounterClaim =
+        encounterClaim(person, personEntry, bundle, encounterEntry, encounter.claim);
+
+    explanationOfBenefit(personEntry, bundle, encounterEntry, person,
+        encounterClaim, encounter);
   }
 
   /**
@@ -686,15 +797,7 @@ public class FhirR4 {
    * @return Provider.fullUrl if found, otherwise null.
    */
   private static String findProviderUrl(Provider provider, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Organization")) {
-        Organization org = (Organization) entry.getResource();
-        if (org.getIdentifierFirstRep().getValue().equals(provider.getResourceID())) {
-          return entry.getFullUrl();
-        }
-      }
-    }
-    return null;
+    return referenceIndex(bundle).get("Organization/" + provider.getResourceID());
   }
 
   /**
@@ -705,15 +808,24 @@ public class FhirR4 {
    * @return Practitioner.fullUrl if found, otherwise null.
    */
   private static String findPractitioner(Clinician clinician, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Practitioner")) {
-        Practitioner doc = (Practitioner) entry.getResource();
-        if (doc.getIdentifierFirstRep().getValue().equals("" + clinician.seed)) {
-          return entry.getFullUrl();
-        }
-      }
-    }
-    return null;
+    return referenceIndex(bundle).get("Practitioner/" + clinician.seed);
+  }
+
+  /**
+   * Get the index of Organization and Practitioner entries in this bundle, keyed by
+   * provider ID or clinician seed, creating it if necessary. The index is kept on the
+   * bundle itself so it lives exactly as long as the conversion that is building it.
+   * @param bundle The current bundle being generated.
+   * @return Map of resource type and identifier to the "fullUrl" of the first matching entry.
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String, String> referenceIndex(Bundle bundle) {
+    Map<String, String> index = (Map<String, String>) bundle.getUserData(REFERENCE_INDEX);
+    if (index == null) {
+      index = new HashMap<String, String>();
+      bundle.setUserData(REFERENCE_INDEX, index);
+    }
+    return index;
   }
 
   /**
@@ -1930,7 +2042,10 @@ public class FhirR4 {
       organizationResource.addTelecom(contactPoint);
     }
 
-    return newEntry(bundle, organizationResource, provider.getResourceID());
+    BundleEntryComponent entry = newEntry(bundle, organizationResource, provider.getResourceID());
+    referenceIndex(bundle).putIfAbsent("Organization/" + provider.getResourceID(),
+        entry.getFullUrl());
+    return entry;
   }
 
   /**
@@ -1971,7 +2086,9 @@ public class FhirR4 {
       practitionerResource.setGender(AdministrativeGender.FEMALE);
     }
 
-    return newEntry(bundle, practitionerResource, clinician.getResourceID());
+    BundleEntryComponent entry = newEntry(bundle, practitionerResource, clinician.getResourceID());
+    referenceIndex(bundle).putIfAbsent("Practitioner/" + clinician.seed, entry.getFullUrl());
+    return entry;
   }
 
   /**
@@ -0,0 +1,133 @@
+package org.mitre.synthea.export;
+
+import ca.uhn.fhir.parser.IParser;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.mitre.synthea.helpers.Config;
+
+/**
+ * Writes the resources of an export that runs once the whole population has been simulated,
+ * e.g., hospitals or practitioners, one resource at a time, so the whole Bundle is never held
+ * in memory. Resources are streamed into a single Bundle in a JSON file or, if
+ * "exporter.fhir.bulk_data" is true, appended to the bulk data file of their resource type.
+ */
+class FhirResourceStream implements Closeable {
+  private final File folder;
+  /** Writer for the Bundle, or null when writing bulk data. */
+  private final JsonWriter json;
+
+  /**
+   * Start a new stream of resources.
+   * @param folderName The folder to write into, e.g., "fhir".
+   * @param filename The name of the Bundle file, which must not already exist. Not used
+   *     when writing bulk data.
+   * @param bundleType The type of Bundle, e.g., "collection" or "transaction".
+   * @throws IOException if any IO error occurs
+   */
+  FhirResourceStream(String folderName, String filename, String bundleType)
+      throws IOException {
+    folder = Paths.get(Config.get("exporter.baseDirectory"), folderName).toFile();
+    folder.mkdirs();
+    if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
+      json = null;
+    } else {
+      json = new JsonWriter(Files.newBufferedWriter(folder.toPath().resolve(filename),
+          StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW));
+      json.beginObject();
+      json.name("resourceType").value("Bundle");
+      json.name("type").value(bundleType);
+      json.name("entry").beginArray();
+    }
+  }
+
+  /**
+   * Write the resource of a FHIR R4 Bundle entry.
+   * @param parser Parser used to encode the resource, without pretty printing.
+   * @param entry The entry, as created for the Bundle.
+   * @throws IOException if any IO error occurs
+   */
+  void write(IParser parser, org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry)
+      throws IOException {
+    write(entry.getResource().fhirType(), entry.getFullUrl(),
+        parser.encodeResourceToString(entry.getResource()),
+        entry.hasRequest() ? entry.getRequest().getMethod().toCode() : null,
+        entry.hasRequest() ? entry.getRequest().getUrl() : null);
+  }
+
+  /**
+   * Write the resource of a FHIR STU3 Bundle entry.
+   * @param parser Parser used to encode the resource, without pretty printing.
+   * @param entry The entry, as created for the Bundle.
+   * @throws IOException if any IO error occurs
+   */
+  void write(IParser parser, org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry)
+      throws IOException {
+    write(entry.getResource().fhirType(), entry.getFullUrl(),
+        parser.encodeResourceToString(entry.getResource()),
+        entry.hasRequest() ? entry.getRequest().getMethod().toCode() : null,
+        entry.hasRequest() ? entry.getRequest().getUrl() : null);
+  }
+
+  /**
+   * Write the resource of a FHIR DSTU2 Bundle entry.
+   * @param parser Parser used to encode the resource, without pretty printing.
+   * @param entry The entry, as created for the Bundle.
+   * @throws IOException if any IO error occurs
+   */
+  void write(IParser parser, ca.uhn.fhir.model.dstu2.resource.Bundle.Entry entry)
+      throws IOException {
+    boolean request = !entry.getRequest().isEmpty();
+    write(entry.getResource().getResourceName(), entry.getFullUrl(),
+        parser.encodeResourceToString(entry.getResource()),
+        request ? entry.getRequest().getMethod() : null,
+        request ? entry.getRequest().getUrl() : null);
+  }
+
+  /**
+   * Write a single resource.
+   * @param resourceType The FHIR resource type, e.g., "Organization".
+   * @param fullUrl The fullUrl of the Bundle entry.
+   * @param resource The resource, encoded as a single line of JSON.
+   * @param method The method of the entry's request, or null if it has no request.
+   * @param url The URL of the entry's request, or null if it has no request.
+   */
+  private void write(String resourceType, String fullUrl, String resource, String method,
+      String url) throws IOException {
+    if (json == null) {
+      BulkDataWriter.append(folder, resourceType, resource);
+      return;
+    }
+    json.beginObject();
+    json.name("fullUrl").value(fullUrl);
+    json.name("resource").jsonValue(resource);
+    if (method != null) {
+      json.name("request").beginObject();
+      json.name("method").value(method);
+      json.name("url").value(url);
+      json.endObject();
+    }
+    json.endObject();
+  }
+
+  /**
+   * Finish the Bundle and close the file. Bulk data files are left open until the end of the
+   * run, see {@link BulkDataWriter#closeAll()}.
+   * @throws IOException if any IO error occurs
+   */
+  @Override
+  public void close() throws IOException {
+    if (json != null) {
+      json.endArray();
+      json.endObject();
+      json.close();
+    }
+  }
+}
@@ -81,7 +81,6 @@ import org.hl7.fhir.dstu3.model.Narrative;
 import org.hl7.fhir.dstu3.model.Narrative.NarrativeStatus;
 import org.hl7.fhir.dstu3.model.Observation.ObservationComponentComponent;
 import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
-import org.hl7.fhir.dstu3.model.Organization;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hl7.fhir.dstu3.model.Patient.PatientCommunicationComponent;
 import org.hl7.fhir.dstu3.model.Period;
@@ -136,6 +135,9 @@ public class FhirStu3 {
   private static final String UNITSOFMEASURE_URI = "http://unitsofmeasure.org";
   private static final String DICOM_DCM_URI = "http://dicom.nema.org/resources/ontology/DCM";
 
+  /** Bundle user data key for the index of Organization and Practitioner entries. */
+  private static final String REFERENCE_INDEX = "synthea-reference-index";
+
   @SuppressWarnings("rawtypes")
   private static final Map raceEthnicityCodes = loadRaceEthnicityCodes();
   @SuppressWarnings("rawtypes")
@@ -282,10 +284,19 @@ public class FhirStu3 {
    *     health record.
    */
   public static String convertToFHIRJson(Person person, long stopTime) {
-    Bundle bundle = convertToFHIR(person, stopTime);
-    String bundleJson = FHIR_CTX.newJsonParser().setPrettyPrint(true)
-        .encodeResourceToString(bundle);
-    return bundleJson;
+    return toJson(convertToFHIR(person, stopTime));
+  }
+
+  /**
+   * Encode the given Bundle as JSON, pretty printed unless "exporter.fhir.pretty_print"
+   * is false.
+   *
+   * @param bundle The Bundle to encode
+   * @return String containing a JSON representation of the Bundle
+   */
+  static String toJson(Bundle bundle) {
+    boolean prettyPrint = Boolean.parseBoolean(Config.get("exporter.fhir.pretty_print", "true"));
+    return FHIR_CTX.newJsonParser().setPrettyPrint(prettyPrint).encodeResourceToString(bundle);
   }
 
   /**
@@ -687,15 +698,7 @@ public class FhirStu3 {
    * @return Provider.fullUrl if found, otherwise null.
    */
   private static String findProviderUrl(Provider provider, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Organization")) {
-        Organization org = (Organization) entry.getResource();
-        if (org.getIdentifierFirstRep().getValue().equals(provider.getResourceID())) {
-          return entry.getFullUrl();
-        }
-      }
-    }
-    return null;
+    return referenceIndex(bundle).get("Organization/" + provider.getResourceID());
   }
 
   /**
@@ -706,15 +709,18 @@ public class FhirStu3 {
    * @return Practitioner.fullUrl if found, otherwise null.
    */
   private static String findPractitioner(Clinician clinician, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Practitioner")) {
-        Practitioner doc = (Practitioner) entry.getResource();
-        if (doc.getIdentifierFirstRep().getValue().equals("" + clinician.seed)) {
-          return entry.getFullUrl();
-        }
-      }
+    return referenceIndex(bundle).get("Practitioner/" + clinician.seed);
+  }
+
+  /** Get the Organization and Practitioner index kept on this bundle, creating it if needed. */
+  @SuppressWarnings("unchecked")
+  private static Map<String, String> referenceIndex(Bundle bundle) {
+    Map<String, String> index = (Map<String, String>) bundle.getUserData(REFERENCE_INDEX);
+    if (index == null) {
+      index = new HashMap<String, String>();
+      bundle.setUserData(REFERENCE_INDEX, index);
     }
-    return null;
+    return index;
   }
 
   /**
@@ -2113,7 +2119,10 @@ public class FhirStu3 {
       organizationResource.addContact().setName(new HumanName().setText("Synthetic Provider"));
     }
 
-    return newEntry(bundle, organizationResource, provider.getResourceID());
+    BundleEntryComponent entry = newEntry(bundle, organizationResource, provider.getResourceID());
+    referenceIndex(bundle).putIfAbsent("Organization/" + provider.getResourceID(),
+        entry.getFullUrl());
+    return entry;
   }
 
   /**
@@ -2149,7 +2158,9 @@ public class FhirStu3 {
       practitionerResource.setGender(AdministrativeGender.FEMALE);
     }
 
-    return newEntry(bundle, practitionerResource, clinician.getResourceID());
+    BundleEntryComponent entry = newEntry(bundle, practitionerResource, clinician.getResourceID());
+    referenceIndex(bundle).putIfAbsent("Practitioner/" + clinician.seed, entry.getFullUrl());
+    return entry;
   }
 
   /**
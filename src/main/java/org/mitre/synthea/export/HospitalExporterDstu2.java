@@ -7,18 +7,11 @@ import ca.uhn.fhir.model.dstu2.resource.Bundle.Entry;
 import ca.uhn.fhir.model.dstu2.resource.Organization;
 import ca.uhn.fhir.model.dstu2.valueset.BundleTypeEnum;
 import ca.uhn.fhir.model.primitive.IntegerDt;
+import ca.uhn.fhir.parser.IParser;
 
 import com.google.common.collect.Table;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mitre.synthea.helpers.Config;
@@ -39,30 +32,17 @@ public abstract class HospitalExporterDstu2 {
       } else {
         bundle.setType(BundleTypeEnum.COLLECTION);
       }
-      for (Provider h : Provider.getProviderList()) {
-        // filter - exports only those hospitals in use
-        Table<Integer, String, AtomicInteger> utilization = h.getUtilization();
-        int totalEncounters = utilization.column(Provider.ENCOUNTERS).values().stream()
-            .mapToInt(ai -> ai.get()).sum();
-        if (totalEncounters > 0) {
+      IParser parser = FHIR_CTX.newJsonParser().setPrettyPrint(false);
+      try (FhirResourceStream out = new FhirResourceStream("fhir_dstu2",
+          "hospitalInformation" + stop + ".json",
+          bundle.getTypeElement().getValueAsString())) {
+        for (Provider h : Provider.getUtilizedProviders()) {
           Entry entry = FhirDstu2.provider(bundle, h);
           addHospitalExtensions(h, (Organization) entry.getResource());
+          out.write(parser, entry);
+          // written straight away, so the bundle never holds more than one entry
+          bundle.getEntry().clear();
         }
-      }
-
-      String bundleJson = FHIR_CTX.newJsonParser().setPrettyPrint(true)
-          .encodeResourceToString(bundle);
-
-      // get output folder
-      List<String> folders = new ArrayList<>();
-      folders.add("fhir_dstu2");
-      String baseDirectory = Config.get("exporter.baseDirectory");
-      File f = Paths.get(baseDirectory, folders.toArray(new String[0])).toFile();
-      f.mkdirs();
-      Path outFilePath = f.toPath().resolve("hospitalInformation" + stop + ".json");
-
-      try {
-        Files.write(outFilePath, Collections.singleton(bundleJson), StandardOpenOption.CREATE_NEW);
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -0,0 +1,200 @@
+package org.mitre.synthea.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mitre.synthea.helpers.Config;
+
+/**
+ * Packs per-patient documents (FHIR bundles, C-CDA documents, text records) into a few large
+ * container files instead of one file per document. Each exporter thread appends to its own
+ * containers, so threads never contend, and rolls over to a new part once a container reaches
+ * the maximum part size. Alongside the containers, each thread keeps a tab separated index
+ * with one line per document:
+ * <pre>patient ID, document name, container file, offset, length</pre>
+ * The index is flushed whenever a container is closed, so the documents in completed parts
+ * can still be extracted after a run that did not finish.
+ * Use {@link PatientArchiveReader} to find and extract documents.
+ * See the configuration settings "exporter.archive" and "exporter.archive.*".
+ */
+public class PatientArchive {
+  /** Extension of the container files. */
+  public static final String CONTAINER_EXTENSION = ".pack";
+  /** Extension of the index files. */
+  public static final String INDEX_EXTENSION = ".index";
+
+  /**
+   * Open archives, keyed by the output folder and the ID of the thread writing to them,
+   * so that each export profile has its own.
+   */
+  private static final Map<String, Map<Long, PatientArchive>> archives =
+      new ConcurrentHashMap<>();
+  private static int nextWorker = 1;
+
+  private final Path directory;
+  private final String name;
+  private final long maxPartSize;
+
+  private OutputStream out;
+  private Writer index;
+  private int part;
+  private long partSize;
+
+  /**
+   * Create a new archive. Nothing is written until the first document is added.
+   * @param directory The folder to write the container and index files into.
+   * @param name The base name of the files, e.g., "patients-1".
+   * @param maxPartSize Size at which to start a new container file, in bytes. Zero for no limit.
+   */
+  PatientArchive(Path directory, String name, long maxPartSize) {
+    this.directory = directory;
+    this.name = name;
+    this.maxPartSize = maxPartSize;
+  }
+
+  /**
+   * Whether per-patient documents should be packed into archives rather than written as
+   * individual files. See the configuration setting "exporter.archive".
+   * @return true if archive output is enabled.
+   */
+  public static boolean isEnabled() {
+    return Boolean.parseBoolean(Config.get("exporter.archive", "false"));
+  }
+
+  /**
+   * Start a new document for the given patient, in the archive of the current thread.
+   * The document is added to the archive when the returned stream is closed.
+   * @param patientId The ID of the patient the document belongs to.
+   * @param document The name of the document, e.g., "fhir/Jane_Doe_1234.json".
+   * @return Stream to write the contents of the document to.
+   */
+  public static OutputStream newDocument(String patientId, String document) {
+    return new ByteArrayOutputStream() {
+      private boolean closed;
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          current().write(patientId, document, buf, count);
+        }
+      }
+    };
+  }
+
+  /**
+   * Flush and close all of the open archives. Later documents go into new archives.
+   */
+  public static void closeAll() {
+    for (Map<Long, PatientArchive> folderArchives : archives.values()) {
+      for (PatientArchive archive : folderArchives.values()) {
+        try {
+          archive.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    archives.clear();
+  }
+
+  /**
+   * Get the archive for the current output folder and thread, creating it if necessary.
+   * @return The archive.
+   */
+  private static PatientArchive current() {
+    return archives.computeIfAbsent(Config.get("exporter.baseDirectory"),
+        k -> new ConcurrentHashMap<>())
+        .computeIfAbsent(Thread.currentThread().getId(), k -> newArchive());
+  }
+
+  /**
+   * Create an archive with a name that is not already in use in the output folder.
+   * @return The archive.
+   */
+  private static synchronized PatientArchive newArchive() {
+    Path directory = Paths.get(Config.get("exporter.baseDirectory"), "archive");
+    long maxPartSize =
+        Long.parseLong(Config.get("exporter.archive.max_part_size", "1024")) * 1024 * 1024;
+    while (Files.exists(directory.resolve("patients-" + nextWorker + INDEX_EXTENSION))) {
+      nextWorker++;
+    }
+    return new PatientArchive(directory, "patients-" + nextWorker++, maxPartSize);
+  }
+
+  /**
+   * Append a document to the current container, and record it in the index.
+   * @param patientId The ID of the patient the document belongs to.
+   * @param document The name of the document.
+   * @param contents Buffer containing the contents of the document.
+   * @param length Number of bytes of the buffer to write.
+   * @throws IOException if any IO error occurs
+   */
+  synchronized void write(String patientId, String document, byte[] contents, int length)
+      throws IOException {
+    if (out == null) {
+      Files.createDirectories(directory);
+      index = Files.newBufferedWriter(directory.resolve(name + INDEX_EXTENSION),
+          StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+      part = 1;
+      open();
+    } else if (maxPartSize > 0 && partSize > 0 && partSize + length > maxPartSize) {
+      closePart();
+      part++;
+      open();
+    }
+    out.write(contents, 0, length);
+    index.write(patientId + '\t' + document + '\t' + currentFile().getFileName() + '\t'
+        + partSize + '\t' + length + System.lineSeparator());
+    partSize += length;
+  }
+
+  /**
+   * Flush and close the current container and the index.
+   * @throws IOException if any IO error occurs
+   */
+  synchronized void close() throws IOException {
+    if (out != null) {
+      closePart();
+      index.close();
+      out = null;
+      index = null;
+    }
+  }
+
+  /**
+   * Get the container file that documents are currently added to.
+   * @return Path to the container file.
+   */
+  synchronized Path currentFile() {
+    return directory.resolve(name + "." + part + CONTAINER_EXTENSION);
+  }
+
+  /**
+   * Close the current container, and flush the index, so that every document in a closed
+   * container can be found even if the run does not finish.
+   */
+  private void closePart() throws IOException {
+    out.close();
+    index.flush();
+  }
+
+  /**
+   * Create the current container file.
+   */
+  private void open() throws IOException {
+    out = new BufferedOutputStream(
+        Files.newOutputStream(currentFile(), StandardOpenOption.CREATE_NEW), 65536);
+    partSize = 0L;
+  }
+}
@@ -0,0 +1,106 @@
+package org.mitre.synthea.export;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Task class to find and extract patient documents from the archives written by
+ * {@link PatientArchive}.
+ */
+public class PatientArchiveReader {
+  /**
+   * The location of a single document within an archive, as recorded in an index file.
+   */
+  public static class Document {
+    public final String patientId;
+    public final String name;
+    public final Path container;
+    public final long offset;
+    public final int length;
+
+    Document(Path directory, String line) {
+      String[] fields = line.split("\t");
+      this.patientId = fields[0];
+      this.name = fields[1];
+      this.container = directory.resolve(fields[2]);
+      this.offset = Long.parseLong(fields[3]);
+      this.length = Integer.parseInt(fields[4]);
+    }
+  }
+
+  /**
+   * Extract all of the documents of a patient from an archive folder.
+   *
+   * @param args archive folder, patient ID, and optionally the folder to extract to
+   *     (defaults to the current folder)
+   * @throws Exception if any error occurs reading or writing the files
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.out.println("Usage: PatientArchiveReader archiveFolder patientId [outputFolder]");
+      return;
+    }
+    Path directory = Paths.get(args[0]);
+    Path outDirectory = Paths.get(args.length > 2 ? args[2] : ".");
+
+    List<Document> documents = find(directory, args[1]);
+    for (Document document : documents) {
+      Path outFilePath = outDirectory.resolve(document.name);
+      Files.createDirectories(outFilePath.getParent());
+      Files.write(outFilePath, read(document));
+      System.out.println("Extracted " + outFilePath);
+    }
+    System.out.println("Extracted " + documents.size() + " documents.");
+  }
+
+  /**
+   * Find all of the documents of the given patient, by searching every index in the folder.
+   * @param directory The archive folder.
+   * @param patientId The ID of the patient.
+   * @return The documents. Each thread writes its own index, so only the documents written by
+   *     the same thread are in the order they were written.
+   * @throws IOException if any IO error occurs
+   */
+  public static List<Document> find(Path directory, String patientId) throws IOException {
+    List<Document> documents = new ArrayList<>();
+    String prefix = patientId + '\t';
+    try (DirectoryStream<Path> indexes =
+        Files.newDirectoryStream(directory, "*" + PatientArchive.INDEX_EXTENSION)) {
+      for (Path index : indexes) {
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.startsWith(prefix)) {
+              documents.add(new Document(directory, line));
+            }
+          }
+        }
+      }
+    }
+    return documents;
+  }
+
+  /**
+   * Read the contents of a document. If the archive was written with compression enabled,
+   * the contents are compressed.
+   * @param document The document to read.
+   * @return The contents of the document.
+   * @throws IOException if any IO error occurs
+   */
+  public static byte[] read(Document document) throws IOException {
+    byte[] contents = new byte[document.length];
+    try (RandomAccessFile file = new RandomAccessFile(document.container.toFile(), "r")) {
+      file.seek(document.offset);
+      file.readFully(contents);
+    }
+    return contents;
+  }
+}
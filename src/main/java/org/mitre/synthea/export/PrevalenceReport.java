@@ -1,21 +1,35 @@
 package org.mitre.synthea.export;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
-
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.mitre.synthea.world.concepts.HealthRecord.Entry;
+
+/**
+ * Compares the prevalence of conditions in the generated population against the actual
+ * prevalence, for each line of "prevalence_template.csv", and of every condition in the
+ * population. Prevalence is counted as the population is generated, see
+ * {@link #record(Person, long)}, so no database is needed. Counting is lock-free, so any number
+ * of generator threads can record patients at the same time.
+ */
 public class PrevalenceReport {
 
   // These are the name of the columns in the CSV prevalence template
@@ -33,157 +47,156 @@ public class PrevalenceReport {
 
   private static final String ALL = "*";
 
-  public static void export(Generator generator) throws Exception {
-    if (generator.database == null) {
-      System.err.println(
-          "Unable to generate Prevalence Report - No database exists to generate report from.");
-      return;
-    }
-
-    String csvData = Utilities.readResource("prevalence_template.csv");
-    List<LinkedHashMap<String, String>> data = SimpleCSV.parse(csvData);
-
-    try (Connection connection = generator.database.getConnection()) {
-
-      for (LinkedHashMap<String, String> line : data) {
-
-        if (line.get(ITEM).isEmpty()) {
-          continue;
-        }
+  /** The template, as parsed. Never modified, so the report can be exported more than once. */
+  private final List<LinkedHashMap<String, String>> template;
+  /** Counters of each line of the template, in the same order, or null for blank lines. */
+  private final List<Line> lines = new ArrayList<>();
+  /** Number of living patients with each condition, keyed by condition display. */
+  private final Map<String, LongAdder> conditions = new ConcurrentHashMap<>();
+  private final LongAdder totalPopulation = new LongAdder();
 
-        if (line.get(GIVEN_CON).isEmpty()) {
-          getPrev(connection, line);
-        } else {
-          givenCondition(connection, line);
-        }
+  /**
+   * The filters and counters of a single line of the template.
+   */
+  private static class Line {
+    private final String item;
+    private final String givenCondition;
+    private final String gender;
+    private final String race;
+    private final String ageGroup;
+    private final LongAdder occurrences = new LongAdder();
+    private final LongAdder population = new LongAdder();
+
+    private Line(LinkedHashMap<String, String> line) {
+      item = line.get(ITEM);
+      givenCondition = line.get(GIVEN_CON);
+      gender = line.get(GENDER);
+      race = line.get(RACE);
+      ageGroup = line.get(AGE);
+    }
 
-        getPop(connection, line);
-        completeSyntheaFields(connection, line);
-        completeDifferenceField(connection, line);
+    /**
+     * Whether a patient of the given gender, race and age is in the population of this line.
+     */
+    private boolean matches(String gender, String race, int age) {
+      if (!this.gender.equals(ALL) && !this.gender.equals(gender)) {
+        return false;
       }
-
-      allConditions(connection, data);
+      if (!this.race.equals(ALL) && !this.race.equals(race)) {
+        return false;
+      }
+      if (ageGroup.equals("adult")) {
+        return age >= 18;
+      } else if (ageGroup.equals("child")) {
+        return age < 18;
+      } else if (ageGroup.equals("senior")) {
+        return age >= 65;
+      }
+      return true;
     }
-
-    String newCsvData = SimpleCSV.unparse(data);
-
-    File outDirectory = Exporter.getOutputFolder("prevalence", null);
-
-    Path outFilePath = outDirectory.toPath()
-        .resolve("prev_data" + System.currentTimeMillis() + ".csv");
-
-    Files.write(outFilePath, Collections.singleton(newCsvData), StandardOpenOption.CREATE_NEW);
   }
 
   /**
-   * Uses a string builder to run a query dependent upon what is on each line of the CSV template.
-   * Executes the query after filling in the indexes. Inserts result of query into the occurrences
-   * column.
+   * Create a new, empty prevalence report from "prevalence_template.csv".
+   * @throws IOException if the template cannot be read
    */
-  private static void getPrev(Connection connection, LinkedHashMap<String, String> line)
-      throws SQLException {
-
-    StringBuilder sb = new StringBuilder();
-    sb.append("SELECT COUNT(*) FROM PERSON p, CONDITION c, ATTRIBUTE a\n" + "WHERE \n"
-        + "p.ID = c.PERSON_ID\n" + "AND c.PERSON_ID = a.PERSON_ID\n" + "AND (c.DISPLAY = ?)\n"
-        + "AND (p.DATE_OF_DEATH is null)\n" + "");
-
-    String gender = line.get(GENDER);
-    if (!gender.equals(ALL)) {
-      sb.append("AND (p.GENDER = ?)\n");
+  public PrevalenceReport() throws IOException {
+    template = SimpleCSV.parse(Utilities.readResource("prevalence_template.csv"));
+    for (LinkedHashMap<String, String> line : template) {
+      lines.add(line.get(ITEM).isEmpty() ? null : new Line(line));
     }
+  }
 
-    String race = line.get(RACE);
-    if (!race.equals(ALL)) {
-      sb.append("AND (p.RACE = ?)\n");
+  /**
+   * Count a patient, once their simulation has finished. Patients who died are not counted,
+   * as the report is of the living population.
+   * @param person The patient.
+   * @param time The time the simulation stopped.
+   */
+  public void record(Person person, long time) {
+    if (person.record.death != null) {
+      return;
     }
-
-    String age = line.get(AGE);
-    if (age.equals("adult")) {
-      sb.append("AND (a.NAME = 'AGE' AND CAST(a.VALUE AS INT) >= 18)\n");
-    } else if (age.equals("child")) {
-      sb.append("AND (a.NAME = 'AGE' AND CAST(a.VALUE AS INT) < 18)\n");
-    } else if (age.equals("senior")) {
-      sb.append("AND (a.NAME = 'AGE' AND CAST(a.VALUE AS INT) >= 65)\n");
+    String gender = (String) person.attributes.get(Person.GENDER);
+    String race = (String) person.attributes.get(Person.RACE);
+    int age = person.ageInYears(time);
+
+    // every condition the patient has ever had, as stored in the database
+    Set<String> displays = new HashSet<>();
+    for (Encounter encounter : person.record.encounters) {
+      for (Entry condition : encounter.conditions) {
+        if (!condition.codes.isEmpty()) {
+          displays.add(condition.codes.get(0).display);
+        }
+      }
     }
 
-    PreparedStatement stmt = connection.prepareStatement(sb.toString());
-
-    int index = 1; // SQL begins at 1 not 0
-    stmt.setString(index++, line.get(ITEM));
-
-    if (!gender.equals(ALL)) {
-      stmt.setString(index++, gender);
+    for (Line line : lines) {
+      if (line == null || !line.matches(gender, race, age)) {
+        continue;
+      }
+      line.population.increment();
+      if (displays.contains(line.item) && (line.givenCondition.isEmpty()
+          || displays.contains(line.givenCondition))) {
+        line.occurrences.increment();
+      }
     }
-
-    if (!race.equals(ALL)) {
-      stmt.setString(index++, race);
+    for (String display : displays) {
+      conditions.computeIfAbsent(display, d -> new LongAdder()).increment();
     }
-
-    ResultSet rs = stmt.executeQuery();
-
-    rs.next();
-
-    int countOccur = rs.getInt(1);
-    line.put(OCCUR, Integer.toString(countOccur));
+    totalPopulation.increment();
   }
 
   /**
-   * Uses a string builder to run a query dependent upon what is on each line of the CSV template.
-   * Executes the query after filling in the indexes. Inserts result of query into the population
-   * column.
+   * Write the prevalence report of the patients generated so far.
+   * @param generator The generator, which recorded the prevalence of its patients if
+   *     "exporter.prevalence_report" was enabled when it was created.
+   * @throws Exception if the report cannot be written
    */
-  private static void getPop(Connection connection, LinkedHashMap<String, String> line)
-      throws SQLException {
-
-    StringBuilder sb = new StringBuilder();
-    sb.append("SELECT COUNT(*) FROM PERSON p, ATTRIBUTE a\n" + "WHERE \n" + "p.ID = a.PERSON_ID\n"
-        + "AND (p.DATE_OF_DEATH is null)\n" + "");
-
-    String gender = line.get(GENDER);
-    if (!gender.equals(ALL)) {
-      sb.append("AND (p.GENDER = ?)\n");
-    }
-
-    String race = line.get(RACE);
-    if (!race.equals(ALL)) {
-      sb.append("AND (p.RACE = ?)\n");
+  public static void export(Generator generator) throws Exception {
+    if (generator.prevalence == null) {
+      System.err.println(
+          "Unable to generate Prevalence Report - prevalence was not counted during generation.");
+      return;
     }
 
-    String age = line.get(AGE);
-    if (age.equals("adult")) {
-      sb.append("AND (a.NAME = 'AGE' AND CAST(a.VALUE AS INT) >= 18)\n");
-    } else if (age.equals("child")) {
-      sb.append("AND (a.NAME = 'AGE' AND CAST(a.VALUE AS INT) < 18)\n");
-    } else if (age.equals("senior")) {
-      sb.append("AND (a.NAME = 'AGE' AND CAST(a.VALUE AS INT) > 65)\n");
-    }
+    String newCsvData = SimpleCSV.unparse(generator.prevalence.report());
 
-    PreparedStatement stmt = connection.prepareStatement(sb.toString());
+    File outDirectory = Exporter.getOutputFolder("prevalence", null);
 
-    int index = 1; // SQL begins at 1 not 0
+    Path outFilePath = outDirectory.toPath()
+        .resolve("prev_data" + System.currentTimeMillis() + ".csv");
 
-    if (!gender.equals(ALL)) {
-      stmt.setString(index++, gender);
-    }
+    Files.write(outFilePath, Collections.singleton(newCsvData), StandardOpenOption.CREATE_NEW);
+  }
 
-    if (!race.equals(ALL)) {
-      stmt.setString(index++, race);
+  /**
+   * Fill in a copy of the template with the prevalence of the patients recorded so far,
+   * followed by a line for every distinct condition in the population.
+   * @return The lines of the report.
+   */
+  List<LinkedHashMap<String, String>> report() {
+    List<LinkedHashMap<String, String>> data = new ArrayList<>();
+    for (int i = 0; i < template.size(); i++) {
+      LinkedHashMap<String, String> line = new LinkedHashMap<>(template.get(i));
+      Line counts = lines.get(i);
+      if (counts != null) {
+        line.put(OCCUR, Long.toString(counts.occurrences.sum()));
+        line.put(POP, Long.toString(counts.population.sum()));
+        completeSyntheaFields(line);
+        completeDifferenceField(line);
+      }
+      data.add(line);
     }
-
-    ResultSet rs = stmt.executeQuery();
-    rs.next();
-
-    int countPop = rs.getInt(1);
-    line.put(POP, Integer.toString(countPop));
+    allConditions(data);
+    return data;
   }
 
   /**
    * Calculates the prevalence rate and percent based on what is on that line of the report. Inserts
    * result of calculation into the prevalence rate and percent columns.
    */
-  private static void completeSyntheaFields(Connection connection,
-      LinkedHashMap<String, String> line) throws SQLException {
+  private static void completeSyntheaFields(LinkedHashMap<String, String> line) {
 
     if ((line.get(OCCUR).isEmpty()) || (line.get(POP).isEmpty())) {
       line.put(PREV_RATE, (null));
@@ -208,8 +221,7 @@ public class PrevalenceReport {
    * Calculates the difference between the Synthea prevalence percent and actual percent based on
    * what is on that line of the report. Inserts result of calculation into the difference column.
    */
-  private static void completeDifferenceField(Connection connection,
-      LinkedHashMap<String, String> line) throws SQLException {
+  private static void completeDifferenceField(LinkedHashMap<String, String> line) {
     if (line.get(ACTUAL_PREV_PERCENT).isEmpty()) {
       line.put(DIFFERENCE, (null));
     } else {
@@ -221,60 +233,19 @@ public class PrevalenceReport {
   }
 
   /**
-   * Uses a string builder to run a query dependent upon what is on each line of the CSV template.
-   * Calculates the prevalence rate of one disease given another disease. Inserts result of query
-   * into the occurrences column.
+   * Adds a line for every distinct condition, with the number of living patients who have had
+   * it and the total living population. Calls for completeSyntheaFields to calculate the
+   * prevalence rate and percent.
    */
-  private static void givenCondition(Connection connection, LinkedHashMap<String, String> line)
-      throws SQLException {
-    String query = "SELECT COUNT(*) FROM PERSON p, CONDITION c1, CONDITION c2 "
-        + "WHERE  p.ID = c1.PERSON_ID " + "AND c1.PERSON_ID = c2.PERSON_ID "
-        + "AND (p.DATE_OF_DEATH is null) " + "AND (c1.DISPLAY = ?) " + "AND (c2.DISPLAY = ?) ";
-
-    PreparedStatement stmt = connection.prepareStatement(query);
-    stmt.setString(1, line.get(ITEM));
-    stmt.setString(2, line.get(GIVEN_CON));
-
-    ResultSet rs = stmt.executeQuery();
-    rs.next();
-
-    int givenCondition = rs.getInt(1);
-    line.put(OCCUR, Integer.toString(givenCondition));
-  }
-
-  /**
-   * Calculates the unique number of patients who have a distinct disease. Inserts result of query
-   * into the occurrences column. Calculates the total living population of patients. Inserts result
-   * into the population column. Calls for completeSyntheaFields to calculate the prevalence rate
-   * and percent.
-   */
-  private static void allConditions(Connection connection, List<LinkedHashMap<String, String>> data)
-      throws SQLException {
-
-    PreparedStatement stmt = connection
-        .prepareStatement("select count(*) from person where person.DATE_OF_DEATH is null");
-    ResultSet rs = stmt.executeQuery();
-    rs.next();
-    int totalPopulation = rs.getInt(1);
-
-    stmt = connection.prepareStatement(
-        "select distinct c.display as DistinctDisplay, "
-        + "count(distinct c.person_id) as CountDisplay \n"
-        + "from condition c, person p\n" 
-        + "where c.person_id = p.id\n"
-        + "and p.date_of_death is null\n" 
-        + "group by c.display\n" 
-        + "order by c.display ASC");
-    rs = stmt.executeQuery();
-    while (rs.next()) {
-      String disease = rs.getString("DistinctDisplay");
-      int count = rs.getInt("CountDisplay");
+  private void allConditions(List<LinkedHashMap<String, String>> data) {
+    long population = totalPopulation.sum();
+    for (Map.Entry<String, LongAdder> condition : new TreeMap<>(conditions).entrySet()) {
       LinkedHashMap<String, String> line = new LinkedHashMap<String, String>();
-      line.put(ITEM, disease);
-      line.put(OCCUR, Integer.toString(count));
-      line.put(POP, Integer.toString(totalPopulation));
+      line.put(ITEM, condition.getKey());
+      line.put(OCCUR, Long.toString(condition.getValue().sum()));
+      line.put(POP, Long.toString(population));
       data.add(line);
-      completeSyntheaFields(connection, line);
+      completeSyntheaFields(line);
     }
   }
 }
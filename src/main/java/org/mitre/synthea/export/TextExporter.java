@@ -4,17 +4,15 @@ import static org.mitre.synthea.export.ExportHelper.dateFromTimestamp;
 
 import com.google.common.base.Strings;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.text.WordUtils;
+import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.world.agents.Clinician;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord.CarePlan;
@@ -166,7 +164,8 @@ public class TextExporter {
    */
   public static void exportAll(Person person, String fileTag, long time) throws IOException {
 
-    List<Encounter> encounters = person.record.encounters;
+    // a copy, as the record may be read by other exporters at the same time
+    List<Encounter> encounters = new ArrayList<>(person.record.encounters);
     List<Entry> conditions = new ArrayList<>();
     List<Entry> allergies = new ArrayList<>();
     List<Report> reports = new ArrayList<>();
@@ -201,80 +200,77 @@ public class TextExporter {
     Collections.reverse(careplans);
     Collections.reverse(imagingStudies);
 
-    // now we finally start writing things
-    List<String> textRecord = new LinkedList<>();
+    // now we finally start writing things, straight into the file
+    try (Writer textRecord =
+        Exporter.newWriter("text", person, Exporter.filename(person, fileTag, "txt"))) {
 
-    basicInfo(textRecord, person, time);
-    breakline(textRecord);
+      basicInfo(textRecord, person, time);
+      breakline(textRecord);
 
-    textRecord.add("ALLERGIES:");
-    if (allergies.isEmpty()) {
-      textRecord.add("No Known Allergies");
-    } else {
-      for (Entry allergy : allergies) {
-        condition(textRecord, allergy, true);
+      textRecord.append("ALLERGIES:").append(NEWLINE);
+      if (allergies.isEmpty()) {
+        textRecord.append("No Known Allergies").append(NEWLINE);
+      } else {
+        for (Entry allergy : allergies) {
+          condition(textRecord, allergy, true);
+        }
       }
-    }
-    breakline(textRecord);
+      breakline(textRecord);
 
-    textRecord.add("MEDICATIONS:");
-    for (Medication medication : medications) {
-      medication(textRecord, medication, true);
-    }
-    breakline(textRecord);
+      textRecord.append("MEDICATIONS:").append(NEWLINE);
+      for (Medication medication : medications) {
+        medication(textRecord, medication, true);
+      }
+      breakline(textRecord);
 
-    textRecord.add("CONDITIONS:");
-    for (Entry condition : conditions) {
-      condition(textRecord, condition, true);
-    }
-    breakline(textRecord);
+      textRecord.append("CONDITIONS:").append(NEWLINE);
+      for (Entry condition : conditions) {
+        condition(textRecord, condition, true);
+      }
+      breakline(textRecord);
 
-    textRecord.add("CARE PLANS:");
-    for (CarePlan careplan : careplans) {
-      careplan(textRecord, careplan, true);
-    }
-    breakline(textRecord);
+      textRecord.append("CARE PLANS:").append(NEWLINE);
+      for (CarePlan careplan : careplans) {
+        careplan(textRecord, careplan, true);
+      }
+      breakline(textRecord);
 
-    textRecord.add("REPORTS:");
-    for (Report report : reports) {
-      diagnosticReport(textRecord, report);
-    }
-    breakline(textRecord);
+      textRecord.append("REPORTS:").append(NEWLINE);
+      for (Report report : reports) {
+        diagnosticReport(textRecord, report);
+      }
+      breakline(textRecord);
     
-    textRecord.add("OBSERVATIONS:");
-    for (Observation observation : observations) {
-      observation(textRecord, observation);
-    }
-    breakline(textRecord);
+      textRecord.append("OBSERVATIONS:").append(NEWLINE);
+      for (Observation observation : observations) {
+        observation(textRecord, observation);
+      }
+      breakline(textRecord);
 
-    textRecord.add("PROCEDURES:");
-    for (Procedure procedure : procedures) {
-      procedure(textRecord, procedure);
-    }
-    breakline(textRecord);
+      textRecord.append("PROCEDURES:").append(NEWLINE);
+      for (Procedure procedure : procedures) {
+        procedure(textRecord, procedure);
+      }
+      breakline(textRecord);
 
-    textRecord.add("IMMUNIZATIONS:");
-    for (Entry immunization : immunizations) {
-      immunization(textRecord, immunization);
-    }
-    breakline(textRecord);
+      textRecord.append("IMMUNIZATIONS:").append(NEWLINE);
+      for (Entry immunization : immunizations) {
+        immunization(textRecord, immunization);
+      }
+      breakline(textRecord);
 
-    textRecord.add("ENCOUNTERS:");
-    for (Encounter encounter : encounters) {
-      encounter(textRecord, encounter);
-    }
-    breakline(textRecord);
+      textRecord.append("ENCOUNTERS:").append(NEWLINE);
+      for (Encounter encounter : encounters) {
+        encounter(textRecord, encounter);
+      }
+      breakline(textRecord);
 
-    textRecord.add("IMAGING STUDIES:");
-    for (ImagingStudy imagingStudy : imagingStudies) {
-      imagingStudy(textRecord, imagingStudy);
+      textRecord.append("IMAGING STUDIES:").append(NEWLINE);
+      for (ImagingStudy imagingStudy : imagingStudies) {
+        imagingStudy(textRecord, imagingStudy);
+      }
+      breakline(textRecord);
     }
-    breakline(textRecord);
-
-    // finally write to the file
-    File outDirectory = Exporter.getOutputFolder("text", person);
-    Path outFilePath = outDirectory.toPath().resolve(Exporter.filename(person, fileTag, "txt"));
-    Files.write(outFilePath, textRecord, StandardOpenOption.CREATE_NEW);
   }
 
   /**
@@ -285,7 +281,8 @@ public class TextExporter {
    * @throws IOException if any error occurs writing to the standard export location
    */
   public static void exportEncounter(Person person, long time) throws IOException {
-    List<Encounter> encounters = person.record.encounters;
+    // a copy, as the record may be read by other exporters at the same time
+    List<Encounter> encounters = new ArrayList<>(person.record.encounters);
     List<Entry> conditions = new ArrayList<>();
     List<Entry> allergies = new ArrayList<>();
     List<Medication> medications = new ArrayList<>();
@@ -305,103 +302,147 @@ public class TextExporter {
     Collections.reverse(medications);
     Collections.reverse(careplans);
     
+    // the patient details and allergies are the same at the top of every encounter note
+    StringWriter header = new StringWriter();
+    basicInfo(header, person, time);
+    breakline(header);
+
+    header.append("ALLERGIES:").append(NEWLINE);
+    if (allergies.isEmpty()) {
+      header.append("No Known Allergies").append(NEWLINE);
+    } else {
+      for (Entry allergy : allergies) {
+        condition(header, allergy, false);
+      }
+    }
+    breakline(header);
+    String noteHeader = header.toString();
+
+    if (Boolean.parseBoolean(Config.get("exporter.text.per_encounter_single_file"))) {
+      // all of the notes in one file, each followed by a separator line
+      try (Writer textRecord = Exporter.newWriter("text_encounters", person,
+          Exporter.filename(person, "", "txt"))) {
+        for (Encounter encounter : encounters) {
+          encounterNote(textRecord, noteHeader, person, encounter, conditions, medications,
+              careplans);
+          textRecord.append(ENCOUNTER_SEPARATOR).append(NEWLINE);
+        }
+      }
+      return;
+    }
+
     //set an integer that will be used as a counter for file naming purposes
     int encounterNumber = 0;
 
     for (Encounter encounter : encounters) {
-      //make a record for each encounter to write information
-      List<String> textRecord = new LinkedList<>();
-            
-      basicInfo(textRecord, person, time);
-      breakline(textRecord);
+      encounterNumber++;
 
-      textRecord.add("ALLERGIES:");
-      if (allergies.isEmpty()) {
-        textRecord.add("No Known Allergies");
-      } else {
-        for (Entry allergy : allergies) {
-          condition(textRecord, allergy, false);
-        }
+      //write each encounter to its own file
+      try (Writer textRecord = Exporter.newWriter("text_encounters", person,
+          Exporter.filename(person, Integer.toString(encounterNumber), "txt"))) {
+        encounterNote(textRecord, noteHeader, person, encounter, conditions, medications,
+            careplans);
       }
-      breakline(textRecord);
+    }
+  }
 
-      textRecord.add("ENCOUNTER");
-      encounterReport(textRecord, person, encounter);
-      breakline(textRecord);
+  /**
+   * Write the note for a single encounter.
+   *
+   * @param textRecord
+   *          Text format record to write to
+   * @param noteHeader
+   *          The basic information and allergies of the person, already formatted
+   * @param person
+   *          The person to export
+   * @param encounter
+   *          The encounter the note is for
+   * @param conditions
+   *          All of the person's conditions, in reverse chronological order
+   * @param medications
+   *          All of the person's medications, in reverse chronological order
+   * @param careplans
+   *          All of the person's careplans, in reverse chronological order
+   */
+  private static void encounterNote(Writer textRecord, String noteHeader, Person person,
+      Encounter encounter, List<Entry> conditions, List<Medication> medications,
+      List<CarePlan> careplans) throws IOException {
+    textRecord.append(noteHeader);
 
-      textRecord.add("CONTINUING");
-      textRecord.add("   ");
+    textRecord.append("ENCOUNTER").append(NEWLINE);
+    encounterReport(textRecord, person, encounter);
+    breakline(textRecord);
 
-      textRecord.add("   CONDITIONS:");
-      for (Entry condition : conditions) {
-        conditionpast(textRecord, condition, encounter);
-      }
-      textRecord.add("   ");
+    textRecord.append("CONTINUING").append(NEWLINE);
+    textRecord.append("   ").append(NEWLINE);
 
-      textRecord.add("   MEDICATIONS:");
-      for (Medication medication : medications) {
-        medicationpast(textRecord, medication, encounter);
-      }
-      textRecord.add("   ");
+    textRecord.append("   CONDITIONS:").append(NEWLINE);
+    for (Entry condition : conditions) {
+      conditionpast(textRecord, condition, encounter);
+    }
+    textRecord.append("   ").append(NEWLINE);
 
-      textRecord.add("   CAREPLANS:");
-      for (CarePlan careplan : careplans) {
-        careplanpast(textRecord, careplan, encounter);
-      }
-      textRecord.add("   ");
-      breakline(textRecord);
+    textRecord.append("   MEDICATIONS:").append(NEWLINE);
+    for (Medication medication : medications) {
+      medicationpast(textRecord, medication, encounter);
+    }
+    textRecord.append("   ").append(NEWLINE);
 
-      encounterNumber++;
+    textRecord.append("   CAREPLANS:").append(NEWLINE);
+    for (CarePlan careplan : careplans) {
+      careplanpast(textRecord, careplan, encounter);
+    }
+    textRecord.append("   ").append(NEWLINE);
+    breakline(textRecord);
+  }
 
-      //write to the file
-      File outDirectory2 = Exporter.getOutputFolder("text_encounters", person);
-      Path outFilePath2 = outDirectory2.toPath().resolve(Exporter.filename(person,
-          Integer.toString(encounterNumber), "txt"));
-      Files.write(outFilePath2, textRecord, StandardOpenOption.CREATE_NEW);
-    }      
-  }  
-  
   /**
    * Add the basic information to the record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param person
    *          The person to export
    * @param endTime
    *          Time the simulation ended (to calculate age/deceased status)
    */
-  private static void basicInfo(List<String> textRecord, Person person, long endTime) {
+  private static void basicInfo(Writer textRecord, Person person, long endTime) throws IOException {
     String name = (String) person.attributes.get(Person.NAME);
 
-    textRecord.add(name);
-    textRecord.add(name.replaceAll("[A-Za-z0-9 ]", "=")); // "underline" the characters in the name
+    textRecord.append(name).append(NEWLINE);
+    // "underline" the characters in the name
+    textRecord.append(name.replaceAll("[A-Za-z0-9 ]", "=")).append(NEWLINE);
 
     String race = (String) person.attributes.get(Person.RACE);
     if (race.equals("hispanic")) {
-      textRecord.add("Race:                Other");
+      textRecord.append("Race:                Other").append(NEWLINE);
       String ethnicity = (String) person.attributes.get(Person.ETHNICITY);
       ethnicity = WordUtils.capitalize(ethnicity.replace('_', ' '));
-      textRecord.add("Ethnicity:           " + ethnicity);
+      textRecord.append("Ethnicity:           ").append(ethnicity).append(NEWLINE);
     } else {
-      textRecord.add("Race:                " + WordUtils.capitalize(race));
-      textRecord.add("Ethnicity:           Non-Hispanic");
+      textRecord.append("Race:                ").append(WordUtils.capitalize(race)).append(NEWLINE);
+      textRecord.append("Ethnicity:           Non-Hispanic").append(NEWLINE);
     }
 
-    textRecord.add("Gender:              " + person.attributes.get(Person.GENDER));
+    textRecord.append("Gender:              ")
+        .append(String.valueOf(person.attributes.get(Person.GENDER)))
+        .append(NEWLINE);
 
     String age = person.alive(endTime) ? Integer.toString(person.ageInYears(endTime)) : "DECEASED";
-    textRecord.add("Age:                 " + age);
+    textRecord.append("Age:                 ").append(age).append(NEWLINE);
 
     String birthdate = dateFromTimestamp((long) person.attributes.get(Person.BIRTHDATE));
-    textRecord.add("Birth Date:          " + birthdate);
-    textRecord.add("Marital Status:      "
-        + person.attributes.getOrDefault(Person.MARITAL_STATUS, "S"));
+    textRecord.append("Birth Date:          ").append(birthdate).append(NEWLINE);
+    textRecord.append("Marital Status:      ")
+        .append(String.valueOf(person.attributes.getOrDefault(Person.MARITAL_STATUS, "S")))
+        .append(NEWLINE);
 
     if (person.record.provider != null) {
-      textRecord.add("Provider:            " + person.record.provider.name);
-      textRecord.add("Provider Address:    " + person.record.provider.address
-          + ", " + person.record.provider.city + ", " + person.record.provider.state);
+      textRecord.append("Provider:            ").append(person.record.provider.name)
+          .append(NEWLINE);
+      textRecord.append("Provider Address:    ").append(person.record.provider.address)
+          .append(", ").append(person.record.provider.city).append(", ")
+          .append(person.record.provider.state).append(NEWLINE);
     }
   }
   
@@ -409,11 +450,11 @@ public class TextExporter {
    * Write a line for a single Encounter to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param encounter
    *          The Encounter to add to the export
    */
-  private static void encounter(List<String> textRecord, Encounter encounter) {
+  private static void encounter(Writer textRecord, Encounter encounter) throws IOException {
     String encounterTime = dateFromTimestamp(encounter.start);
 
     String clinician = "";
@@ -422,14 +463,18 @@ public class TextExporter {
           + " " + encounter.clinician.attributes.get(Clinician.NAME) + ")";
     }
     if (encounter.reason == null && encounter.provider == null) {
-      textRecord.add(encounterTime + clinician + " : " + encounter.codes.get(0).display);
+      textRecord.append(encounterTime).append(clinician).append(" : ")
+          .append(encounter.codes.get(0).display).append(NEWLINE);
     } else if  (encounter.reason == null && encounter.provider != null) {
-      textRecord.add(encounterTime + clinician + " : Encounter at " + encounter.provider.name);
+      textRecord.append(encounterTime).append(clinician).append(" : Encounter at ")
+          .append(encounter.provider.name).append(NEWLINE);
     } else if  (encounter.reason != null && encounter.provider == null) {
-      textRecord.add(encounterTime + clinician + " : Encounter for " + encounter.reason.display);
+      textRecord.append(encounterTime).append(clinician).append(" : Encounter for ")
+          .append(encounter.reason.display).append(NEWLINE);
     } else {
-      textRecord.add(encounterTime + clinician + " : Encounter at " 
-          + encounter.provider.name + " : Encounter for " + encounter.reason.display);
+      textRecord.append(encounterTime).append(clinician).append(" : Encounter at ")
+          .append(encounter.provider.name).append(" : Encounter for ")
+          .append(encounter.reason.display).append(NEWLINE);
     }
   } 
 
@@ -437,28 +482,32 @@ public class TextExporter {
    * Add all info from the encounter to the record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param person
    *          The person to export
    * @param encounter
    *          The encounter all of the information refers to
    */
-  private static void encounterReport(List<String> textRecord, Person person, Encounter encounter) {
+  private static void encounterReport(Writer textRecord, Person person, Encounter encounter)
+      throws IOException {
     String encounterTime = dateFromTimestamp(encounter.start);
 
     if (encounter.reason == null && encounter.provider == null) {
-      textRecord.add(encounterTime + " : " + encounter.codes.get(0).display);
+      textRecord.append(encounterTime).append(" : ").append(encounter.codes.get(0).display)
+          .append(NEWLINE);
     } else if (encounter.reason == null && encounter.provider != null) {
-      textRecord.add(encounterTime + " : Encounter at " + encounter.provider.name);
+      textRecord.append(encounterTime).append(" : Encounter at ").append(encounter.provider.name)
+          .append(NEWLINE);
     } else if (encounter.reason != null && encounter.provider == null) {
-      textRecord.add(encounterTime + " : Encounter for " + encounter.reason.display);
+      textRecord.append(encounterTime).append(" : Encounter for ").append(encounter.reason.display)
+          .append(NEWLINE);
     } else {
-      textRecord.add(encounterTime + " : Encounter at " + encounter.provider.name
-          + " : Encounter for " + encounter.reason.display);
+      textRecord.append(encounterTime).append(" : Encounter at ").append(encounter.provider.name)
+          .append(" : Encounter for ").append(encounter.reason.display).append(NEWLINE);
     }
 
-    textRecord.add("Type: " + encounter.type);
-    textRecord.add("   ");
+    textRecord.append("Type: ").append(encounter.type).append(NEWLINE);
+    textRecord.append("   ").append(NEWLINE);
 
     //Create lists for only the items that occurred at the encounter
     List<Entry> encounterConditions = new ArrayList<>();
@@ -487,66 +536,67 @@ public class TextExporter {
     Collections.reverse(encounterCareplans);
     Collections.reverse(encounterImagingStudies);
 
-    textRecord.add("   MEDICATIONS:");
+    textRecord.append("   MEDICATIONS:").append(NEWLINE);
     for (Medication medication : encounterMedications) {
       medication(textRecord, medication, false);
     }
-    textRecord.add("   ");
+    textRecord.append("   ").append(NEWLINE);
 
-    textRecord.add("   CONDITIONS:");
+    textRecord.append("   CONDITIONS:").append(NEWLINE);
     for (Entry condition : encounterConditions) {
       condition(textRecord, condition, false);
     }
-    textRecord.add("   ");
+    textRecord.append("   ").append(NEWLINE);
 
-    textRecord.add("   CARE PLANS:");
+    textRecord.append("   CARE PLANS:").append(NEWLINE);
     for (CarePlan careplan : encounterCareplans) {
       careplan(textRecord, careplan, false);
     }
-    textRecord.add("   ");
+    textRecord.append("   ").append(NEWLINE);
 
-    textRecord.add("   REPORTS:");
+    textRecord.append("   REPORTS:").append(NEWLINE);
     for (Report report : encounterReports) {
       diagnosticReport(textRecord, report);
     }
-    textRecord.add("   ");
+    textRecord.append("   ").append(NEWLINE);
 
-    textRecord.add("   OBSERVATIONS:");
+    textRecord.append("   OBSERVATIONS:").append(NEWLINE);
     for (Observation observation : encounterObservations) {
       observation(textRecord, observation);
     }
-    textRecord.add("   ");
+    textRecord.append("   ").append(NEWLINE);
 
-    textRecord.add("   PROCEDURES:");
+    textRecord.append("   PROCEDURES:").append(NEWLINE);
     for (Procedure procedure : encounterProcedures) {
       procedure(textRecord, procedure);
     }
-    textRecord.add("   ");
+    textRecord.append("   ").append(NEWLINE);
 
-    textRecord.add("   IMMUNIZATIONS:");
+    textRecord.append("   IMMUNIZATIONS:").append(NEWLINE);
     for (Entry immunization : encounterImmunizations) {
       immunization(textRecord, immunization);
     }
-    textRecord.add("   ");
+    textRecord.append("   ").append(NEWLINE);
 
-    textRecord.add("   IMAGING STUDIES:");
+    textRecord.append("   IMAGING STUDIES:").append(NEWLINE);
     for (ImagingStudy imagingStudy : encounterImagingStudies) {
       imagingStudy(textRecord, imagingStudy);
     }
-    textRecord.add("   ");
+    textRecord.append("   ").append(NEWLINE);
   }
 
   /**
    * Write a line for a single Condition to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param condition
    *          The condition to add to the export
    * @param end
    *          Whether or not the condition end date will be displayed
    */
-  private static void condition(List<String> textRecord, Entry condition, Boolean end) {
+  private static void condition(Writer textRecord, Entry condition, Boolean end)
+      throws IOException {
     String start = dateFromTimestamp(condition.start);
     String stop;
     String description = condition.codes.get(0).display;
@@ -557,9 +607,10 @@ public class TextExporter {
       } else {
         stop = dateFromTimestamp(condition.stop);
       }
-      textRecord.add("  " + start + " - " + stop + " : " + description);
+      textRecord.append("  ").append(start).append(" - ").append(stop).append(" : ")
+          .append(description).append(NEWLINE);
     } else {
-      textRecord.add("  " + start + " : " + description);
+      textRecord.append("  ").append(start).append(" : ").append(description).append(NEWLINE);
     }
   }
 
@@ -567,20 +618,21 @@ public class TextExporter {
    * Write a line for a condition that has not ended at the time of the encounter.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param condition
    *          The condition to add to the export
    * @param encounter
    *          The encounter at which the continuing condition is reported
    */
-  private static void conditionpast(List<String> textRecord, Entry condition, Encounter encounter) {
+  private static void conditionpast(Writer textRecord, Entry condition, Encounter encounter)
+      throws IOException {
     String start = dateFromTimestamp(condition.start);
     if ((condition.stop == 0L || condition.stop > encounter.stop)
         && (condition.start < encounter.start)) {
       //checks that the condition hasn't ended by the time of the encounter
       //and began prior to the encounter
       String description = condition.codes.get(0).display;
-      textRecord.add("  " + start + " : " + description);
+      textRecord.append("  ").append(start).append(" : ").append(description).append(NEWLINE);
     }
   }
 
@@ -588,11 +640,11 @@ public class TextExporter {
    * Write a line for a single Observation to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param observation
    *          The Observation to add to the export
    */
-  private static void observation(List<String> textRecord, Observation observation) {
+  private static void observation(Writer textRecord, Observation observation) throws IOException {
     String value = ExportHelper.getObservationValue(observation);
 
     if (value == null) {
@@ -610,24 +662,24 @@ public class TextExporter {
 
     String unit = observation.unit != null ? observation.unit : "";
 
-    textRecord.add("  " + obsTime + " : " + Strings.padEnd(obsDesc, 40, ' ') + " " 
-        + value + " " + unit);
+    textRecord.append("  ").append(obsTime).append(" : ").append(Strings.padEnd(obsDesc, 40, ' '))
+        .append(" ").append(value).append(" ").append(unit).append(NEWLINE);
   }
 
   /**
    * Write lines for a Diagnostic Report to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param observation
    *          The Report to add to the export
    */
-  private static void diagnosticReport(List<String> textRecord, Report report) {
+  private static void diagnosticReport(Writer textRecord, Report report) throws IOException {
     // note that this is largely the same as the MultiObservation
     String obsTime = dateFromTimestamp(report.start);
     String obsDesc = report.codes.get(0).display;
 
-    textRecord.add("  " + obsTime + " : " + obsDesc);
+    textRecord.append("  ").append(obsTime).append(" : ").append(obsDesc).append(NEWLINE);
     
     observationGroup(textRecord, report.observations);
   }
@@ -636,15 +688,16 @@ public class TextExporter {
    * Write lines for an Observation with multiple parts to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param observation
    *          The Observation to add to the export
    */
-  private static void multiobservation(List<String> textRecord, Observation observation) {
+  private static void multiobservation(Writer textRecord, Observation observation)
+      throws IOException {
     String obsTime = dateFromTimestamp(observation.start);
     String obsDesc = observation.codes.get(0).display;
 
-    textRecord.add("  " + obsTime + " : " + obsDesc);
+    textRecord.append("  ").append(obsTime).append(" : ").append(obsDesc).append(NEWLINE);
 
     observationGroup(textRecord, observation.observations);
   }
@@ -653,17 +706,18 @@ public class TextExporter {
    * Common logic for outputting a group of observations,
    * intended to be used by MultiObservations and DiagnosticReports.
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param observation
    *          The group of Observations to add to the export
    */
-  private static void observationGroup(List<String> textRecord, List<Observation> subObservations) {
+  private static void observationGroup(Writer textRecord, List<Observation> subObservations)
+      throws IOException {
     for (Observation subObs : subObservations) {
       String value = ExportHelper.getObservationValue(subObs);
       String unit = subObs.unit != null ? subObs.unit : "";
       String subObsDesc = subObs.codes.get(0).display;
-      textRecord.add("           - " + Strings.padEnd(subObsDesc, 40, ' ') + " " + value + " "
-          + unit);
+      textRecord.append("           - ").append(Strings.padEnd(subObsDesc, 40, ' ')).append(" ")
+          .append(value).append(" ").append(unit).append(NEWLINE);
     }
   }
 
@@ -671,18 +725,20 @@ public class TextExporter {
    * Write a line for a single Procedure to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param procedure
    *          The Procedure to add to the export
    */
-  private static void procedure(List<String> textRecord, Procedure procedure) {
+  private static void procedure(Writer textRecord, Procedure procedure) throws IOException {
     String procedureTime = dateFromTimestamp(procedure.start);
     String procedureDesc = procedure.codes.get(0).display;
     if (procedure.reasons == null || procedure.reasons.isEmpty()) {
-      textRecord.add("  " + procedureTime + " : " + procedureDesc);
+      textRecord.append("  ").append(procedureTime).append(" : ").append(procedureDesc)
+          .append(NEWLINE);
     } else {
       String reason = procedure.reasons.get(0).display;
-      textRecord.add("  " + procedureTime + " : " + procedureDesc + " for " + reason);
+      textRecord.append("  ").append(procedureTime).append(" : ").append(procedureDesc)
+          .append(" for ").append(reason).append(NEWLINE);
     }
   }
 
@@ -690,29 +746,33 @@ public class TextExporter {
    * Write a line for a single Medication to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param medication
    *          The Medication to add to the export
    * @param stat
    *          Whether or not the medication status will be displayed
    */
-  private static void medication(List<String> textRecord, Medication medication, Boolean stat) {
+  private static void medication(Writer textRecord, Medication medication, Boolean stat)
+      throws IOException {
     String medTime = dateFromTimestamp(medication.start);
     String medDesc = medication.codes.get(0).display;
     String status = (medication.stop == 0L) ? "CURRENT" : "STOPPED";
     if (stat) {
       if (medication.reasons == null || medication.reasons.isEmpty()) {
-        textRecord.add("  " + medTime + "[" + status + "] : " + medDesc);
+        textRecord.append("  ").append(medTime).append("[").append(status).append("] : ")
+            .append(medDesc).append(NEWLINE);
       } else {
         String reason = medication.reasons.get(0).display;
-        textRecord.add("  " + medTime + "[" + status + "] : " + medDesc + " for " + reason);
+        textRecord.append("  ").append(medTime).append("[").append(status).append("] : ")
+            .append(medDesc).append(" for ").append(reason).append(NEWLINE);
       }
     } else {
       if (medication.reasons == null || medication.reasons.isEmpty()) {
-        textRecord.add("  " + medTime + " : " + medDesc);
+        textRecord.append("  ").append(medTime).append(" : ").append(medDesc).append(NEWLINE);
       } else {
         String reason = medication.reasons.get(0).display;
-        textRecord.add("  " + medTime + " : " + medDesc + " for " + reason);
+        textRecord.append("  ").append(medTime).append(" : ").append(medDesc).append(" for ")
+            .append(reason).append(NEWLINE);
       }
     }
   }
@@ -721,14 +781,14 @@ public class TextExporter {
    * Write a line for a medication that is still being taken at the time of the encounter.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param medication
    *          The medication to add to the export
    * @param encounter
    *          The encounter at which the continuing medication is reported
    */
-  private static void medicationpast(List<String> textRecord, Medication medication,
-      Encounter encounter) {
+  private static void medicationpast(Writer textRecord, Medication medication,
+      Encounter encounter) throws IOException {
     String medTime = dateFromTimestamp(medication.start);
     String medDesc = medication.codes.get(0).display;
     if ((medication.stop == 0L || medication.stop > encounter.stop) 
@@ -736,10 +796,11 @@ public class TextExporter {
       //checks that the medication is still being taken at the time of the encounter
       //and began prior to the encounter
       if (medication.reasons == null || medication.reasons.isEmpty()) {
-        textRecord.add("  " + medTime + " : " + medDesc);
+        textRecord.append("  ").append(medTime).append(" : ").append(medDesc).append(NEWLINE);
       } else {
         String reason = medication.reasons.get(0).display;
-        textRecord.add("  " + medTime + " + " + medDesc  + " for " + reason);
+        textRecord.append("  ").append(medTime).append(" + ").append(medDesc).append(" for ")
+            .append(reason).append(NEWLINE);
       }
     }
   }
@@ -748,46 +809,50 @@ public class TextExporter {
    * Write a line for a single Immunization to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param immunization
    *          The immunization to add to the export
    */
-  private static void immunization(List<String> textRecord, Entry immunization) {
+  private static void immunization(Writer textRecord, Entry immunization) throws IOException {
     String immTime = dateFromTimestamp(immunization.start);
     String immDesc = immunization.codes.get(0).display;
-    textRecord.add("  " + immTime + " : " + immDesc);
+    textRecord.append("  ").append(immTime).append(" : ").append(immDesc).append(NEWLINE);
   }
 
   /**
    * Write lines for a single CarePlan to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param careplan
    *          The CarePlan to add to the export
    * @param stat
    *          Whether or not the careplan status will be displayed
    */
-  private static void careplan(List<String> textRecord, CarePlan careplan, Boolean stat) {
+  private static void careplan(Writer textRecord, CarePlan careplan, Boolean stat)
+      throws IOException {
     String cpTime = dateFromTimestamp(careplan.start);
     String cpDesc = careplan.codes.get(0).display;
     String status = (careplan.stop == 0L) ? "CURRENT" : "STOPPED";
     if (stat) {
-      textRecord.add("  " + cpTime + "[" + status + "] : " + cpDesc);
+      textRecord.append("  ").append(cpTime).append("[").append(status).append("] : ")
+          .append(cpDesc).append(NEWLINE);
     } else {
-      textRecord.add("  " + cpTime + " : " + cpDesc);
+      textRecord.append("  ").append(cpTime).append(" : ").append(cpDesc).append(NEWLINE);
     }
     
 
     if (careplan.reasons != null && !careplan.reasons.isEmpty()) {
       for (Code reason : careplan.reasons) {
-        textRecord.add("                         Reason: " + reason.display);
+        textRecord.append("                         Reason: ").append(reason.display)
+            .append(NEWLINE);
       }
     }
 
     if (careplan.activities != null && !careplan.activities.isEmpty()) {
       for (Code activity : careplan.activities) {
-        textRecord.add("                         Activity: " + activity.display);
+        textRecord.append("                         Activity: ").append(activity.display)
+            .append(NEWLINE);
       }
     }
   }
@@ -796,29 +861,31 @@ public class TextExporter {
    * Write a line for a careplan that is still being followed at the time of the encounter.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param careplan
    *          The careplan to add to the export
    * @param encounter
    *          The encounter at which the continuing careplan is reported
    */
-  private static void careplanpast(List<String> textRecord, CarePlan careplan,
-      Encounter encounter) {
+  private static void careplanpast(Writer textRecord, CarePlan careplan,
+      Encounter encounter) throws IOException {
     String cpTime = dateFromTimestamp(careplan.start);
     String cpDesc = careplan.codes.get(0).display;
     if ((careplan.stop == 0L || careplan.stop > encounter.stop)
         && (careplan.start < encounter.start)) {
       //checks that the careplan is still being followed at the time of the encounter
       //and began prior to the encounter
-      textRecord.add("  " + cpTime + " : " + cpDesc);
+      textRecord.append("  ").append(cpTime).append(" : ").append(cpDesc).append(NEWLINE);
       if (careplan.reasons != null && !careplan.reasons.isEmpty()) {
         for (Code reason : careplan.reasons) {
-          textRecord.add("                         Reason: " + reason.display);
+          textRecord.append("                         Reason: ").append(reason.display)
+              .append(NEWLINE);
         }
       }
       if (careplan.activities != null && !careplan.activities.isEmpty()) {
         for (Code activity : careplan.activities) {
-          textRecord.add("                         Activity: " + activity.display);
+          textRecord.append("                         Activity: ").append(activity.display)
+              .append(NEWLINE);
         }   
       }
     }
@@ -828,30 +895,43 @@ public class TextExporter {
    * Write lines for a single ImagingStudy to the exported record.
    *
    * @param textRecord
-   *          Text format record, as a list of lines
+   *          Text format record to write to
    * @param imagingstudy
    *          The ImagingStudy to add to the export
    */
-  private static void imagingStudy(List<String> textRecord, ImagingStudy imagingStudy) {
+  private static void imagingStudy(Writer textRecord, ImagingStudy imagingStudy)
+      throws IOException {
     String studyTime = dateFromTimestamp(imagingStudy.start);
     String modality = imagingStudy.series.get(0).modality.display;
     String bodySite = imagingStudy.series.get(0).bodySite.display;
 
-    textRecord.add("  " + studyTime + " : " + modality + ", " + bodySite);
+    textRecord.append("  ").append(studyTime).append(" : ").append(modality).append(", ")
+        .append(bodySite).append(NEWLINE);
   }
 
+  /**
+   * System-dependent string for a line break. (\n on Mac, *nix, \r\n on Windows)
+   */
+  private static final String NEWLINE = System.lineSeparator();
+
   /**
    * Section separator (80 dashes).
    */
   private static final String SECTION_SEPARATOR = String.join("", Collections.nCopies(80, "-"));
 
+  /**
+   * Separator between encounter notes in a single per-patient file (80 equals signs).
+   */
+  private static final String ENCOUNTER_SEPARATOR =
+      String.join("", Collections.nCopies(80, "="));
+
   /**
    * Add a section separator line to the record.
    *
    * @param textRecord
    *          Record to add separator line to
    */
-  private static void breakline(List<String> textRecord) {
-    textRecord.add(SECTION_SEPARATOR);
+  private static void breakline(Writer textRecord) throws IOException {
+    textRecord.append(SECTION_SEPARATOR).append(NEWLINE);
   }
 }
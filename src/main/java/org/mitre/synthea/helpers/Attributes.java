@@ -7,6 +7,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.stream.JsonReader;
 
 import guru.nidi.graphviz.attribute.Shape;
@@ -37,6 +38,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.modules.CardiovascularDiseaseModule;
 import org.mitre.synthea.modules.DeathModule;
 import org.mitre.synthea.modules.EncounterModule;
@@ -44,6 +46,7 @@ import org.mitre.synthea.modules.HealthInsuranceModule;
 import org.mitre.synthea.modules.Immunizations;
 import org.mitre.synthea.modules.LifecycleModule;
 import org.mitre.synthea.modules.QualityOfLifeModule;
+import org.mitre.synthea.modules.WeightLossModule;
 import org.mitre.synthea.world.agents.Person;
 
 /**
@@ -52,6 +55,13 @@ import org.mitre.synthea.world.agents.Person;
  * Provider specific attributes.
  */
 public class Attributes {
+
+  /**
+   * The type of value written to an attribute, for attributes with a single, scalar value.
+   */
+  public enum Type {
+    NUMERIC, BOOLEAN, TEXT, TIME
+  }
   
   public class Inventory {
     /** Key: Module Name, Values: State names that read this attribute. */
@@ -60,6 +70,8 @@ public class Attributes {
     public Map<String,Set<String>> write;
     /** List of example values as strings. */
     public Set<String> exampleValues;
+    /** Type of the values written, or null if the values are not scalar or not known. */
+    public Type type;
 
     /**
      * Create a new Inventory object with instantiated read, write, and exampleValues collections.
@@ -99,6 +111,19 @@ public class Attributes {
         exampleValues.add(example);
       }
     }
+
+    /**
+     * Declare the type of the values written to this attribute. An attribute written with
+     * values of different types is declared as TEXT, which any value can be stored as.
+     * @param type The type of the values.
+     */
+    public void declare(Type type) {
+      if (this.type == null) {
+        this.type = type;
+      } else if (this.type != type) {
+        this.type = Type.TEXT;
+      }
+    }
   }
 
   /**
@@ -149,6 +174,7 @@ public class Attributes {
           }
         });
 
+    Generator.inventoryAttributes(attributes);
     CardiovascularDiseaseModule.inventoryAttributes(attributes);
     DeathModule.inventoryAttributes(attributes);
     EncounterModule.inventoryAttributes(attributes);
@@ -156,6 +182,7 @@ public class Attributes {
     Immunizations.inventoryAttributes(attributes);
     LifecycleModule.inventoryAttributes(attributes);
     QualityOfLifeModule.inventoryAttributes(attributes);
+    WeightLossModule.inventoryAttributes(attributes);
     
     return attributes;
   }
@@ -239,8 +266,15 @@ public class Attributes {
             // Missing value. Do nothing, this attribute is basically a :symbol
           }
           data.write(moduleName, stateName, value);
+          JsonElement element = state.get("value");
+          if (element != null && element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            data.declare(primitive.isBoolean() ? Type.BOOLEAN
+                : primitive.isNumber() ? Type.NUMERIC : Type.TEXT);
+          }
         } else if (type.equalsIgnoreCase("Counter")) {
           data.write(moduleName, stateName, "Integer");
+          data.declare(Type.NUMERIC);
         } else if (type.equalsIgnoreCase("Observation")) {
           data.read(moduleName, stateName);
         } else {
@@ -384,6 +418,23 @@ public class Attributes {
     }
   }
 
+  /**
+   * Inventory an attribute with read, write, and example values, and declare the type of the
+   * values the module writes.
+   * @param attributes The inventory.
+   * @param module The module name.
+   * @param attribute The attribute name.
+   * @param read Whether the module reads the attribute or not.
+   * @param write Whether the module writes to the attribute or not.
+   * @param example Example values the module writes.
+   * @param type The type of the values the module writes.
+   */
+  public static void inventory(Map<String,Inventory> attributes, String module,
+      String attribute, boolean read, boolean write, String example, Type type) {
+    inventory(attributes, module, attribute, read, write, example);
+    attributes.get(attribute).declare(type);
+  }
+
   /**
    * Output a graphviz image of the inventoried attributes.
    *
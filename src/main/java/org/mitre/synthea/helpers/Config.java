@@ -5,12 +5,19 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
 public abstract class Config {
   private static Properties properties = new Properties();
 
+  /**
+   * Settings that take precedence over the properties on the current thread, e.g., the
+   * settings of an export profile.
+   */
+  private static final ThreadLocal<Map<String, String>> overrides = new ThreadLocal<>();
+
   static {
     try {
       load(Config.class.getResourceAsStream("/synthea.properties"));
@@ -41,6 +48,10 @@ public abstract class Config {
    * @return value for the property, or null if not found
    */
   public static String get(String key) {
+    Map<String, String> current = overrides.get();
+    if (current != null && current.containsKey(key)) {
+      return current.get(key);
+    }
     return properties.getProperty(key);
   }
 
@@ -52,17 +63,50 @@ public abstract class Config {
    * @return value for the property, or defaultValue if not found
    */
   public static String get(String key, String defaultValue) {
-    return properties.getProperty(key, defaultValue);
+    String value = get(key);
+    return value == null ? defaultValue : value;
   }
 
   /**
-   * Manually set a property.
+   * Manually set a property. If the property is overridden on the current thread,
+   * the override is set instead.
    *
    * @param key   property name
    * @param value property value
    */
   public static void set(String key, String value) {
-    properties.setProperty(key, value);
+    Map<String, String> current = overrides.get();
+    if (current != null && current.containsKey(key)) {
+      current.put(key, value);
+    } else {
+      properties.setProperty(key, value);
+    }
+  }
+
+  /**
+   * Get the properties overridden on the current thread, e.g., to apply them to another thread.
+   *
+   * @return the overrides, or null if there are none.
+   */
+  public static Map<String, String> getOverrides() {
+    return overrides.get();
+  }
+
+  /**
+   * Override properties on the current thread only, until the overrides are replaced.
+   *
+   * @param settings property values to use in place of the properties, or null for none.
+   *     The map may be changed by {@link #set(String, String)}.
+   * @return the previous overrides, or null if there were none, so they can be restored.
+   */
+  public static Map<String, String> setOverrides(Map<String, String> settings) {
+    Map<String, String> previous = overrides.get();
+    if (settings == null) {
+      overrides.remove();
+    } else {
+      overrides.set(settings);
+    }
+    return previous;
   }
 
   /**
@@ -2,8 +2,9 @@ package org.mitre.synthea.helpers;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -11,6 +12,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Fact Tables. If you have a "table" where each row is a fact or
  * lookup table where a value should be referenced by an ID, you
  * can add these keys and facts to this table and get back the ID.
+ * Lookups take no locks, and only the first thread to add a new key
+ * waits while its ID is assigned, so tables can be shared by all
+ * exporter threads. Facts are written out in ID order.
  */
 public class FactTable {
   /**
@@ -20,22 +24,20 @@ public class FactTable {
   /** Table column headers. Comma-separated. */
   private String header;
   /** This is the ID sequence generator. */
-  private AtomicInteger id;
+  private final AtomicInteger id;
   /** Lookup the ID for a key. */
-  private Map<String,Integer> keys;
-  /** Lookup the fact by ID. */
-  private Map<Integer,String> facts;
-  /** Synchronization lock. */
-  private static final Object LOCK = new Object();
-  
+  private final Map<String,Integer> keys;
+  /** Lookup the fact by ID, sorted by ID. */
+  private final Map<Integer,String> facts;
+
   /**
    * Create a FactTable with an ID that starts at 1
    * and increments with each new key/fact.
    */
   public FactTable() {
     id = new AtomicInteger(1);
-    keys = new HashMap<String,Integer>();
-    facts = new HashMap<Integer,String>();
+    keys = new ConcurrentHashMap<String,Integer>();
+    facts = new ConcurrentSkipListMap<Integer,String>();
   }
 
   /**
@@ -43,9 +45,7 @@ public class FactTable {
    * @param id The value of the next ID.
    */
   public void setNextId(int id) {
-    synchronized (LOCK) {
-      this.id = new AtomicInteger(id);
-    }
+    this.id.set(id);
   }
   
   /**
@@ -62,9 +62,7 @@ public class FactTable {
    * @return The ID for the fact. For example, 1 or 2.
    */
   public int getFactId(String key) {
-    synchronized (LOCK) {
-      return keys.get(key);
-    }
+    return keys.get(key);
   }
 
   /**
@@ -73,10 +71,8 @@ public class FactTable {
    * @return The fact. For example, 'Male' or 'Female'.
    */
   public String getFactByKey(String key) {
-    synchronized (LOCK) {
-      Integer id = keys.get(key);
-      return facts.get(id);
-    }
+    Integer id = keys.get(key);
+    return id == null ? null : facts.get(id);
   }
 
   /**
@@ -85,9 +81,7 @@ public class FactTable {
    * @return The fact. For example, 'Male' or 'Female'.
    */
   public String getFactById(Integer id) {
-    synchronized (LOCK) {
-      return facts.get(id);
-    }
+    return facts.get(id);
   }
 
   /**
@@ -101,16 +95,16 @@ public class FactTable {
    * @return The ID for the fact. For example, 1 or 2.
    */
   public int addFact(String key, String fact) {
-    synchronized (LOCK) {
-      if (keys.containsKey(key)) {
-        return keys.get(key);
-      }
-
+    Integer existing = keys.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    // the fact is stored before the ID is visible to other threads
+    return keys.computeIfAbsent(key, k -> {
       int next = id.getAndIncrement();
-      keys.put(key, next);
-      facts.put(next, fact);
+      facts.put(next, fact == null ? "" : fact);
       return next;
-    }
+    });
   }
   
   /**
@@ -119,19 +113,14 @@ public class FactTable {
    * @throws IOException On errors.
    */
   public void write(Writer writer) throws IOException {
-    synchronized (LOCK) {
-      writer.write(header);
+    writer.write(header);
+    writer.write(NEWLINE);
+    for (Map.Entry<Integer,String> entry : facts.entrySet()) {
+      writer.write(entry.getKey().toString());
+      writer.write(',');
+      writer.write(entry.getValue());
       writer.write(NEWLINE);
-      for (Integer key : facts.keySet()) {
-        writer.write(key.toString());
-        writer.write(',');
-        String fact = facts.get(key);
-        if (fact != null) {
-          writer.write(facts.get(key));
-        }
-        writer.write(NEWLINE);
-      }
-      writer.flush();
     }
+    writer.flush();
   }
 }
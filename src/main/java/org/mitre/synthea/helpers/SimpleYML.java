@@ -1,5 +1,6 @@
 package org.mitre.synthea.helpers;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.yaml.snakeyaml.Yaml;
@@ -10,7 +11,8 @@ import org.yaml.snakeyaml.Yaml;
  * (If it does adhere to a schema, 
  * there are other methods to parse YAML to objects which should be preferred)
  * Java doesn't have dynamic typing so this class exposes a "get" method which takes a path string,
- * and walks the map to find the desired item.
+ * and returns the desired item. Every path is resolved once when the file is loaded,
+ * so lookups are a single hash map access rather than a split-and-walk per call.
  */
 public class SimpleYML {
 
@@ -18,6 +20,11 @@ public class SimpleYML {
    * The internal representation of the YAML file.
    */
   private Map<String,?> internalMap;
+
+  /**
+   * Every object in the YAML file, keyed by its full dotted path.
+   */
+  private Map<String,Object> pathMap;
   
   /**
    * Create a new SimpleYML from the String contents from a file.
@@ -27,6 +34,26 @@ public class SimpleYML {
   public SimpleYML(String rawContent)  {
     Yaml yaml = new Yaml();
     internalMap = (Map<String,?>) yaml.load(rawContent);
+    pathMap = new HashMap<String,Object>();
+    flatten(null, internalMap);
+  }
+
+  /**
+   * Recursively record every object in the given map under its dotted path.
+   *
+   * @param prefix Path of the given map, or null for the root
+   * @param map Map to flatten
+   */
+  private void flatten(String prefix, Map<?,?> map) {
+    for (Map.Entry<?,?> entry : map.entrySet()) {
+      String key = String.valueOf(entry.getKey());
+      String path = (prefix == null) ? key : prefix + "." + key;
+      Object value = entry.getValue();
+      pathMap.put(path, value);
+      if (value instanceof Map) {
+        flatten(path, (Map<?,?>) value);
+      }
+    }
   }
   
   /**
@@ -46,15 +73,6 @@ public class SimpleYML {
    * @return the object at path
    */
   public Object get(String path) {
-    String[] pathSegments = path.split("\\.");
-    
-    Map<String,?> current = internalMap;
-    
-    // note: length-2 because we don't want to get the last piece as a map
-    for (int i = 0; i <= pathSegments.length - 2; i++) {
-      current = (Map<String,?>) current.get(pathSegments[i]);
-    }
-    
-    return current.get(pathSegments[pathSegments.length - 1]);
+    return pathMap.get(path);
   }
 }
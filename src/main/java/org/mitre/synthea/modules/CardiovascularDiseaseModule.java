@@ -13,6 +13,7 @@ import java.util.stream.Collectors;
 import org.mitre.synthea.engine.Module;
 import org.mitre.synthea.helpers.Attributes;
 import org.mitre.synthea.helpers.Attributes.Inventory;
+import org.mitre.synthea.helpers.Attributes.Type;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.agents.Provider;
@@ -849,18 +850,20 @@ public final class CardiovascularDiseaseModule extends Module {
     Attributes.inventory(attributes, m, "left_ventricular_hypertrophy", true, false, "false");
     Attributes.inventory(attributes, m, "stroke_risk", true, false, null);
     // Write
-    Attributes.inventory(attributes, m, "atrial_fibrillation", false, true, "true");
-    Attributes.inventory(attributes, m, "atrial_fibrillation_risk", false, true, "Numeric");
-    Attributes.inventory(attributes, m, "cardio_risk", false, true, "1.0");
+    Attributes.inventory(attributes, m, "atrial_fibrillation", false, true, "true", Type.BOOLEAN);
+    Attributes.inventory(attributes, m,
+        "atrial_fibrillation_risk", false, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m, "cardio_risk", false, true, "1.0", Type.NUMERIC);
     Attributes.inventory(attributes, m,
         "cardiovascular_procedures", false, true, "Map<String, List<String>>");
     Attributes.inventory(attributes, m,
         "cardiovascular_disease_med_changes", false, true, "Set<String>");
-    Attributes.inventory(attributes, m, "coronary_heart_disease", false, true, "true");
-    Attributes.inventory(attributes, m, "stroke_risk", false, true, "0.0");
-    Attributes.inventory(attributes, m, "stroke_risk", false, true, "0.5");
-    Attributes.inventory(attributes, m, "stroke_risk", false, true, "1.0");
-    Attributes.inventory(attributes, m, "stroke_points", false, true, "Numeric");
-    Attributes.inventory(attributes, m, "stroke_history", false, true, "true");
+    Attributes.inventory(attributes, m,
+        "coronary_heart_disease", false, true, "true", Type.BOOLEAN);
+    Attributes.inventory(attributes, m, "stroke_risk", false, true, "0.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, "stroke_risk", false, true, "0.5", Type.NUMERIC);
+    Attributes.inventory(attributes, m, "stroke_risk", false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, "stroke_points", false, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m, "stroke_history", false, true, "true", Type.BOOLEAN);
   }
 }
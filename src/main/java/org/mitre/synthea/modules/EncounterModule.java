@@ -9,6 +9,7 @@ import org.mitre.synthea.engine.Event;
 import org.mitre.synthea.engine.Module;
 import org.mitre.synthea.helpers.Attributes;
 import org.mitre.synthea.helpers.Attributes.Inventory;
+import org.mitre.synthea.helpers.Attributes.Type;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.agents.Provider;
@@ -255,10 +256,14 @@ public final class EncounterModule extends Module {
   public static void inventoryAttributes(Map<String,Inventory> attributes) {
     String m = EncounterModule.class.getSimpleName();
     // Read
-    Attributes.inventory(attributes, m, LAST_VISIT_SYMPTOM_TOTAL, true, true, "Integer");
+    Attributes.inventory(attributes, m,
+        LAST_VISIT_SYMPTOM_TOTAL, true, true, "Integer", Type.NUMERIC);
     // Write
-    Attributes.inventory(attributes, m, ACTIVE_WELLNESS_ENCOUNTER, false, true, "Boolean");
-    Attributes.inventory(attributes, m, ACTIVE_URGENT_CARE_ENCOUNTER, false, true, "Boolean");
-    Attributes.inventory(attributes, m, ACTIVE_EMERGENCY_ENCOUNTER, false, true, "Boolean");
+    Attributes.inventory(attributes, m,
+        ACTIVE_WELLNESS_ENCOUNTER, false, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m,
+        ACTIVE_URGENT_CARE_ENCOUNTER, false, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m,
+        ACTIVE_EMERGENCY_ENCOUNTER, false, true, "Boolean", Type.BOOLEAN);
   }
 }
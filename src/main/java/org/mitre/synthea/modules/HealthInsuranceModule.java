@@ -1,5 +1,8 @@
 package org.mitre.synthea.modules;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -72,6 +75,19 @@ public class HealthInsuranceModule extends Module {
     return false;
   }
 
+  /**
+   * Insurance is only determined once for each year of age, so there is nothing to do until
+   * the person's next birthday.
+   */
+  @Override
+  public long nextProcessTime(Person person, long time) {
+    ZoneId zone = ZoneId.systemDefault();
+    LocalDate birthdate = Instant.ofEpochMilli((long) person.attributes.get(Person.BIRTHDATE))
+        .atZone(zone).toLocalDate();
+    LocalDate nextBirthday = birthdate.plusYears(person.ageInYears(time) + 1);
+    return nextBirthday.atStartOfDay(zone).toInstant().toEpochMilli();
+  }
+
   private String determineInsurance(Person person, int age, long time) {
     boolean female = (person.attributes.get(Person.GENDER).equals("F"));
     boolean pregnant = (person.attributes.containsKey("pregnant")
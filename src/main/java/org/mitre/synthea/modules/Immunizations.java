@@ -3,12 +3,11 @@ package org.mitre.synthea.modules;
 import com.google.gson.Gson;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import org.mitre.synthea.helpers.Attributes;
 import org.mitre.synthea.helpers.Attributes.Inventory;
@@ -30,16 +29,53 @@ import org.mitre.synthea.world.concepts.HealthRecord.Code;
 public class Immunizations {
   public static final String IMMUNIZATIONS = "immunizations";
 
-  @SuppressWarnings({ "unchecked", "rawtypes" })
-  private static final Map<String, Map> immunizationSchedule = loadImmunizationSchedule();
+  private static final long[] NO_HISTORY = new long[0];
 
-  @SuppressWarnings("rawtypes")
-  private static Map loadImmunizationSchedule() {
+  // the schedule, compiled into parallel arrays indexed by immunization
+  private static String[] names;
+  private static Code[] codes;
+  private static int[][] atMonths;
+  private static long[] firstAvailable;
+
+  static {
+    loadImmunizationSchedule();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void loadImmunizationSchedule() {
     String filename = "immunization_schedule.json";
     try {
       String json = Utilities.readResource(filename);
       Gson g = new Gson();
-      return g.fromJson(json, HashMap.class);
+      Map<String, Map<String, Object>> schedule = g.fromJson(json, HashMap.class);
+
+      int count = schedule.size();
+      names = new String[count];
+      codes = new Code[count];
+      atMonths = new int[count][];
+      firstAvailable = new long[count];
+
+      int i = 0;
+      for (Map.Entry<String, Map<String, Object>> e : schedule.entrySet()) {
+        Map<String, Object> immunization = e.getValue();
+        Map<String, Object> code = (Map<String, Object>) immunization.get("code");
+        names[i] = e.getKey();
+        codes[i] = new Code(code.get("system").toString(),
+            code.get("code").toString(), code.get("display").toString());
+        List<Number> doses = (List<Number>) immunization.get("at_months");
+        atMonths[i] = new int[doses.size()];
+        for (int dose = 0; dose < doses.size(); dose++) {
+          atMonths[i][dose] = doses.get(dose).intValue();
+          // immunizationDue relies on the recommended ages being in ascending order
+          if (dose > 0 && atMonths[i][dose] < atMonths[i][dose - 1]) {
+            throw new IllegalArgumentException(
+                "at_months of " + names[i] + " must be in ascending order: " + doses);
+          }
+        }
+        Number year = (Number) immunization.getOrDefault("first_available", 1900);
+        firstAvailable[i] = Utilities.convertCalendarYearsToTime(year.intValue());
+        i++;
+      }
     } catch (Exception e) {
       System.err.println("ERROR: unable to load json: " + filename);
       e.printStackTrace();
@@ -47,26 +83,29 @@ public class Immunizations {
     }
   }
 
-  @SuppressWarnings({ "unchecked", "rawtypes" })
+  /**
+   * Give any immunizations that are due at this encounter.
+   * @param person The person at the encounter
+   * @param time The time of the encounter
+   */
   public static void performEncounter(Person person, long time) {
-    Map<String, List<Long>> immunizationsGiven;
-    if (person.attributes.containsKey(IMMUNIZATIONS)) {
-      immunizationsGiven = (Map<String, List<Long>>) person.attributes.get(IMMUNIZATIONS);
-    } else {
-      immunizationsGiven = new HashMap<String, List<Long>>();
+    long[][] immunizationsGiven = (long[][]) person.attributes.get(IMMUNIZATIONS);
+    if (immunizationsGiven == null) {
+      immunizationsGiven = new long[names.length][];
+      Arrays.fill(immunizationsGiven, NO_HISTORY);
       person.attributes.put(IMMUNIZATIONS, immunizationsGiven);
     }
 
-    for (String immunization : immunizationSchedule.keySet()) {
-      int series = immunizationDue(immunization, person, time, immunizationsGiven);
+    int ageInMonths = person.ageInMonths(time);
+    for (int i = 0; i < names.length; i++) {
+      long[] history = immunizationsGiven[i];
+      int series = immunizationDue(i, person, ageInMonths, time, history);
       if (series > 0) {
-        List<Long> history = immunizationsGiven.get(immunization);
-        history.add(time);
-        HealthRecord.Immunization entry = person.record.immunization(time, immunization);
-        Map code = (Map) immunizationSchedule.get(immunization).get("code");
-        HealthRecord.Code immCode = new HealthRecord.Code(code.get("system").toString(),
-            code.get("code").toString(), code.get("display").toString());
-        entry.codes.add(immCode);
+        history = Arrays.copyOf(history, series);
+        history[series - 1] = time;
+        immunizationsGiven[i] = history;
+        HealthRecord.Immunization entry = person.record.immunization(time, names[i]);
+        entry.codes.add(codes[i]);
         entry.series = series;
       }
     }
@@ -75,38 +114,26 @@ public class Immunizations {
   /**
    * Return whether or not the specified immunization is due.
    *
-   * @param immunization The immunization to give
+   * @param immunization Index of the immunization to give
    * @param person The person to receive the immunization
+   * @param ageInMonths The age of the person at the given time
    * @param time The time the immunization would be given
-   * @param immunizationsGiven The history of immunizations
+   * @param history The times this immunization was previously given
    * @return -1 if the immunization should not be given, otherwise a positive integer,
    *     where the value is the series. For example, 1 if this is the first time the
    *     vaccine was administered; 2 if this is the second time, et cetera.
    */
-  @SuppressWarnings({ "rawtypes", "unchecked" })
-  public static int immunizationDue(String immunization, Person person, long time,
-      Map<String, List<Long>> immunizationsGiven) {
-    int ageInMonths = person.ageInMonths(time);
-
-    List<Long> history = null;
-    if (immunizationsGiven.containsKey(immunization)) {
-      history = immunizationsGiven.get(immunization);
-    } else {
-      history = new ArrayList<Long>();
-      immunizationsGiven.put(immunization, history);
-    }
-
+  private static int immunizationDue(int immunization, Person person, int ageInMonths,
+      long time, long[] history) {
     // Don't administer if the immunization wasn't historically available at the date of the
     // encounter
-    Map schedule = immunizationSchedule.get(immunization);
-    Double firstAvailable = (Double) schedule.getOrDefault("first_available", 1900);
-    if (time < Utilities.convertCalendarYearsToTime(firstAvailable.intValue())) {
+    if (time < firstAvailable[immunization]) {
       return -1;
     }
 
     // Don't administer if all recommended doses have already been given
-    List atMonths = new ArrayList((List) schedule.get("at_months"));
-    if (history.size() >= atMonths.size()) {
+    int[] doses = atMonths[immunization];
+    if (history.length >= doses.length) {
       return -1;
     }
 
@@ -124,28 +151,30 @@ public class Immunizations {
     // but only one; what we do is:
 
     // 1) eliminate any recommended doses that are not within 4 years of the patient's age
-    // at_months = at_months.reject { |am| age_in_months - am >= 48 }
-    Predicate<Double> notWithinFourYears = p -> ((ageInMonths - p) >= 48);
-    atMonths.removeIf(notWithinFourYears);
-    if (atMonths.isEmpty()) {
+    // (the recommended ages are in ascending order, so these are always the first doses)
+    int next = 0;
+    while (next < doses.length && (ageInMonths - doses[next]) >= 48) {
+      next++;
+    }
+    if (next == doses.length) {
       return -1;
     }
 
     // 2) eliminate recommended doses that were actually administered
-    for (Long date : history) {
+    for (long date : history) {
       int ageAtDate = person.ageInMonths(date);
-      double recommendedAge = (double) atMonths.get(0);
+      int recommendedAge = doses[next];
       if (ageAtDate >= recommendedAge && ((ageAtDate - recommendedAge) < 48)) {
-        atMonths.remove(0);
-        if (atMonths.isEmpty()) {
+        next++;
+        if (next == doses.length) {
           return -1;
         }
       }
     }
 
     // 3) see if there are any recommended doses remaining that this patient is old enough for
-    if (!atMonths.isEmpty() && ageInMonths >= (double) atMonths.get(0)) {
-      return history.size() + 1;
+    if (ageInMonths >= doses[next]) {
+      return history.length + 1;
     }
     return -1;
   }
@@ -155,22 +184,8 @@ public class Immunizations {
    * 
    * @return Collection of all codes and concepts this module uses
    */
-  @SuppressWarnings("rawtypes")
   public static Collection<Code> getAllCodes() {
-    List<Map> rawCodes = (List<Map>) immunizationSchedule.values()
-        .stream().map(m -> (Map)m.get("code")).collect(Collectors.toList());
-    
-    List<Code> convertedCodes = new ArrayList<Code>(rawCodes.size());
-    
-    for (Map m : rawCodes) {
-      Code immCode = new Code(m.get("system").toString(),
-                              m.get("code").toString(), 
-                              m.get("display").toString());
-      
-      convertedCodes.add(immCode);
-    }
-
-    return convertedCodes;
+    return new ArrayList<Code>(Arrays.asList(codes));
   }
 
   /**
@@ -178,13 +193,10 @@ public class Immunizations {
    * @param code The vaccine code.
    * @return The maximum number of doses to be administered.
    */
-  @SuppressWarnings("rawtypes")
   public static int getMaximumDoses(String code) {
-    for (String immunization : immunizationSchedule.keySet()) {
-      Map icode = (Map) immunizationSchedule.get(immunization).get("code");
-      if (icode.get("code").equals(code)) {
-        List doses = (List) immunizationSchedule.get(immunization).get("at_months");
-        return doses.size();
+    for (int i = 0; i < codes.length; i++) {
+      if (codes[i].code.equals(code)) {
+        return atMonths[i].length;
       }
     }
     return 1;
@@ -199,6 +211,6 @@ public class Immunizations {
   public static void inventoryAttributes(Map<String,Inventory> attributes) {
     String m = Immunizations.class.getSimpleName();
     // Read & Write
-    Attributes.inventory(attributes, m, IMMUNIZATIONS, true, true, "Map<String, List<Long>>");
+    Attributes.inventory(attributes, m, IMMUNIZATIONS, true, true, "long[][]");
   }
 }
@@ -1,22 +1,19 @@
 package org.mitre.synthea.modules;
 
-import com.google.gson.Gson;
-
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.math3.special.Erf;
 import org.mitre.synthea.engine.Event;
 import org.mitre.synthea.engine.Module;
 import org.mitre.synthea.helpers.Attributes;
 import org.mitre.synthea.helpers.Attributes.Inventory;
+import org.mitre.synthea.helpers.Attributes.Type;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.RandomCollection;
 import org.mitre.synthea.helpers.SimpleYML;
@@ -25,13 +22,12 @@ import org.mitre.synthea.modules.BloodPressureValueGenerator.SysDias;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.BiometricsConfig;
 import org.mitre.synthea.world.concepts.BirthStatistics;
+import org.mitre.synthea.world.concepts.GrowthChart;
 import org.mitre.synthea.world.concepts.HealthRecord.Code;
 import org.mitre.synthea.world.concepts.VitalSign;
 import org.mitre.synthea.world.geography.Location;
 
 public final class LifecycleModule extends Module {
-  @SuppressWarnings("rawtypes")
-  private static final Map growthChart = loadGrowthChart();
   private static final String AGE = "AGE";
   private static final String AGE_MONTHS = "AGE_MONTHS";
   public static final String QUIT_SMOKING_PROBABILITY = "quit smoking probability";
@@ -46,25 +42,34 @@ public final class LifecycleModule extends Module {
   private static RandomCollection<String> sexualOrientationData = loadSexualOrientationData();
 
   private static SimpleYML names = loadNames();
-  
+
+  @SuppressWarnings("unchecked")
+  private static final List<String> ENGLISH_MALE_NAMES = (List<String>) names.get("english.M");
+  @SuppressWarnings("unchecked")
+  private static final List<String> ENGLISH_FEMALE_NAMES = (List<String>) names.get("english.F");
+  @SuppressWarnings("unchecked")
+  private static final List<String> SPANISH_MALE_NAMES = (List<String>) names.get("spanish.M");
+  @SuppressWarnings("unchecked")
+  private static final List<String> SPANISH_FEMALE_NAMES = (List<String>) names.get("spanish.F");
+  @SuppressWarnings("unchecked")
+  private static final List<String> ENGLISH_FAMILY_NAMES =
+      (List<String>) names.get("english.family");
+  @SuppressWarnings("unchecked")
+  private static final List<String> SPANISH_FAMILY_NAMES =
+      (List<String>) names.get("spanish.family");
+  @SuppressWarnings("unchecked")
+  private static final List<String> STREET_TYPES = (List<String>) names.get("street.type");
+  @SuppressWarnings("unchecked")
+  private static final List<String> STREET_SECONDARY =
+      (List<String>) names.get("street.secondary");
+
+  private static final double PREVALENCE_OF_TWINS =
+      (double) BiometricsConfig.get("lifecycle.prevalence_of_twins", 0.02);
+
   public LifecycleModule() {
     this.name = "Lifecycle";
   }
 
-  @SuppressWarnings("rawtypes")
-  private static Map loadGrowthChart() {
-    String filename = "cdc_growth_charts.json";
-    try {
-      String json = Utilities.readResource(filename);
-      Gson g = new Gson();
-      return g.fromJson(json, HashMap.class);
-    } catch (Exception e) {
-      System.err.println("ERROR: unable to load json: " + filename);
-      e.printStackTrace();
-      throw new ExceptionInInitializerError(e);
-    }
-  }
-  
   private static SimpleYML loadNames() {
     String filename = "names.yml";
     try {
@@ -102,7 +107,10 @@ public final class LifecycleModule extends Module {
     quitSmoking(person, time);
     quitAlcoholism(person, time);
     adherence(person, time);
-    calculateVitalSigns(person, time);
+    // lab values are calculated lazily, when they are read, unless configured otherwise,
+    // so only make sure that their generators are in place
+    MetabolicValueGenerator.setup(person);
+    MetabolicValueGenerator.calculate(person, time);
     calculateFallRisk(person, time);
     death(person, time);
 
@@ -148,9 +156,7 @@ public final class LifecycleModule extends Module {
     // this is anglocentric where the baby gets the father's last name
     attributes.put(Person.NAME_FATHER, fatherFirstName + " " + lastName);
 
-    double prevalenceOfTwins = 
-        (double) BiometricsConfig.get("lifecycle.prevalence_of_twins", 0.02);
-    if ((person.rand() < prevalenceOfTwins)) {
+    if ((person.rand() < PREVALENCE_OF_TWINS)) {
       attributes.put(Person.MULTIPLE_BIRTH_STATUS, person.randInt(3) + 1);
     }
 
@@ -217,7 +223,8 @@ public final class LifecycleModule extends Module {
     person.attributes.put(ADHERENCE_PROBABILITY, adherenceBaseline);
 
     grow(person, time); // set initial height and weight from percentiles
-    calculateVitalSigns(person, time);  // Set initial values for many vital signs.
+    MetabolicValueGenerator.setup(person);
+    MetabolicValueGenerator.calculate(person, time); // initial lab values, unless lazy
 
     String orientation = sexualOrientationData.next(person.random);
     attributes.put(Person.SEXUAL_ORIENTATION, orientation);
@@ -235,6 +242,7 @@ public final class LifecycleModule extends Module {
         new BloodPressureValueGenerator(person, SysDias.SYSTOLIC));
     person.setVitalSign(VitalSign.DIASTOLIC_BLOOD_PRESSURE,
         new BloodPressureValueGenerator(person, SysDias.DIASTOLIC));
+    MetabolicValueGenerator.setup(person);
   }
 
   /**
@@ -244,13 +252,12 @@ public final class LifecycleModule extends Module {
    * @param random Random number generator to use.
    * @return First name.
    */
-  @SuppressWarnings("unchecked")
   public static String fakeFirstName(String gender, String language, Random random) {
     List<String> choices;
     if ("spanish".equalsIgnoreCase(language)) {
-      choices = (List<String>) names.get("spanish." + gender);
+      choices = "M".equals(gender) ? SPANISH_MALE_NAMES : SPANISH_FEMALE_NAMES;
     } else {
-      choices = (List<String>) names.get("english." + gender);
+      choices = "M".equals(gender) ? ENGLISH_MALE_NAMES : ENGLISH_FEMALE_NAMES;
     }
     // pick a random item from the list
     return choices.get(random.nextInt(choices.size()));
@@ -262,13 +269,12 @@ public final class LifecycleModule extends Module {
    * @param random Random number generator to use.
    * @return Surname or Family Name.
    */
-  @SuppressWarnings("unchecked")
   public static String fakeLastName(String language, Random random) {
     List<String> choices;
     if ("spanish".equalsIgnoreCase(language)) {
-      choices = (List<String>) names.get("spanish.family");
+      choices = SPANISH_FAMILY_NAMES;
     } else {
-      choices = (List<String>) names.get("english.family");
+      choices = ENGLISH_FAMILY_NAMES;
     }
     // pick a random item from the list
     return choices.get(random.nextInt(choices.size()));
@@ -281,19 +287,18 @@ public final class LifecycleModule extends Module {
    * @param random Random number generator to use.
    * @return First name.
    */
-  @SuppressWarnings("unchecked")
   public static String fakeAddress(boolean includeLine2, Random random) {
     int number = random.nextInt(1000) + 100;
-    List<String> n = (List<String>)names.get("english.family");
+    List<String> n = ENGLISH_FAMILY_NAMES;
     // for now just use family names as the street name. 
     // could expand with a few more but probably not worth it
     String streetName = n.get(random.nextInt(n.size()));
-    List<String> a = (List<String>)names.get("street.type");
+    List<String> a = STREET_TYPES;
     String streetType = a.get(random.nextInt(a.size()));
     
     if (includeLine2) {
       int addtlNum = random.nextInt(100);
-      List<String> s = (List<String>)names.get("street.secondary");
+      List<String> s = STREET_SECONDARY;
       String addtlType = s.get(random.nextInt(s.size()));
       return number + " " + streetName + " " + streetType + " " + addtlType + " " + addtlNum;
     } else {
@@ -436,9 +441,9 @@ public final class LifecycleModule extends Module {
   }
 
   private static double childHeightGrowth(Person person, long time) {
-    String gender = (String) person.attributes.get(Person.GENDER);
+    int sex = GrowthChart.sex((String) person.attributes.get(Person.GENDER));
     int ageInMonths = person.ageInMonths(time);
-    return lookupGrowthChart("height", gender, ageInMonths,
+    return GrowthChart.lookup(GrowthChart.HEIGHT, sex, ageInMonths,
         person.getVitalSign(VitalSign.HEIGHT_PERCENTILE, time));
   }
 
@@ -451,9 +456,9 @@ public final class LifecycleModule extends Module {
       int age = person.ageInYears(time);
       if (age < 20) {
         // follow growth charts
-        String gender = (String) person.attributes.get(Person.GENDER);
+        int sex = GrowthChart.sex((String) person.attributes.get(Person.GENDER));
         int ageInMonths = person.ageInMonths(time);
-        weight = lookupGrowthChart("weight", gender, ageInMonths,
+        weight = GrowthChart.lookup(GrowthChart.WEIGHT, sex, ageInMonths,
             person.getVitalSign(VitalSign.WEIGHT_PERCENTILE, time));
       } else if (age <= ADULT_MAX_WEIGHT_AGE) {
         // getting older and fatter
@@ -478,23 +483,10 @@ public final class LifecycleModule extends Module {
    * @param percentile 0.0 - 1.0
    * @return The height (cm) or weight (kg)
    */
-  @SuppressWarnings("rawtypes")
   public static double lookupGrowthChart(String heightOrWeight, String gender, int ageInMonths,
       double percentile) {
-    Map chart = (Map) growthChart.get(heightOrWeight);
-    Map byGender = (Map) chart.get(gender);
-    Map byAge = (Map) byGender.get(Integer.toString(ageInMonths));
-
-    double l = Double.parseDouble((String) byAge.get("l"));
-    double m = Double.parseDouble((String) byAge.get("m"));
-    double s = Double.parseDouble((String) byAge.get("s"));
-    double z = calculateZScore(percentile);
-
-    if (l == 0) {
-      return m * Math.exp((s * z));
-    } else {
-      return m * Math.pow((1 + (l * s * z)), (1.0 / l));
-    }
+    return GrowthChart.lookup(GrowthChart.chart(heightOrWeight), GrowthChart.sex(gender),
+        ageInMonths, percentile);
   }
 
   /**
@@ -515,254 +507,13 @@ public final class LifecycleModule extends Module {
    * @return z-score that corresponds to the percentile.
    */
   protected static double calculateZScore(double percentile) {
-    // Set percentile gt0 and lt1, otherwise the error
-    // function will return Infinity.
-    if (percentile >= 1.0) {
-      percentile = 0.999;
-    } else if (percentile <= 0.0) {
-      percentile = 0.001;
-    }
-    return -1 * Math.sqrt(2) * Erf.erfcInv(2 * percentile);
+    return GrowthChart.calculateZScore(percentile);
   }
 
   public static double bmi(double heightCM, double weightKG) {
     return (weightKG / ((heightCM / 100.0) * (heightCM / 100.0)));
   }
 
-  /**
-   * Map of RxNorm drug codes to the expected impact to HbA1c.
-   * Impacts should be negative numbers.
-   */
-  private static final Map<String, Double> DIABETES_DRUG_HBA1C_IMPACTS = createDrugImpactsMap();
-
-  /**
-   * Populate the entries of the drug -> impacts map.
-   * @return a map of drug code -> expected hba1c delta
-   */
-  private static Map<String, Double> createDrugImpactsMap() {
-    // How much does A1C need to be lowered to get to goal?
-    // Metformin and sulfonylureas may lower A1C 1.5 to 2 percentage points,
-    // GLP-1 agonists and DPP-4 inhibitors 0.5 to 1 percentage point on average, and
-    // insulin as much as 6 points or more, depending on where you start.
-    // -- http://www.diabetesforecast.org/2013/mar/your-a1c-achieving-personal-blood-glucose-goals.html
-    // [:metformin, :glp1ra, :sglt2i, :basal_insulin, :prandial_insulin]
-    //     mono        bi      tri        insulin          insulin++
-    Map<String,Double> impacts = new HashMap<>();
-    // key is the RxNorm code
-    impacts.put("860975", -1.5); // metformin
-    impacts.put("897122", -0.5); // liraglutide
-    impacts.put("1373463", -0.5); // canagliflozin
-    impacts.put("106892", -3.0); // basal insulin
-    impacts.put("865098", -6.0); // prandial insulin
-    
-    return impacts;
-  }
-  
-
-  
-  private static final int[] CHOLESTEROL_RANGE =
-      BiometricsConfig.ints("metabolic.lipid_panel.cholesterol");
-  private static final int[] TRIGLYCERIDES_RANGE =
-      BiometricsConfig.ints("metabolic.lipid_panel.triglycerides");
-  private static final int[] HDL_RANGE =
-      BiometricsConfig.ints("metabolic.lipid_panel.hdl");
-  
-  private static final int[] GLUCOSE_RANGE =
-      BiometricsConfig.ints("metabolic.basic_panel.glucose");
-
-  private static final int[] UREA_NITROGEN_RANGE =
-      BiometricsConfig.ints("metabolic.basic_panel.normal.urea_nitrogen");
-  private static final double[] CALCIUM_RANGE =
-      BiometricsConfig.doubles("metabolic.basic_panel.normal.calcium");
-
-
-  private static final int[] MILD_KIDNEY_DMG_CC_RANGE = 
-      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.mild_kidney_damage");
-  private static final int[] MODERATE_KIDNEY_DMG_CC_RANGE = 
-      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.moderate_kidney_damage");
-  private static final int[] SEVERE_KIDNEY_DMG_CC_RANGE = 
-      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.severe_kidney_damage");
-  private static final int[] ESRD_CC_RANGE = 
-      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.esrd");
-  private static final int[] NORMAL_FEMALE_CC_RANGE = 
-      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.normal.female");
-  private static final int[] NORMAL_MALE_CC_RANGE = 
-      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.normal.male");
-  
-  private static final int[] NORMAL_MCR_RANGE = 
-      BiometricsConfig.ints("metabolic.basic_panel.microalbumin_creatinine_ratio.normal");
-  private static final int[] CONTROLLED_MCR_RANGE = 
-      BiometricsConfig
-      .ints("metabolic.basic_panel.microalbumin_creatinine_ratio.microalbuminuria_controlled");
-
-  private static final int[] UNCONTROLLED_MCR_RANGE = 
-      BiometricsConfig
-     .ints("metabolic.basic_panel.microalbumin_creatinine_ratio.microalbuminuria_uncontrolled");
-
-  private static final int[] PROTEINURIA_MCR_RANGE = 
-      BiometricsConfig
-      .ints("metabolic.basic_panel.microalbumin_creatinine_ratio.proteinuria");
-
-  private static final double[] CHLORIDE_RANGE = 
-      BiometricsConfig.doubles("metabolic.basic_panel.normal.chloride");
-  private static final double[] POTASSIUM_RANGE = 
-      BiometricsConfig.doubles("metabolic.basic_panel.normal.potassium");
-  private static final double[] CO2_RANGE = 
-      BiometricsConfig.doubles("metabolic.basic_panel.normal.carbon_dioxide");
-  private static final double[] SODIUM_RANGE = 
-      BiometricsConfig.doubles("metabolic.basic_panel.normal.sodium");
-  
-  /**
-   * Calculate this person's vital signs, 
-   * based on their conditions, medications, body composition, etc.
-   * @param person The person
-   * @param time Current simulation timestamp
-   */
-  private static void calculateVitalSigns(Person person, long time) {
-    int index = 0;
-    if (person.attributes.containsKey("diabetes_severity")) {
-      index = (Integer) person.attributes.getOrDefault("diabetes_severity", 1);
-    }
-    
-    double totalCholesterol = person.rand(CHOLESTEROL_RANGE[index], CHOLESTEROL_RANGE[index + 1]);
-    double triglycerides = person.rand(TRIGLYCERIDES_RANGE[index], TRIGLYCERIDES_RANGE[index + 1]);
-    double hdl = person.rand(HDL_RANGE[index], HDL_RANGE[index + 1]);
-    double ldl = totalCholesterol - hdl - (0.2 * triglycerides);
-    
-    person.setVitalSign(VitalSign.TOTAL_CHOLESTEROL, totalCholesterol);
-    person.setVitalSign(VitalSign.TRIGLYCERIDES, triglycerides);
-    person.setVitalSign(VitalSign.HDL, hdl);
-    person.setVitalSign(VitalSign.LDL, ldl);
-    
-    double bmi = person.getVitalSign(VitalSign.BMI, time);
-    boolean prediabetes = (boolean)person.attributes.getOrDefault("prediabetes", false);
-    boolean diabetes = (boolean)person.attributes.getOrDefault("diabetes", false);
-    double hbA1c = estimateHbA1c(bmi, prediabetes, diabetes, person);
-    
-    if (prediabetes || diabetes) {
-      // drugs reduce hbA1c.
-      // only do this for people that have pre/diabetes, 
-      // because these drugs are only prescribed if they do
-      for (Map.Entry<String, Double> e : DIABETES_DRUG_HBA1C_IMPACTS.entrySet()) {
-        String medicationCode = e.getKey();
-        double impact = e.getValue();
-        if (person.record.medicationActive(medicationCode)) {
-          // impacts are negative, so add them
-          hbA1c += impact;
-        }
-      }
-    }
-
-    person.setVitalSign(VitalSign.BLOOD_GLUCOSE, hbA1c);
-    
-    // CKD == stage of "Chronic Kidney Disease" or the level of diabetic kidney damage
-    int kidneyDamage = (Integer) person.attributes.getOrDefault("ckd", 0);
-    int[] ccRange;
-    int[] mcrRange;
-    switch (kidneyDamage) {
-      case 1:
-        ccRange = MILD_KIDNEY_DMG_CC_RANGE;
-        mcrRange = NORMAL_MCR_RANGE;
-        break;
-      case 2:
-        ccRange = MODERATE_KIDNEY_DMG_CC_RANGE;
-        mcrRange = CONTROLLED_MCR_RANGE;
-        break;
-      case 3:
-        ccRange = SEVERE_KIDNEY_DMG_CC_RANGE;
-        mcrRange = UNCONTROLLED_MCR_RANGE;
-        break;
-      case 4:
-        ccRange = ESRD_CC_RANGE;
-        mcrRange = PROTEINURIA_MCR_RANGE;
-        break;
-      default:
-        if ("F".equals(person.attributes.get(Person.GENDER))) {
-          ccRange = NORMAL_FEMALE_CC_RANGE;
-        } else {
-          ccRange = NORMAL_MALE_CC_RANGE;
-        }
-        mcrRange = NORMAL_MCR_RANGE;
-    }
-    double creatinineClearance = person.rand(ccRange);
-    person.setVitalSign(VitalSign.EGFR, creatinineClearance);
-    
-    double microalbuminCreatinineRatio = person.rand(mcrRange);
-    person.setVitalSign(VitalSign.MICROALBUMIN_CREATININE_RATIO, microalbuminCreatinineRatio);
-    
-    double creatinine = reverseCalculateCreatinine(person, creatinineClearance, time);
-    person.setVitalSign(VitalSign.CREATININE, creatinine);
-    
-    person.setVitalSign(VitalSign.UREA_NITROGEN, person.rand(UREA_NITROGEN_RANGE));
-    person.setVitalSign(VitalSign.CALCIUM, person.rand(CALCIUM_RANGE));
-    
-    index = Math.min(index, 2); // note this continues from the index logic above
-    
-    double glucose = person.rand(GLUCOSE_RANGE[index], GLUCOSE_RANGE[index + 1]);
-    person.setVitalSign(VitalSign.GLUCOSE, glucose);
-
-    person.setVitalSign(VitalSign.CHLORIDE, person.rand(CHLORIDE_RANGE));
-    person.setVitalSign(VitalSign.POTASSIUM, person.rand(POTASSIUM_RANGE));
-    person.setVitalSign(VitalSign.CARBON_DIOXIDE, person.rand(CO2_RANGE));
-    person.setVitalSign(VitalSign.SODIUM, person.rand(SODIUM_RANGE));
-  }
-
-  /**
-   * Estimate the person's HbA1c using BMI and whether or not they have diabetes or prediabetes as a
-   * rough guideline.
-   * 
-   * @param bmi
-   *          The person's BMI.
-   * @param prediabetes
-   *          Whether or not the person is prediabetic. (Diagnosed or undiagnosed)
-   * @param diabetes
-   *          Whether or not the person is diabetic. (Diagnosed or undiagnosed)
-   * @param p
-   *          The person
-   * @return A calculated HbA1c value.
-   */
-  private static double estimateHbA1c(double bmi, boolean prediabetes, boolean diabetes, Person p) {
-    if (diabetes) {
-      if (bmi > 48.0) {
-        return 12.0;
-      } else if (bmi <= 27.0) {
-        return 6.6;
-      } else {
-        return bmi / 4.0;
-        // very simple BMI function so that BMI 40 --> blood glucose ~ 10,
-        // but with a bounded min at 6.6 and bounded max at 12.0
-      }
-    } else if (prediabetes) {
-      return p.rand(5.8, 6.4);
-    } else {
-      return p.rand(5.0, 5.7);
-    }
-  }
-
-  /**
-   * Calculate Creatinine from Creatinine Clearance.
-   *  Source: http://www.mcw.edu/calculators/creatinine.htm
-   * @param person The person
-   * @param crcl Creatinine Clearance
-   * @param time Current Time
-   * @return Estimated Creatinine
-   */
-  private static double reverseCalculateCreatinine(Person person, double crcl, long time) {
-    try {
-      int age = person.ageInYears(time);
-      boolean female = "F".equals(person.attributes.get(Person.GENDER));
-      double weight = person.getVitalSign(VitalSign.WEIGHT, time); // kg
-      crcl = Math.max(1, Math.min(crcl, 100)); // clamp between 1-100
-      double creatinine = ((140.0 - age) * weight) / (72.0 * crcl);
-      if (female) {
-        creatinine *= 0.85;
-      }
-      return creatinine;
-    } catch (Exception e) {
-      return 1.0;
-    }
-  }
-
   protected static boolean ENABLE_DEATH_BY_NATURAL_CAUSES =
       Boolean.parseBoolean(Config.get("lifecycle.death_by_natural_causes"));
   
@@ -1001,6 +752,7 @@ public final class LifecycleModule extends Module {
     Attributes.inventory(attributes, m, AGE, true, false, null);
     Attributes.inventory(attributes, m, AGE_MONTHS, true, false, null);
     Attributes.inventory(attributes, m, Person.ALCOHOLIC, true, false, null);
+    Attributes.inventory(attributes, m, Person.CITY, true, false, null);
     Attributes.inventory(attributes, m, "ckd", true, false, null);
     Attributes.inventory(attributes, m, "diabetes", true, false, null);
     Attributes.inventory(attributes, m, "diabetes_severity", true, false, null);
@@ -1022,46 +774,53 @@ public final class LifecycleModule extends Module {
     Attributes.inventory(attributes, m, Person.RACE, true, false, null);
     Attributes.inventory(attributes, m, Person.SMOKER, true, false, "Boolean");
     // Write
-    Attributes.inventory(attributes, m, "pregnant", false, true, "Boolean");
-    Attributes.inventory(attributes, m, "probability_of_fall_injury", false, true, "1.0");
-    Attributes.inventory(attributes, m, "RH_NEG", false, true, "Boolean");
-    Attributes.inventory(attributes, m, ADHERENCE_PROBABILITY, false, true, "1.0");
-    Attributes.inventory(attributes, m, AGE, false, true, "Numeric");
-    Attributes.inventory(attributes, m, AGE_MONTHS, false, true, "Numeric");
-    Attributes.inventory(attributes, m, BirthStatistics.BIRTH_SEX, false, true, "M");
+    Attributes.inventory(attributes, m, "pregnant", false, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m,
+        "probability_of_fall_injury", false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, "RH_NEG", false, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m, ADHERENCE_PROBABILITY, false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, AGE, false, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m, AGE_MONTHS, false, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m, BirthStatistics.BIRTH_SEX, false, true, "M", Type.TEXT);
+    Attributes.inventory(attributes, m,
+        LifecycleModule.QUIT_SMOKING_PROBABILITY, false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m,
+        Person.ACTIVE_WEIGHT_MANAGEMENT, false, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m, Person.ADDRESS, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.ALCOHOLIC, false, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m, Person.BIRTH_CITY, false, true, "Bedford", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.BIRTH_COUNTRY, false, true, "USA", Type.TEXT);
+    Attributes.inventory(attributes, m,
+        Person.BIRTH_STATE, false, true, "Massachusetts", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.BIRTHDATE, false, true, null, Type.TIME);
+    Attributes.inventory(attributes, m, Person.BIRTHPLACE, false, true, "Boston", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.ETHNICITY, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.FIRST_NAME, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.GENDER, false, true, "F", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.ID, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.IDENTIFIER_DRIVERS, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.IDENTIFIER_PASSPORT, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m,
+        Person.IDENTIFIER_SSN, false, true, "999-99-9999", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.LAST_NAME, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.MAIDEN_NAME, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.MARITAL_STATUS, false, true, "M", Type.TEXT);
+    Attributes.inventory(attributes, m,
+        Person.MULTIPLE_BIRTH_STATUS, false, true, "Boolean", Type.NUMERIC);
+    Attributes.inventory(attributes, m, Person.NAME, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.NAME_FATHER, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.NAME_MOTHER, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.NAME_PREFIX, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.NAME_SUFFIX, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.RACE, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.SEXUAL_ORIENTATION, false, true, null, Type.TEXT);
+    Attributes.inventory(attributes, m, Person.SMOKER, false, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m, Person.TELECOM, false, true, "555-555-5555", Type.TEXT);
+    Attributes.inventory(attributes, m, Person.ZIP, false, true, "01730", Type.TEXT);
+    Attributes.inventory(attributes, m, QUIT_ALCOHOLISM_AGE, false, true, "Numeric", Type.NUMERIC);
     Attributes.inventory(attributes, m,
-        LifecycleModule.QUIT_SMOKING_PROBABILITY, false, true, "1.0");
-    Attributes.inventory(attributes, m, Person.ADDRESS, false, true, null);
-    Attributes.inventory(attributes, m, Person.ALCOHOLIC, false, true, "Boolean");
-    Attributes.inventory(attributes, m, Person.BIRTH_CITY, false, true, "Bedford");
-    Attributes.inventory(attributes, m, Person.BIRTH_COUNTRY, false, true, "USA");
-    Attributes.inventory(attributes, m, Person.BIRTH_STATE, false, true, "Massachusetts");
-    Attributes.inventory(attributes, m, Person.BIRTHDATE, false, true, null);
-    Attributes.inventory(attributes, m, Person.BIRTHPLACE, false, true, "Boston");
-    Attributes.inventory(attributes, m, Person.ETHNICITY, false, true, null);
-    Attributes.inventory(attributes, m, Person.FIRST_NAME, false, true, null);
-    Attributes.inventory(attributes, m, Person.GENDER, false, true, "F");
-    Attributes.inventory(attributes, m, Person.ID, false, true, null);
-    Attributes.inventory(attributes, m, Person.IDENTIFIER_DRIVERS, false, true, null);
-    Attributes.inventory(attributes, m, Person.IDENTIFIER_PASSPORT, false, true, null);
-    Attributes.inventory(attributes, m, Person.IDENTIFIER_SSN, false, true, "999-99-9999");
-    Attributes.inventory(attributes, m, Person.LAST_NAME, false, true, null);
-    Attributes.inventory(attributes, m, Person.MAIDEN_NAME, false, true, null);
-    Attributes.inventory(attributes, m, Person.MARITAL_STATUS, false, true, "M");
-    Attributes.inventory(attributes, m, Person.MULTIPLE_BIRTH_STATUS, false, true, "Boolean");
-    Attributes.inventory(attributes, m, Person.NAME, false, true, null);
-    Attributes.inventory(attributes, m, Person.NAME_FATHER, false, true, null);
-    Attributes.inventory(attributes, m, Person.NAME_MOTHER, false, true, null);
-    Attributes.inventory(attributes, m, Person.NAME_PREFIX, false, true, null);
-    Attributes.inventory(attributes, m, Person.NAME_SUFFIX, false, true, null);
-    Attributes.inventory(attributes, m, Person.RACE, false, true, null);
-    Attributes.inventory(attributes, m, Person.SEXUAL_ORIENTATION, false, true, null);
-    Attributes.inventory(attributes, m, Person.SMOKER, false, true, "Boolean");
-    Attributes.inventory(attributes, m, Person.TELECOM, false, true, "555-555-5555");
-    Attributes.inventory(attributes, m, Person.ZIP, false, true, "01730");
-    Attributes.inventory(attributes, m, QUIT_ALCOHOLISM_AGE, false, true, "Numeric");
-    Attributes.inventory(attributes, m, QUIT_ALCOHOLISM_PROBABILITY, false, true, "1.0");
-    Attributes.inventory(attributes, m, QUIT_SMOKING_AGE, false, true, "Numeric");
-    Attributes.inventory(attributes, m, QUIT_SMOKING_PROBABILITY, false, true, "1.0");
+        QUIT_ALCOHOLISM_PROBABILITY, false, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, QUIT_SMOKING_AGE, false, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m, QUIT_SMOKING_PROBABILITY, false, true, "1.0", Type.NUMERIC);
   }
 }
@@ -0,0 +1,479 @@
+package org.mitre.synthea.modules;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.ValueGenerator;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.BiometricsConfig;
+import org.mitre.synthea.world.concepts.VitalSign;
+
+/**
+ * Generate the lipid panel, HbA1c, kidney function and basic metabolic panel vital signs
+ * on demand. Values are only calculated when read through Person.getVitalSign, and are
+ * recalculated when the simulation time or one of the inputs they are derived from
+ * (diabetes severity, BMI, weight, age, kidney damage or diabetes medications) has changed
+ * since they were last calculated. Values that are calculated together (for example the
+ * lipid panel, where LDL is derived from the other three) share a single panel.
+ */
+public class MetabolicValueGenerator extends ValueGenerator {
+  /**
+   * Vital signs generated by this class.
+   */
+  public static final VitalSign[] VITAL_SIGNS = {
+    VitalSign.TOTAL_CHOLESTEROL, VitalSign.TRIGLYCERIDES, VitalSign.HDL, VitalSign.LDL,
+    VitalSign.BLOOD_GLUCOSE, VitalSign.EGFR, VitalSign.MICROALBUMIN_CREATININE_RATIO,
+    VitalSign.CREATININE, VitalSign.UREA_NITROGEN, VitalSign.CALCIUM, VitalSign.GLUCOSE,
+    VitalSign.CHLORIDE, VitalSign.POTASSIUM, VitalSign.CARBON_DIOXIDE, VitalSign.SODIUM
+  };
+
+  /**
+   * Map of RxNorm drug codes to the expected impact to HbA1c.
+   * Impacts should be negative numbers.
+   */
+  private static final Map<String, Double> DIABETES_DRUG_HBA1C_IMPACTS = createDrugImpactsMap();
+
+  /**
+   * Populate the entries of the drug -> impacts map.
+   * @return a map of drug code -> expected hba1c delta
+   */
+  private static Map<String, Double> createDrugImpactsMap() {
+    // How much does A1C need to be lowered to get to goal?
+    // Metformin and sulfonylureas may lower A1C 1.5 to 2 percentage points,
+    // GLP-1 agonists and DPP-4 inhibitors 0.5 to 1 percentage point on average, and
+    // insulin as much as 6 points or more, depending on where you start.
+    // -- http://www.diabetesforecast.org/2013/mar/your-a1c-achieving-personal-blood-glucose-goals.html
+    // [:metformin, :glp1ra, :sglt2i, :basal_insulin, :prandial_insulin]
+    //     mono        bi      tri        insulin          insulin++
+    Map<String,Double> impacts = new HashMap<>();
+    // key is the RxNorm code
+    impacts.put("860975", -1.5); // metformin
+    impacts.put("897122", -0.5); // liraglutide
+    impacts.put("1373463", -0.5); // canagliflozin
+    impacts.put("106892", -3.0); // basal insulin
+    impacts.put("865098", -6.0); // prandial insulin
+
+    return impacts;
+  }
+
+  private static final int[] CHOLESTEROL_RANGE =
+      BiometricsConfig.ints("metabolic.lipid_panel.cholesterol");
+  private static final int[] TRIGLYCERIDES_RANGE =
+      BiometricsConfig.ints("metabolic.lipid_panel.triglycerides");
+  private static final int[] HDL_RANGE =
+      BiometricsConfig.ints("metabolic.lipid_panel.hdl");
+
+  private static final int[] GLUCOSE_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.glucose");
+
+  private static final int[] UREA_NITROGEN_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.normal.urea_nitrogen");
+  private static final double[] CALCIUM_RANGE =
+      BiometricsConfig.doubles("metabolic.basic_panel.normal.calcium");
+
+  private static final int[] MILD_KIDNEY_DMG_CC_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.mild_kidney_damage");
+  private static final int[] MODERATE_KIDNEY_DMG_CC_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.moderate_kidney_damage");
+  private static final int[] SEVERE_KIDNEY_DMG_CC_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.severe_kidney_damage");
+  private static final int[] ESRD_CC_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.esrd");
+  private static final int[] NORMAL_FEMALE_CC_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.normal.female");
+  private static final int[] NORMAL_MALE_CC_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.creatinine_clearance.normal.male");
+
+  private static final int[] NORMAL_MCR_RANGE =
+      BiometricsConfig.ints("metabolic.basic_panel.microalbumin_creatinine_ratio.normal");
+  private static final int[] CONTROLLED_MCR_RANGE =
+      BiometricsConfig
+      .ints("metabolic.basic_panel.microalbumin_creatinine_ratio.microalbuminuria_controlled");
+
+  private static final int[] UNCONTROLLED_MCR_RANGE =
+      BiometricsConfig
+     .ints("metabolic.basic_panel.microalbumin_creatinine_ratio.microalbuminuria_uncontrolled");
+
+  private static final int[] PROTEINURIA_MCR_RANGE =
+      BiometricsConfig
+      .ints("metabolic.basic_panel.microalbumin_creatinine_ratio.proteinuria");
+
+  private static final double[] CHLORIDE_RANGE =
+      BiometricsConfig.doubles("metabolic.basic_panel.normal.chloride");
+  private static final double[] POTASSIUM_RANGE =
+      BiometricsConfig.doubles("metabolic.basic_panel.normal.potassium");
+  private static final double[] CO2_RANGE =
+      BiometricsConfig.doubles("metabolic.basic_panel.normal.carbon_dioxide");
+  private static final double[] SODIUM_RANGE =
+      BiometricsConfig.doubles("metabolic.basic_panel.normal.sodium");
+
+  private final VitalSign vitalSign;
+  private final Panels panels;
+
+  private MetabolicValueGenerator(Person person, VitalSign vitalSign, Panels panels) {
+    super(person);
+    this.vitalSign = vitalSign;
+    this.panels = panels;
+  }
+
+  /**
+   * Make sure that every vital sign generated by this class is set on the person.
+   * Vital signs that have been replaced (for example, by a VitalSign state in a module)
+   * are restored, sharing the panels of the generators that are still in place.
+   * @param person The person.
+   */
+  public static void setup(Person person) {
+    Panels panels = null;
+    for (VitalSign vs : VITAL_SIGNS) {
+      ValueGenerator generator = person.vitalSigns.get(vs);
+      if (generator instanceof MetabolicValueGenerator) {
+        panels = ((MetabolicValueGenerator) generator).panels;
+        break;
+      }
+    }
+    if (panels == null) {
+      panels = new Panels(person,
+          Boolean.parseBoolean(Config.get("lifecycle.lazy_lab_values", "true")));
+    }
+    for (VitalSign vs : VITAL_SIGNS) {
+      ValueGenerator generator = person.vitalSigns.get(vs);
+      if (!(generator instanceof MetabolicValueGenerator)) {
+        person.setVitalSign(vs, new MetabolicValueGenerator(person, vs, panels));
+      }
+    }
+  }
+
+  /**
+   * Calculate every lab value of the person now, unless they are calculated lazily. See the
+   * configuration setting "lifecycle.lazy_lab_values": when false, the values are calculated
+   * once per time step, as LifecycleModule always did before, so records generated from a
+   * given seed are the same as they were then.
+   * @param person The person, with the generators in place, see {@link #setup(Person)}.
+   * @param time The current time.
+   */
+  public static void calculate(Person person, long time) {
+    ValueGenerator generator = person.vitalSigns.get(VITAL_SIGNS[0]);
+    if (generator instanceof MetabolicValueGenerator
+        && !((MetabolicValueGenerator) generator).panels.lazy) {
+      ((MetabolicValueGenerator) generator).panels.calculate(time);
+    }
+  }
+
+  @Override
+  public double getValue(long time) {
+    return panels.getValue(vitalSign, time);
+  }
+
+  /**
+   * The lab values of a single person, grouped into the panels that are calculated together.
+   * Each panel remembers the time and the inputs of its last calculation (its dirty flags).
+   */
+  private static class Panels {
+    private final Person person;
+    /**
+     * If false, the panels are only recalculated by calculate(time),
+     * see "lifecycle.lazy_lab_values".
+     */
+    private final boolean lazy;
+
+    // lipid panel
+    private long lipidTime = Long.MIN_VALUE;
+    private int lipidIndex;
+    private double totalCholesterol;
+    private double triglycerides;
+    private double hdl;
+    private double ldl;
+
+    // HbA1c
+    private long hbA1cTime = Long.MIN_VALUE;
+    private double hbA1cBmi;
+    private boolean hbA1cPrediabetes;
+    private boolean hbA1cDiabetes;
+    private double hbA1cDrugImpact;
+    private double hbA1c;
+
+    // kidney function
+    private long kidneyTime = Long.MIN_VALUE;
+    private int kidneyDamage;
+    private boolean kidneyFemale;
+    private int kidneyAge;
+    private double kidneyWeight;
+    private double creatinineClearance;
+    private double microalbuminCreatinineRatio;
+    private double creatinine;
+
+    // basic metabolic panel
+    private long basicTime = Long.MIN_VALUE;
+    private int basicIndex;
+    private double ureaNitrogen;
+    private double calcium;
+    private double glucose;
+    private double chloride;
+    private double potassium;
+    private double carbonDioxide;
+    private double sodium;
+
+    private Panels(Person person, boolean lazy) {
+      this.person = person;
+      this.lazy = lazy;
+    }
+
+    /**
+     * Calculate every panel now, in the order they were calculated before lab values were
+     * lazy, whatever the inputs are.
+     */
+    private void calculate(long time) {
+      lipidTime = Long.MIN_VALUE;
+      hbA1cTime = Long.MIN_VALUE;
+      kidneyTime = Long.MIN_VALUE;
+      basicTime = Long.MIN_VALUE;
+      updateLipidPanel(time);
+      updateHbA1c(time);
+      updateKidneyFunction(time);
+      updateBasicPanel(time);
+    }
+
+    private double getValue(VitalSign vitalSign, long time) {
+      switch (vitalSign) {
+        case TOTAL_CHOLESTEROL:
+          updateLipidPanel(time);
+          return totalCholesterol;
+        case TRIGLYCERIDES:
+          updateLipidPanel(time);
+          return triglycerides;
+        case HDL:
+          updateLipidPanel(time);
+          return hdl;
+        case LDL:
+          updateLipidPanel(time);
+          return ldl;
+        case BLOOD_GLUCOSE:
+          updateHbA1c(time);
+          return hbA1c;
+        case EGFR:
+          updateKidneyFunction(time);
+          return creatinineClearance;
+        case MICROALBUMIN_CREATININE_RATIO:
+          updateKidneyFunction(time);
+          return microalbuminCreatinineRatio;
+        case CREATININE:
+          updateKidneyFunction(time);
+          return creatinine;
+        case UREA_NITROGEN:
+          updateBasicPanel(time);
+          return ureaNitrogen;
+        case CALCIUM:
+          updateBasicPanel(time);
+          return calcium;
+        case GLUCOSE:
+          updateBasicPanel(time);
+          return glucose;
+        case CHLORIDE:
+          updateBasicPanel(time);
+          return chloride;
+        case POTASSIUM:
+          updateBasicPanel(time);
+          return potassium;
+        case CARBON_DIOXIDE:
+          updateBasicPanel(time);
+          return carbonDioxide;
+        case SODIUM:
+          updateBasicPanel(time);
+          return sodium;
+        default:
+          throw new IllegalArgumentException("Unsupported vital sign: " + vitalSign);
+      }
+    }
+
+    private int diabetesSeverity() {
+      int index = 0;
+      if (person.attributes.containsKey("diabetes_severity")) {
+        index = (Integer) person.attributes.getOrDefault("diabetes_severity", 1);
+      }
+      return index;
+    }
+
+    private void updateLipidPanel(long time) {
+      if (!lazy && lipidTime != Long.MIN_VALUE) {
+        return; // only recalculated by calculate(time)
+      }
+      int index = diabetesSeverity();
+      if (time == lipidTime && index == lipidIndex) {
+        return;
+      }
+      lipidTime = time;
+      lipidIndex = index;
+      totalCholesterol = person.rand(CHOLESTEROL_RANGE[index], CHOLESTEROL_RANGE[index + 1]);
+      triglycerides = person.rand(TRIGLYCERIDES_RANGE[index], TRIGLYCERIDES_RANGE[index + 1]);
+      hdl = person.rand(HDL_RANGE[index], HDL_RANGE[index + 1]);
+      ldl = totalCholesterol - hdl - (0.2 * triglycerides);
+    }
+
+    private void updateHbA1c(long time) {
+      if (!lazy && hbA1cTime != Long.MIN_VALUE) {
+        return;
+      }
+      double bmi = person.getVitalSign(VitalSign.BMI, time);
+      boolean prediabetes = (boolean)person.attributes.getOrDefault("prediabetes", false);
+      boolean diabetes = (boolean)person.attributes.getOrDefault("diabetes", false);
+      double drugImpact = 0.0;
+      if (prediabetes || diabetes) {
+        // drugs reduce hbA1c.
+        // only do this for people that have pre/diabetes,
+        // because these drugs are only prescribed if they do
+        for (Map.Entry<String, Double> e : DIABETES_DRUG_HBA1C_IMPACTS.entrySet()) {
+          String medicationCode = e.getKey();
+          double impact = e.getValue();
+          if (person.record.medicationActive(medicationCode)) {
+            // impacts are negative, so add them
+            drugImpact += impact;
+          }
+        }
+      }
+      if (time == hbA1cTime && bmi == hbA1cBmi && prediabetes == hbA1cPrediabetes
+          && diabetes == hbA1cDiabetes && drugImpact == hbA1cDrugImpact) {
+        return;
+      }
+      hbA1cTime = time;
+      hbA1cBmi = bmi;
+      hbA1cPrediabetes = prediabetes;
+      hbA1cDiabetes = diabetes;
+      hbA1cDrugImpact = drugImpact;
+      hbA1c = estimateHbA1c(bmi, prediabetes, diabetes, person);
+      if (drugImpact != 0.0) {
+        // added one at a time, as the impacts were summed above, so the rounding is the same
+        for (Map.Entry<String, Double> e : DIABETES_DRUG_HBA1C_IMPACTS.entrySet()) {
+          if (person.record.medicationActive(e.getKey())) {
+            hbA1c += e.getValue();
+          }
+        }
+      }
+    }
+
+    private void updateKidneyFunction(long time) {
+      if (!lazy && kidneyTime != Long.MIN_VALUE) {
+        return;
+      }
+      // CKD == stage of "Chronic Kidney Disease" or the level of diabetic kidney damage
+      int damage = (Integer) person.attributes.getOrDefault("ckd", 0);
+      boolean female = "F".equals(person.attributes.get(Person.GENDER));
+      int age = person.ageInYears(time);
+      ValueGenerator weightGenerator = person.vitalSigns.get(VitalSign.WEIGHT);
+      double weight = (weightGenerator == null) ? Double.NaN : weightGenerator.getValue(time); // kg
+      if (time == kidneyTime && damage == kidneyDamage && female == kidneyFemale
+          && age == kidneyAge && weight == kidneyWeight) {
+        return;
+      }
+      kidneyTime = time;
+      kidneyDamage = damage;
+      kidneyFemale = female;
+      kidneyAge = age;
+      kidneyWeight = weight;
+
+      int[] ccRange;
+      int[] mcrRange;
+      switch (damage) {
+        case 1:
+          ccRange = MILD_KIDNEY_DMG_CC_RANGE;
+          mcrRange = NORMAL_MCR_RANGE;
+          break;
+        case 2:
+          ccRange = MODERATE_KIDNEY_DMG_CC_RANGE;
+          mcrRange = CONTROLLED_MCR_RANGE;
+          break;
+        case 3:
+          ccRange = SEVERE_KIDNEY_DMG_CC_RANGE;
+          mcrRange = UNCONTROLLED_MCR_RANGE;
+          break;
+        case 4:
+          ccRange = ESRD_CC_RANGE;
+          mcrRange = PROTEINURIA_MCR_RANGE;
+          break;
+        default:
+          if (female) {
+            ccRange = NORMAL_FEMALE_CC_RANGE;
+          } else {
+            ccRange = NORMAL_MALE_CC_RANGE;
+          }
+          mcrRange = NORMAL_MCR_RANGE;
+      }
+      creatinineClearance = person.rand(ccRange);
+      microalbuminCreatinineRatio = person.rand(mcrRange);
+      creatinine = reverseCalculateCreatinine(age, female, weight, creatinineClearance);
+    }
+
+    private void updateBasicPanel(long time) {
+      if (!lazy && basicTime != Long.MIN_VALUE) {
+        return;
+      }
+      int index = Math.min(diabetesSeverity(), 2);
+      if (time == basicTime && index == basicIndex) {
+        return;
+      }
+      basicTime = time;
+      basicIndex = index;
+      ureaNitrogen = person.rand(UREA_NITROGEN_RANGE);
+      calcium = person.rand(CALCIUM_RANGE);
+      glucose = person.rand(GLUCOSE_RANGE[index], GLUCOSE_RANGE[index + 1]);
+      chloride = person.rand(CHLORIDE_RANGE);
+      potassium = person.rand(POTASSIUM_RANGE);
+      carbonDioxide = person.rand(CO2_RANGE);
+      sodium = person.rand(SODIUM_RANGE);
+    }
+  }
+
+  /**
+   * Estimate the person's HbA1c using BMI and whether or not they have diabetes or prediabetes as a
+   * rough guideline.
+   *
+   * @param bmi
+   *          The person's BMI.
+   * @param prediabetes
+   *          Whether or not the person is prediabetic. (Diagnosed or undiagnosed)
+   * @param diabetes
+   *          Whether or not the person is diabetic. (Diagnosed or undiagnosed)
+   * @param p
+   *          The person
+   * @return A calculated HbA1c value.
+   */
+  private static double estimateHbA1c(double bmi, boolean prediabetes, boolean diabetes, Person p) {
+    if (diabetes) {
+      if (bmi > 48.0) {
+        return 12.0;
+      } else if (bmi <= 27.0) {
+        return 6.6;
+      } else {
+        return bmi / 4.0;
+        // very simple BMI function so that BMI 40 --> blood glucose ~ 10,
+        // but with a bounded min at 6.6 and bounded max at 12.0
+      }
+    } else if (prediabetes) {
+      return p.rand(5.8, 6.4);
+    } else {
+      return p.rand(5.0, 5.7);
+    }
+  }
+
+  /**
+   * Calculate Creatinine from Creatinine Clearance.
+   *  Source: http://www.mcw.edu/calculators/creatinine.htm
+   * @param age Age in years
+   * @param female Whether or not the person is female
+   * @param weight Weight in kg
+   * @param crcl Creatinine Clearance
+   * @return Estimated Creatinine
+   */
+  private static double reverseCalculateCreatinine(int age, boolean female, double weight,
+      double crcl) {
+    if (Double.isNaN(weight)) {
+      return 1.0;
+    }
+    crcl = Math.max(1, Math.min(crcl, 100)); // clamp between 1-100
+    double creatinine = ((140.0 - age) * weight) / (72.0 * crcl);
+    if (female) {
+      creatinine *= 0.85;
+    }
+    return creatinine;
+  }
+}
@@ -3,17 +3,22 @@ package org.mitre.synthea.modules;
 import com.google.gson.Gson;
 
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 import org.mitre.synthea.engine.Module;
 import org.mitre.synthea.helpers.Attributes;
 import org.mitre.synthea.helpers.Attributes.Inventory;
+import org.mitre.synthea.helpers.Attributes.Type;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.HealthRecord.Entry;
 
@@ -21,6 +26,14 @@ public class QualityOfLifeModule extends Module {
 
   private static Map<String, Map<String, Object>> disabilityWeights = loadDisabilityWeights();
 
+  /**
+   * Running YLD accumulators of the person most recently processed on each thread, one per
+   * health record. A person is simulated on a single thread from start to finish, so this
+   * only starts over when the thread moves on to the next person. The accumulators are a cache:
+   * a new one produces exactly the same values, only more slowly.
+   */
+  private static final ThreadLocal<Accumulators> ACCUMULATORS = new ThreadLocal<>();
+
   public QualityOfLifeModule() {
     this.name = "Quality of Life";
   }
@@ -43,7 +56,7 @@ public class QualityOfLifeModule extends Module {
 
     if (!qalys.containsKey(year)) {
       // double age = person.ageInYears(time) + 1;
-      double[] values = calculate(person, time);
+      double[] values = accumulator(person).update(person, time);
 
       dalys.put(year, values[0]);
       qalys.put(year, values[1]);
@@ -56,6 +69,44 @@ public class QualityOfLifeModule extends Module {
     return false;
   }
 
+  /**
+   * Values are only calculated once per calendar year, so there is nothing to do until the
+   * start of the next one.
+   */
+  @Override
+  public long nextProcessTime(Person person, long time) {
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.clear();
+    calendar.set(Utilities.getYear(time) + 1, Calendar.JANUARY, 1);
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Get the running accumulator for the person's current health record.
+   * With split records, each record carries its own conditions and so its own accumulator.
+   */
+  private static Accumulator accumulator(Person person) {
+    Accumulators accumulators = ACCUMULATORS.get();
+    if (accumulators == null || accumulators.person != person) {
+      accumulators = new Accumulators(person);
+      ACCUMULATORS.set(accumulators);
+    }
+    return accumulators.byRecord.computeIfAbsent(person.record, Accumulator::new);
+  }
+
+  /**
+   * The accumulators of a single person.
+   */
+  private static class Accumulators {
+    private final Person person;
+    private final Map<HealthRecord, Accumulator> byRecord =
+        new IdentityHashMap<HealthRecord, Accumulator>();
+
+    private Accumulators(Person person) {
+      this.person = person;
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private static Map<String, Map<String, Object>> loadDisabilityWeights() {
     String filename = "gbd_disability_weights.json";
@@ -130,6 +181,174 @@ public class QualityOfLifeModule extends Module {
     return new double[] { daly, qaly, 1 - disabilityWeight };
   }
 
+  /**
+   * Running YLD calculation for a single health record. Produces the same values as
+   * {@link QualityOfLifeModule#calculate(Person, long)}, but carries the YLD of every
+   * completed year forward, and only examines conditions that were added since the last
+   * update or that may still overlap a year that is not yet complete.
+   * A year is complete once it has started: conditions are started and ended at the current
+   * simulation time, so they can no longer change which conditions overlap its first day.
+   * New conditions are expected to be added to the last encounter of the record, so earlier
+   * encounters are only scanned once. Anything that breaks these assumptions (such as a condition
+   * copied in from another record, or added to an earlier encounter) is detected and causes the
+   * accumulator to start over, so the results never drift from the full calculation.
+   */
+  private static class Accumulator {
+    private final HealthRecord record;
+    /** Cursor over record.encounters and the conditions of that encounter. */
+    private int encounterIndex;
+    private int conditionIndex;
+    /** Number of conditions in the encounters before encounterIndex, when they were scanned. */
+    private int conditionsBefore;
+    /** Conditions with a disability weight that may still overlap an incomplete year. */
+    private List<Tracked> tracked;
+    /** Number of completed years, whose YLD is summed into completedYld. */
+    private int completedYears;
+    private double completedYld;
+    private double completedDisabilityWeight;
+
+    private Accumulator(HealthRecord record) {
+      this.record = record;
+      reset();
+    }
+
+    private void reset() {
+      encounterIndex = 0;
+      conditionIndex = 0;
+      conditionsBefore = 0;
+      tracked = new ArrayList<Tracked>();
+      completedYears = 0;
+      completedYld = 0.0;
+      completedDisabilityWeight = 0.0;
+    }
+
+    /**
+     * Calculate the HALYs for this person, at the given time.
+     * @param person Person to calculate
+     * @param stop current timestamp
+     * @return array of [daly (cumulative), qaly (cumulative), current disability weight]
+     */
+    private double[] update(Person person, long stop) {
+      double yll = 0.0;
+      int age = person.ageInYears(stop);
+      long birthdate = (long) person.attributes.get(Person.BIRTHDATE);
+
+      if (!person.alive(stop)) {
+        // see calculate(Person, long)
+        double l = ((0.00006 * Math.pow(age, 3)) - (0.0054 * Math.pow(age, 2)) - (0.8502 * age)
+            + 86.16);
+        yll = l;
+      }
+
+      if (!scan(birthdate)) {
+        reset();
+        scan(birthdate);
+      }
+
+      double yld = completedYld;
+      double disabilityWeight = completedDisabilityWeight;
+      for (int i = completedYears; i < age + 1; i++) {
+        long yearStart = yearStart(birthdate, i);
+        long yearEnd = birthdate + (TimeUnit.DAYS.toMillis((long) (365.25 * (i + 1) - 1)));
+
+        disabilityWeight = 0.0;
+        for (Tracked condition : tracked) {
+          // same test as conditionsInYear, and summed in the same order
+          if (yearStart >= condition.entry.start && condition.entry.start <= yearEnd
+              && (condition.entry.stop > yearStart || condition.entry.stop == 0)) {
+            disabilityWeight += condition.disabilityWeight;
+          }
+        }
+
+        disabilityWeight = Math.min(1.0, weight(disabilityWeight, i + 1));
+        yld += disabilityWeight;
+
+        if (i == completedYears && yearStart < stop) {
+          completedYears++;
+          completedYld = yld;
+          completedDisabilityWeight = disabilityWeight;
+        }
+      }
+
+      // conditions that ended before the first incomplete year are no longer needed
+      long firstIncomplete = yearStart(birthdate, completedYears);
+      tracked.removeIf(c -> c.entry.stop != 0 && c.entry.stop <= firstIncomplete);
+
+      double daly = yll + yld;
+      double qaly = age - yld;
+
+      return new double[] { daly, qaly, 1 - disabilityWeight };
+    }
+
+    /**
+     * Pick up conditions added to the record since the last update, and check the
+     * stop times of the conditions already tracked.
+     * @return false if a change reaches back into a completed year
+     */
+    private boolean scan(long birthdate) {
+      long lastComplete = completedYears == 0 ? Long.MIN_VALUE
+          : yearStart(birthdate, completedYears - 1);
+
+      for (Tracked condition : tracked) {
+        if (condition.stop != condition.entry.stop) {
+          if (condition.entry.stop != 0 && condition.entry.stop <= lastComplete) {
+            return false;
+          }
+          condition.stop = condition.entry.stop;
+        }
+      }
+
+      List<Encounter> encounters = record.encounters;
+      // check that no condition has been added to, or removed from, an encounter already scanned
+      int before = 0;
+      for (int i = 0; i < encounterIndex && i < encounters.size(); i++) {
+        before += encounters.get(i).conditions.size();
+      }
+      if (before != conditionsBefore || (encounterIndex < encounters.size()
+          && encounters.get(encounterIndex).conditions.size() < conditionIndex)) {
+        return false;
+      }
+
+      for (; encounterIndex < encounters.size(); encounterIndex++) {
+        List<Entry> conditions = encounters.get(encounterIndex).conditions;
+        for (; conditionIndex < conditions.size(); conditionIndex++) {
+          Entry entry = conditions.get(conditionIndex);
+          Map<String, Object> dw = disabilityWeights.get(entry.codes.get(0).display);
+          if (dw != null) {
+            if (entry.start <= lastComplete) {
+              return false;
+            }
+            tracked.add(new Tracked(entry, (double) dw.get("disability_weight")));
+          }
+        }
+        if (encounterIndex == encounters.size() - 1) {
+          // stay on the current encounter, new conditions are added to it
+          break;
+        }
+        conditionsBefore += conditionIndex;
+        conditionIndex = 0;
+      }
+      return true;
+    }
+
+    private static long yearStart(long birthdate, int year) {
+      return birthdate + TimeUnit.DAYS.toMillis((long) (365.25 * year));
+    }
+  }
+
+  private static class Tracked {
+    private final Entry entry;
+    private final double disabilityWeight;
+    /** The stop time of the entry as of the last update. */
+    private long stop;
+
+    private Tracked(Entry entry, double disabilityWeight) {
+      this.entry = entry;
+      this.disabilityWeight = disabilityWeight;
+      this.stop = entry.stop;
+    }
+  }
+
   public static List<Entry> conditionsInYear(List<Entry> conditions, long yearStart, long yearEnd) {
     List<Entry> conditionsInYear = new ArrayList<Entry>();
     for (Entry condition : conditions) {
@@ -165,7 +384,7 @@ public class QualityOfLifeModule extends Module {
     Attributes.inventory(attributes, m, "DALY", true, true, "LinkedHashMap<Integer, Double>");
     Attributes.inventory(attributes, m, "QOL", true, true, "LinkedHashMap<Integer, Double>");
     Attributes.inventory(attributes, m, Person.BIRTHDATE, true, false, null);
-    Attributes.inventory(attributes, m, "most-recent-daly", false, true, "Numeric");
-    Attributes.inventory(attributes, m, "most-recent-qaly", false, true, "Numeric");
+    Attributes.inventory(attributes, m, "most-recent-daly", false, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m, "most-recent-qaly", false, true, "Numeric", Type.NUMERIC);
   }
 }
\ No newline at end of file
@@ -1,12 +1,17 @@
 package org.mitre.synthea.modules;
 
 import static org.mitre.synthea.modules.LifecycleModule.bmi;
-import static org.mitre.synthea.modules.LifecycleModule.lookupGrowthChart;
+
+import java.util.Map;
 
 import org.mitre.synthea.engine.Module;
+import org.mitre.synthea.helpers.Attributes;
+import org.mitre.synthea.helpers.Attributes.Inventory;
+import org.mitre.synthea.helpers.Attributes.Type;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.BiometricsConfig;
+import org.mitre.synthea.world.concepts.GrowthChart;
 import org.mitre.synthea.world.concepts.VitalSign;
 
 /**
@@ -184,8 +189,8 @@ public final class WeightLossModule extends Module {
 
   private double percentileRegression(Person person, long time, int ageInMonths) {
     long start = (long) person.attributes.get(WEIGHT_MANAGEMENT_START);
-    String gender = (String) person.attributes.get(Person.GENDER);
-    double regressionWeight = lookupGrowthChart("weight", gender, ageInMonths,
+    int sex = GrowthChart.sex((String) person.attributes.get(Person.GENDER));
+    double regressionWeight = GrowthChart.lookup(GrowthChart.WEIGHT, sex, ageInMonths,
         person.getVitalSign(VitalSign.WEIGHT_PERCENTILE, time));
     double lossPercent = (double) person.attributes.get(WEIGHT_LOSS_PERCENTAGE);
     double percentOfTimeElapsed = (time - start - Utilities.convertTime("years", 1))
@@ -199,9 +204,10 @@ public final class WeightLossModule extends Module {
    */
   public double pediatricWeightLoss(Person person, long time) {
     double weight = adultWeightLoss(person, time);
-    String gender = (String) person.attributes.get(Person.GENDER);
+    int sex = GrowthChart.sex((String) person.attributes.get(Person.GENDER));
     int ageInMonths = person.ageInMonths(time);
-    double minWeight = lookupGrowthChart("weight", gender, ageInMonths, minWeightPercentile);
+    double minWeight =
+        GrowthChart.lookup(GrowthChart.WEIGHT, sex, ageInMonths, minWeightPercentile);
     if (minWeight > weight) {
       weight = minWeight;
     }
@@ -243,4 +249,24 @@ public final class WeightLossModule extends Module {
     }
     return false;
   }
+
+  /**
+   * Populate the given attribute map with the list of attributes that this
+   * module reads/writes with example values when appropriate.
+   *
+   * @param attributes Attribute map to populate.
+   */
+  public static void inventoryAttributes(Map<String,Inventory> attributes) {
+    String m = WeightLossModule.class.getSimpleName();
+    // Read
+    Attributes.inventory(attributes, m, Person.GENDER, true, false, null);
+    // Read and Write
+    Attributes.inventory(attributes, m,
+        ACTIVE_WEIGHT_MANAGEMENT, true, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m, PRE_MANAGEMENT_WEIGHT, true, true, "Numeric", Type.NUMERIC);
+    Attributes.inventory(attributes, m, WEIGHT_MANAGEMENT_START, true, true, "Numeric", Type.TIME);
+    Attributes.inventory(attributes, m, WEIGHT_LOSS_PERCENTAGE, true, true, "1.0", Type.NUMERIC);
+    Attributes.inventory(attributes, m, LONG_TERM_WEIGHT_LOSS, true, true, "Boolean", Type.BOOLEAN);
+    Attributes.inventory(attributes, m, WEIGHT_LOSS_ADHERENCE, true, true, "Boolean", Type.BOOLEAN);
+  }
 }
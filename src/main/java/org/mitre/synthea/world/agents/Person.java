@@ -105,6 +105,26 @@ public class Person implements Serializable, QuadTreeData {
     record = new HealthRecord(this);
   }
 
+  /**
+   * Create a shallow copy of another person. The copy shares all of the person's state,
+   * including their random number generator, but can be given different health records,
+   * e.g., a filtered view of the records for export.
+   */
+  public Person(Person other) {
+    this.seed = other.seed;
+    this.random = other.random;
+    this.populationSeed = other.populationSeed;
+    this.attributes = other.attributes;
+    this.vitalSigns = other.vitalSigns;
+    this.symptoms = other.symptoms;
+    this.symptomStatuses = other.symptomStatuses;
+    this.events = other.events;
+    this.record = other.record;
+    this.records = other.records;
+    this.hasMultipleRecords = other.hasMultipleRecords;
+    this.history = other.history;
+  }
+
   public double rand() {
     return random.nextDouble();
   }
@@ -6,6 +6,8 @@ import com.google.gson.internal.LinkedTreeMap;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -14,7 +16,9 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.sis.geometry.DirectPosition2D;
 import org.apache.sis.index.tree.QuadTree;
@@ -50,6 +54,10 @@ public class Provider implements QuadTreeData {
   private static QuadTree providerMap = generateQuadTree();
   private static Set<String> statesLoaded = new HashSet<String>();
   private static int loaded = 0;
+  // index of the providers that have had at least one encounter, in the order they were created
+  private static final AtomicLong created = new AtomicLong();
+  private static final Set<Provider> utilized =
+      new ConcurrentSkipListSet<>((a, b) -> Long.compare(a.sequence, b.sequence));
 
   private static final double MAX_PROVIDER_SEARCH_DISTANCE =
       Double.parseDouble(Config.get("generate.providers.maximum_search_distance", "500"));
@@ -75,6 +83,7 @@ public class Provider implements QuadTreeData {
   public Map<String, ArrayList<Clinician>> clinicianMap;
   // row: year, column: type, value: count
   private Table<Integer, String, AtomicInteger> utilization;
+  private final long sequence = created.getAndIncrement();
 
   /**
    * Create a new Provider with no information.
@@ -144,6 +153,9 @@ public class Provider implements QuadTreeData {
   private synchronized void increment(Integer year, String key) {
     if (!utilization.contains(year, key)) {
       utilization.put(year, key, new AtomicInteger(0));
+      if (key.equals(ENCOUNTERS)) {
+        utilized.add(this);
+      }
     }
 
     utilization.get(year, key).incrementAndGet();
@@ -153,6 +165,15 @@ public class Provider implements QuadTreeData {
     return utilization;
   }
 
+  /**
+   * Get the providers that have had at least one encounter, without checking the utilization
+   * of every loaded provider.
+   * @return The utilized providers, in the order they were loaded.
+   */
+  public static Collection<Provider> getUtilizedProviders() {
+    return Collections.unmodifiableSet(utilized);
+  }
+
   /**
    * Get the bed count for this Provider facility.
    * @return The number of beds, if they exist, otherwise null.
@@ -226,6 +247,7 @@ public class Provider implements QuadTreeData {
    */
   public static void clear() {
     providerList.clear();
+    utilized.clear();
     statesLoaded.clear();
     providerMap = generateQuadTree();
     loaded = 0;
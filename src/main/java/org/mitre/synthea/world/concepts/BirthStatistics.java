@@ -5,6 +5,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -51,19 +53,92 @@ public class BirthStatistics {
     return fw;
   }
 
-  private static List<? extends Map<String,String>> WEIGHT_DATA = loadData();
+  private static final List<String> NON_WEIGHT_COLUMNS = Arrays.asList(
+      "hispanic_mother", "baby_sex", "lmp_gestational_age", "weight", "sum");
 
-  private static List<? extends Map<String,String>> loadData() {
+  /**
+   * Weight (kg) of each birth weight column, in the order the columns are walked.
+   */
+  private static double[] WEIGHT_BINS;
+
+  /**
+   * Birth weight distributions, precompiled from the CSV into primitive arrays.
+   * Indexed by [hispanic ? 1 : 0][baby sex "F" ? 1 : 0]. Null if the data could not be loaded.
+   */
+  private static WeightTable[][] WEIGHT_DATA = loadData();
+
+  /**
+   * The rows of the birth weight CSV for one combination of mother's ethnicity
+   * and baby sex, in file order.
+   */
+  private static class WeightTable {
+    /** Cumulative count of births up to and including each row. */
+    private double[] sum;
+    /** Gestational age in weeks of each row. */
+    private long[] week;
+    /** Total count of births in each row. */
+    private double[] weight;
+    /** Count of births in each weight bin, indexed by [row][bin]. */
+    private double[][] bins;
+    /** Largest cumulative count in this table. */
+    private double max;
+
+    private WeightTable(List<? extends Map<String,String>> rows, List<String> columns) {
+      int size = rows.size();
+      sum = new double[size];
+      week = new long[size];
+      weight = new double[size];
+      bins = new double[size][columns.size()];
+      for (int i = 0; i < size; i++) {
+        Map<String,String> row = rows.get(i);
+        sum[i] = Double.parseDouble(row.get("sum"));
+        week[i] = Long.parseLong(row.get("lmp_gestational_age"));
+        weight[i] = Double.parseDouble(row.get("weight"));
+        for (int j = 0; j < columns.size(); j++) {
+          bins[i][j] = Double.parseDouble(row.get(columns.get(j)));
+        }
+        if (sum[i] > max) {
+          max = sum[i];
+        }
+      }
+    }
+  }
+
+  private static WeightTable[][] loadData() {
     String filename = Config.get("generate.birthweights.default_file");
-    List<? extends Map<String,String>> csv = null;
+    WeightTable[][] tables = null;
     try {
       String resource = Utilities.readResource(filename);
-      csv = SimpleCSV.parse(resource);
+      List<? extends Map<String,String>> csv = SimpleCSV.parse(resource);
+
+      // Weight columns are walked in (string) sorted order.
+      List<String> columns = new ArrayList<String>(csv.get(0).keySet());
+      columns.removeAll(NON_WEIGHT_COLUMNS);
+      Collections.sort(columns);
+      WEIGHT_BINS = new double[columns.size()];
+      for (int j = 0; j < columns.size(); j++) {
+        WEIGHT_BINS[j] = Double.parseDouble(columns.get(j)) / 1000; // grams to kilograms
+      }
+
+      tables = new WeightTable[2][2];
+      for (int h = 0; h < 2; h++) {
+        for (int f = 0; f < 2; f++) {
+          List<Map<String,String>> rows = new ArrayList<Map<String,String>>();
+          for (Map<String,String> row : csv) {
+            if (Boolean.parseBoolean(row.get("hispanic_mother")) == (h == 1)
+                && row.get("baby_sex").equals(f == 1 ? "F" : "M")) {
+              rows.add(row);
+            }
+          }
+          tables[h][f] = new WeightTable(rows, columns);
+        }
+      }
     } catch (Exception e) {
       System.err.println("Failed to load default birth weight file!");
       e.printStackTrace();
+      tables = null;
     }
-    return csv;
+    return tables;
   }
 
   /**
@@ -122,60 +197,30 @@ public class BirthStatistics {
 
     // Is the mother hispanic?
     boolean hispanic = isHispanic(mother);
-
-    // Set up some temporary variables...
-    double max = 0;
-    boolean rhispanic;
-    String rsex;
-    double x;
-    
-    // Get the max weight of the rows...
-    for (Map<String, String> row : WEIGHT_DATA) {
-      rhispanic = Boolean.parseBoolean(row.get("hispanic_mother"));
-      rsex = row.get("baby_sex");
-      x = Double.parseDouble(row.get("sum"));
-      
-      if (rhispanic == hispanic
-          && rsex.equals(babySex)
-          && x > max) {
-        max = x;
-      }
-    }
+    WeightTable table = WEIGHT_DATA[hispanic ? 1 : 0][babySex.equals("F") ? 1 : 0];
 
     // When will the baby be born?
-    Map<String, String> data = null;
-    double roll = mother.rand(0, max);
-    for (Map<String, String> row : WEIGHT_DATA) {
-      rhispanic = Boolean.parseBoolean(row.get("hispanic_mother"));
-      rsex = row.get("baby_sex");
-      x = Double.parseDouble(row.get("sum"));
-      
-      if (rhispanic == hispanic
-          && rsex.equals(babySex)
-          && (roll < x) && (data == null)) {
-        data = row;
+    int row = -1;
+    double roll = mother.rand(0, table.max);
+    for (int i = 0; i < table.sum.length; i++) {
+      if (roll < table.sum[i]) {
+        row = i;
+        break;
       }
     }
-    long week = Long.parseLong(data.get("lmp_gestational_age"));
+    if (row < 0) {
+      row = table.sum.length - 1;
+    }
+    long week = table.week[row];
     mother.attributes.put(BIRTH_WEEK, week);
     mother.attributes.put(BIRTH_DATE, (time + Utilities.convertTime("weeks", week)));
 
     // How much will the baby weigh?
-    max = Double.parseDouble(data.get("weight"));
-    roll = mother.rand(0, max);
-    List<String> weights = new ArrayList<String>(data.keySet());
-    weights.remove("hispanic_mother");
-    weights.remove("baby_sex");
-    weights.remove("lmp_gestational_age");
-    weights.remove("weight");
-    weights.remove("sum");
-    weights.sort(null);
-
-    for (String weight : weights) {
-      x = Double.parseDouble(data.get(weight));
-      roll = roll - x;
-      x = Double.parseDouble(weight) / 1000; // convert from grams to kilograms
-      mother.attributes.put(BIRTH_WEIGHT, x);
+    roll = mother.rand(0, table.weight[row]);
+    double[] counts = table.bins[row];
+    for (int j = 0; j < counts.length; j++) {
+      roll = roll - counts[j];
+      mother.attributes.put(BIRTH_WEIGHT, WEIGHT_BINS[j]);
       if (roll < 0) {
         break;
       }
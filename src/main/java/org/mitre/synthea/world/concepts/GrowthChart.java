@@ -0,0 +1,129 @@
+package org.mitre.synthea.world.concepts;
+
+import com.google.gson.Gson;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.math3.special.Erf;
+import org.mitre.synthea.helpers.Utilities;
+
+/**
+ * Precompiled CDC growth charts. The nested JSON in resources/cdc_growth_charts.json
+ * is parsed once and flattened into primitive LMS arrays indexed by chart, sex,
+ * and age in months, so that each lookup is a handful of array reads and arithmetic.
+ * Reference : https://www.cdc.gov/growthcharts/percentile_data_files.htm
+ */
+public abstract class GrowthChart {
+  /** Index of the height (cm) chart. */
+  public static final int HEIGHT = 0;
+  /** Index of the weight (kg) chart. */
+  public static final int WEIGHT = 1;
+
+  /** Index of the male charts. */
+  public static final int MALE = 0;
+  /** Index of the female charts. */
+  public static final int FEMALE = 1;
+
+  /** Oldest age covered by the charts. */
+  public static final int MAX_AGE_MONTHS = 240;
+
+  private static final String[] CHART_NAMES = { "height", "weight" };
+  private static final String[] SEX_NAMES = { "M", "F" };
+
+  /** LMS parameters, indexed by [chart][sex][ageInMonths]. */
+  private static final double[][][] L = new double[2][2][MAX_AGE_MONTHS + 1];
+  private static final double[][][] M = new double[2][2][MAX_AGE_MONTHS + 1];
+  private static final double[][][] S = new double[2][2][MAX_AGE_MONTHS + 1];
+
+  static {
+    loadGrowthChart();
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static void loadGrowthChart() {
+    String filename = "cdc_growth_charts.json";
+    try {
+      String json = Utilities.readResource(filename);
+      Gson g = new Gson();
+      Map growthChart = g.fromJson(json, HashMap.class);
+      for (int chart = 0; chart < CHART_NAMES.length; chart++) {
+        Map byChart = (Map) growthChart.get(CHART_NAMES[chart]);
+        for (int sex = 0; sex < SEX_NAMES.length; sex++) {
+          Map byGender = (Map) byChart.get(SEX_NAMES[sex]);
+          for (int month = 0; month <= MAX_AGE_MONTHS; month++) {
+            Map byAge = (Map) byGender.get(Integer.toString(month));
+            L[chart][sex][month] = Double.parseDouble((String) byAge.get("l"));
+            M[chart][sex][month] = Double.parseDouble((String) byAge.get("m"));
+            S[chart][sex][month] = Double.parseDouble((String) byAge.get("s"));
+          }
+        }
+      }
+    } catch (Exception e) {
+      System.err.println("ERROR: unable to load json: " + filename);
+      e.printStackTrace();
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Get the chart index for the given chart name.
+   * @param heightOrWeight "height" | "weight"
+   * @return HEIGHT or WEIGHT
+   */
+  public static int chart(String heightOrWeight) {
+    if ("height".equals(heightOrWeight)) {
+      return HEIGHT;
+    } else if ("weight".equals(heightOrWeight)) {
+      return WEIGHT;
+    }
+    throw new IllegalArgumentException("Unknown growth chart: " + heightOrWeight);
+  }
+
+  /**
+   * Get the sex index for the given gender.
+   * @param gender "M" | "F"
+   * @return MALE or FEMALE
+   */
+  public static int sex(String gender) {
+    return "F".equals(gender) ? FEMALE : MALE;
+  }
+
+  /**
+   * Calculate a height or weight from the CDC growth charts, using the LMS
+   * values to calculate the intermediate values.
+   * @param chart HEIGHT | WEIGHT
+   * @param sex MALE | FEMALE
+   * @param ageInMonths 0 - 240
+   * @param percentile 0.0 - 1.0
+   * @return The height (cm) or weight (kg)
+   */
+  public static double lookup(int chart, int sex, int ageInMonths, double percentile) {
+    double l = L[chart][sex][ageInMonths];
+    double m = M[chart][sex][ageInMonths];
+    double s = S[chart][sex][ageInMonths];
+    double z = calculateZScore(percentile);
+
+    if (l == 0) {
+      return m * Math.exp((s * z));
+    } else {
+      return m * Math.pow((1 + (l * s * z)), (1.0 / l));
+    }
+  }
+
+  /**
+   * Z is the z-score that corresponds to the percentile.
+   * @param percentile 0.0 - 1.0
+   * @return z-score that corresponds to the percentile.
+   */
+  public static double calculateZScore(double percentile) {
+    // Set percentile gt0 and lt1, otherwise the error
+    // function will return Infinity.
+    if (percentile >= 1.0) {
+      percentile = 0.999;
+    } else if (percentile <= 0.0) {
+      percentile = 0.001;
+    }
+    return -1 * Math.sqrt(2) * Erf.erfcInv(2 * percentile);
+  }
+}
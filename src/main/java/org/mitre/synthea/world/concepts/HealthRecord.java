@@ -97,7 +97,7 @@ public class HealthRecord {
    * Medications, etc. All Entries have a name, start and stop times, a type, and a list of
    * associated codes.
    */
-  public class Entry {
+  public class Entry implements Cloneable {
     /** reference to the HealthRecord this entry belongs to. */
     private HealthRecord record = HealthRecord.this;
     public String fullUrl;
@@ -114,6 +114,19 @@ public class HealthRecord {
       this.codes = new ArrayList<Code>();
     }
 
+    /**
+     * Create a shallow copy of this entry, sharing its codes and any other entries it refers to.
+     */
+    @Override
+    public Entry clone() {
+      try {
+        return (Entry) super.clone();
+      } catch (CloneNotSupportedException e) {
+        // should not happen, and not something we can handle
+        throw new RuntimeException(e);
+      }
+    }
+
     public BigDecimal cost() {
       if (cost == null) {
         Person patient = record.person;
@@ -273,6 +286,17 @@ public class HealthRecord {
       items = new ArrayList<>();
     }
 
+    /**
+     * Create a copy of another claim for the given encounter, sharing its items.
+     */
+    public Claim(Claim other, Encounter encounter) {
+      this.baseCost = other.baseCost;
+      this.encounter = encounter;
+      this.medication = other.medication;
+      this.items = other.items;
+      this.insurance = other.insurance;
+    }
+
     public void addItem(Entry entry) {
       items.add(entry);
     }
@@ -353,6 +377,18 @@ public class HealthRecord {
       imagingStudies = new ArrayList<ImagingStudy>();
       claim = new Claim(this);
     }
+
+    /**
+     * Create a shallow copy of this encounter. The copy shares the entries and the lists of
+     * entries, but has its own claim, so that a filtered view of the encounter can replace the
+     * lists without changing the original.
+     */
+    @Override
+    public Encounter clone() {
+      Encounter copy = (Encounter) super.clone();
+      copy.claim = new Claim(claim, copy);
+      return copy;
+    }
   }
 
   private Person person;
@@ -368,6 +404,19 @@ public class HealthRecord {
     present = new HashMap<String, Entry>();
   }
 
+  /**
+   * Create a shallow copy of another record, for the same person and provider, sharing its
+   * encounters and present entries, e.g., so that a filtered view of the record can replace
+   * the encounters without changing the original.
+   */
+  public HealthRecord(HealthRecord other) {
+    this.person = other.person;
+    this.provider = other.provider;
+    this.encounters = other.encounters;
+    this.present = other.present;
+    this.death = other.death;
+  }
+
   public String textSummary() {
     int observations = 0;
     int reports = 0;
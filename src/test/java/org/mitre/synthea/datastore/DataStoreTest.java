@@ -0,0 +1,198 @@
+package org.mitre.synthea.datastore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.modules.HealthInsuranceModule;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
+
+public class DataStoreTest {
+  private String batchSize;
+  private List<DataStore> stores = new ArrayList<>();
+
+  @Before
+  public void setup() {
+    batchSize = Config.get("generate.database.batch_size");
+  }
+
+  @After
+  public void cleanup() {
+    for (DataStore store : stores) {
+      store.close();
+    }
+    if (batchSize == null) {
+      Config.remove("generate.database.batch_size");
+    } else {
+      Config.set("generate.database.batch_size", batchSize);
+    }
+  }
+
+  private DataStore open() {
+    DataStore store = new DataStore(false);
+    stores.add(store);
+    return store;
+  }
+
+  private static Person person(String id) {
+    Person person = new Person(0L);
+    person.attributes.put(Person.ID, id);
+    person.attributes.put(Person.NAME, "Patient " + id);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.attributes.put(Person.GENDER, "F");
+    person.attributes.put(HealthInsuranceModule.INSURANCE, Arrays.asList("private", null));
+    Encounter encounter = person.record.encounterStart(1000L, EncounterType.WELLNESS);
+    encounter.codes.add(new org.mitre.synthea.world.concepts.HealthRecord.Code(
+        "http://snomed.info/sct", "185349003", "Encounter for check up"));
+    person.record.conditionStart(1000L, "diabetes");
+    return person;
+  }
+
+  private static long count(Connection connection, String query) throws Exception {
+    try (ResultSet results = connection.prepareStatement(query).executeQuery()) {
+      results.next();
+      return results.getLong(1);
+    }
+  }
+
+  @Test
+  public void testStoreInBatches() throws Exception {
+    // small batches, so the patients span several transactions
+    Config.set("generate.database.batch_size", "20");
+    DataStore store = open();
+    String prefix = UUID.randomUUID().toString();
+    for (int i = 0; i < 50; i++) {
+      assertTrue(store.store(person(prefix + i)));
+    }
+
+    // reading waits for all of the patients to be written
+    try (Connection connection = store.getConnection()) {
+      assertEquals(50, count(connection,
+          "SELECT COUNT(*) FROM PERSON WHERE ID LIKE '" + prefix + "%'"));
+      assertEquals(50, count(connection,
+          "SELECT COUNT(*) FROM COVERAGE WHERE PERSON_ID LIKE '" + prefix + "%'"));
+      assertEquals(50, count(connection, "SELECT COUNT(*) FROM ENCOUNTER "
+          + "WHERE PERSON_ID LIKE '" + prefix + "%' AND CODE = '185349003'"));
+      assertEquals(50, count(connection,
+          "SELECT COUNT(*) FROM CLAIM WHERE PERSON_ID LIKE '" + prefix + "%'"));
+      assertEquals(0, count(connection,
+          "SELECT COUNT(*) FROM PERSON WHERE ID LIKE '" + prefix + "%' "
+          + "AND DATE_OF_DEATH IS NOT NULL"));
+    }
+  }
+
+  @Test
+  public void testStoreSkipsPatientThatCannotBeWritten() throws Exception {
+    Config.set("generate.database.batch_size", "20");
+    DataStore store = open();
+    String prefix = UUID.randomUUID().toString();
+    for (int i = 0; i < 10; i++) {
+      Person person = person(prefix + i);
+      if (i == 3) {
+        // not a number, so the whole transaction fails
+        Map<Integer, Object> qols = new HashMap<>();
+        qols.put(2000, "not a number");
+        person.attributes.put("QOL", qols);
+        person.attributes.put("QALY", new HashMap<Integer, Double>());
+        person.attributes.put("DALY", new HashMap<Integer, Double>());
+      }
+      assertTrue(store.store(person));
+    }
+
+    // only the patient that could not be written is lost
+    try (Connection connection = store.getConnection()) {
+      assertEquals(9, count(connection,
+          "SELECT COUNT(*) FROM PERSON WHERE ID LIKE '" + prefix + "%'"));
+      assertEquals(0, count(connection,
+          "SELECT COUNT(*) FROM PERSON WHERE ID = '" + prefix + "3'"));
+      assertEquals(9, count(connection,
+          "SELECT COUNT(*) FROM ENCOUNTER WHERE PERSON_ID LIKE '" + prefix + "%'"));
+    }
+    // and the writer carries on
+    assertTrue(store.store(person(prefix + 10)));
+    try (Connection connection = store.getConnection()) {
+      assertEquals(10, count(connection,
+          "SELECT COUNT(*) FROM PERSON WHERE ID LIKE '" + prefix + "%'"));
+    }
+  }
+
+  @Test
+  public void testStoreTypedAttributes() throws Exception {
+    DataStore store = open();
+    String id = UUID.randomUUID().toString();
+    Person person = person(id);
+    person.attributes.put("AGE", 42);
+    person.attributes.put(Person.SMOKER, true);
+    person.attributes.put("QALY", new HashMap<Integer, Double>());
+    person.attributes.put("not_a_declared_attribute", "value");
+    assertTrue(store.store(person));
+
+    try (Connection connection = store.getConnection()) {
+      String query = "SELECT TYPE, VALUE, NUMERIC_VALUE, BOOLEAN_VALUE, TIME_VALUE "
+          + "FROM ATTRIBUTE WHERE PERSON_ID = '" + id + "' AND NAME = ?";
+      try (PreparedStatement statement = connection.prepareStatement(query)) {
+        statement.setString(1, "AGE");
+        try (ResultSet results = statement.executeQuery()) {
+          assertTrue(results.next());
+          assertEquals("NUMERIC", results.getString(1));
+          assertEquals("42", results.getString(2));
+          assertEquals(42.0, results.getDouble(3), 0.0);
+          assertFalse(results.next());
+        }
+        statement.setString(1, Person.SMOKER);
+        try (ResultSet results = statement.executeQuery()) {
+          assertTrue(results.next());
+          assertEquals("BOOLEAN", results.getString(1));
+          assertTrue(results.getBoolean(4));
+        }
+        statement.setString(1, Person.BIRTHDATE);
+        try (ResultSet results = statement.executeQuery()) {
+          assertTrue(results.next());
+          assertEquals("TIME", results.getString(1));
+          assertEquals(0L, results.getLong(5));
+        }
+        statement.setString(1, Person.GENDER);
+        try (ResultSet results = statement.executeQuery()) {
+          assertTrue(results.next());
+          assertEquals("TEXT", results.getString(1));
+          assertEquals("F", results.getString(2));
+        }
+      }
+      // collections and undeclared attributes are not stored
+      assertEquals(0, count(connection, "SELECT COUNT(*) FROM ATTRIBUTE WHERE PERSON_ID = '"
+          + id + "' AND NAME IN ('QALY', 'insurance', 'not_a_declared_attribute')"));
+      assertEquals(6, count(connection,
+          "SELECT COUNT(*) FROM ATTRIBUTE WHERE PERSON_ID = '" + id + "'"));
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    DataStore store = new DataStore(false);
+    String id = UUID.randomUUID().toString();
+    assertTrue(store.store(person(id)));
+    // the queued patient is written before the writer stops
+    assertTrue(store.close());
+    assertFalse(store.store(person(UUID.randomUUID().toString())));
+
+    try (Connection connection = open().getConnection()) {
+      assertEquals(1, count(connection, "SELECT COUNT(*) FROM PERSON WHERE ID = '" + id + "'"));
+    }
+  }
+}
@@ -10,13 +10,18 @@ import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
 import org.junit.Test;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.powermock.reflect.Whitebox;
 
 public class ModuleTest {
@@ -61,6 +66,114 @@ public class ModuleTest {
     assertNull(module);
   }
 
+  @Test
+  public void nextProcessTime() throws Exception {
+    // skipping modules until they are due must not change the simulation
+    TestHelper.exportOff();
+    Field modulesField = Whitebox.getField(Module.class, "modules");
+    modulesField.setAccessible(true);
+    @SuppressWarnings("unchecked")
+    Map<String, Module.ModuleSupplier> modules =
+        (Map<String, Module.ModuleSupplier>) modulesField.get(null);
+    Module.ModuleSupplier qualityOfLife = modules.get("Quality Of Life");
+    Module.ModuleSupplier insurance = modules.get("Health Insurance");
+    DueTimes qualityOfLifeTimes = new DueTimes(qualityOfLife.get());
+    DueTimes insuranceTimes = new DueTimes(insurance.get());
+    modules.put("Quality Of Life", new Module.ModuleSupplier(qualityOfLifeTimes));
+    modules.put("Health Insurance", new Module.ModuleSupplier(insuranceTimes));
+    try {
+      Generator generator = new Generator(1, 0L);
+      for (long seed = 0; seed < 3; seed++) {
+        generator.skipModulesUntilDue = false;
+        Person everyStep = generator.generatePerson(0, seed);
+        int everyStepCalls = qualityOfLifeTimes.calls;
+        List<Long> everyStepQol = qualityOfLifeTimes.reset();
+        List<Long> everyStepInsurance = insuranceTimes.reset();
+
+        generator.skipModulesUntilDue = true;
+        Person whenDue = generator.generatePerson(0, seed);
+        // the modules were only processed when due...
+        assertEquals(qualityOfLifeTimes.times.size(), qualityOfLifeTimes.calls);
+        assertEquals(insuranceTimes.times.size(), insuranceTimes.calls);
+        assertTrue(everyStepCalls > qualityOfLifeTimes.calls);
+        // ...which was at the same times as without skipping
+        assertEquals(everyStepQol, qualityOfLifeTimes.reset());
+        assertEquals(everyStepInsurance, insuranceTimes.reset());
+
+        assertEquals(summary(everyStep), summary(whenDue));
+      }
+    } finally {
+      modules.put("Quality Of Life", qualityOfLife);
+      modules.put("Health Insurance", insurance);
+    }
+  }
+
+  /**
+   * The simple attributes and the health record of a person, to compare two simulations.
+   * The random ID is left out.
+   */
+  private static List<String> summary(Person person) {
+    List<String> summary = new ArrayList<>();
+    new TreeMap<>(person.attributes).forEach((key, value) -> {
+      if (!key.equals(Person.ID) && (value instanceof String || value instanceof Number
+          || value instanceof Boolean)) {
+        summary.add(key + "=" + value);
+      }
+    });
+    for (Encounter encounter : person.record.encounters) {
+      summary.add(encounter.start + " " + encounter.type + " " + encounter.codes.size()
+          + " " + encounter.conditions.size() + " " + encounter.observations.size()
+          + " " + encounter.medications.size() + " " + encounter.immunizations.size());
+    }
+    return summary;
+  }
+
+  /**
+   * Wraps a core module, keeping the times it was processed while due, that is at or after the
+   * time given by the last {@link Module#nextProcessTime} while due.
+   */
+  private static class DueTimes extends Module {
+    private final Module module;
+    private List<Long> times = new ArrayList<>();
+    private Person person;
+    private long due;
+    private int calls;
+
+    private DueTimes(Module module) {
+      this.module = module;
+      this.name = module.name;
+    }
+
+    private List<Long> reset() {
+      List<Long> result = times;
+      times = new ArrayList<>();
+      person = null;
+      calls = 0;
+      return result;
+    }
+
+    @Override
+    public boolean process(Person person, long time) {
+      if (person != this.person) {
+        this.person = person;
+        due = Long.MIN_VALUE;
+      }
+      calls++;
+      boolean isDue = time >= due;
+      boolean finished = module.process(person, time);
+      if (isDue) {
+        times.add(time);
+        due = module.nextProcessTime(person, time);
+      }
+      return finished;
+    }
+
+    @Override
+    public long nextProcessTime(Person person, long time) {
+      return module.nextProcessTime(person, time);
+    }
+  }
+
   /**
    * Injects a fault into the lazy load of the specified module. A FaultyModuleScope object is 
    * returned for convenience with try-with-resources to ensure the module is put back the way it
@@ -0,0 +1,72 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.helpers.Config;
+
+public class BulkDataWriterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testAppend() throws Exception {
+    Config.set("exporter.fhir.bulk_data.max_part_size", "0");
+    File folder = tempFolder.newFolder();
+    BulkDataWriter.append(folder, "Patient", "{\"resourceType\":\"Patient\"}");
+    BulkDataWriter.append(folder, "Observation", "{\"resourceType\":\"Observation\"}");
+    BulkDataWriter.append(folder, "Patient", "{\"resourceType\":\"Patient\"}");
+    BulkDataWriter.closeAll();
+
+    // reopening appends to the existing files
+    BulkDataWriter.append(folder, "Patient", "{\"resourceType\":\"Patient\"}");
+    BulkDataWriter.closeAll();
+
+    List<String> patients = Files.readAllLines(folder.toPath().resolve("Patient.ndjson"));
+    assertEquals(3, patients.size());
+    List<String> observations = Files.readAllLines(folder.toPath().resolve("Observation.ndjson"));
+    assertEquals(1, observations.size());
+    assertEquals("{\"resourceType\":\"Observation\"}", observations.get(0));
+  }
+
+  @Test
+  public void testPartFiles() throws Exception {
+    Path folder = tempFolder.newFolder().toPath();
+    String json = "{\"resourceType\":\"Observation\"}";
+    long lineSize = json.length() + System.lineSeparator().length();
+
+    // three resources per part
+    BulkDataWriter writer = new BulkDataWriter(folder, "Observation", 1024, 0L, lineSize * 3);
+    for (int i = 0; i < 7; i++) {
+      writer.write(json);
+    }
+    writer.close();
+
+    assertEquals(3, Files.readAllLines(folder.resolve("Observation.1.ndjson")).size());
+    assertEquals(3, Files.readAllLines(folder.resolve("Observation.2.ndjson")).size());
+    assertEquals(1, Files.readAllLines(folder.resolve("Observation.3.ndjson")).size());
+    assertFalse(Files.exists(folder.resolve("Observation.ndjson")));
+
+    // a new writer skips ahead to the last part that has room
+    writer = new BulkDataWriter(folder, "Observation", 1024, 0L, lineSize * 3);
+    for (int i = 0; i < 3; i++) {
+      writer.write(json);
+    }
+    writer.close();
+    assertEquals(3, Files.readAllLines(folder.resolve("Observation.3.ndjson")).size());
+    assertEquals(1, Files.readAllLines(folder.resolve("Observation.4.ndjson")).size());
+    assertTrue(Files.exists(writer.currentFile()));
+  }
+}
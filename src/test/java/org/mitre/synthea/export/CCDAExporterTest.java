@@ -1,10 +1,14 @@
 package org.mitre.synthea.export;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.eclipse.emf.common.util.Diagnostic;
@@ -17,6 +21,10 @@ import org.mitre.synthea.TestHelper;
 import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
+import org.mitre.synthea.world.concepts.HealthRecord.Observation;
 
 /**
  * Uses Model Driven Health Tools (MDHT) to validate exported CCDA R2.1.
@@ -61,4 +69,86 @@ public class CCDAExporterTest {
 
     assertEquals(0, validationErrors.size());
   }
+
+  @Test
+  public void testRecordView() {
+    long time = 1000000L;
+    Person person = new Person(0L);
+    person.attributes.put(Person.NAME, "Jane Doe");
+    final Map<String, Object> attributes = new HashMap<>(person.attributes);
+    HealthRecord record = person.record;
+    record.encounterStart(time - 5000L, EncounterType.WELLNESS);
+    record.observation(time - 5000L, "a", 1);
+    record.observation(time - 5000L, "b", 2);
+    // encounters without observations are skipped by the view
+    record.encounterStart(time - 4000L, EncounterType.AMBULATORY);
+    record.conditionStart(time - 4000L, "condition");
+    record.encounterStart(time - 3000L, EncounterType.AMBULATORY);
+    record.encounterStart(time - 2000L, EncounterType.AMBULATORY);
+    record.observation(time - 2000L, "c", 3);
+    record.observation(time - 2000L, "d", 4);
+    record.observation(time - 2000L, "e", 5);
+    record.encounterStart(time, EncounterType.AMBULATORY);
+    record.observation(time, "f", 6);
+    // after the export time
+    record.encounterStart(time + 1000L, EncounterType.AMBULATORY);
+    record.observation(time + 1000L, "g", 7);
+    record.conditionStart(time + 1000L, "later");
+
+    CCDAExporter.RecordView view = new CCDAExporter.RecordView(person, time);
+    List<?> observations = (List<?>) view.get("ehr_observations");
+    assertEquals(6, observations.size());
+    List<Object> values = new ArrayList<>();
+    for (int i = 0; i < observations.size(); i++) {
+      values.add(((Observation) observations.get(i)).value);
+    }
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), values);
+    try {
+      observations.get(6);
+      fail("Expected the view to end at the export time");
+    } catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+    assertEquals(1, ((List<?>) view.get("ehr_conditions")).size());
+    assertEquals(0, ((List<?>) view.get("ehr_allergies")).size());
+
+    // the person's attributes are visible, but not changed
+    assertEquals("Jane Doe", view.get(Person.NAME));
+    assertEquals(attributes, person.attributes);
+  }
+
+  @Test
+  public void testExportLeavesPersonUnchanged() throws Exception {
+    TestHelper.exportOff();
+    Person person = new Generator(1).generatePerson(0);
+    Map<String, Object> attributes = new HashMap<>(person.attributes);
+    List<Encounter> encounters = person.record.encounters;
+    // export part way through the record, so later encounters are left out
+    long time = encounters.get(encounters.size() / 2).start;
+
+    CCDAExporter.export(person, time);
+    assertEquals(attributes, person.attributes);
+
+    CCDAExporter.RecordView view = new CCDAExporter.RecordView(person, time);
+    List<Object> conditions = new ArrayList<>();
+    List<Object> observations = new ArrayList<>();
+    List<Object> medications = new ArrayList<>();
+    List<Object> immunizations = new ArrayList<>();
+    List<Object> procedures = new ArrayList<>();
+    for (Encounter encounter : encounters) {
+      if (encounter.start <= time) {
+        conditions.addAll(encounter.conditions);
+        observations.addAll(encounter.observations);
+        medications.addAll(encounter.medications);
+        immunizations.addAll(encounter.immunizations);
+        procedures.addAll(encounter.procedures);
+      }
+    }
+    assertEquals(conditions, view.get("ehr_conditions"));
+    assertEquals(observations, view.get("ehr_observations"));
+    assertEquals(medications, view.get("ehr_medications"));
+    assertEquals(immunizations, view.get("ehr_immunizations"));
+    assertEquals(procedures, view.get("ehr_procedures"));
+    assertEquals(attributes, person.attributes);
+  }
 }
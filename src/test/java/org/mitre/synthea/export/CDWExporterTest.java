@@ -1,9 +1,19 @@
 package org.mitre.synthea.export;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -12,6 +22,7 @@ import org.mitre.synthea.TestHelper;
 import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.SimpleCSV;
+import org.mitre.synthea.world.agents.Person;
 
 public class CDWExporterTest {
   /**
@@ -50,4 +61,99 @@ public class CDWExporterTest {
       assertTrue(SimpleCSV.parse(cdwData).size() >= 0);
     }
   }
+
+  @Test
+  public void testCDWExportThreads() throws Exception {
+    TestHelper.exportOff();
+    int numberOfPeople = 10;
+    Generator generator = new Generator(numberOfPeople);
+
+    // the same patients, exported from a single thread...
+    Path single = tempFolder.newFolder().toPath();
+    Config.set("exporter.baseDirectory", single.toString());
+    CDWExporter exporter = CDWExporter.getInstance();
+    for (Person person : veterans(generator, numberOfPeople)) {
+      exporter.export(person, generator.stop);
+    }
+    exporter.writeFactTables();
+
+    // ...and from several threads
+    Path threaded = tempFolder.newFolder().toPath();
+    Config.set("exporter.baseDirectory", threaded.toString());
+    CDWExporter threadedExporter = CDWExporter.getInstance();
+    ExecutorService threads = Executors.newFixedThreadPool(3);
+    List<Future<?>> exports = new ArrayList<>();
+    for (Person person : veterans(generator, numberOfPeople)) {
+      exports.add(threads.submit(() -> {
+        threadedExporter.export(person, generator.stop);
+        return null;
+      }));
+    }
+    for (Future<?> export : exports) {
+      export.get();
+    }
+    threads.shutdown();
+    threadedExporter.writeFactTables();
+
+    // every row is in the files once the fact tables are written
+    File[] files = single.resolve("cdw").toFile().listFiles();
+    assertEquals(49, files.length);
+    for (File file : files) {
+      assertEquals(file.getName(), Files.readAllLines(file.toPath()).size(),
+          Files.readAllLines(threaded.resolve("cdw").resolve(file.getName())).size());
+    }
+    assertTrue(Files.readAllLines(threaded.resolve("cdw").resolve("visit.csv")).size() > 1);
+
+    // and the keys referenced across tables resolve
+    Path cdw = threaded.resolve("cdw");
+    assertResolves(cdw, "lookuppatient", "PatientSID", "spatient", "PatientSID");
+    assertResolves(cdw, "visit", "PatientSID", "spatient", "PatientSID");
+    assertResolves(cdw, "visit", "LocationSID", "location", "LocationSID");
+    assertResolves(cdw, "appointment", "VisitSID", "visit", "VisitSID");
+    assertResolves(cdw, "vdiagnosis", "VisitSID", "visit", "VisitSID");
+    assertResolves(cdw, "vdiagnosis", "ProblemListSID", "problemlist", "ProblemListSID");
+    assertResolves(cdw, "immunization", "PatientSID", "spatient", "PatientSID");
+    assertResolves(cdw, "immunization", "ImmunizationNameSID",
+        "immunizationname", "ImmunizationNameSID");
+    assertResolves(cdw, "rxoutpatfill", "RxOutpatSID", "rxoutpatient", "RxOutpatSID");
+    assertResolves(cdw, "labchem", "LabPanelSID", "labpanel", "LabPanelSID");
+    assertResolves(cdw, "vitalsign", "VitalTypeSID", "vitaltype", "VitalTypeSID");
+  }
+
+  /**
+   * Generate the same veterans every time. Exporting draws from each person's random number
+   * generator, so exporting the same people twice would not give the same rows.
+   */
+  private static List<Person> veterans(Generator generator, int numberOfPeople) {
+    List<Person> people = new ArrayList<>();
+    for (int i = 0; i < numberOfPeople; i++) {
+      Person person = generator.generatePerson(i, i);
+      person.attributes.put("veteran", "vietnam"); // only veterans are exported
+      people.add(person);
+    }
+    return people;
+  }
+
+  /**
+   * Assert that every non-empty value of a column refers to a row of another table.
+   */
+  private static void assertResolves(Path cdw, String table, String column,
+      String referencedTable, String referencedColumn) throws Exception {
+    Set<String> keys = new HashSet<>();
+    for (LinkedHashMap<String, String> row : read(cdw, referencedTable)) {
+      keys.add(row.get(referencedColumn));
+    }
+    for (LinkedHashMap<String, String> row : read(cdw, table)) {
+      String value = row.get(column);
+      if (value != null && !value.isEmpty()) {
+        assertTrue(table + "." + column + " " + value + " is not in " + referencedTable,
+            keys.contains(value));
+      }
+    }
+  }
+
+  private static List<LinkedHashMap<String, String>> read(Path cdw, String table)
+      throws Exception {
+    return SimpleCSV.parse(new String(Files.readAllBytes(cdw.resolve(table + ".csv"))));
+  }
 }
@@ -5,6 +5,16 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -13,6 +23,7 @@ import org.mitre.synthea.TestHelper;
 import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.SimpleCSV;
+import org.mitre.synthea.world.agents.Person;
 
 public class CSVExporterTest {
   /**
@@ -60,4 +71,165 @@ public class CSVExporterTest {
 
     assertEquals("Expected 12 CSV files in the output directory, found " + count, 12, count);
   }
+
+  @Test
+  public void testCSVExportProfiles() throws Exception {
+    TestHelper.exportOff();
+    Config.set("exporter.csv.folder_per_run", "false");
+    Person person = new Generator(1).generatePerson(0);
+    String personID = (String) person.attributes.get(Person.ID);
+    Set<String> attributes = new HashSet<>(person.attributes.keySet());
+
+    Path folder = tempFolder.newFolder().toPath();
+    Config.set("exporter.baseDirectory", folder.toString());
+    Config.set("exporter.profiles", "recent, full");
+    Config.set("exporter.profile.recent.csv.export", "true");
+    Config.set("exporter.profile.full.csv.export", "true");
+    Config.set("exporter.profile.full.years_of_history", "0");
+    try {
+      Exporter.export(person, System.currentTimeMillis());
+    } finally {
+      Config.set("exporter.profiles", "");
+    }
+    assertEquals(attributes, person.attributes.keySet());
+
+    // each profile has the patient, and every encounter refers to it
+    for (String profile : new String[] { "recent", "full" }) {
+      Path csv = folder.resolve(profile).resolve("csv");
+      List<LinkedHashMap<String, String>> patients =
+          SimpleCSV.parse(new String(Files.readAllBytes(csv.resolve("patients.csv"))));
+      assertEquals(1, patients.size());
+      assertEquals(personID, patients.get(0).get("Id"));
+      List<LinkedHashMap<String, String>> encounters =
+          SimpleCSV.parse(new String(Files.readAllBytes(csv.resolve("encounters.csv"))));
+      assertTrue(encounters.size() > 0);
+      for (LinkedHashMap<String, String> encounter : encounters) {
+        assertEquals(personID, encounter.get("PATIENT"));
+      }
+    }
+  }
+
+  @Test
+  public void testCSVExportSplitRecords() throws Exception {
+    TestHelper.exportOff();
+    Config.set("exporter.csv.folder_per_run", "false");
+    Config.set("exporter.split_records", "true");
+    Person person;
+    try {
+      person = new Generator(1).generatePerson(0, 1L);
+    } finally {
+      Config.set("exporter.split_records", "false");
+    }
+    assertTrue(person.records.size() > 1);
+
+    Path folder = tempFolder.newFolder().toPath();
+    Config.set("exporter.baseDirectory", folder.toString());
+    Config.set("exporter.csv.export", "true");
+    Exporter.export(person, System.currentTimeMillis());
+
+    // a single patient line, whichever record is exported first
+    Path csv = folder.resolve("csv");
+    assertEquals(1, SimpleCSV.parse(
+        new String(Files.readAllBytes(csv.resolve("patients.csv")))).size());
+    assertTrue(SimpleCSV.parse(
+        new String(Files.readAllBytes(csv.resolve("encounters.csv")))).size() > 0);
+  }
+
+  @Test
+  public void testCSVExportCostsWithThreads() throws Exception {
+    TestHelper.exportOff();
+    Config.set("exporter.csv.export", "true");
+    Config.set("exporter.fhir.export", "true");
+    Config.set("exporter.csv.folder_per_run", "false");
+    Generator generator = new Generator(1);
+
+    // the same patient, with the formats exported one after another and in parallel.
+    // FHIR comes first and reads the costs in a different order to the CSV exporter
+    Path[] folders = new Path[2];
+    String[] threads = new String[] { "0", "2" };
+    try {
+      for (int i = 0; i < folders.length; i++) {
+        folders[i] = tempFolder.newFolder().toPath();
+        Config.set("exporter.baseDirectory", folders[i].toString());
+        Config.set("exporter.threads", threads[i]);
+        generator.generatePerson(0, 1L);
+      }
+    } finally {
+      Config.set("exporter.threads", "0");
+    }
+
+    for (String table : new String[] {
+        "encounters", "procedures", "medications", "immunizations" }) {
+      List<List<String>> costs = new ArrayList<>();
+      for (Path folder : folders) {
+        Path csv = folder.resolve("csv").resolve(table + ".csv");
+        List<String> column = new ArrayList<>();
+        for (LinkedHashMap<String, String> line
+            : SimpleCSV.parse(new String(Files.readAllBytes(csv)))) {
+          column.add(line.get("COST"));
+        }
+        costs.add(column);
+      }
+      assertEquals(table, costs.get(0), costs.get(1));
+    }
+  }
+
+  @Test
+  public void testSegmentedCSVExport() throws Exception {
+    TestHelper.exportOff();
+    Config.set("exporter.csv.folder_per_run", "false");
+    int numberOfPeople = 6;
+    Generator generator = new Generator(numberOfPeople);
+    List<Person> people = new ArrayList<>();
+    for (int i = 0; i < numberOfPeople; i++) {
+      people.add(generator.generatePerson(i));
+    }
+
+    // the same patients, written directly...
+    Path plain = tempFolder.newFolder().toPath();
+    Config.set("exporter.baseDirectory", plain.toString());
+    for (Person person : people) {
+      CSVExporter.getInstance().export(person, generator.stop);
+    }
+
+    // ...and to segments, from several threads
+    Path segmented = tempFolder.newFolder().toPath();
+    Config.set("exporter.baseDirectory", segmented.toString());
+    Config.set("exporter.csv.export", "true");
+    Config.set("exporter.csv.segmented", "true");
+    try {
+      ExecutorService threads = Executors.newFixedThreadPool(3);
+      List<Future<?>> exports = new ArrayList<>();
+      for (Person person : people) {
+        exports.add(threads.submit(() -> {
+          CSVExporter.getInstance().export(person, generator.stop);
+          return null;
+        }));
+      }
+      for (Future<?> export : exports) {
+        export.get();
+      }
+      threads.shutdown();
+      Exporter.runPostCompletionExports(generator);
+    } finally {
+      Config.set("exporter.csv.segmented", "false");
+      Config.set("exporter.csv.export", "false");
+    }
+
+    Path plainCsv = plain.resolve("csv");
+    Path segmentedCsv = segmented.resolve("csv");
+    try (Stream<Path> files = Files.list(segmentedCsv)) {
+      assertEquals(0, files.filter(f -> f.toString().endsWith(".segment")).count());
+    }
+    for (String table : new String[] { "patients", "allergies", "medications", "conditions",
+        "careplans", "observations", "procedures", "immunizations", "encounters",
+        "imaging_studies" }) {
+      List<String> expected = Files.readAllLines(plainCsv.resolve(table + ".csv"));
+      List<String> actual = Files.readAllLines(segmentedCsv.resolve(table + ".csv"));
+      String header = expected.get(0);
+      assertEquals(header, actual.get(0));
+      assertEquals(table, 1, actual.stream().filter(header::equals).count());
+      assertEquals(table, expected.size(), actual.size());
+    }
+  }
 }
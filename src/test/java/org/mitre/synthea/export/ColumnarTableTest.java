@@ -0,0 +1,117 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.mitre.synthea.export.ColumnarTable.Type.DOUBLE;
+import static org.mitre.synthea.export.ColumnarTable.Type.LONG;
+import static org.mitre.synthea.export.ColumnarTable.Type.STRING;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ColumnarTableTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("table.col");
+    // three rows per row group, so seven rows span three row groups
+    ColumnarTable table = new ColumnarTable(file, 3, "START", LONG, "COST", DOUBLE,
+        "CODE", STRING);
+    for (int i = 0; i < 7; i++) {
+      table.startRow()
+          .add(i == 3 ? ColumnarTable.NULL_LONG : 1000L * i)
+          .add(i == 4 ? Double.NaN : i + 0.5)
+          .add(i == 5 ? null : "code" + (i % 2))
+          .endRow();
+    }
+    table.close();
+
+    Map<String, List<Object>> columns = ColumnarTable.read(file);
+    assertEquals(Arrays.asList("START", "COST", "CODE"), new ArrayList<>(columns.keySet()));
+    assertEquals(Arrays.asList(0L, 1000L, 2000L, null, 4000L, 5000L, 6000L),
+        columns.get("START"));
+    assertEquals(Arrays.asList(0.5, 1.5, 2.5, 3.5, null, 5.5, 6.5), columns.get("COST"));
+    assertEquals(Arrays.asList("code0", "code1", "code0", "code1", "code0", null, "code0"),
+        columns.get("CODE"));
+  }
+
+  @Test
+  public void testEmptyTable() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("empty.col");
+    ColumnarTable table = new ColumnarTable(file, 10, "ID", STRING);
+    table.close();
+
+    Map<String, List<Object>> columns = ColumnarTable.read(file);
+    assertEquals(Collections.emptyList(), columns.get("ID"));
+  }
+
+  @Test
+  public void testThreads() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("threads.col");
+    ColumnarTable table = new ColumnarTable(file, 4, "THREAD", LONG, "ROW", LONG);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final long thread = t;
+      threads.add(new Thread(() -> {
+        try {
+          for (long row = 0; row < 10; row++) {
+            table.startRow().add(thread).add(row).endRow();
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    table.close();
+
+    // every row is written once, and each thread's rows stay in order
+    Map<String, List<Object>> columns = ColumnarTable.read(file);
+    assertEquals(40, columns.get("ROW").size());
+    long[] next = new long[4];
+    for (int i = 0; i < 40; i++) {
+      int thread = (int) (long) (Long) columns.get("THREAD").get(i);
+      assertEquals(next[thread]++, columns.get("ROW").get(i));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testWrongType() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("wrong.col");
+    ColumnarTable table = new ColumnarTable(file, 10, "ID", STRING);
+    table.startRow().add(1L);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingValue() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("missing.col");
+    ColumnarTable table = new ColumnarTable(file, 10, "ID", STRING, "START", LONG);
+    table.startRow().add("a").endRow();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotATable() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("table.csv");
+    Files.write(file, Arrays.asList("ID,START", "a,1"));
+    ColumnarTable.read(file);
+  }
+}
@@ -0,0 +1,37 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class ExportHelperTest {
+  @Test
+  public void testDatesMatchSimpleDateFormat() {
+    SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd");
+    SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    // random times from 1700 to 2300, covering the cached range and both sides of it
+    Random random = new Random(0);
+    long first = -8520336000000L;
+    long last = 10413792000000L;
+    for (int i = 0; i < 100000; i++) {
+      long time = first + (long) (random.nextDouble() * (last - first));
+      assertEquals(date.format(new Date(time)), ExportHelper.dateFromTimestamp(time));
+      assertEquals(iso.format(new Date(time)), ExportHelper.iso8601Timestamp(time));
+    }
+
+    // midnight in UTC, and the last millisecond before it
+    long midnight = 1514764800000L;
+    assertEquals("2018-01-01T00:00:00Z", ExportHelper.iso8601Timestamp(midnight));
+    assertEquals("2017-12-31T23:59:59Z", ExportHelper.iso8601Timestamp(midnight - 1));
+    assertEquals("1969-12-31T23:59:59Z", ExportHelper.iso8601Timestamp(-1L));
+    assertEquals(date.format(new Date(midnight)), ExportHelper.dateFromTimestamp(midnight));
+    assertEquals(date.format(new Date(-1L)), ExportHelper.dateFromTimestamp(-1L));
+  }
+}
@@ -0,0 +1,73 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitre.synthea.helpers.Config;
+
+public class ExportPoolTest {
+  @Before
+  public void setup() {
+    Config.set("exporter.threads", "2");
+  }
+
+  @After
+  public void cleanup() {
+    Config.set("exporter.threads", "0");
+  }
+
+  @Test
+  public void testTasksRunInParallel() throws Exception {
+    // each task waits for the others, so this only finishes if all three run at once
+    CountDownLatch started = new CountDownLatch(3);
+    Map<String, String> threads = new ConcurrentHashMap<>();
+    Map<String, String> settings = new ConcurrentHashMap<>();
+    Map<String, Runnable> tasks = new LinkedHashMap<>();
+    for (String format : new String[] {"a", "b", "c"}) {
+      tasks.put(format, () -> {
+        threads.put(format, Thread.currentThread().getName());
+        settings.put(format, Config.get("test.export_pool"));
+        started.countDown();
+        try {
+          started.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      });
+    }
+
+    Config.setOverrides(Collections.singletonMap("test.export_pool", "profile"));
+    try {
+      ExportPool.runRecord(tasks);
+    } finally {
+      Config.setOverrides(null);
+    }
+
+    assertEquals(0, started.getCount());
+    assertEquals(Thread.currentThread().getName(), threads.get("a"));
+    assertNotEquals(threads.get("b"), threads.get("c"));
+    // every task sees the settings of the thread that exported the record
+    assertEquals("profile", settings.get("b"));
+    assertEquals("profile", settings.get("c"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFailureIsRethrown() {
+    Map<String, Runnable> tasks = new LinkedHashMap<>();
+    tasks.put("a", () -> { });
+    tasks.put("b", () -> {
+      throw new IllegalStateException();
+    });
+    ExportPool.runRecord(tasks);
+  }
+}
@@ -1,10 +1,26 @@
 package org.mitre.synthea.export;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.DeathModule;
@@ -16,6 +32,11 @@ import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
 import org.mitre.synthea.world.geography.Location;
 
 public class ExporterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
 
   private long time;
   private long endTime;
@@ -212,10 +233,134 @@ public class ExporterTest {
     assertEquals(1, filtered.record.encounters.size());
     assertEquals(1, filtered.record.encounters.get(0).conditions.size());
     assertEquals("something_permanent", filtered.record.encounters.get(0).conditions.get(0).type);
-    assertEquals(1, record.encounters.get(0).claim.items.size());
-    assertEquals("something_permanent", record.encounters.get(0).claim.items.get(0).type);
+    Encounter encounter = filtered.record.encounters.get(0);
+    assertEquals(1, encounter.claim.items.size());
+    assertEquals("something_permanent", encounter.claim.items.get(0).type);
+    assertEquals(encounter, encounter.claim.encounter);
+    // the original claim is unchanged
+    assertEquals(2, record.encounters.get(0).claim.items.size());
   }
-  
+
+  @Test public void test_export_filter_should_not_change_original() {
+    record.encounterStart(time - years(10), EncounterType.EMERGENCY);
+    record.procedure(time - years(10), "xray");
+    record.encounterStart(time - years(8), EncounterType.AMBULATORY);
+    record.careplanStart(time - years(8), "stop_smoking");
+    record.careplanEnd(time + years(1), "stop_smoking", DUMMY_CODE);
+
+    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    assertEquals(1, filtered.record.encounters.size());
+    assertEquals(0L, filtered.record.encounters.get(0).careplans.get(0).stop);
+
+    // the original record still has everything, so it can be filtered again
+    assertEquals(2, record.encounters.size());
+    assertEquals(1, record.encounters.get(0).procedures.size());
+    assertEquals(time + years(1), record.encounters.get(1).careplans.get(0).stop);
+    filtered = Exporter.filterForExport(patient, 20, endTime);
+    assertEquals(2, filtered.record.encounters.size());
+    assertEquals(patient.attributes, filtered.attributes);
+  }
+
+  @Test public void test_export_filter_should_keep_costs() throws Exception {
+    TestHelper.exportOff();
+    Encounter encounter = record.encounterStart(time - years(7), EncounterType.AMBULATORY);
+    encounter.codes.add(new HealthRecord.Code("http://snomed.info/sct", "185349003",
+        "Encounter for check up"));
+    HealthRecord.Procedure procedure = record.procedure(time - years(7), "immunotherapy");
+    procedure.codes.add(new HealthRecord.Code("http://snomed.info/sct", "180256009",
+        "Subcutaneous immunotherapy"));
+    // started before the cutoff but still going at the end time, so each filtered record has
+    // its own copy of the procedure
+    procedure.stop = time + years(1);
+
+    Config.set("exporter.profiles", "recent, full");
+    Config.set("exporter.profile.full.years_of_history", "0");
+    try {
+      Exporter.export(patient, endTime);
+    } finally {
+      Config.set("exporter.profiles", "");
+    }
+
+    // the cost was drawn once, on the original record, and every copy has the same cost
+    Person filtered = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    Person again = Exporter.filterForExport(patient, yearsToKeep, endTime);
+    HealthRecord.Procedure copy = filtered.record.encounters.get(0).procedures.get(0);
+    assertTrue(copy != procedure);
+    assertEquals(procedure.cost(), copy.cost());
+    assertEquals(procedure.cost(), again.record.encounters.get(0).procedures.get(0).cost());
+    assertEquals(encounter.cost(), filtered.record.encounters.get(0).cost());
+  }
+
+  @Test public void test_export_profiles() throws Exception {
+    TestHelper.exportOff();
+    Person person = new Generator(1).generatePerson(0);
+    int encounters = person.record.encounters.size();
+
+    Path folder = tempFolder.newFolder().toPath();
+    Config.set("exporter.baseDirectory", folder.toString());
+    Config.set("exporter.profiles", "recent, full");
+    Config.set("exporter.profile.recent.text.export", "true");
+    Config.set("exporter.profile.full.text.export", "true");
+    Config.set("exporter.profile.full.years_of_history", "0");
+    Config.set("exporter.profile.full.baseDirectory", folder.resolve("everything").toString());
+    try {
+      Exporter.export(person, System.currentTimeMillis());
+
+      // exported once for each profile, into its own folder, without changing the person
+      assertEquals(encounters, person.record.encounters.size());
+      assertFalse(Files.exists(folder.resolve("text")));
+      try (Stream<Path> files = Files.list(folder.resolve("recent").resolve("text"))) {
+        assertEquals(1, files.count());
+      }
+      try (Stream<Path> files = Files.list(folder.resolve("everything").resolve("text"))) {
+        assertEquals(1, files.count());
+      }
+      // the settings of the profiles only apply while exporting
+      assertEquals("false", Config.get("exporter.text.export"));
+    } finally {
+      Config.set("exporter.profiles", "");
+    }
+  }
+
+  @Test public void test_export_compressed_file() throws Exception {
+    patient.attributes.put(Person.ID, "12345");
+    patient.attributes.put(Person.NAME, "Jane Doe");
+    Config.set("exporter.compression", "gzip");
+    try {
+      String filename = Exporter.filename(patient, "", "json");
+      assertEquals("Jane_Doe_12345.json.gz", filename);
+
+      Path folder = tempFolder.newFolder().toPath();
+      Config.set("exporter.baseDirectory", folder.toString());
+      Exporter.writeNewFile("fhir", patient, filename, Arrays.asList("{", "}"));
+      Path file = folder.resolve("fhir").resolve(filename);
+
+      List<String> lines = new ArrayList<String>();
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+          new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      }
+      assertEquals(Arrays.asList("{", "}"), lines);
+    } finally {
+      Config.set("exporter.compression", "none");
+    }
+  }
+
+  @Test public void test_export_compact_json() {
+    org.hl7.fhir.r4.model.Bundle bundle = new org.hl7.fhir.r4.model.Bundle();
+    bundle.setId("example");
+    assertTrue(FhirR4.toJson(bundle).contains("\n"));
+    Config.set("exporter.fhir.pretty_print", "false");
+    try {
+      assertFalse(FhirR4.toJson(bundle).contains("\n"));
+    } finally {
+      Config.set("exporter.fhir.pretty_print", "true");
+    }
+  }
+
   private static long years(long numYears) {
     return Utilities.convertTime("years", numYears);
   }
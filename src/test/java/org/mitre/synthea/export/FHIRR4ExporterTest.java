@@ -1,5 +1,6 @@
 package org.mitre.synthea.export;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import ca.uhn.fhir.context.FhirContext;
@@ -7,8 +8,14 @@ import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.validation.FhirValidator;
 import ca.uhn.fhir.validation.SingleValidationMessage;
 import ca.uhn.fhir.validation.ValidationResult;
+import com.google.gson.JsonParser;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
@@ -107,4 +114,36 @@ public class FHIRR4ExporterTest {
     assertTrue("Validation of exported FHIR bundle failed: "
         + String.join("|", validationErrors), validationErrors.size() == 0);
   }
+
+  @Test
+  public void testFHIRR4StreamingExport() throws Exception {
+    TestHelper.exportOff();
+    long stopTime = System.currentTimeMillis();
+    int numberOfPeople = 3;
+    Generator generator = new Generator(numberOfPeople);
+    for (int i = 0; i < numberOfPeople; i++) {
+      Person person = generator.generatePerson(i);
+      String fhirJson = FhirR4.convertToFHIRJson(person, stopTime);
+      StringWriter streamed = new StringWriter();
+      FhirR4.convertToFHIRJson(person, stopTime, streamed);
+
+      // resource IDs are random, so compare the bundles with IDs in order of appearance
+      JsonParser parser = new JsonParser();
+      assertEquals(parser.parse(normalizeIds(fhirJson)),
+          parser.parse(normalizeIds(streamed.toString())));
+    }
+  }
+
+  private static String normalizeIds(String json) {
+    Map<String, String> ids = new HashMap<String, String>();
+    Matcher matcher = Pattern.compile(
+        "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}").matcher(json);
+    StringBuffer normalized = new StringBuffer();
+    while (matcher.find()) {
+      String id = ids.computeIfAbsent(matcher.group(), k -> "id-" + ids.size());
+      matcher.appendReplacement(normalized, id);
+    }
+    matcher.appendTail(normalized);
+    return normalized.toString();
+  }
 }
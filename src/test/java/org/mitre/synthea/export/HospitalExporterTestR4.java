@@ -1,5 +1,6 @@
 package org.mitre.synthea.export;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -12,7 +13,12 @@ import ca.uhn.fhir.validation.ValidationResult;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Organization;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -71,4 +77,32 @@ public class HospitalExporterTestR4 {
     }
     assertTrue(result.isSuccessful());
   }
+
+  @Test
+  public void testBulkDataExport() throws Exception {
+    File tempOutputFolder = tempFolder.newFolder();
+    Config.set("exporter.baseDirectory", tempOutputFolder.toString());
+    Config.set("exporter.hospital.fhir.export", "true");
+    Config.set("exporter.fhir.bulk_data", "true");
+    Location location = new Location("Massachusetts", null);
+    Provider.clear();
+    Provider.loadProviders(location);
+    Provider.getProviderList().get(1).incrementEncounters(EncounterType.WELLNESS, 0);
+    Provider.getProviderList().get(3).incrementEncounters(EncounterType.WELLNESS, 0);
+    try {
+      HospitalExporterR4.export(0L);
+      BulkDataWriter.closeAll();
+    } finally {
+      Config.set("exporter.fhir.bulk_data", "false");
+    }
+
+    // one line per utilized hospital, and no bundle
+    Path folder = tempOutputFolder.toPath().resolve("fhir");
+    assertFalse(Files.exists(folder.resolve("hospitalInformation0.json")));
+    List<String> lines = Files.readAllLines(folder.resolve("Organization.ndjson"));
+    assertEquals(2, lines.size());
+    FhirContext ctx = FhirContext.forR4();
+    Organization organization = (Organization) ctx.newJsonParser().parseResource(lines.get(0));
+    assertEquals(Provider.getProviderList().get(1).name, organization.getName());
+  }
 }
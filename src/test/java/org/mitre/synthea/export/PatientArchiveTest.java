@@ -0,0 +1,95 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.export.PatientArchiveReader.Document;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+
+public class PatientArchiveTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testArchiveExport() throws Exception {
+    Path folder = tempFolder.newFolder().toPath();
+    Config.set("exporter.baseDirectory", folder.toString());
+    Config.set("exporter.archive", "true");
+    try {
+      Person alice = new Person(1L);
+      alice.attributes.put(Person.ID, "alice");
+      Person bob = new Person(2L);
+      bob.attributes.put(Person.ID, "bob");
+
+      Exporter.writeNewFile("fhir", alice, "alice.json", Arrays.asList("{}"));
+      Exporter.writeNewFile("fhir", bob, "bob.json", Arrays.asList("{ }"));
+      Exporter.writeNewFile("text", alice, "alice.txt", Arrays.asList("Alice", "Female"));
+      PatientArchive.closeAll();
+    } finally {
+      Config.set("exporter.archive", "false");
+    }
+
+    // no individual files, only the archive
+    assertFalse(Files.exists(folder.resolve("fhir")));
+    Path archive = folder.resolve("archive");
+    try (Stream<Path> files = Files.list(archive)) {
+      assertEquals(1, files.filter(f -> f.toString().endsWith(".index")).count());
+    }
+
+    List<Document> documents = PatientArchiveReader.find(archive, "alice");
+    assertEquals(2, documents.size());
+    assertEquals("fhir/alice.json", documents.get(0).name);
+    assertEquals("{}" + System.lineSeparator(),
+        new String(PatientArchiveReader.read(documents.get(0)), StandardCharsets.UTF_8));
+    assertEquals("text/alice.txt", documents.get(1).name);
+    assertEquals("Alice" + System.lineSeparator() + "Female" + System.lineSeparator(),
+        new String(PatientArchiveReader.read(documents.get(1)), StandardCharsets.UTF_8));
+
+    documents = PatientArchiveReader.find(archive, "bob");
+    assertEquals(1, documents.size());
+    assertEquals("{ }" + System.lineSeparator(),
+        new String(PatientArchiveReader.read(documents.get(0)), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testContainerParts() throws Exception {
+    Path folder = tempFolder.newFolder().toPath();
+    byte[] document = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    // two documents per container
+    PatientArchive archive = new PatientArchive(folder, "patients-1", 20L);
+    for (int i = 0; i < 5; i++) {
+      archive.write("patient" + i, "fhir/patient" + i + ".json", document, document.length);
+    }
+
+    // the completed containers are in the index before the archive is closed
+    assertEquals(4, Files.readAllLines(folder.resolve("patients-1.index")).size());
+    archive.close();
+    assertEquals(5, Files.readAllLines(folder.resolve("patients-1.index")).size());
+
+    assertEquals(20L, Files.size(folder.resolve("patients-1.1.pack")));
+    assertEquals(20L, Files.size(folder.resolve("patients-1.2.pack")));
+    assertEquals(10L, Files.size(folder.resolve("patients-1.3.pack")));
+
+    List<Document> documents = PatientArchiveReader.find(folder, "patient3");
+    assertEquals(1, documents.size());
+    assertEquals(folder.resolve("patients-1.2.pack"), documents.get(0).container);
+    assertEquals(10L, documents.get(0).offset);
+    assertEquals("0123456789",
+        new String(PatientArchiveReader.read(documents.get(0)), StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,89 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.Code;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
+import org.mitre.synthea.world.concepts.HealthRecord.Entry;
+
+public class PrevalenceReportTest {
+  private static final long TIME = System.currentTimeMillis();
+
+  private static Person person(String gender, int age, String... conditions) {
+    Person person = new Person(0L);
+    person.attributes.put(Person.GENDER, gender);
+    person.attributes.put(Person.RACE, "white");
+    person.attributes.put(Person.BIRTHDATE, TIME - TimeUnit.DAYS.toMillis(365L * age + 30));
+    person.record.encounterStart(TIME - 1000L, EncounterType.WELLNESS);
+    for (String display : conditions) {
+      Entry condition = person.record.conditionStart(TIME - 1000L, display);
+      condition.codes.add(new Code("http://snomed.info/sct", "0", display));
+    }
+    return person;
+  }
+
+  private static LinkedHashMap<String, String> line(List<LinkedHashMap<String, String>> report,
+      String item, String ageGroup, String gender, String givenCondition) {
+    for (LinkedHashMap<String, String> line : report) {
+      if (item.equals(line.get("ITEM")) && ageGroup.equals(line.get("AGE GROUP"))
+          && gender.equals(line.get("GENDER")) && "*".equals(line.get("RACE"))
+          && givenCondition.equals(line.get("GIVEN CONDITION"))) {
+        return line;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void testPrevalence() throws Exception {
+    PrevalenceReport prevalence = new PrevalenceReport();
+    prevalence.record(person("F", 40, "Diabetes", "Hypertension"), TIME);
+    prevalence.record(person("M", 30, "Diabetes"), TIME);
+    prevalence.record(person("F", 10), TIME);
+    prevalence.record(person("M", 70, "Hypertension"), TIME);
+    // the report is of the living population only
+    Person dead = person("F", 50, "Diabetes");
+    dead.record.death = TIME - 500L;
+    prevalence.record(dead, TIME);
+
+    List<LinkedHashMap<String, String>> report = prevalence.report();
+
+    LinkedHashMap<String, String> adults = line(report, "Diabetes", "adult", "*", "");
+    assertNotNull(adults);
+    assertEquals("2", adults.get("SYNTHEA OCCURRENCES"));
+    assertEquals("3", adults.get("SYNTHEA POPULATION"));
+
+    LinkedHashMap<String, String> women = line(report, "Diabetes", "adult", "F", "");
+    assertEquals("1", women.get("SYNTHEA OCCURRENCES"));
+    assertEquals("1", women.get("SYNTHEA POPULATION"));
+    assertEquals("100.0", women.get("SYNTHEA PREVALENCE PERCENT"));
+
+    LinkedHashMap<String, String> seniors = line(report, "Hypertension", "senior", "*", "");
+    assertEquals("1", seniors.get("SYNTHEA OCCURRENCES"));
+    assertEquals("1", seniors.get("SYNTHEA POPULATION"));
+
+    LinkedHashMap<String, String> children = line(report, "Diabetes", "child", "*", "");
+    assertEquals("0", children.get("SYNTHEA OCCURRENCES"));
+    assertEquals("1", children.get("SYNTHEA POPULATION"));
+
+    LinkedHashMap<String, String> given = line(report, "Hypertension", "adult", "*", "Diabetes");
+    assertEquals("1", given.get("SYNTHEA OCCURRENCES"));
+
+    // followed by every distinct condition, out of the whole living population
+    LinkedHashMap<String, String> diabetes = report.get(report.size() - 2);
+    assertEquals("Diabetes", diabetes.get("ITEM"));
+    assertEquals("2", diabetes.get("SYNTHEA OCCURRENCES"));
+    assertEquals("4", diabetes.get("SYNTHEA POPULATION"));
+    assertEquals("Hypertension", report.get(report.size() - 1).get("ITEM"));
+
+    // exporting does not change the counts, so the report can be exported again
+    assertEquals(report, prevalence.report());
+  }
+}
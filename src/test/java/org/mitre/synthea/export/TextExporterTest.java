@@ -53,4 +53,29 @@ public class TextExporterTest {
     assertEquals("Expected " + numberOfPeople + " files in the output directory, found " + count, 
         numberOfPeople, count);
   }
+
+  @Test
+  public void testSingleFileEncounterExport() throws Exception {
+    File tempOutputFolder = tempFolder.newFolder();
+    Config.set("exporter.baseDirectory", tempOutputFolder.toString());
+
+    int numberOfPeople = 3;
+    Generator generator = new Generator(numberOfPeople);
+    try {
+      for (int i = 0; i < numberOfPeople; i++) {
+        TestHelper.exportOff();
+        Person person = generator.generatePerson(i);
+        Config.set("exporter.text.per_encounter_export", "true");
+        Config.set("exporter.text.per_encounter_single_file", "true");
+        Exporter.export(person, System.currentTimeMillis());
+      }
+    } finally {
+      Config.set("exporter.text.per_encounter_single_file", "false");
+    }
+
+    // one file per person, rather than one per encounter
+    File expectedExportFolder = tempOutputFolder.toPath().resolve("text_encounters").toFile();
+    assertTrue(expectedExportFolder.exists() && expectedExportFolder.isDirectory());
+    assertEquals(numberOfPeople, expectedExportFolder.listFiles().length);
+  }
 }
@@ -1,7 +1,9 @@
 package org.mitre.synthea.helpers;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -9,6 +11,9 @@ import java.util.Map;
 
 import org.junit.Test;
 import org.mitre.synthea.helpers.Attributes.Inventory;
+import org.mitre.synthea.helpers.Attributes.Type;
+import org.mitre.synthea.modules.WeightLossModule;
+import org.mitre.synthea.world.agents.Person;
 
 public class AttributesTest {
   @Test
@@ -19,6 +24,17 @@ public class AttributesTest {
     assertFalse(inventory.containsKey(""));
   }
 
+  @Test
+  public void testAttributeTypes() throws Exception {
+    Map<String,Inventory> inventory = Attributes.getAttributeInventory();
+    assertEquals(Type.TIME, inventory.get(Person.BIRTHDATE).type);
+    assertEquals(Type.TIME, inventory.get(WeightLossModule.WEIGHT_MANAGEMENT_START).type);
+    assertEquals(Type.NUMERIC, inventory.get("AGE").type);
+    assertEquals(Type.BOOLEAN, inventory.get(Person.SMOKER).type);
+    assertEquals(Type.TEXT, inventory.get(Person.GENDER).type);
+    assertNull(inventory.get("QALY").type);
+  }
+
   @Test
   public void testGraphs() throws Exception {
     Map<String,Inventory> inventory = Attributes.getAttributeInventory();
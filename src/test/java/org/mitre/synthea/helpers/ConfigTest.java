@@ -1,5 +1,6 @@
 package org.mitre.synthea.helpers;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -7,6 +8,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Test;
@@ -46,4 +49,28 @@ public class ConfigTest {
     assertFalse(propertyNames.contains("bing.bong.do"));
 
   }
+
+  @Test
+  public void testOverrides() throws InterruptedException {
+    Config.set("test.override", "global");
+    Map<String, String> settings = new HashMap<>();
+    settings.put("test.override", "local");
+    Config.setOverrides(settings);
+    try {
+      assertEquals("local", Config.get("test.override"));
+      Config.set("test.override", "changed");
+      assertEquals("changed", settings.get("test.override"));
+
+      // other threads still see the properties
+      String[] other = new String[1];
+      Thread thread = new Thread(() -> other[0] = Config.get("test.override"));
+      thread.start();
+      thread.join();
+      assertEquals("global", other[0]);
+    } finally {
+      Config.setOverrides(null);
+    }
+    assertEquals("global", Config.get("test.override"));
+    Config.remove("test.override");
+  }
 }
@@ -2,6 +2,11 @@ package org.mitre.synthea.helpers;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -37,4 +42,51 @@ public class FactTableTest {
     Assert.assertTrue(output.contains(he + ",He"));    
   }
 
+  @Test
+  public void testConcurrentFacts() throws Exception {
+    FactTable table = new FactTable();
+    table.setHeader("ID,NAME");
+    table.setNextId(10);
+
+    // every thread adds the same keys, in a different order
+    int[][] ids = new int[4][100];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < ids.length; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 100; i++) {
+          int key = (i + thread * 25) % 100;
+          ids[thread][key] = table.addFact("" + key, "Fact " + key);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // each key has exactly one ID, and the IDs are 10 to 109
+    Set<Integer> unique = new HashSet<Integer>();
+    for (int key = 0; key < 100; key++) {
+      for (int t = 1; t < ids.length; t++) {
+        Assert.assertEquals(ids[0][key], ids[t][key]);
+      }
+      Assert.assertEquals("Fact " + key, table.getFactById(ids[0][key]));
+      unique.add(ids[0][key]);
+    }
+    Assert.assertEquals(100, unique.size());
+    Assert.assertEquals(10, (int) Collections.min(unique));
+    Assert.assertEquals(109, (int) Collections.max(unique));
+
+    // facts are written in ID order
+    StringWriter writer = new StringWriter();
+    table.write(writer);
+    String[] lines = writer.toString().split(System.lineSeparator());
+    Assert.assertEquals(101, lines.length);
+    for (int i = 1; i < lines.length; i++) {
+      Assert.assertTrue(lines[i].startsWith((i + 9) + ","));
+    }
+  }
 }
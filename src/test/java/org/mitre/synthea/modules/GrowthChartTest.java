@@ -3,6 +3,7 @@ package org.mitre.synthea.modules;
 import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
+import org.mitre.synthea.world.concepts.GrowthChart;
 
 public class GrowthChartTest {
   @Test
@@ -58,4 +59,12 @@ public class GrowthChartTest {
     double height = LifecycleModule.lookupGrowthChart("height", "M", 20, 1.0);
     assertEquals(94.95447906, height, 0.01);
   }
+
+  @Test
+  public void testGrowthChartIndexedLookup() throws Exception {
+    double height = GrowthChart.lookup(GrowthChart.HEIGHT, GrowthChart.MALE, 20, 0.5);
+    assertEquals(84.24783394, height, 0.01);
+    double weight = GrowthChart.lookup(GrowthChart.chart("weight"), GrowthChart.sex("F"), 20, 0.5);
+    assertEquals(LifecycleModule.lookupGrowthChart("weight", "F", 20, 0.5), weight, 0.0);
+  }
 }
@@ -3,6 +3,11 @@ package org.mitre.synthea.modules;
 import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
+import org.mitre.synthea.engine.Event;
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
 
 public class ImmunizationsTest {
 
@@ -18,4 +23,28 @@ public class ImmunizationsTest {
     int doses = Immunizations.getMaximumDoses(null);
     assertEquals(1, doses);
   }
+
+  @Test
+  public void testHepBSeries() {
+    Person person = new Person(0L);
+    long birthTime = Utilities.convertCalendarYearsToTime(2000);
+    person.attributes.put(Person.BIRTHDATE, birthTime);
+    person.events.create(birthTime, Event.BIRTH, "ImmunizationsTest", true);
+
+    // hepb is recommended at 0, 1 and 6 months
+    int[] expectedSeries = { 1, 2, -1, 3 };
+    int[] encounterMonths = { 0, 1, 3, 6 };
+    for (int i = 0; i < encounterMonths.length; i++) {
+      long time = birthTime + Utilities.convertTime("days", 31 * encounterMonths[i]);
+      person.record.encounterStart(time, EncounterType.WELLNESS);
+      Immunizations.performEncounter(person, time);
+      int series = -1;
+      for (HealthRecord.Immunization imm : person.record.currentEncounter(time).immunizations) {
+        if (imm.codes.get(0).code.equals("08")) {
+          series = imm.series;
+        }
+      }
+      assertEquals(expectedSeries[i], series);
+    }
+  }
 }
@@ -3,6 +3,8 @@ package org.mitre.synthea.modules;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -11,6 +13,7 @@ import org.junit.Test;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord.Code;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
 import org.mitre.synthea.world.concepts.HealthRecord.Entry;
 
 //test calculate, conditionsInYear, weight
@@ -120,6 +123,79 @@ public class QualityOfLifeTest {
     assertEquals("Diabetes", conditionsYear30.get(0).name);
   }
 
+  @Test
+  public void testIncrementalCalculation() {
+    // same timeline as init(), but the conditions start and end as the simulation runs,
+    // with a new encounter every month
+    Person incremental = new Person(0);
+    incremental.events.create(0, "birth", "QualityOfLifeTest", true);
+    incremental.attributes.put("birthdate", 0L);
+    QualityOfLifeModule module = new QualityOfLifeModule();
+
+    long add = TimeUnit.DAYS.toMillis((long) (365.25 * 10));
+    long addEnd = TimeUnit.DAYS.toMillis((long) (365.25 * 15));
+    long diabetes = TimeUnit.DAYS.toMillis((long) (365.25 * 20));
+    long asthmaEnd = TimeUnit.DAYS.toMillis((long) (365.25 * 25));
+    long step = TimeUnit.DAYS.toMillis(7);
+    int checked = 0;
+
+    for (long time = 0; time <= TimeUnit.DAYS.toMillis(stopTime); time += step) {
+      if (time % TimeUnit.DAYS.toMillis(28) == 0) {
+        incremental.record.encounterStart(time, EncounterType.WELLNESS);
+      }
+      if (time >= add && time - step < add) {
+        incremental.record.conditionStart(time, "192127007").codes
+            .add(new Code("SNOMED", "192127007", "Child attention deficit disorder"));
+        incremental.record.conditionStart(time, "195967001").codes
+            .add(new Code("SNOMED", "195967001", "Asthma"));
+      } else if (time >= addEnd && time - step < addEnd) {
+        incremental.record.conditionEnd(time, "192127007");
+      } else if (time >= diabetes && time - step < diabetes) {
+        incremental.record.conditionStart(time, "44054006").codes
+            .add(new Code("SNOMED", "4405400", "Diabetes"));
+      } else if (time >= asthmaEnd && time - step < asthmaEnd) {
+        incremental.record.conditionEnd(time, "195967001");
+      }
+
+      Object before = incremental.attributes.get("most-recent-daly");
+      module.process(incremental, time);
+      if (incremental.attributes.get("most-recent-daly") != before) {
+        double[] expected = QualityOfLifeModule.calculate(incremental, time);
+        assertEquals(expected[0], (double) incremental.attributes.get("most-recent-daly"), 0.0);
+        assertEquals(expected[1], (double) incremental.attributes.get("most-recent-qaly"), 0.0);
+        checked++;
+      }
+    }
+    assertEquals(35, checked);
+  }
+
+  @Test
+  public void testConditionAddedToEarlierEncounter() {
+    Person incremental = new Person(0);
+    incremental.events.create(0, "birth", "QualityOfLifeTest", true);
+    incremental.attributes.put("birthdate", 0L);
+    QualityOfLifeModule module = new QualityOfLifeModule();
+    long year = TimeUnit.DAYS.toMillis(365);
+
+    for (long time = 0; time <= 20 * year; time += year) {
+      incremental.record.encounterStart(time, EncounterType.WELLNESS);
+      if (time == 10 * year) {
+        // a condition that started years ago, recorded against the first encounter
+        Entry asthma = incremental.record.conditionStart(2 * year, "195967001");
+        asthma.codes.add(new Code("SNOMED", "195967001", "Asthma"));
+        List<Entry> current = incremental.record.currentEncounter(time).conditions;
+        current.remove(asthma);
+        incremental.record.encounters.get(0).conditions.add(asthma);
+      }
+      module.process(incremental, time);
+      double[] expected = QualityOfLifeModule.calculate(incremental, time);
+      assertEquals(expected[0], (double) incremental.attributes.get("most-recent-daly"), 0.0);
+    }
+    // the running calculation is not kept in the person's attributes
+    assertEquals(new HashSet<String>(Arrays.asList("birthdate", "QALY", "DALY", "QOL",
+        "most-recent-daly", "most-recent-qaly")), incremental.attributes.keySet());
+  }
+
   @Test
   public void testWeight() {
     // age 15 with disability weight of 0.45
@@ -1,17 +1,20 @@
 package org.mitre.synthea.modules;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mitre.synthea.engine.Event;
+import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.ConstantValueGenerator;
 import org.mitre.synthea.helpers.TrendingValueGenerator;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.helpers.ValueGenerator;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.VitalSign;
 
 public class VitalsValueGeneratorTest {
   private Person person;
@@ -81,4 +84,58 @@ public class VitalsValueGeneratorTest {
       System.out.println("Value @ " + time + ": " + testValue);
     }
   }
+
+  @Test
+  public void testMetabolicValueGenerator() {
+    person.attributes.put(Person.GENDER, "F");
+    person.setVitalSign(VitalSign.WEIGHT, 70.0);
+    person.setVitalSign(VitalSign.BMI, 25.0);
+    MetabolicValueGenerator.setup(person);
+
+    // values are stable within a time step
+    double cholesterol = person.getVitalSign(VitalSign.TOTAL_CHOLESTEROL, time);
+    assertEquals(cholesterol, person.getVitalSign(VitalSign.TOTAL_CHOLESTEROL, time), 0.0);
+    assertTrue(cholesterol >= 160 && cholesterol <= 200);
+    double ldl = person.getVitalSign(VitalSign.TOTAL_CHOLESTEROL, time)
+        - person.getVitalSign(VitalSign.HDL, time)
+        - (0.2 * person.getVitalSign(VitalSign.TRIGLYCERIDES, time));
+    assertEquals(ldl, person.getVitalSign(VitalSign.LDL, time), 0.0001);
+
+    // and recalculated when an input changes
+    person.attributes.put("diabetes_severity", 4);
+    cholesterol = person.getVitalSign(VitalSign.TOTAL_CHOLESTEROL, time);
+    assertTrue(cholesterol >= 279 && cholesterol <= 300);
+    double hbA1c = person.getVitalSign(VitalSign.BLOOD_GLUCOSE, time);
+    assertTrue(hbA1c >= 5.0 && hbA1c <= 5.7);
+    person.attributes.put("diabetes", true);
+    assertEquals(6.6, person.getVitalSign(VitalSign.BLOOD_GLUCOSE, time), 0.0);
+
+    // a generator replaced by a module is restored
+    person.setVitalSign(VitalSign.EGFR, 1.0);
+    MetabolicValueGenerator.setup(person);
+    assertNotEquals(1.0, person.getVitalSign(VitalSign.EGFR, time), 0.0);
+  }
+
+  @Test
+  public void testEagerMetabolicValueGenerator() {
+    Config.set("lifecycle.lazy_lab_values", "false");
+    try {
+      person.attributes.put(Person.GENDER, "F");
+      person.setVitalSign(VitalSign.WEIGHT, 70.0);
+      person.setVitalSign(VitalSign.BMI, 25.0);
+      MetabolicValueGenerator.setup(person);
+      MetabolicValueGenerator.calculate(person, time);
+
+      // values only change when calculated again, as before lab values were lazy
+      double cholesterol = person.getVitalSign(VitalSign.TOTAL_CHOLESTEROL, time);
+      person.attributes.put("diabetes_severity", 4);
+      assertEquals(cholesterol,
+          person.getVitalSign(VitalSign.TOTAL_CHOLESTEROL, time + ONE_DAY), 0.0);
+      MetabolicValueGenerator.calculate(person, time + ONE_DAY);
+      cholesterol = person.getVitalSign(VitalSign.TOTAL_CHOLESTEROL, time + ONE_DAY);
+      assertTrue(cholesterol >= 279 && cholesterol <= 300);
+    } finally {
+      Config.set("lifecycle.lazy_lab_values", "true");
+    }
+  }
 }
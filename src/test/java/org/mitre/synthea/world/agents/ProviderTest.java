@@ -5,6 +5,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -71,6 +72,23 @@ public class ProviderTest {
     }
   }
 
+  @Test
+  public void testUtilizedProviders() {
+    Provider.loadProviders(city);
+    Assert.assertTrue(Provider.getUtilizedProviders().isEmpty());
+    Provider first = Provider.getProviderList().get(0);
+    Provider second = Provider.getProviderList().get(1);
+    second.incrementEncounters(EncounterType.WELLNESS, 2000);
+    second.incrementProcedures(2000);
+    first.incrementEncounters(EncounterType.WELLNESS, 2000);
+    first.incrementEncounters(EncounterType.WELLNESS, 2001);
+    // in the order the providers were loaded, not the order they were first used
+    Assert.assertEquals(Arrays.asList(first, second),
+        new ArrayList<>(Provider.getUtilizedProviders()));
+    Provider.clear();
+    Assert.assertTrue(Provider.getUtilizedProviders().isEmpty());
+  }
+
   @Test
   public void testNearestInpatientInState() {
     Provider.loadProviders(location);